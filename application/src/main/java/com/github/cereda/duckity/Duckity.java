@@ -34,14 +34,35 @@
 package com.github.cereda.duckity;
 
 import com.github.cereda.duckity.utils.CommandLineAnalyzer;
+import com.github.cereda.duckity.utils.DatasourceCache;
 import com.github.cereda.duckity.utils.DatasourceExtractor;
 import com.github.cereda.duckity.utils.DuckityException;
 import com.github.cereda.duckity.utils.FileLoader;
 import com.github.cereda.duckity.utils.FileParser;
+import com.github.cereda.duckity.utils.FileWatcher;
+import com.github.cereda.duckity.utils.OutputFingerprints;
+import com.github.cereda.duckity.utils.PartitionMapping;
 import com.github.cereda.duckity.utils.ReaderMapping;
+import com.github.cereda.duckity.utils.RenderClient;
+import com.github.cereda.duckity.utils.RenderServer;
+import com.github.cereda.duckity.utils.RenderStatistics;
+import com.github.cereda.duckity.utils.RunStatistics;
+import com.github.cereda.duckity.utils.TemplateCache;
 import com.github.cereda.duckity.utils.TemplateManager;
+import java.io.File;
+import java.io.PrintStream;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
 import org.apache.commons.lang.WordUtils;
 
 /**
@@ -67,51 +88,451 @@ public class Duckity {
             CommandLineAnalyzer analyzer = new CommandLineAnalyzer(args);
             if (analyzer.parse()) {
 
-                FileParser parser = new FileParser();
-                parser.load(analyzer.getInput());
+                if (analyzer.isServe()) {
+                    serve(analyzer.getPort());
+                } else {
+                    Integer forwarded = null;
+                    if (analyzer.getPort() != 0) {
+                        RenderClient client = new RenderClient(
+                                analyzer.getPort());
+                        forwarded = client.forward(args, System.out);
+                        if (forwarded == null) {
+                            System.out.println(client.getReason().concat(
+                                    ", rendering here."));
+                        }
+                    }
+                    if (forwarded != null) {
+                        status = forwarded;
+                    } else if (analyzer.isWatch()) {
+                        watch(analyzer);
+                    } else {
+                        status = run(analyzer, null, System.out);
+                    }
+                }
+            }
+        } catch (DuckityException duckityException) {
+            printError(duckityException, System.out);
+            status = 1;
+        }
+
+        System.exit(status);
 
-                List<ReaderMapping> mapping;
+    }
 
-                if (!parser.isRaw()) {
-                    DatasourceExtractor extractor = new DatasourceExtractor();
-                    extractor.parse(parser.getHeader());
-                    mapping = extractor.getMapping();
-                } else {
-                    mapping = new ArrayList<ReaderMapping>();
+    /**
+     * Serves renders sent by clients until the process is stopped. Every
+     * render shares the same datasource cache, on top of the template
+     * cache the process already has.
+     *
+     * @param port The port to listen on.
+     * @throws DuckityException Exception is thrown if the port cannot be
+     * opened.
+     */
+    private static void serve(int port) throws DuckityException {
+        TemplateManager.initialize();
+        final DatasourceCache cache = new DatasourceCache();
+        new RenderServer(port, new RenderServer.Handler() {
+            public int handle(String[] arguments, PrintStream out) {
+                try {
+                    CommandLineAnalyzer analyzer = new CommandLineAnalyzer(
+                            arguments, out);
+                    if (!analyzer.parse()) {
+                        return 0;
+                    }
+                    if (analyzer.isServe()) {
+                        throw new DuckityException("A client cannot start "
+                                + "another server.");
+                    }
+                    return run(analyzer, cache, out);
+                } catch (DuckityException duckityException) {
+                    printError(duckityException, out);
+                    return 1;
+                }
+            }
+        }).serve();
+    }
+
+    /**
+     * Renders the files and then renders them again whenever their
+     * templates or datasources change, until the process is stopped. Only
+     * the files depending on a changed file are rendered again; the caches
+     * make sure only the changed datasources are loaded and only changed
+     * templates are parsed. Each round of renders writes its own report,
+     * if any, and a failure to write it, or the manifest, is reported
+     * without stopping the watch.
+     *
+     * @param analyzer The command line analyzer.
+     * @throws DuckityException Exception is thrown if the files cannot be
+     * watched.
+     */
+    private static void watch(CommandLineAnalyzer analyzer)
+            throws DuckityException {
+        DatasourceCache cache = new DatasourceCache();
+        FileWatcher watcher = new FileWatcher();
+        Map<String, Set<String>> dependencies =
+                new HashMap<String, Set<String>>();
+        try {
+            run(analyzer, cache, System.out);
+        } catch (DuckityException duckityException) {
+            printError(duckityException, System.out);
+        }
+        for (String input : analyzer.getInputs()) {
+            dependencies.put(input, watch(watcher, input, analyzer));
+        }
+        System.out.println("Watching for changes.");
+
+        while (true) {
+            Set<String> changed;
+            try {
+                changed = watcher.await();
+            } catch (InterruptedException nothandled) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            RunStatistics statistics = new RunStatistics(
+                    analyzer.getStatistics() != null);
+            for (String input : analyzer.getInputs()) {
+                if (Collections.disjoint(dependencies.get(input), changed)) {
+                    continue;
+                }
+                try {
+                    System.out.println((render(input, analyzer.getOutput(),
+                            analyzer, cache, statistics.add(input))
+                            ? "Done: " : "Up to date: ").concat(input));
+                } catch (DuckityException duckityException) {
+                    System.out.println("Failed: ".concat(input));
+                    printError(duckityException, System.out);
                 }
+                // the header may now name other datasources
+                dependencies.put(input, watch(watcher, input, analyzer));
+            }
+            try {
+                if (analyzer.getFingerprints() != null) {
+                    analyzer.getFingerprints().write();
+                }
+            } catch (DuckityException duckityException) {
+                printError(duckityException, System.out);
+            }
+            try {
+                if (analyzer.getStatistics() != null) {
+                    statistics.write(analyzer.getStatistics(), System.out);
+                }
+            } catch (DuckityException duckityException) {
+                printError(duckityException, System.out);
+            }
+        }
+    }
+
+    /**
+     * Watches the files a render depends on: the input file and every
+     * datasource it uses. Datasources are only known while the header
+     * can be parsed.
+     *
+     * @param watcher The file watcher.
+     * @param input The input file name.
+     * @param analyzer The command line analyzer.
+     * @return The canonical paths of the files.
+     * @throws DuckityException Exception is thrown if a file cannot be
+     * watched.
+     */
+    private static Set<String> watch(FileWatcher watcher, String input,
+            CommandLineAnalyzer analyzer) throws DuckityException {
+        Set<String> files = new HashSet<String>();
+        files.add(watcher.watch(input));
+        List<ReaderMapping> mapping = new ArrayList<ReaderMapping>(
+                analyzer.getMappings());
+        try {
+            FileParser parser = new FileParser();
+            parser.load(input);
+            if (!parser.isRaw()) {
+                DatasourceExtractor extractor = new DatasourceExtractor();
+                extractor.parse(parser.getHeader());
+                mapping.addAll(extractor.getMapping());
+            }
+        } catch (DuckityException nothandled) {
+            // reported by the render
+        }
+        for (ReaderMapping rm : mapping) {
+            files.add(watcher.watch(rm.getFile()));
+        }
+        return files;
+    }
+
+    /**
+     * Renders the files set in the command line.
+     *
+     * @param analyzer The command line analyzer.
+     * @param cache The datasource cache, or null if there is none.
+     * @param out The stream messages are printed to.
+     * @return The exit status.
+     * @throws DuckityException Exception is thrown if something bad
+     * happened while rendering a single file.
+     */
+    private static int run(CommandLineAnalyzer analyzer,
+            DatasourceCache cache, PrintStream out) throws DuckityException {
+        int status = 0;
+        TemplateManager.warmUp();
+        RunStatistics statistics = new RunStatistics(
+                analyzer.getStatistics() != null);
+        try {
+            if (analyzer.isBatch()) {
+                status = batch(analyzer, cache == null
+                        ? new DatasourceCache() : cache, statistics, out);
+            } else {
+                out.println(render(analyzer.getInput(),
+                        analyzer.getOutput(), analyzer, cache,
+                        statistics.add(analyzer.getInput()))
+                        ? "Done." : "Up to date.");
+            }
+        } finally {
+            try {
+                if (analyzer.getFingerprints() != null) {
+                    analyzer.getFingerprints().write();
+                }
+            } finally {
+                if (analyzer.getStatistics() != null) {
+                    statistics.write(analyzer.getStatistics(), out);
+                }
+            }
+        }
+        return status;
+    }
 
-                mapping.addAll(analyzer.getMappings());
+    /**
+     * Renders every input file in the same run, sharing the parsed
+     * templates and datasources. Files are rendered on a pool of workers
+     * when more than one job is set, but results are always reported in
+     * input order. A failing file does not stop the others. Outputs are
+     * named after their inputs and written to the working directory, so
+     * inputs which would share an output are refused before anything is
+     * rendered.
+     *
+     * @param analyzer The command line analyzer.
+     * @param cache The datasource cache.
+     * @param statistics The run statistics.
+     * @param out The stream messages are printed to.
+     * @return The exit status.
+     * @throws DuckityException Exception is thrown if two inputs would be
+     * rendered to the same output.
+     */
+    static int batch(final CommandLineAnalyzer analyzer,
+            final DatasourceCache cache, RunStatistics statistics,
+            PrintStream out) throws DuckityException {
+        int status = 0;
+        int done = 0;
+        List<String> inputs = analyzer.getInputs();
+        Map<String, String> outputs = new HashMap<String, String>();
+        for (String input : inputs) {
+            String output = TemplateManager.getDefaultOutput(input);
+            String other = outputs.put(new File(output).getAbsolutePath(),
+                    input);
+            if (other != null) {
+                throw new DuckityException("Both '".concat(other).concat(
+                        "' and '").concat(input).concat("' would be "
+                        + "rendered to '").concat(output).concat("'."));
+            }
+        }
+        List<FutureTask<Boolean>> tasks = new ArrayList<FutureTask<Boolean>>();
+        for (final String input : inputs) {
+            final RenderStatistics record = statistics.add(input);
+            tasks.add(new FutureTask<Boolean>(new Callable<Boolean>() {
+                public Boolean call() throws DuckityException {
+                    return render(input, null, analyzer, cache, record);
+                }
+            }));
+        }
 
-                FileLoader loader = new FileLoader(mapping);
-                loader.load();
-                TemplateManager manager = new TemplateManager(
-                        analyzer.getInput(),
-                        loader.getContent(),
-                        parser.getTemplate()
-                );
+        ExecutorService executor = null;
+        if ((analyzer.getJobs() > 1) && (inputs.size() > 1)) {
+            TemplateManager.initialize();
+            executor = Executors.newFixedThreadPool(Math.min(
+                    analyzer.getJobs(), inputs.size()));
+            for (FutureTask<Boolean> task : tasks) {
+                executor.execute(task);
+            }
+        }
 
-                if (analyzer.getOutput() != null) {
-                    manager.setOutput(analyzer.getOutput());
+        for (int i = 0; i < inputs.size(); i++) {
+            FutureTask<Boolean> task = tasks.get(i);
+            if (executor == null) {
+                task.run();
+            }
+            try {
+                out.println((task.get() ? "Done: " : "Up to date: ").
+                        concat(inputs.get(i)));
+                done++;
+            } catch (InterruptedException nothandled) {
+                Thread.currentThread().interrupt();
+                out.println("Failed: ".concat(inputs.get(i)));
+                status = 1;
+            } catch (ExecutionException exception) {
+                out.println("Failed: ".concat(inputs.get(i)));
+                if (exception.getCause() instanceof DuckityException) {
+                    printError((DuckityException) exception.getCause(), out);
+                } else {
+                    printError(new DuckityException(String.valueOf(
+                            exception.getCause().getMessage())), out);
                 }
+                status = 1;
+            }
+        }
+
+        if (executor != null) {
+            executor.shutdown();
+        }
+
+        out.println(String.valueOf(done).concat(" of ").concat(
+                String.valueOf(inputs.size())).concat(" file(s) rendered."));
+        out.println(TemplateCache.getInstance().getStatistics());
+        out.println(cache.getStatistics());
+        return status;
+    }
+
+    /**
+     * Renders a single file, unless the fingerprint manifest tells its
+     * output is up to date.
+     *
+     * @param input The input file name.
+     * @param output The output file name, or null for the default one.
+     * @param analyzer The command line analyzer.
+     * @param cache The datasource cache, or null if there is none.
+     * @param record The render statistics.
+     * @return A boolean value indicating if the file was rendered.
+     * @throws DuckityException Exception is thrown if something bad
+     * happened while rendering.
+     */
+    static boolean render(String input, String output,
+            CommandLineAnalyzer analyzer, DatasourceCache cache,
+            RenderStatistics record) throws DuckityException {
+
+        try {
+            long[] mark = record.begin();
+            FileParser parser = new FileParser();
+            parser.load(input);
+            record.end("parse", mark, new File(input).length());
+
+            List<ReaderMapping> mapping;
+            PartitionMapping partition = null;
 
-                manager.generate();
-                System.out.println("Done.");
+            if (!parser.isRaw()) {
+                mark = record.begin();
+                DatasourceExtractor extractor = new DatasourceExtractor();
+                extractor.parse(parser.getHeader());
+                mapping = extractor.getMapping();
+                partition = extractor.getPartition();
+                record.end("extract", mark, parser.getHeader().length());
+            } else {
+                mapping = new ArrayList<ReaderMapping>();
             }
-        } catch (DuckityException duckityException) {
-            System.out.println(
-                    WordUtils.wrap(
-                            duckityException.getMessage(),
-                            60,
-                            "\n",
-                            true
-                    )
+
+            mapping.addAll(analyzer.getMappings());
+
+            FileLoader loader = new FileLoader(mapping);
+            TemplateManager manager = new TemplateManager(
+                    input,
+                    loader.getContent(),
+                    parser.getTemplate()
             );
 
-            status = 1;
-        }
+            if (partition != null) {
+                manager.setPartition(partition);
+            }
+            if (output != null) {
+                manager.setOutput(output);
+            }
+            manager.setCharset(analyzer.getEncoding());
 
-        System.exit(status);
+            // datasources the template does not refer to are neither read
+            // nor fingerprinted, unless it turns out to use them after all
+            mark = record.begin();
+            Set<String> identifiers = new HashSet<String>();
+            for (ReaderMapping rm : mapping) {
+                identifiers.add(rm.getIdentifier());
+            }
+            Set<String> references = manager.getReferences(identifiers);
+            if ((references != null) && (partition != null)) {
+                references.add(partition.getIdentifier());
+            }
+            List<ReaderMapping> used = mapping;
+            if (references != null) {
+                used = new ArrayList<ReaderMapping>();
+                for (ReaderMapping rm : mapping) {
+                    if (references.contains(rm.getIdentifier())) {
+                        used.add(rm);
+                    }
+                }
+            }
+            record.end("references", mark, parser.getTemplate().length());
+
+            long bytes = 0;
+            for (ReaderMapping rm : used) {
+                bytes = bytes + new File(rm.getFile()).length();
+            }
+
+            // partitioned outputs are too many to stamp, and templates
+            // which may read files the fingerprint does not cover, through
+            // #parse, #include or macros of a library, cannot be trusted
+            // to be current; they are always rendered and only rewritten
+            // when their bytes change
+            OutputFingerprints fingerprints = (partition == null)
+                    && (references != null)
+                    ? analyzer.getFingerprints() : null;
+            String fingerprint = null;
+            if (fingerprints != null) {
+                mark = record.begin();
+                fingerprint = fingerprints.compute(input, used,
+                        manager.getOutput(), analyzer.getEncoding());
+                record.end("fingerprint", mark, bytes);
+                if (fingerprints.isCurrent(input, manager.getOutput(),
+                        fingerprint)) {
+                    record.finish(manager.getOutput(), null);
+                    return false;
+                }
+            }
 
+            mark = record.begin();
+            loader.setCache(cache);
+            loader.setStatistics(record);
+            loader.setSnapshots(analyzer.getSnapshots());
+            loader.setReferences(references);
+            loader.load();
+            record.end("load", mark, bytes);
+
+            mark = record.begin();
+            manager.generate();
+            bytes = 0;
+            for (String file : manager.getOutputs()) {
+                bytes = bytes + new File(file).length();
+            }
+            record.end("generate", mark, bytes);
+            if ((fingerprints != null)
+                    && (loader.getContent().getLateReads() == 0)) {
+                fingerprints.record(input, manager.getOutput(), fingerprint);
+            }
+            record.finish(manager.getOutput(), null);
+            return true;
+        } catch (DuckityException exception) {
+            record.finish(null, exception.getMessage());
+            throw exception;
+        }
+    }
+
+    /**
+     * Prints the error message.
+     *
+     * @param duckityException The exception.
+     * @param out The stream the message is printed to.
+     */
+    private static void printError(DuckityException duckityException,
+            PrintStream out) {
+        out.println(
+                WordUtils.wrap(
+                        duckityException.getMessage(),
+                        60,
+                        "\n",
+                        true
+                )
+        );
     }
 
     /**
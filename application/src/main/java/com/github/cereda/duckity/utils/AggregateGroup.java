@@ -0,0 +1,220 @@
+/**
+ * Duckity -- The template helper
+ * Copyright (c) 2012, Paulo Roberto Massa Cereda
+ * All rights reserved.
+ *
+ * Redistribution and  use in source  and binary forms, with  or without
+ * modification, are  permitted provided  that the  following conditions
+ * are met:
+ *
+ * 1. Redistributions  of source  code must  retain the  above copyright
+ * notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form  must reproduce the above copyright
+ * notice, this list  of conditions and the following  disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * 3. Neither  the name  of the  project's author nor  the names  of its
+ * contributors may be used to  endorse or promote products derived from
+ * this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS  PROVIDED BY THE COPYRIGHT  HOLDERS AND CONTRIBUTORS
+ * "AS IS"  AND ANY  EXPRESS OR IMPLIED  WARRANTIES, INCLUDING,  BUT NOT
+ * LIMITED  TO, THE  IMPLIED WARRANTIES  OF MERCHANTABILITY  AND FITNESS
+ * FOR  A PARTICULAR  PURPOSE  ARE  DISCLAIMED. IN  NO  EVENT SHALL  THE
+ * COPYRIGHT HOLDER OR CONTRIBUTORS BE  LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY,  OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT  NOT LIMITED  TO, PROCUREMENT  OF SUBSTITUTE  GOODS OR  SERVICES;
+ * LOSS  OF USE,  DATA, OR  PROFITS; OR  BUSINESS INTERRUPTION)  HOWEVER
+ * CAUSED AND  ON ANY THEORY  OF LIABILITY, WHETHER IN  CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY
+ * WAY  OUT  OF  THE USE  OF  THIS  SOFTWARE,  EVEN  IF ADVISED  OF  THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.github.cereda.duckity.utils;
+
+/**
+ * Holds the aggregates of a group of rows: how many rows there are, and
+ * the sum, minimum, maximum and average of the numeric values of the
+ * aggregated column. Empty values are not counted as values. When every
+ * value is an integer, sums and extremes are integers too.
+ *
+ * @author Paulo Roberto Massa Cereda
+ * @version 1.1
+ * @since 1.1
+ */
+public class AggregateGroup {
+
+    private static final double EXACT = 9007199254740992.0;
+
+    private final Object key;
+    private long count;
+    private long values;
+    private double sum;
+    private double min;
+    private double max;
+    private boolean integral;
+
+    /**
+     * Constructor.
+     *
+     * @param key The group key, as found in the first row of the group.
+     */
+    AggregateGroup(Object key) {
+        this.key = key;
+        count = 0;
+        values = 0;
+        sum = 0;
+        min = Double.POSITIVE_INFINITY;
+        max = Double.NEGATIVE_INFINITY;
+        integral = true;
+    }
+
+    /**
+     * Adds a row.
+     *
+     * @param value The value, or null if the row has none.
+     */
+    void add(Object value) {
+        count++;
+        if (value == null) {
+            return;
+        }
+        double number;
+        if (value instanceof Number) {
+            number = ((Number) value).doubleValue();
+            integral = integral && ((value instanceof Integer)
+                    || (value instanceof Long) || (value instanceof Short)
+                    || (value instanceof Byte));
+        } else {
+            String text = value.toString().trim();
+            if (text.length() == 0) {
+                return;
+            }
+            try {
+                number = NumberParser.parseDouble(text);
+            } catch (NumberFormatException nothandled) {
+                throw new IllegalArgumentException("The value '".concat(
+                        text).concat("' is not a number."));
+            }
+            integral = integral && isInteger(text);
+        }
+        values++;
+        sum = sum + number;
+        min = Math.min(min, number);
+        max = Math.max(max, number);
+    }
+
+    /**
+     * Merges the aggregates of the same group computed elsewhere.
+     *
+     * @param other The other aggregates.
+     */
+    void merge(AggregateGroup other) {
+        count = count + other.count;
+        values = values + other.values;
+        sum = sum + other.sum;
+        min = Math.min(min, other.min);
+        max = Math.max(max, other.max);
+        integral = integral && other.integral;
+    }
+
+    /**
+     * Gets the group key.
+     *
+     * @return The key.
+     */
+    public Object getKey() {
+        return key;
+    }
+
+    /**
+     * Gets the number of rows.
+     *
+     * @return The number of rows.
+     */
+    public long getCount() {
+        return count;
+    }
+
+    /**
+     * Gets the number of numeric values.
+     *
+     * @return The number of values.
+     */
+    public long getValues() {
+        return values;
+    }
+
+    /**
+     * Gets the sum of the values.
+     *
+     * @return The sum, or null if there are no values.
+     */
+    public Number getSum() {
+        return toNumber(sum);
+    }
+
+    /**
+     * Gets the smallest value.
+     *
+     * @return The smallest value, or null if there are no values.
+     */
+    public Number getMin() {
+        return toNumber(min);
+    }
+
+    /**
+     * Gets the largest value.
+     *
+     * @return The largest value, or null if there are no values.
+     */
+    public Number getMax() {
+        return toNumber(max);
+    }
+
+    /**
+     * Gets the average of the values.
+     *
+     * @return The average, or null if there are no values.
+     */
+    public Double getAverage() {
+        return values == 0 ? null : sum / values;
+    }
+
+    /**
+     * Converts an aggregate to the type of the values.
+     *
+     * @param number The aggregate.
+     * @return The aggregate, or null if there are no values.
+     */
+    private Number toNumber(double number) {
+        if (values == 0) {
+            return null;
+        }
+        if (integral && (Math.abs(number) < EXACT)) {
+            return (long) number;
+        }
+        return number;
+    }
+
+    /**
+     * Checks if a text is a plain integer.
+     *
+     * @param text The text.
+     * @return A boolean value indicating if the text is an integer.
+     */
+    private static boolean isInteger(String text) {
+        int start = (text.charAt(0) == '-') || (text.charAt(0) == '+')
+                ? 1 : 0;
+        if (start == text.length()) {
+            return false;
+        }
+        for (int i = start; i < text.length(); i++) {
+            if ((text.charAt(i) < '0') || (text.charAt(i) > '9')) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,249 @@
+/**
+ * Duckity -- The template helper
+ * Copyright (c) 2012, Paulo Roberto Massa Cereda
+ * All rights reserved.
+ *
+ * Redistribution and  use in source  and binary forms, with  or without
+ * modification, are  permitted provided  that the  following conditions
+ * are met:
+ *
+ * 1. Redistributions  of source  code must  retain the  above copyright
+ * notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form  must reproduce the above copyright
+ * notice, this list  of conditions and the following  disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * 3. Neither  the name  of the  project's author nor  the names  of its
+ * contributors may be used to  endorse or promote products derived from
+ * this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS  PROVIDED BY THE COPYRIGHT  HOLDERS AND CONTRIBUTORS
+ * "AS IS"  AND ANY  EXPRESS OR IMPLIED  WARRANTIES, INCLUDING,  BUT NOT
+ * LIMITED  TO, THE  IMPLIED WARRANTIES  OF MERCHANTABILITY  AND FITNESS
+ * FOR  A PARTICULAR  PURPOSE  ARE  DISCLAIMED. IN  NO  EVENT SHALL  THE
+ * COPYRIGHT HOLDER OR CONTRIBUTORS BE  LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY,  OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT  NOT LIMITED  TO, PROCUREMENT  OF SUBSTITUTE  GOODS OR  SERVICES;
+ * LOSS  OF USE,  DATA, OR  PROFITS; OR  BUSINESS INTERRUPTION)  HOWEVER
+ * CAUSED AND  ON ANY THEORY  OF LIABILITY, WHETHER IN  CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY
+ * WAY  OUT  OF  THE USE  OF  THIS  SOFTWARE,  EVEN  IF ADVISED  OF  THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.github.cereda.duckity.utils;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.RandomAccess;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Computes group-by aggregations over the loaded datasources in Java, so
+ * templates iterate over a handful of results instead of accumulating
+ * values row by row, as in
+ * <code>#foreach($g in $aggregate.group("sales", "region", "amount"))</code>.
+ * Large datasources are split into ranges aggregated in parallel; groups
+ * always come out in the order their keys first appear. Keys are compared
+ * as strings, like in the index tool. Streamed datasources are aggregated
+ * in a single pass, which consumes them.
+ *
+ * @author Paulo Roberto Massa Cereda
+ * @version 1.1
+ * @since 1.1
+ */
+public class AggregateTool {
+
+    private static final int THRESHOLD = 32768;
+
+    private final Map<?, ?> content;
+
+    /**
+     * Constructor.
+     *
+     * @param content The loaded datasources.
+     */
+    public AggregateTool(Map<?, ?> content) {
+        this.content = content;
+    }
+
+    /**
+     * Counts the rows of each group.
+     *
+     * @param identifier The datasource identifier.
+     * @param key The key column, by position or by name.
+     * @return The groups.
+     */
+    public List<AggregateGroup> group(String identifier, Object key) {
+        return group(identifier, key, null);
+    }
+
+    /**
+     * Aggregates a column for each group.
+     *
+     * @param identifier The datasource identifier.
+     * @param key The key column, by position or by name.
+     * @param value The aggregated column, by position or by name.
+     * @return The groups.
+     */
+    public List<AggregateGroup> group(String identifier, Object key,
+            Object value) {
+        return new ArrayList<AggregateGroup>(
+                aggregate(identifier, key, value).values());
+    }
+
+    /**
+     * Aggregates a column over the whole datasource.
+     *
+     * @param identifier The datasource identifier.
+     * @param value The aggregated column, by position or by name.
+     * @return The totals.
+     */
+    public AggregateGroup total(String identifier, Object value) {
+        Map<String, AggregateGroup> groups = aggregate(identifier, null,
+                value);
+        return groups.isEmpty() ? new AggregateGroup(null)
+                : groups.values().iterator().next();
+    }
+
+    /**
+     * Aggregates a datasource.
+     *
+     * @param identifier The datasource identifier.
+     * @param key The key column, or null for a single group.
+     * @param value The aggregated column, or null to count only.
+     * @return The groups, by key.
+     */
+    private Map<String, AggregateGroup> aggregate(String identifier,
+            Object key, Object value) {
+        Object datasource = content.get(identifier);
+        if (datasource == null) {
+            throw new IllegalArgumentException("There is no "
+                    + "datasource '".concat(identifier).concat("'."));
+        }
+        if ((datasource instanceof List)
+                && (datasource instanceof RandomAccess)) {
+            List<?> rows = (List<?>) datasource;
+            if (rows.size() > 2 * THRESHOLD) {
+                return SharedPool.get().invoke(
+                        new Task(rows, key, value, 0, rows.size()));
+            }
+            return aggregate(rows, key, value, 0, rows.size());
+        }
+        if (datasource instanceof Iterable) {
+            Map<String, AggregateGroup> groups =
+                    new LinkedHashMap<String, AggregateGroup>();
+            for (Object row : (Iterable<?>) datasource) {
+                add(groups, row, key, value);
+            }
+            return groups;
+        }
+        throw new IllegalArgumentException("The datasource '".concat(
+                identifier).concat("' is not a list of rows, so it "
+                + "cannot be aggregated."));
+    }
+
+    /**
+     * Aggregates a range of rows.
+     *
+     * @param rows The rows.
+     * @param key The key column, or null for a single group.
+     * @param value The aggregated column, or null to count only.
+     * @param from The first row.
+     * @param to The row after the last one.
+     * @return The groups, by key.
+     */
+    private static Map<String, AggregateGroup> aggregate(List<?> rows,
+            Object key, Object value, int from, int to) {
+        Map<String, AggregateGroup> groups =
+                new LinkedHashMap<String, AggregateGroup>();
+        for (int i = from; i < to; i++) {
+            add(groups, rows.get(i), key, value);
+        }
+        return groups;
+    }
+
+    /**
+     * Adds a row to its group.
+     *
+     * @param groups The groups.
+     * @param row The row.
+     * @param key The key column, or null for a single group.
+     * @param value The aggregated column, or null to count only.
+     */
+    private static void add(Map<String, AggregateGroup> groups, Object row,
+            Object key, Object value) {
+        if (row == null) {
+            return;
+        }
+        Object field = key == null ? null : Rows.get(row, key);
+        String name = field == null ? null : field.toString();
+        AggregateGroup group = groups.get(name);
+        if (group == null) {
+            group = new AggregateGroup(field);
+            groups.put(name, group);
+        }
+        group.add(value == null ? null : Rows.get(row, value));
+    }
+
+    /**
+     * Aggregates a range of rows, splitting it while it is large.
+     */
+    private static class Task
+            extends RecursiveTask<Map<String, AggregateGroup>> {
+
+        private static final long serialVersionUID = 1L;
+
+        private final List<?> rows;
+        private final Object key;
+        private final Object value;
+        private final int from;
+        private final int to;
+
+        /**
+         * Constructor.
+         *
+         * @param rows The rows.
+         * @param key The key column, or null for a single group.
+         * @param value The aggregated column, or null to count only.
+         * @param from The first row.
+         * @param to The row after the last one.
+         */
+        Task(List<?> rows, Object key, Object value, int from, int to) {
+            this.rows = rows;
+            this.key = key;
+            this.value = value;
+            this.from = from;
+            this.to = to;
+        }
+
+        /**
+         * Aggregates the range.
+         *
+         * @return The groups, by key, in the order they first appear.
+         */
+        @Override
+        protected Map<String, AggregateGroup> compute() {
+            if (to - from <= THRESHOLD) {
+                return aggregate(rows, key, value, from, to);
+            }
+            int middle = (from + to) >>> 1;
+            Task right = new Task(rows, key, value, middle, to);
+            right.fork();
+            Map<String, AggregateGroup> groups = new Task(rows, key, value,
+                    from, middle).compute();
+            for (Map.Entry<String, AggregateGroup> entry
+                    : right.join().entrySet()) {
+                AggregateGroup group = groups.get(entry.getKey());
+                if (group == null) {
+                    groups.put(entry.getKey(), entry.getValue());
+                } else {
+                    group.merge(entry.getValue());
+                }
+            }
+            return groups;
+        }
+    }
+}
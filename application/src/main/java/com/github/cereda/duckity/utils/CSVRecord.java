@@ -0,0 +1,100 @@
+/**
+ * Duckity -- The template helper
+ * Copyright (c) 2012, Paulo Roberto Massa Cereda
+ * All rights reserved.
+ *
+ * Redistribution and  use in source  and binary forms, with  or without
+ * modification, are  permitted provided  that the  following conditions
+ * are met:
+ *
+ * 1. Redistributions  of source  code must  retain the  above copyright
+ * notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form  must reproduce the above copyright
+ * notice, this list  of conditions and the following  disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * 3. Neither  the name  of the  project's author nor  the names  of its
+ * contributors may be used to  endorse or promote products derived from
+ * this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS  PROVIDED BY THE COPYRIGHT  HOLDERS AND CONTRIBUTORS
+ * "AS IS"  AND ANY  EXPRESS OR IMPLIED  WARRANTIES, INCLUDING,  BUT NOT
+ * LIMITED  TO, THE  IMPLIED WARRANTIES  OF MERCHANTABILITY  AND FITNESS
+ * FOR  A PARTICULAR  PURPOSE  ARE  DISCLAIMED. IN  NO  EVENT SHALL  THE
+ * COPYRIGHT HOLDER OR CONTRIBUTORS BE  LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY,  OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT  NOT LIMITED  TO, PROCUREMENT  OF SUBSTITUTE  GOODS OR  SERVICES;
+ * LOSS  OF USE,  DATA, OR  PROFITS; OR  BUSINESS INTERRUPTION)  HOWEVER
+ * CAUSED AND  ON ANY THEORY  OF LIABILITY, WHETHER IN  CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY
+ * WAY  OUT  OF  THE USE  OF  THIS  SOFTWARE,  EVEN  IF ADVISED  OF  THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.github.cereda.duckity.utils;
+
+import java.util.AbstractList;
+import java.util.RandomAccess;
+
+/**
+ * Holds a record from a memory-mapped CSV file. Only the field offsets
+ * are kept; each value is decoded on first access and then cached. Since
+ * decoding always yields equal strings, concurrent readers may at worst
+ * decode a field twice.
+ *
+ * @author Paulo Roberto Massa Cereda
+ * @version 1.1
+ * @since 1.1
+ */
+public class CSVRecord extends AbstractList<String> implements RandomAccess {
+
+    private final MappedCSVReader reader;
+    private final long base;
+    private final int[] bounds;
+    private String[] values;
+
+    /**
+     * Constructor.
+     *
+     * @param reader The reader which created this record.
+     * @param base The record position in the file.
+     * @param bounds The field bounds, relative to the record position.
+     */
+    CSVRecord(MappedCSVReader reader, long base, int[] bounds) {
+        this.reader = reader;
+        this.base = base;
+        this.bounds = bounds;
+        values = null;
+    }
+
+    /**
+     * Gets the field value.
+     *
+     * @param index The field index.
+     * @return The field value.
+     */
+    @Override
+    public String get(int index) {
+        if ((index < 0) || (index >= size())) {
+            throw new IndexOutOfBoundsException("Index: " + index
+                    + ", Size: " + size());
+        }
+        if (values == null) {
+            values = new String[size()];
+        }
+        if (values[index] == null) {
+            values[index] = reader.decode(base, bounds, index);
+        }
+        return values[index];
+    }
+
+    /**
+     * Gets the number of fields.
+     *
+     * @return The number of fields.
+     */
+    @Override
+    public int size() {
+        return bounds.length / 3;
+    }
+}
@@ -0,0 +1,208 @@
+/**
+ * Duckity -- The template helper
+ * Copyright (c) 2012, Paulo Roberto Massa Cereda
+ * All rights reserved.
+ *
+ * Redistribution and  use in source  and binary forms, with  or without
+ * modification, are  permitted provided  that the  following conditions
+ * are met:
+ *
+ * 1. Redistributions  of source  code must  retain the  above copyright
+ * notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form  must reproduce the above copyright
+ * notice, this list  of conditions and the following  disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * 3. Neither  the name  of the  project's author nor  the names  of its
+ * contributors may be used to  endorse or promote products derived from
+ * this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS  PROVIDED BY THE COPYRIGHT  HOLDERS AND CONTRIBUTORS
+ * "AS IS"  AND ANY  EXPRESS OR IMPLIED  WARRANTIES, INCLUDING,  BUT NOT
+ * LIMITED  TO, THE  IMPLIED WARRANTIES  OF MERCHANTABILITY  AND FITNESS
+ * FOR  A PARTICULAR  PURPOSE  ARE  DISCLAIMED. IN  NO  EVENT SHALL  THE
+ * COPYRIGHT HOLDER OR CONTRIBUTORS BE  LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY,  OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT  NOT LIMITED  TO, PROCUREMENT  OF SUBSTITUTE  GOODS OR  SERVICES;
+ * LOSS  OF USE,  DATA, OR  PROFITS; OR  BUSINESS INTERRUPTION)  HOWEVER
+ * CAUSED AND  ON ANY THEORY  OF LIABILITY, WHETHER IN  CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY
+ * WAY  OUT  OF  THE USE  OF  THIS  SOFTWARE,  EVEN  IF ADVISED  OF  THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.github.cereda.duckity.utils;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+/**
+ * Parses a large memory-mapped CSV file in parallel. The file is split
+ * into byte ranges which are scanned concurrently from every possible
+ * tokenizer state; chaining the results from the first range on tells
+ * where each range actually starts a record, even across quoted line
+ * breaks and escapes. The records are then parsed range by range on a
+ * fork-join pool and stitched back in their original order.
+ *
+ * @author Paulo Roberto Massa Cereda
+ * @version 1.1
+ * @since 1.1
+ */
+public class ChunkedCSVParser {
+
+    /**
+     * Files larger than this size, in bytes, are parsed in chunks.
+     */
+    public static final long THRESHOLD = 64L << 20;
+
+    private static final long MINIMUM = 8L << 20;
+
+    private final MappedFile file;
+    private final ReaderMapping rm;
+    private final Charset charset;
+    private final long size;
+
+    /**
+     * Constructor.
+     *
+     * @param file The mapped file.
+     * @param rm The mapping holding the parsing options.
+     * @param charset The file charset.
+     */
+    public ChunkedCSVParser(MappedFile file, ReaderMapping rm,
+            Charset charset) {
+        this(file, rm, charset, Math.max(MINIMUM, file.size()
+                / (4 * SharedPool.get().getParallelism())));
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param file The mapped file.
+     * @param rm The mapping holding the parsing options.
+     * @param charset The file charset.
+     * @param size The chunk size, in bytes.
+     */
+    public ChunkedCSVParser(MappedFile file, ReaderMapping rm,
+            Charset charset, long size) {
+        this.file = file;
+        this.rm = rm;
+        this.charset = charset;
+        this.size = Math.max(1, size);
+    }
+
+    /**
+     * Parses the file.
+     *
+     * @return The list of records, in file order.
+     * @throws DuckityException Exception is thrown if the options are
+     * invalid or if the parsing is interrupted.
+     */
+    public List<Object> parse() throws DuckityException {
+        final long start = new MappedCSVReader(file, rm, charset).skipLines();
+        final long length = file.size();
+
+        List<Long> offsets = new ArrayList<Long>();
+        for (long offset = start; offset < length; offset += size) {
+            // never split a CR LF pair
+            if ((offset > start) && (file.get(offset) == '\n')
+                    && (file.get(offset - 1) == '\r')) {
+                offset++;
+                if (offset >= length) {
+                    break;
+                }
+            }
+            offsets.add(offset);
+        }
+        offsets.add(length);
+
+        List<Callable<long[][]>> probes = new ArrayList<Callable<long[][]>>();
+        for (int i = 0; i < offsets.size() - 1; i++) {
+            final long from = offsets.get(i);
+            final long to = offsets.get(i + 1);
+            probes.add(new Callable<long[][]>() {
+                public long[][] call() throws DuckityException {
+                    return new MappedCSVReader(file, rm, charset).
+                            probe(from, to);
+                }
+            });
+        }
+        List<long[][]> scans = invoke(probes);
+
+        // chains the states: the first range starts a record at its first
+        // byte, the others start at their first boundary
+        List<long[]> boundaries = new ArrayList<long[]>();
+        boundaries.add(new long[]{start, 0});
+        int state = 0;
+        for (int i = 0; i < scans.size(); i++) {
+            long[][] scan = scans.get(i);
+            if ((i > 0) && (scan[state][0] != -1)) {
+                boundaries.add(new long[]{scan[state][0], scan[state][1]});
+            }
+            state = (int) scan[state][2];
+        }
+        boundaries.add(new long[]{length, 0});
+
+        List<Callable<List<Object>>> tasks =
+                new ArrayList<Callable<List<Object>>>();
+        for (int i = 0; i < boundaries.size() - 1; i++) {
+            final long[] from = boundaries.get(i);
+            final long to = boundaries.get(i + 1)[0];
+            tasks.add(new Callable<List<Object>>() {
+                public List<Object> call() throws DuckityException,
+                        IOException {
+                    MappedCSVReader reader = new MappedCSVReader(file, rm,
+                            charset);
+                    reader.setRange(from[0], to, from[1] == 1);
+                    List<Object> lines = new ArrayList<Object>();
+                    Object line;
+                    while ((line = reader.readNext()) != null) {
+                        lines.add(line);
+                    }
+                    return lines;
+                }
+            });
+        }
+
+        List<Object> result = new ArrayList<Object>();
+        for (List<Object> lines : invoke(tasks)) {
+            result.addAll(lines);
+        }
+        return result;
+    }
+
+    /**
+     * Runs the tasks on the pool and collects their results in order.
+     *
+     * @param <T> The result type.
+     * @param tasks The tasks.
+     * @return The results, in the same order as the tasks.
+     * @throws DuckityException Exception is thrown if a task fails or if
+     * the parsing is interrupted.
+     */
+    private <T> List<T> invoke(List<Callable<T>> tasks)
+            throws DuckityException {
+        List<T> results = new ArrayList<T>();
+        try {
+            for (Future<T> future : SharedPool.get().invokeAll(tasks)) {
+                results.add(future.get());
+            }
+        } catch (InterruptedException nothandled) {
+            Thread.currentThread().interrupt();
+            throw new DuckityException("The datasource parsing "
+                    + "was interrupted.");
+        } catch (ExecutionException exception) {
+            if (exception.getCause() instanceof DuckityException) {
+                throw (DuckityException) exception.getCause();
+            }
+            throw new DuckityException("An error occurred while trying to "
+                    + "parse a datasource.", exception.getCause());
+        }
+        return results;
+    }
+}
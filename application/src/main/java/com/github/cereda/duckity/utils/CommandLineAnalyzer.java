@@ -33,7 +33,16 @@
  */
 package com.github.cereda.duckity.utils;
 
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.nio.charset.Charset;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import org.apache.commons.cli.BasicParser;
 import org.apache.commons.cli.CommandLine;
@@ -56,7 +65,17 @@ public class CommandLineAnalyzer {
     private final Options options;
     private final List<ReaderMapping> mappings;
     private String output;
-    private String input;
+    private final List<String> inputs;
+    private boolean batch;
+    private int jobs;
+    private Charset encoding;
+    private String statistics;
+    private DatasourceSnapshots snapshots;
+    private OutputFingerprints fingerprints;
+    private boolean serve;
+    private boolean watch;
+    private int port;
+    private final PrintStream out;
 
     /**
      * Constructor.
@@ -64,9 +83,30 @@ public class CommandLineAnalyzer {
      * @param arguments The command line arguments.
      */
     public CommandLineAnalyzer(String[] arguments) {
+        this(arguments, System.out);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param arguments The command line arguments.
+     * @param out The stream messages are printed to.
+     */
+    public CommandLineAnalyzer(String[] arguments, PrintStream out) {
         this.arguments = arguments;
+        this.out = out;
         mappings = new ArrayList<ReaderMapping>();
         output = null;
+        inputs = new ArrayList<String>();
+        batch = false;
+        jobs = 1;
+        encoding = Charset.defaultCharset();
+        statistics = null;
+        snapshots = null;
+        fingerprints = null;
+        serve = false;
+        watch = false;
+        port = 0;
         options = new Options();
     }
 
@@ -81,6 +121,34 @@ public class CommandLineAnalyzer {
                 true, "set the identifier"));
         options.addOption(new Option("o", "output",
                 true, "set the output file"));
+        options.addOption(new Option("b", "batch",
+                false, "render several files in one run"));
+        options.addOption(new Option("m", "manifest",
+                true, "read the files to render from a manifest"));
+        options.addOption(new Option("j", "jobs",
+                true, "set the number of files rendered at once"));
+        options.addOption(new Option("e", "encoding",
+                true, "set the output encoding"));
+        options.addOption(new Option("s", "stats",
+                true, "write a JSON report of the run, '-' for the console"));
+        options.addOption(new Option("n", "snapshots",
+                true, "keep binary snapshots of CSV datasources in a "
+                + "directory"));
+        options.addOption(new Option("f", "fingerprints",
+                true, "skip renders whose inputs did not change since the "
+                + "last run, as recorded in a manifest"));
+        Option server = new Option("r", "serve",
+                true, "keep running and render files sent by clients on a "
+                + "local port, ".concat(String.valueOf(
+                        DuckityConstants.PORT)).concat(" by default"));
+        server.setOptionalArg(true);
+        options.addOption(server);
+        options.addOption(new Option("w", "watch",
+                false, "render again whenever a template or a datasource "
+                + "changes"));
+        options.addOption(new Option("c", "client",
+                true, "send the render to the server running on a local "
+                + "port"));
 
         CommandLineParser parser = new BasicParser();
 
@@ -103,8 +171,42 @@ public class CommandLineAnalyzer {
                 } else {
 
                     String[] files = line.getArgs();
+                    inputs.addAll(Arrays.asList(files));
+                    batch = line.hasOption("batch");
 
-                    if (files.length != 1) {
+                    if (line.hasOption("manifest")) {
+                        inputs.addAll(readManifest(
+                                line.getOptionValue("manifest")));
+                        batch = true;
+                    }
+
+                    serve = line.hasOption("serve");
+
+                    if (serve) {
+                        if ((files.length != 0) || batch
+                                || line.hasOption("client")
+                                || line.hasOption("watch")) {
+                            throw new DuckityException("the '--serve' "
+                                    + "option does not take files to "
+                                    + "render; clients send them.");
+                        }
+                        port = getPort(line.getOptionValue("serve",
+                                String.valueOf(DuckityConstants.PORT)));
+                        return true;
+                    }
+
+                    if (line.hasOption("client")) {
+                        if (line.hasOption("watch")) {
+                            throw new DuckityException("the '--watch' "
+                                    + "option does not work with the "
+                                    + "'--client' option.");
+                        }
+                        port = getPort(line.getOptionValue("client"));
+                    }
+                    watch = line.hasOption("watch");
+
+                    if ((!batch && (files.length != 1))
+                            || (batch && inputs.isEmpty())) {
 
                         printVersion();
                         printUsage();
@@ -132,11 +234,55 @@ public class CommandLineAnalyzer {
                             }
                         }
 
+                        if (line.hasOption("jobs")) {
+                            try {
+                                jobs = Integer.parseInt(
+                                        line.getOptionValue("jobs"));
+                            } catch (NumberFormatException nothandled) {
+                                jobs = 0;
+                            }
+                            if (jobs < 1) {
+                                throw new DuckityException("the '--jobs' "
+                                        + "option has to be a positive "
+                                        + "integer.");
+                            }
+                        }
+
+                        if (line.hasOption("encoding")) {
+                            try {
+                                encoding = Charset.forName(
+                                        line.getOptionValue("encoding"));
+                            } catch (IllegalArgumentException nothandled) {
+                                throw new DuckityException("the encoding '"
+                                        .concat(line.getOptionValue(
+                                                "encoding")).concat(
+                                                "' is not supported."));
+                            }
+                        }
+
+                        if (line.hasOption("stats")) {
+                            statistics = line.getOptionValue("stats");
+                        }
+
+                        if (line.hasOption("snapshots")) {
+                            snapshots = new DatasourceSnapshots(new File(
+                                    line.getOptionValue("snapshots")));
+                        }
+
+                        if (line.hasOption("fingerprints")) {
+                            fingerprints = new OutputFingerprints(new File(
+                                    line.getOptionValue("fingerprints")));
+                        }
+
                         if (line.hasOption("output")) {
+                            if (inputs.size() != 1) {
+                                throw new DuckityException("the '--output' "
+                                        + "option only works with a single "
+                                        + "file.");
+                            }
                             output = line.getOptionValue("output");
                         }
 
-                        input = files[0];
                         return true;
                     }
 
@@ -154,12 +300,12 @@ public class CommandLineAnalyzer {
      * Prints the application version.
      */
     private void printVersion() {
-        System.out.println("duckity ".concat(DuckityConstants.VERSION).
+        out.println("duckity ".concat(DuckityConstants.VERSION).
                 concat(" - ").concat("The template helper"));
-        System.out.println("Copyright (c) ".
+        out.println("Copyright (c) ".
                 concat(DuckityConstants.COPYRIGHTYEAR).
                 concat(", Paulo Roberto Massa Cereda"));
-        System.out.println(("All rights reserved.").concat("\n"));
+        out.println(("All rights reserved.").concat("\n"));
     }
 
     /**
@@ -167,8 +313,74 @@ public class CommandLineAnalyzer {
      */
     private void printUsage() {
         HelpFormatter formatter = new HelpFormatter();
-        formatter.printHelp("duckity [file [--datasource D --identifier I]* "
-                + "--output file | --help | --version]", options);
+        PrintWriter writer = new PrintWriter(out);
+        formatter.printHelp(writer, formatter.getWidth(), "duckity [file "
+                + "[--datasource D --identifier I]* --output file | --batch "
+                + "file+ | --manifest M [--jobs N] [--stats F] "
+                + "[--snapshots D] [--fingerprints F] "
+                + "[--watch | --client P] | --serve [P] | --help | "
+                + "--version]", null, options, formatter.getLeftPadding(),
+                formatter.getDescPadding(), null);
+        writer.flush();
+    }
+
+    /**
+     * Checks the port number.
+     *
+     * @param value The port number, as given.
+     * @return The port number.
+     * @throws DuckityException Exception is thrown if the port is not
+     * valid.
+     */
+    private int getPort(String value) throws DuckityException {
+        int number;
+        try {
+            number = Integer.parseInt(value);
+        } catch (NumberFormatException nothandled) {
+            number = 0;
+        }
+        if ((number < 1) || (number > 65535)) {
+            throw new DuckityException("the port '".concat(value).concat(
+                    "' has to be an integer between 1 and 65535."));
+        }
+        return number;
+    }
+
+    /**
+     * Reads the list of files from a manifest, one file per line. Blank
+     * lines and lines starting with '#' are ignored.
+     *
+     * @param manifest The manifest file name.
+     * @return The list of files.
+     * @throws DuckityException Exception is thrown if the manifest cannot
+     * be read.
+     */
+    private List<String> readManifest(String manifest)
+            throws DuckityException {
+        List<String> files = new ArrayList<String>();
+        try {
+            BufferedReader reader = new BufferedReader(
+                    new FileReader(manifest));
+            try {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    line = line.trim();
+                    if ((line.length() != 0) && !line.startsWith("#")) {
+                        files.add(line);
+                    }
+                }
+            } finally {
+                reader.close();
+            }
+        } catch (FileNotFoundException nothandled) {
+            throw new DuckityException("File '".concat(
+                    manifest).concat("' does not exist."));
+        } catch (IOException nothandled) {
+            throw new DuckityException("An IO error occurred while "
+                    + "trying to read from '".concat(
+                            manifest).concat("'."));
+        }
+        return files;
     }
 
     /**
@@ -230,7 +442,99 @@ public class CommandLineAnalyzer {
      * @return The input file name.
      */
     public String getInput() {
-        return input;
+        return inputs.isEmpty() ? null : inputs.get(0);
+    }
+
+    /**
+     * Gets the input file names.
+     *
+     * @return The input file names.
+     */
+    public List<String> getInputs() {
+        return inputs;
+    }
+
+    /**
+     * Gets the output encoding.
+     *
+     * @return The output encoding.
+     */
+    public Charset getEncoding() {
+        return encoding;
+    }
+
+    /**
+     * Gets the number of files rendered at once.
+     *
+     * @return The number of jobs.
+     */
+    public int getJobs() {
+        return jobs;
+    }
+
+    /**
+     * Gets the file the run statistics are written to, if any.
+     *
+     * @return The statistics file name, '-' for the standard output.
+     */
+    public String getStatistics() {
+        return statistics;
+    }
+
+    /**
+     * Gets the datasource snapshot store, if any.
+     *
+     * @return The snapshot store, or null if snapshots are not kept.
+     */
+    public DatasourceSnapshots getSnapshots() {
+        return snapshots;
+    }
+
+    /**
+     * Gets the fingerprint manifest, if any.
+     *
+     * @return The fingerprint manifest, or null if every file is rendered.
+     */
+    public OutputFingerprints getFingerprints() {
+        return fingerprints;
+    }
+
+    /**
+     * Checks if this run serves renders sent by clients.
+     *
+     * @return A boolean value indicating if this is a server run.
+     */
+    public boolean isServe() {
+        return serve;
+    }
+
+    /**
+     * Checks if the files are rendered again whenever their templates or
+     * datasources change.
+     *
+     * @return A boolean value indicating if this is a watch run.
+     */
+    public boolean isWatch() {
+        return watch;
+    }
+
+    /**
+     * Gets the port of the server, either the one to listen on or the one
+     * to send the render to.
+     *
+     * @return The port number, or zero if no server is involved.
+     */
+    public int getPort() {
+        return port;
+    }
+
+    /**
+     * Checks if several files may be rendered in this run.
+     *
+     * @return A boolean value indicating if this is a batch run.
+     */
+    public boolean isBatch() {
+        return batch;
     }
 
 }
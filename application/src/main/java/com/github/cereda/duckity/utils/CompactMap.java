@@ -0,0 +1,292 @@
+/**
+ * Duckity -- The template helper
+ * Copyright (c) 2012, Paulo Roberto Massa Cereda
+ * All rights reserved.
+ *
+ * Redistribution and  use in source  and binary forms, with  or without
+ * modification, are  permitted provided  that the  following conditions
+ * are met:
+ *
+ * 1. Redistributions  of source  code must  retain the  above copyright
+ * notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form  must reproduce the above copyright
+ * notice, this list  of conditions and the following  disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * 3. Neither  the name  of the  project's author nor  the names  of its
+ * contributors may be used to  endorse or promote products derived from
+ * this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS  PROVIDED BY THE COPYRIGHT  HOLDERS AND CONTRIBUTORS
+ * "AS IS"  AND ANY  EXPRESS OR IMPLIED  WARRANTIES, INCLUDING,  BUT NOT
+ * LIMITED  TO, THE  IMPLIED WARRANTIES  OF MERCHANTABILITY  AND FITNESS
+ * FOR  A PARTICULAR  PURPOSE  ARE  DISCLAIMED. IN  NO  EVENT SHALL  THE
+ * COPYRIGHT HOLDER OR CONTRIBUTORS BE  LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY,  OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT  NOT LIMITED  TO, PROCUREMENT  OF SUBSTITUTE  GOODS OR  SERVICES;
+ * LOSS  OF USE,  DATA, OR  PROFITS; OR  BUSINESS INTERRUPTION)  HOWEVER
+ * CAUSED AND  ON ANY THEORY  OF LIABILITY, WHETHER IN  CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY
+ * WAY  OUT  OF  THE USE  OF  THIS  SOFTWARE,  EVEN  IF ADVISED  OF  THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.github.cereda.duckity.utils;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * Insertion-ordered map backed by flat arrays. Keys and values are kept
+ * in parallel arrays, in insertion order, and an open-addressed table of
+ * indices gives constant-time lookups without an entry object per key.
+ * Removal is not supported, since JSON documents are read-only.
+ *
+ * @author Paulo Roberto Massa Cereda
+ * @version 1.1
+ * @since 1.1
+ */
+public class CompactMap extends AbstractMap<String, Object> {
+
+    private String[] keys;
+    private Object[] values;
+    private int[] table;
+    private int size;
+
+    /**
+     * Constructor.
+     */
+    public CompactMap() {
+        keys = new String[4];
+        values = new Object[4];
+        table = new int[8];
+        size = 0;
+    }
+
+    /**
+     * Gets the number of entries.
+     *
+     * @return The number of entries.
+     */
+    @Override
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Gets the value associated with the key.
+     *
+     * @param key The key.
+     * @return The value, or null if there is no such key.
+     */
+    @Override
+    public Object get(Object key) {
+        int index = find(key);
+        return index == -1 ? null : values[index];
+    }
+
+    /**
+     * Checks if the key is present.
+     *
+     * @param key The key.
+     * @return A boolean value indicating if the key is present.
+     */
+    @Override
+    public boolean containsKey(Object key) {
+        return find(key) != -1;
+    }
+
+    /**
+     * Associates the value with the key. An existing key keeps its
+     * original position.
+     *
+     * @param key The key.
+     * @param value The value.
+     * @return The previous value, if any.
+     */
+    @Override
+    public Object put(String key, Object value) {
+        if (key == null) {
+            throw new NullPointerException("Null keys are not supported.");
+        }
+        int index = find(key);
+        if (index != -1) {
+            Object previous = values[index];
+            values[index] = value;
+            return previous;
+        }
+        if (size == keys.length) {
+            String[] grownkeys = new String[Math.max(4, size * 2)];
+            Object[] grownvalues = new Object[Math.max(4, size * 2)];
+            System.arraycopy(keys, 0, grownkeys, 0, size);
+            System.arraycopy(values, 0, grownvalues, 0, size);
+            keys = grownkeys;
+            values = grownvalues;
+        }
+        keys[size] = key;
+        values[size] = value;
+        size++;
+        if (size * 2 > table.length) {
+            rehash(table.length * 2);
+        } else {
+            insert(size - 1);
+        }
+        return null;
+    }
+
+    /**
+     * Shrinks the arrays to the number of entries.
+     */
+    public void trim() {
+        if (keys.length > size) {
+            String[] trimmedkeys = new String[size];
+            Object[] trimmedvalues = new Object[size];
+            System.arraycopy(keys, 0, trimmedkeys, 0, size);
+            System.arraycopy(values, 0, trimmedvalues, 0, size);
+            keys = trimmedkeys;
+            values = trimmedvalues;
+        }
+    }
+
+    /**
+     * Gets the entries, in insertion order.
+     *
+     * @return The entries.
+     */
+    @Override
+    public Set<Map.Entry<String, Object>> entrySet() {
+        return new AbstractSet<Map.Entry<String, Object>>() {
+
+            @Override
+            public Iterator<Map.Entry<String, Object>> iterator() {
+                return new Iterator<Map.Entry<String, Object>>() {
+
+                    private int index = 0;
+
+                    public boolean hasNext() {
+                        return index < size;
+                    }
+
+                    public Map.Entry<String, Object> next() {
+                        if (index >= size) {
+                            throw new NoSuchElementException();
+                        }
+                        final int current = index++;
+                        return new Map.Entry<String, Object>() {
+
+                            public String getKey() {
+                                return keys[current];
+                            }
+
+                            public Object getValue() {
+                                return values[current];
+                            }
+
+                            public Object setValue(Object value) {
+                                Object previous = values[current];
+                                values[current] = value;
+                                return previous;
+                            }
+
+                            @Override
+                            public boolean equals(Object other) {
+                                if (!(other instanceof Map.Entry)) {
+                                    return false;
+                                }
+                                Map.Entry<?, ?> entry = (Map.Entry<?, ?>) other;
+                                return keys[current].equals(entry.getKey())
+                                        && (values[current] == null
+                                        ? entry.getValue() == null
+                                        : values[current].equals(
+                                        entry.getValue()));
+                            }
+
+                            @Override
+                            public int hashCode() {
+                                return keys[current].hashCode()
+                                        ^ (values[current] == null ? 0
+                                        : values[current].hashCode());
+                            }
+
+                            @Override
+                            public String toString() {
+                                return keys[current] + "=" + values[current];
+                            }
+                        };
+                    }
+
+                    public void remove() {
+                        throw new UnsupportedOperationException();
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return size;
+            }
+        };
+    }
+
+    /**
+     * Finds the index of the key.
+     *
+     * @param key The key.
+     * @return The index, or -1 if there is no such key.
+     */
+    private int find(Object key) {
+        if (key == null) {
+            return -1;
+        }
+        int mask = table.length - 1;
+        int slot = spread(key.hashCode()) & mask;
+        while (table[slot] != 0) {
+            int index = table[slot] - 1;
+            if (key.equals(keys[index])) {
+                return index;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return -1;
+    }
+
+    /**
+     * Inserts the index of an entry into the table.
+     *
+     * @param index The entry index.
+     */
+    private void insert(int index) {
+        int mask = table.length - 1;
+        int slot = spread(keys[index].hashCode()) & mask;
+        while (table[slot] != 0) {
+            slot = (slot + 1) & mask;
+        }
+        table[slot] = index + 1;
+    }
+
+    /**
+     * Rebuilds the table with a new capacity.
+     *
+     * @param capacity The new capacity, a power of two.
+     */
+    private void rehash(int capacity) {
+        table = new int[capacity];
+        for (int i = 0; i < size; i++) {
+            insert(i);
+        }
+    }
+
+    /**
+     * Spreads the hash bits.
+     *
+     * @param hash The hash code.
+     * @return The spread hash.
+     */
+    private static int spread(int hash) {
+        return hash ^ (hash >>> 16);
+    }
+}
@@ -0,0 +1,396 @@
+/**
+ * Duckity -- The template helper
+ * Copyright (c) 2012, Paulo Roberto Massa Cereda
+ * All rights reserved.
+ *
+ * Redistribution and  use in source  and binary forms, with  or without
+ * modification, are  permitted provided  that the  following conditions
+ * are met:
+ *
+ * 1. Redistributions  of source  code must  retain the  above copyright
+ * notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form  must reproduce the above copyright
+ * notice, this list  of conditions and the following  disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * 3. Neither  the name  of the  project's author nor  the names  of its
+ * contributors may be used to  endorse or promote products derived from
+ * this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS  PROVIDED BY THE COPYRIGHT  HOLDERS AND CONTRIBUTORS
+ * "AS IS"  AND ANY  EXPRESS OR IMPLIED  WARRANTIES, INCLUDING,  BUT NOT
+ * LIMITED  TO, THE  IMPLIED WARRANTIES  OF MERCHANTABILITY  AND FITNESS
+ * FOR  A PARTICULAR  PURPOSE  ARE  DISCLAIMED. IN  NO  EVENT SHALL  THE
+ * COPYRIGHT HOLDER OR CONTRIBUTORS BE  LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY,  OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT  NOT LIMITED  TO, PROCUREMENT  OF SUBSTITUTE  GOODS OR  SERVICES;
+ * LOSS  OF USE,  DATA, OR  PROFITS; OR  BUSINESS INTERRUPTION)  HOWEVER
+ * CAUSED AND  ON ANY THEORY  OF LIABILITY, WHETHER IN  CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY
+ * WAY  OUT  OF  THE USE  OF  THIS  SOFTWARE,  EVEN  IF ADVISED  OF  THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.github.cereda.duckity.utils;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Shares parsed datasources between renders of the same run. Entries are
+ * keyed by the file and every option which changes how it is parsed, so a
+ * file referenced by several templates with the same options is only
+ * loaded once. Each entry also records the file size, modification time
+ * and a hash of its content. A file whose size or time changed, or which
+ * was written too close to its loading for the time to tell, is hashed
+ * again and only loaded again if its content changed, so long-lived
+ * caches never hand out old content. Once the files held add up to more
+ * than the capacity, the least recently used entries are dropped. Shared
+ * content is handed out as a read-only view, since renders may run on
+ * several threads at once, unless it is read-only already. Streaming
+ * datasources are single-pass and therefore never shared.
+ *
+ * @author Paulo Roberto Massa Cereda
+ * @version 1.1
+ * @since 1.1
+ */
+public class DatasourceCache {
+
+    /**
+     * The modification time resolution assumed for every file system, in
+     * milliseconds.
+     */
+    private static final long RESOLUTION = 2000;
+
+    private final Map<String, Entry> entries;
+    private final long capacity;
+    private long size;
+    private final AtomicLong hits;
+    private final AtomicLong misses;
+
+    /**
+     * Constructor. The capacity is an eighth of the maximum heap, parsed
+     * datasources take a few times the size of their files.
+     */
+    public DatasourceCache() {
+        this(Runtime.getRuntime().maxMemory() / 8);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param capacity The total size of the files held, in bytes, beyond
+     * which the least recently used entries are dropped. The last entry is
+     * always held.
+     */
+    public DatasourceCache(long capacity) {
+        entries = new LinkedHashMap<String, Entry>(16, 0.75f, true);
+        this.capacity = capacity;
+        size = 0;
+        hits = new AtomicLong();
+        misses = new AtomicLong();
+    }
+
+    /**
+     * Gets the datasource content, loading it on a miss. Concurrent
+     * requests for the same entry wait for a single load.
+     *
+     * @param rm The mapping.
+     * @param file The datasource file.
+     * @param loader The loader, called on a miss.
+     * @return The datasource content.
+     * @throws DuckityException Exception is thrown if the datasource could
+     * not be loaded.
+     */
+    public Object get(ReaderMapping rm, File file,
+            final Callable<Object> loader) throws DuckityException {
+        String key = getKey(rm, file);
+        while (true) {
+            Entry existing;
+            synchronized (entries) {
+                existing = entries.get(key);
+            }
+            if (existing != null) {
+                Entry current = existing.check(file);
+                if (current != null) {
+                    synchronized (entries) {
+                        if (entries.get(key) != existing) {
+                            continue;
+                        }
+                        entries.put(key, current);
+                    }
+                    hits.incrementAndGet();
+                    return await(key, current);
+                }
+            }
+
+            FutureTask<Object> task = new FutureTask<Object>(
+                    new Callable<Object>() {
+                public Object call() throws Exception {
+                    Object content = loader.call();
+                    if (isReadOnly(content)) {
+                        return content;
+                    }
+                    if (content instanceof List) {
+                        return Collections.unmodifiableList((List<?>) content);
+                    }
+                    if (content instanceof Map) {
+                        return Collections.unmodifiableMap((Map<?, ?>) content);
+                    }
+                    return content;
+                }
+            });
+            // hashed before loading, a change in between only means the
+            // file is loaded again next time
+            Entry entry = Entry.create(file, task);
+            synchronized (entries) {
+                if (entries.get(key) != existing) {
+                    continue;
+                }
+                put(key, entry);
+            }
+            misses.incrementAndGet();
+            task.run();
+            return await(key, entry);
+        }
+    }
+
+    /**
+     * Adds an entry, dropping the least recently used ones while the
+     * files held are too large. Callers hold the lock of the entries.
+     *
+     * @param key The key.
+     * @param entry The entry.
+     */
+    private void put(String key, Entry entry) {
+        Entry previous = entries.put(key, entry);
+        if (previous != null) {
+            size = size - previous.length;
+        }
+        size = size + entry.length;
+        Iterator<Entry> iterator = entries.values().iterator();
+        while ((size > capacity) && (entries.size() > 1)) {
+            Entry eldest = iterator.next();
+            iterator.remove();
+            size = size - eldest.length;
+        }
+    }
+
+    /**
+     * Waits for the content of an entry, dropping the entry if the loading
+     * failed.
+     *
+     * @param key The key.
+     * @param entry The entry.
+     * @return The datasource content.
+     * @throws DuckityException Exception is thrown if the datasource could
+     * not be loaded.
+     */
+    private Object await(String key, Entry entry) throws DuckityException {
+        try {
+            return entry.task.get();
+        } catch (InterruptedException nothandled) {
+            Thread.currentThread().interrupt();
+            throw new DuckityException("The datasource loading "
+                    + "was interrupted.");
+        } catch (ExecutionException exception) {
+            synchronized (entries) {
+                if (entries.get(key) == entry) {
+                    entries.remove(key);
+                    size = size - entry.length;
+                }
+            }
+            if (exception.getCause() instanceof DuckityException) {
+                throw (DuckityException) exception.getCause();
+            }
+            throw new DuckityException("An error occurred while trying to "
+                    + "load a datasource.", exception.getCause());
+        }
+    }
+
+    /**
+     * Checks if the content is of a datasource type which cannot be
+     * changed anyway. Those are shared as they are, a read-only view
+     * would hide their own methods, such as the column names.
+     *
+     * @param content The datasource content.
+     * @return A boolean value indicating if the content is read-only.
+     */
+    private static boolean isReadOnly(Object content) {
+        return (content instanceof NamedDatasource)
+                || (content instanceof TypedDatasource)
+                || (content instanceof SnapshotDatasource);
+    }
+
+    /**
+     * Gets the number of hits.
+     *
+     * @return The number of hits.
+     */
+    public long getHits() {
+        return hits.get();
+    }
+
+    /**
+     * Gets the number of misses.
+     *
+     * @return The number of misses.
+     */
+    public long getMisses() {
+        return misses.get();
+    }
+
+    /**
+     * Gets the statistics, ready to be printed.
+     *
+     * @return The statistics.
+     */
+    public String getStatistics() {
+        return "Datasource cache: ".concat(String.valueOf(getHits())).
+                concat(" hit(s), ").concat(String.valueOf(getMisses())).
+                concat(" miss(es).");
+    }
+
+    /**
+     * Gets the cache key of the datasource.
+     *
+     * @param rm The mapping.
+     * @param file The datasource file.
+     * @return The key.
+     */
+    private String getKey(ReaderMapping rm, File file) {
+        StringBuilder key = new StringBuilder(getPath(file));
+        key.append('|').append(getOptions(rm));
+        key.append('|').append(rm.isHeader());
+        key.append('|').append(rm.getTypes());
+        return key.toString();
+    }
+
+    /**
+     * Gets the canonical path of the datasource file.
+     *
+     * @param file The datasource file.
+     * @return The canonical path, or the absolute one if it cannot be
+     * resolved.
+     */
+    static String getPath(File file) {
+        try {
+            return file.getCanonicalPath();
+        } catch (IOException nothandled) {
+            return file.getAbsolutePath();
+        }
+    }
+
+    /**
+     * Gets every option which changes how the datasource is parsed.
+     *
+     * @param rm The mapping.
+     * @return The options, joined in a single string.
+     */
+    static String getOptions(ReaderMapping rm) {
+        StringBuilder key = new StringBuilder();
+        key.append(rm.isCSV());
+        key.append('|').append(rm.getSeparator());
+        key.append('|').append(rm.getQuotechar());
+        key.append('|').append(rm.getEscape());
+        key.append('|').append(rm.isFl() ? rm.getLine() : "-");
+        key.append('|').append(rm.isFsq() ? rm.isStrictquote() : "-");
+        key.append('|').append(rm.isIlws()
+                ? rm.isIgnoreleadingwhitespace() : "-");
+        key.append('|').append(rm.getEngine());
+        key.append('|').append(rm.getCharset());
+        return key.toString();
+    }
+
+    /**
+     * Holds a cache entry, along with what the file looked like when it
+     * was loaded.
+     */
+    private static class Entry {
+
+        private final long length;
+        private final long modified;
+        private final long checked;
+        private final String hash;
+        private final FutureTask<Object> task;
+
+        /**
+         * Constructor.
+         *
+         * @param length The file size.
+         * @param modified The file modification time.
+         * @param checked The time the file was last hashed.
+         * @param hash The file hash, or null if it could not be read.
+         * @param task The loading task.
+         */
+        Entry(long length, long modified, long checked, String hash,
+                FutureTask<Object> task) {
+            this.length = length;
+            this.modified = modified;
+            this.checked = checked;
+            this.hash = hash;
+            this.task = task;
+        }
+
+        /**
+         * Creates the entry of a file about to be loaded.
+         *
+         * @param file The datasource file.
+         * @param task The loading task.
+         * @return The entry.
+         */
+        static Entry create(File file, FutureTask<Object> task) {
+            long checked = System.currentTimeMillis();
+            long length = file.length();
+            long modified = file.lastModified();
+            String hash;
+            try {
+                hash = DatasourceSnapshots.hash(file);
+            } catch (IOException nothandled) {
+                // reported by the loader
+                hash = null;
+            }
+            return new Entry(length, modified, checked, hash, task);
+        }
+
+        /**
+         * Checks if the entry still holds the content of the file. The size
+         * and modification time are enough, unless they changed or the
+         * file was written within the time resolution of the last hash;
+         * the content is hashed again then.
+         *
+         * @param file The datasource file.
+         * @return The entry, a new one for the same content if the file
+         * was hashed again, or null if the content changed.
+         */
+        Entry check(File file) {
+            long now = System.currentTimeMillis();
+            long currentLength = file.length();
+            long currentModified = file.lastModified();
+            if ((currentLength == length) && (currentModified == modified)
+                    && (modified + RESOLUTION < checked)) {
+                return this;
+            }
+            if ((hash == null) || (currentLength != length)) {
+                return null;
+            }
+            try {
+                if (!hash.equals(DatasourceSnapshots.hash(file))) {
+                    return null;
+                }
+            } catch (IOException nothandled) {
+                return null;
+            }
+            return new Entry(length, currentModified, now, hash, task);
+        }
+    }
+}
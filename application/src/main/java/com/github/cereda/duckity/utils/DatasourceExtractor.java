@@ -33,17 +33,14 @@
  */
 package com.github.cereda.duckity.utils;
 
+import java.io.IOException;
+import java.io.StringReader;
 import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.LinkedHashMap;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import org.apache.commons.collections.CollectionUtils;
-import org.json.simple.parser.ContainerFactory;
-import org.json.simple.parser.JSONParser;
-import org.json.simple.parser.ParseException;
 
 /**
  * Maps the datasource into the model.
@@ -55,12 +52,14 @@ import org.json.simple.parser.ParseException;
 public class DatasourceExtractor {
 
     private final List<ReaderMapping> mapping;
+    private PartitionMapping partition;
 
     /**
      * Constructor.
      */
     public DatasourceExtractor() {
         mapping = new ArrayList<ReaderMapping>();
+        partition = null;
     }
 
     /**
@@ -71,36 +70,40 @@ public class DatasourceExtractor {
      * invalid extensions.
      */
     public void parse(String header) throws DuckityException {
-        JSONParser parser = new JSONParser();
-        ContainerFactory factory = new ContainerFactory() {
-            public List creatArrayContainer() {
-                return new LinkedList();
-            }
-
-            public Map createObjectContainer() {
-                return new LinkedHashMap();
-            }
-        };
-
-        Map jheader = null;
+        Map<?, ?> jheader = null;
         try {
-            jheader = (Map) parser.parse(header, factory);
-        } catch (ParseException pe) {
+            Object document = new JsonReader(
+                    new StringReader(header)).readDocument();
+            if (document instanceof Map) {
+                jheader = (Map<?, ?>) document;
+            }
+        } catch (IOException nothandled) {
+            // reading from a string never fails
+        } catch (DuckityException nothandled) {
+            // reported below
+        }
+        if (jheader == null) {
             throw new DuckityException("An error occurred while trying to "
                     + "parse the JSON header.");
         }
 
         ReaderMapping reader;
 
-        if ((jheader.size() == 1) && (jheader.containsKey("datasources"))) {
+        if ((jheader.containsKey("datasources")) && ((jheader.size() == 1)
+                || ((jheader.size() == 2)
+                && (jheader.containsKey("partition"))))) {
+            if (jheader.containsKey("partition")) {
+                partition = getPartition(jheader.get("partition"));
+            }
+
             Object values = jheader.get("datasources");
-            if (values instanceof LinkedList) {
-                for (Object value : (LinkedList) values) {
+            if (values instanceof List) {
+                for (Object value : (List) values) {
                     if (value instanceof Map) {
-                        Map map = (Map) value;
-                        Set keys = (Set) map.keySet();
+                        Map<?, ?> map = (Map<?, ?>) value;
+                        Set<?> keys = map.keySet();
 
-                        Set validKeys = new HashSet();
+                        Set<String> validKeys = new HashSet<String>();
                         validKeys.add("identifier");
                         validKeys.add("file");
                         validKeys.add("separator");
@@ -109,9 +112,13 @@ public class DatasourceExtractor {
                         validKeys.add("line");
                         validKeys.add("strictquote");
                         validKeys.add("ignoreleadingwhitespace");
+                        validKeys.add("stream");
+                        validKeys.add("engine");
+                        validKeys.add("charset");
+                        validKeys.add("types");
+                        validKeys.add("header");
 
-                        if (CollectionUtils.
-                                subtract(keys, validKeys).isEmpty()) {
+                        if (validKeys.containsAll(keys)) {
                             if ((keys.contains("identifier")
                                     && (keys.contains("file")))) {
                                 reader = new ReaderMapping();
@@ -156,9 +163,10 @@ public class DatasourceExtractor {
                                                 }
                                             }
                                             if (map.get("line") != null) {
-                                                if (map.get("line") instanceof Integer) {
+                                                if ((map.get("line") instanceof Integer)
+                                                        || (map.get("line") instanceof Long)) {
                                                     reader.setLine(
-                                                            (Integer) map.get("line"));
+                                                            ((Number) map.get("line")).intValue());
                                                 } else {
                                                     throw new DuckityException("The 'line' argument "
                                                             + "has to be a integer.");
@@ -182,11 +190,84 @@ public class DatasourceExtractor {
                                                             + "argument has to be a boolean.");
                                                 }
                                             }
+                                            if (map.get("stream") != null) {
+                                                if (map.get("stream") instanceof Boolean) {
+                                                    reader.setStream(
+                                                            (Boolean) map.get("stream"));
+                                                } else {
+                                                    throw new DuckityException("The 'stream' argument "
+                                                            + "has to be a boolean.");
+                                                }
+                                            }
+                                            if (map.get("engine") != null) {
+                                                if (("opencsv".equals(map.get("engine")))
+                                                        || ("mapped".equals(map.get("engine")))) {
+                                                    reader.setEngine(
+                                                            (String) map.get("engine"));
+                                                } else {
+                                                    throw new DuckityException("The 'engine' argument "
+                                                            + "has to be either 'opencsv' or 'mapped'.");
+                                                }
+                                            }
+                                            if (map.get("charset") != null) {
+                                                if (map.get("charset") instanceof String) {
+                                                    reader.setCharset(
+                                                            (String) map.get("charset"));
+                                                } else {
+                                                    throw new DuckityException("The 'charset' argument "
+                                                            + "has to be a string.");
+                                                }
+                                            }
+                                            if (map.get("header") != null) {
+                                                if (map.get("header") instanceof Boolean) {
+                                                    reader.setHeader(
+                                                            (Boolean) map.get("header"));
+                                                } else {
+                                                    throw new DuckityException("The 'header' argument "
+                                                            + "has to be a boolean.");
+                                                }
+                                            }
+                                            if (map.get("types") != null) {
+                                                if (map.get("types") instanceof Map) {
+                                                    reader.setTypes(getTypes(
+                                                            (Map<?, ?>) map.get("types")));
+                                                } else {
+                                                    throw new DuckityException("The 'types' argument "
+                                                            + "has to be a map.");
+                                                }
+                                                if (reader.isStream()) {
+                                                    throw new DuckityException("The 'types' argument "
+                                                            + "does not work with streaming datasources.");
+                                                }
+                                                if (Boolean.FALSE.equals(map.get("header"))) {
+                                                    throw new DuckityException("The 'types' argument "
+                                                            + "needs the header row to name the columns.");
+                                                }
+                                                reader.setHeader(true);
+                                            }
                                         } else {
                                             if (((String) map.get("file")).
                                                     toLowerCase().
                                                     endsWith(".json")) {
                                                 reader.setCSV(false);
+                                                if (map.get("stream") != null) {
+                                                    if (map.get("stream") instanceof Boolean) {
+                                                        reader.setStream(
+                                                                (Boolean) map.get("stream"));
+                                                    } else {
+                                                        throw new DuckityException("The 'stream' argument "
+                                                                + "has to be a boolean.");
+                                                    }
+                                                }
+                                                if (map.get("charset") != null) {
+                                                    if (map.get("charset") instanceof String) {
+                                                        reader.setCharset(
+                                                                (String) map.get("charset"));
+                                                    } else {
+                                                        throw new DuckityException("The 'charset' argument "
+                                                                + "has to be a string.");
+                                                    }
+                                                }
                                             } else {
                                                 throw new DuckityException("Only files with '.csv' or '.json' "
                                                         + "extensions are supported.");
@@ -224,6 +305,74 @@ public class DatasourceExtractor {
         }
     }
 
+    /**
+     * Checks the partition arguments.
+     *
+     * @param value The partition, as declared in the header.
+     * @return The partition.
+     * @throws DuckityException Exception is thrown if an argument is
+     * missing or invalid.
+     */
+    private PartitionMapping getPartition(Object value)
+            throws DuckityException {
+        if (!(value instanceof Map)) {
+            throw new DuckityException("The 'partition' argument "
+                    + "has to be a map.");
+        }
+        Map<?, ?> map = (Map<?, ?>) value;
+        Set<String> validKeys = new HashSet<String>();
+        validKeys.add("identifier");
+        validKeys.add("key");
+        validKeys.add("output");
+        if (!validKeys.containsAll(map.keySet())) {
+            throw new DuckityException("There are invalid arguments "
+                    + "in 'partition'.");
+        }
+        PartitionMapping result = new PartitionMapping();
+        if (!(map.get("identifier") instanceof String)) {
+            throw new DuckityException("The 'identifier' argument "
+                    + "of 'partition' has to be a string.");
+        }
+        result.setIdentifier((String) map.get("identifier"));
+        if ((map.get("key") instanceof String)
+                || (map.get("key") instanceof Long)) {
+            result.setKey(map.get("key"));
+        } else {
+            throw new DuckityException("The 'key' argument of 'partition' "
+                    + "has to be a column name or position.");
+        }
+        if (map.get("output") != null) {
+            if (!(map.get("output") instanceof String)) {
+                throw new DuckityException("The 'output' argument "
+                        + "of 'partition' has to be a string.");
+            }
+            result.setOutput((String) map.get("output"));
+        }
+        return result;
+    }
+
+    /**
+     * Checks the column types.
+     *
+     * @param map The column types, as declared in the header.
+     * @return The column types.
+     * @throws DuckityException Exception is thrown if a type is not
+     * supported.
+     */
+    private Map<String, String> getTypes(Map<?, ?> map) throws DuckityException {
+        Map<String, String> types = new LinkedHashMap<String, String>();
+        for (Object key : map.keySet()) {
+            Object type = map.get(key);
+            if (!TypedDatasource.TYPES.contains(type)) {
+                throw new DuckityException("The type of column '".concat(
+                        String.valueOf(key)).concat("' has to be 'int', "
+                        + "'long', 'double', 'decimal' or 'string'."));
+            }
+            types.put(String.valueOf(key), (String) type);
+        }
+        return types;
+    }
+
     /**
      * Gets the mappings.
      *
@@ -232,4 +381,13 @@ public class DatasourceExtractor {
     public List<ReaderMapping> getMapping() {
         return mapping;
     }
+
+    /**
+     * Gets the partition, if any.
+     *
+     * @return The partition, or null if there is a single output.
+     */
+    public PartitionMapping getPartition() {
+        return partition;
+    }
 }
@@ -0,0 +1,152 @@
+/**
+ * Duckity -- The template helper
+ * Copyright (c) 2012, Paulo Roberto Massa Cereda
+ * All rights reserved.
+ *
+ * Redistribution and  use in source  and binary forms, with  or without
+ * modification, are  permitted provided  that the  following conditions
+ * are met:
+ *
+ * 1. Redistributions  of source  code must  retain the  above copyright
+ * notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form  must reproduce the above copyright
+ * notice, this list  of conditions and the following  disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * 3. Neither  the name  of the  project's author nor  the names  of its
+ * contributors may be used to  endorse or promote products derived from
+ * this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS  PROVIDED BY THE COPYRIGHT  HOLDERS AND CONTRIBUTORS
+ * "AS IS"  AND ANY  EXPRESS OR IMPLIED  WARRANTIES, INCLUDING,  BUT NOT
+ * LIMITED  TO, THE  IMPLIED WARRANTIES  OF MERCHANTABILITY  AND FITNESS
+ * FOR  A PARTICULAR  PURPOSE  ARE  DISCLAIMED. IN  NO  EVENT SHALL  THE
+ * COPYRIGHT HOLDER OR CONTRIBUTORS BE  LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY,  OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT  NOT LIMITED  TO, PROCUREMENT  OF SUBSTITUTE  GOODS OR  SERVICES;
+ * LOSS  OF USE,  DATA, OR  PROFITS; OR  BUSINESS INTERRUPTION)  HOWEVER
+ * CAUSED AND  ON ANY THEORY  OF LIABILITY, WHETHER IN  CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY
+ * WAY  OUT  OF  THE USE  OF  THIS  SOFTWARE,  EVEN  IF ADVISED  OF  THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.github.cereda.duckity.utils;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Indexes the rows of a datasource by the value of one column. Keys are
+ * compared as strings, so a key read from one CSV file matches the same
+ * text in another, and typed numbers match their plain form. Rows with
+ * an empty or missing key are not indexed. Rows sharing a key are
+ * chained in file order, which keeps the index to one small entry per
+ * key and one integer per row.
+ *
+ * @author Paulo Roberto Massa Cereda
+ * @version 1.1
+ * @since 1.1
+ */
+public class DatasourceIndex {
+
+    private final List<?> rows;
+    private final Map<String, int[]> heads;
+    private final int[] next;
+
+    /**
+     * Constructor.
+     *
+     * @param rows The rows.
+     * @param column The key column, by position or by name.
+     */
+    public DatasourceIndex(List<?> rows, Object column) {
+        this.rows = rows;
+        heads = new LinkedHashMap<String, int[]>();
+        next = new int[rows.size()];
+        for (int i = 0; i < next.length; i++) {
+            next[i] = -1;
+            Object value = Rows.get(rows.get(i), column);
+            String key = value == null ? "" : value.toString();
+            if (key.length() > 0) {
+                int[] head = heads.get(key);
+                if (head == null) {
+                    heads.put(key, new int[]{i, i});
+                } else {
+                    next[head[1]] = i;
+                    head[1] = i;
+                }
+            }
+        }
+    }
+
+    /**
+     * Gets the first row with the key.
+     *
+     * @param key The key.
+     * @return The row, or null if there is none.
+     */
+    public Object get(Object key) {
+        int[] head = find(key);
+        return head == null ? null : rows.get(head[0]);
+    }
+
+    /**
+     * Gets every row with the key, in file order.
+     *
+     * @param key The key.
+     * @return The rows, possibly none.
+     */
+    public List<Object> getAll(Object key) {
+        int[] head = find(key);
+        if (head == null) {
+            return Collections.emptyList();
+        }
+        List<Object> result = new ArrayList<Object>();
+        for (int i = head[0]; i >= 0; i = next[i]) {
+            result.add(rows.get(i));
+        }
+        return result;
+    }
+
+    /**
+     * Checks if there is a row with the key.
+     *
+     * @param key The key.
+     * @return A boolean value indicating if the key exists.
+     */
+    public boolean contains(Object key) {
+        return find(key) != null;
+    }
+
+    /**
+     * Gets the distinct keys, in the order they first appear.
+     *
+     * @return The keys.
+     */
+    public List<String> getKeys() {
+        return new ArrayList<String>(heads.keySet());
+    }
+
+    /**
+     * Gets the number of distinct keys.
+     *
+     * @return The number of keys.
+     */
+    public int size() {
+        return heads.size();
+    }
+
+    /**
+     * Finds the chain of a key.
+     *
+     * @param key The key.
+     * @return The first and last row, or null if the key does not exist.
+     */
+    private int[] find(Object key) {
+        return key == null ? null : heads.get(key.toString());
+    }
+}
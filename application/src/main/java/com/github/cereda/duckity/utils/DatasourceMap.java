@@ -0,0 +1,185 @@
+/**
+ * Duckity -- The template helper
+ * Copyright (c) 2012, Paulo Roberto Massa Cereda
+ * All rights reserved.
+ *
+ * Redistribution and  use in source  and binary forms, with  or without
+ * modification, are  permitted provided  that the  following conditions
+ * are met:
+ *
+ * 1. Redistributions  of source  code must  retain the  above copyright
+ * notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form  must reproduce the above copyright
+ * notice, this list  of conditions and the following  disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * 3. Neither  the name  of the  project's author nor  the names  of its
+ * contributors may be used to  endorse or promote products derived from
+ * this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS  PROVIDED BY THE COPYRIGHT  HOLDERS AND CONTRIBUTORS
+ * "AS IS"  AND ANY  EXPRESS OR IMPLIED  WARRANTIES, INCLUDING,  BUT NOT
+ * LIMITED  TO, THE  IMPLIED WARRANTIES  OF MERCHANTABILITY  AND FITNESS
+ * FOR  A PARTICULAR  PURPOSE  ARE  DISCLAIMED. IN  NO  EVENT SHALL  THE
+ * COPYRIGHT HOLDER OR CONTRIBUTORS BE  LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY,  OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT  NOT LIMITED  TO, PROCUREMENT  OF SUBSTITUTE  GOODS OR  SERVICES;
+ * LOSS  OF USE,  DATA, OR  PROFITS; OR  BUSINESS INTERRUPTION)  HOWEVER
+ * CAUSED AND  ON ANY THEORY  OF LIABILITY, WHETHER IN  CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY
+ * WAY  OUT  OF  THE USE  OF  THIS  SOFTWARE,  EVEN  IF ADVISED  OF  THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.github.cereda.duckity.utils;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+/**
+ * Holds the datasources of a render. Besides the ones already read, a
+ * datasource can be deferred: it is only read when it is first looked up,
+ * so a datasource the template never uses is never touched. Lookups may
+ * come from several threads at once, each deferred datasource is read
+ * once. Iterating the map only shows the datasources read so far.
+ *
+ * @author Paulo Roberto Massa Cereda
+ * @version 1.1
+ * @since 1.1
+ */
+public class DatasourceMap extends HashMap<String, Object> {
+
+    private static final long serialVersionUID = 1L;
+
+    private final Map<String, FutureTask<Object>> deferred;
+    private int late;
+
+    /**
+     * Constructor.
+     */
+    public DatasourceMap() {
+        deferred = new HashMap<String, FutureTask<Object>>();
+        late = 0;
+    }
+
+    /**
+     * Defers a datasource until it is first looked up.
+     *
+     * @param identifier The datasource identifier.
+     * @param loader The loader which reads the datasource.
+     */
+    public synchronized void defer(String identifier,
+            Callable<Object> loader) {
+        super.remove(identifier);
+        deferred.put(identifier, new FutureTask<Object>(loader));
+    }
+
+    /**
+     * Gets the number of deferred datasources which were looked up, and
+     * therefore read, after all.
+     *
+     * @return The number of datasources.
+     */
+    public synchronized int getLateReads() {
+        return late;
+    }
+
+    /**
+     * Gets a datasource, reading it first if it was deferred.
+     *
+     * @param key The datasource identifier.
+     * @return The datasource content, or null if there is none.
+     * @throws LoadingException Exception is thrown if a deferred
+     * datasource cannot be read.
+     */
+    @Override
+    public Object get(Object key) {
+        FutureTask<Object> task;
+        synchronized (this) {
+            task = deferred.get(key);
+            if (task == null) {
+                return super.get(key);
+            }
+        }
+        // only the first lookup reads, the others wait for it
+        task.run();
+        Object value;
+        try {
+            value = task.get();
+        } catch (InterruptedException nothandled) {
+            Thread.currentThread().interrupt();
+            throw new LoadingException(new DuckityException("The "
+                    + "datasource loading was interrupted."));
+        } catch (ExecutionException exception) {
+            if (exception.getCause() instanceof DuckityException) {
+                throw new LoadingException(
+                        (DuckityException) exception.getCause());
+            }
+            throw new LoadingException(new DuckityException("An error "
+                    + "occurred while trying to load a datasource.",
+                    exception.getCause()));
+        }
+        synchronized (this) {
+            if (deferred.get(key) == task) {
+                deferred.remove(key);
+                super.put((String) key, value);
+                late++;
+            }
+        }
+        return value;
+    }
+
+    /**
+     * Checks if there is a datasource, deferred or not.
+     *
+     * @param key The datasource identifier.
+     * @return A boolean value indicating if there is such a datasource.
+     */
+    @Override
+    public synchronized boolean containsKey(Object key) {
+        return deferred.containsKey(key) || super.containsKey(key);
+    }
+
+    /**
+     * Adds a datasource already read, replacing a deferred one.
+     *
+     * @param key The datasource identifier.
+     * @param value The datasource content.
+     * @return The previous content, if it was read.
+     */
+    @Override
+    public synchronized Object put(String key, Object value) {
+        deferred.remove(key);
+        return super.put(key, value);
+    }
+
+    /**
+     * Wraps the failure of a deferred datasource, which surfaces from a
+     * lookup in the middle of a render.
+     */
+    public static class LoadingException extends RuntimeException {
+
+        private static final long serialVersionUID = 1L;
+
+        /**
+         * Constructor.
+         *
+         * @param cause The failure.
+         */
+        public LoadingException(DuckityException cause) {
+            super(cause.getMessage(), cause);
+        }
+
+        /**
+         * Gets the failure.
+         *
+         * @return The failure.
+         */
+        public DuckityException getFailure() {
+            return (DuckityException) getCause();
+        }
+    }
+}
@@ -0,0 +1,629 @@
+/**
+ * Duckity -- The template helper
+ * Copyright (c) 2012, Paulo Roberto Massa Cereda
+ * All rights reserved.
+ *
+ * Redistribution and  use in source  and binary forms, with  or without
+ * modification, are  permitted provided  that the  following conditions
+ * are met:
+ *
+ * 1. Redistributions  of source  code must  retain the  above copyright
+ * notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form  must reproduce the above copyright
+ * notice, this list  of conditions and the following  disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * 3. Neither  the name  of the  project's author nor  the names  of its
+ * contributors may be used to  endorse or promote products derived from
+ * this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS  PROVIDED BY THE COPYRIGHT  HOLDERS AND CONTRIBUTORS
+ * "AS IS"  AND ANY  EXPRESS OR IMPLIED  WARRANTIES, INCLUDING,  BUT NOT
+ * LIMITED  TO, THE  IMPLIED WARRANTIES  OF MERCHANTABILITY  AND FITNESS
+ * FOR  A PARTICULAR  PURPOSE  ARE  DISCLAIMED. IN  NO  EVENT SHALL  THE
+ * COPYRIGHT HOLDER OR CONTRIBUTORS BE  LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY,  OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT  NOT LIMITED  TO, PROCUREMENT  OF SUBSTITUTE  GOODS OR  SERVICES;
+ * LOSS  OF USE,  DATA, OR  PROFITS; OR  BUSINESS INTERRUPTION)  HOWEVER
+ * CAUSED AND  ON ANY THEORY  OF LIABILITY, WHETHER IN  CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY
+ * WAY  OUT  OF  THE USE  OF  THIS  SOFTWARE,  EVEN  IF ADVISED  OF  THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.github.cereda.duckity.utils;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Keeps binary snapshots of parsed CSV datasources in a directory, so
+ * later runs map the snapshot instead of tokenizing the text again.
+ * There is one snapshot per file and set of parse options; it records
+ * the file size, modification time and a hash of sampled blocks of the
+ * content, and is replaced as soon as any of them changes.
+ * <p>
+ * Snapshots are columnar. A column whose values repeat is stored as a
+ * dictionary of distinct values plus one code per row, any other column
+ * as plain UTF-8 bytes plus offsets. The layout, big-endian, is:
+ * <pre>
+ * "DUCKSNP2" key:string rows:int columns:int uniform:byte lists:byte
+ *            [widths:int*]
+ * column* offsets:long[columns] footer:long
+ *
+ * dictionary column: 0:byte entries:int width:int offsets:int[entries+1]
+ *                    bytes codes:width[rows]
+ * plain column:      1:byte length:long width:byte bytes
+ *                    offsets:width[rows+1]
+ * </pre>
+ * Rows narrower than the widest one are kept as they are, so the widths
+ * are only written when rows differ. Values holding unpaired surrogates,
+ * which UTF-8 cannot carry, are never replaced; such datasources simply
+ * get no snapshot.
+ *
+ * @author Paulo Roberto Massa Cereda
+ * @version 1.1
+ * @since 1.1
+ */
+public class DatasourceSnapshots {
+
+    static final byte[] MAGIC = {'D', 'U', 'C', 'K', 'S', 'N', 'P', '2'};
+    static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private static final int BLOCK = 64 * 1024;
+    private static final int SAMPLES = 16;
+    private static final int ENTRIES = 1 << 16;
+
+    private final File directory;
+
+    /**
+     * Constructor.
+     *
+     * @param directory The snapshot directory, created if needed.
+     * @throws DuckityException Exception is thrown if the directory cannot
+     * be used.
+     */
+    public DatasourceSnapshots(File directory) throws DuckityException {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new DuckityException("The snapshot directory '".concat(
+                    directory.getPath()).concat("' cannot be created."));
+        }
+        this.directory = directory;
+    }
+
+    /**
+     * Checks if a datasource can be kept as a snapshot. Only CSV files
+     * held in memory qualify; streams are read once and JSON documents
+     * are trees rather than tables.
+     *
+     * @param rm The mapping.
+     * @return A boolean value indicating if snapshots apply.
+     */
+    public boolean accepts(ReaderMapping rm) {
+        return rm.isCSV() && !rm.isStream();
+    }
+
+    /**
+     * Reads the snapshot of a datasource.
+     *
+     * @param rm The mapping.
+     * @param file The datasource file.
+     * @param key The snapshot key, taken before parsing.
+     * @return The datasource content, or null if there is no valid
+     * snapshot.
+     */
+    public List<Object> read(ReaderMapping rm, File file, String key) {
+        File snapshot = getSnapshot(rm, file);
+        if (!snapshot.isFile()) {
+            return null;
+        }
+        try {
+            return SnapshotDatasource.open(new MappedFile(snapshot), key);
+        } catch (IOException nothandled) {
+            // unreadable snapshot, it will be written again
+        } catch (RuntimeException nothandled) {
+            // truncated or corrupted snapshot, it will be written again
+        }
+        return null;
+    }
+
+    /**
+     * Writes the snapshot of a datasource. The snapshot is written to a
+     * temporary file and moved in place, so concurrent runs never see a
+     * partial one. Failing to write is not an error, the next run simply
+     * parses the file again.
+     *
+     * @param rm The mapping.
+     * @param file The datasource file.
+     * @param key The snapshot key, taken before parsing, so a file
+     * changed in the meantime does not get a stale snapshot.
+     * @param rows The parsed rows.
+     */
+    public void write(ReaderMapping rm, File file, String key, List<?> rows) {
+        File temporary = null;
+        try {
+            File snapshot = getSnapshot(rm, file);
+            temporary = OutputWriter.createTemporary(directory);
+            FileOutputStream stream = new FileOutputStream(temporary);
+            try {
+                write(new Output(stream.getChannel()), key, rows);
+            } finally {
+                stream.close();
+            }
+            Files.move(temporary.toPath(), snapshot.toPath(),
+                    StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+            temporary = null;
+        } catch (IOException nothandled) {
+            // no snapshot this time
+        } catch (IllegalArgumentException nothandled) {
+            // rows which are not a table, no snapshot
+        } finally {
+            if (temporary != null) {
+                temporary.delete();
+            }
+        }
+    }
+
+    /**
+     * Writes the snapshot content.
+     *
+     * @param output The output.
+     * @param key The snapshot key.
+     * @param rows The rows.
+     * @throws IOException Exception is thrown in case of an IO error.
+     */
+    private void write(Output output, String key, List<?> rows)
+            throws IOException {
+        int size = rows.size();
+        String[][] table = new String[size][];
+        int columns = 0;
+        boolean uniform = true;
+        for (int i = 0; i < size; i++) {
+            table[i] = toFields(rows.get(i));
+            if ((i > 0) && (table[i].length != columns)) {
+                uniform = false;
+            }
+            columns = Math.max(columns, table[i].length);
+        }
+        if ((size > 0) && (table[0].length != columns)) {
+            uniform = false;
+        }
+
+        output.write(MAGIC);
+        byte[] bytes = key.getBytes(UTF8);
+        output.writeInt(bytes.length);
+        output.write(bytes);
+        output.writeInt(size);
+        output.writeInt(columns);
+        output.writeByte(uniform ? 1 : 0);
+        // rows come back as the engine built them, arrays or lists
+        output.writeByte((size > 0) && !(rows.get(0) instanceof String[])
+                ? 1 : 0);
+        if (!uniform) {
+            for (int i = 0; i < size; i++) {
+                output.writeInt(table[i].length);
+            }
+        }
+        long[] offsets = new long[columns];
+        for (int column = 0; column < columns; column++) {
+            offsets[column] = output.position();
+            if (!writeDictionary(output, table, column)) {
+                writePlain(output, table, column);
+            }
+        }
+        long footer = output.position();
+        for (int column = 0; column < columns; column++) {
+            output.writeLong(offsets[column]);
+        }
+        output.writeLong(footer);
+        output.flush();
+    }
+
+    /**
+     * Writes a column as a dictionary, if its values repeat enough: at
+     * most one distinct value every other row, and no more than fit in a
+     * two-byte code.
+     *
+     * @param output The output.
+     * @param table The rows.
+     * @param column The column.
+     * @return A boolean value indicating if the column was written.
+     * @throws IOException Exception is thrown in case of an IO error.
+     */
+    private boolean writeDictionary(Output output,
+            String[][] table, int column) throws IOException {
+        int limit = Math.min(ENTRIES, Math.max(16, table.length / 2));
+        Map<String, Integer> dictionary = new HashMap<String, Integer>();
+        List<String> entries = new ArrayList<String>();
+        int[] codes = new int[table.length];
+        for (int i = 0; i < table.length; i++) {
+            String value = column < table[i].length ? table[i][column] : "";
+            Integer code = dictionary.get(value);
+            if (code == null) {
+                if (entries.size() == limit) {
+                    return false;
+                }
+                code = entries.size();
+                dictionary.put(value, code);
+                entries.add(value);
+            }
+            codes[i] = code;
+        }
+        byte[][] encoded = new byte[entries.size()][];
+        long length = 0;
+        for (int i = 0; i < encoded.length; i++) {
+            getLength(entries.get(i));
+            encoded[i] = entries.get(i).getBytes(UTF8);
+            length = length + encoded[i].length;
+        }
+        if (length > Integer.MAX_VALUE) {
+            return false;
+        }
+        int width = encoded.length <= 256 ? 1 : 2;
+        output.writeByte(0);
+        output.writeInt(encoded.length);
+        output.writeInt(width);
+        int offset = 0;
+        output.writeInt(offset);
+        for (byte[] entry : encoded) {
+            offset = offset + entry.length;
+            output.writeInt(offset);
+        }
+        for (byte[] entry : encoded) {
+            output.write(entry);
+        }
+        for (int code : codes) {
+            if (width == 1) {
+                output.writeByte(code);
+            } else {
+                output.writeShort(code);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Writes a column as plain bytes.
+     *
+     * @param output The output.
+     * @param table The rows.
+     * @param column The column.
+     * @throws IOException Exception is thrown in case of an IO error.
+     */
+    private void writePlain(Output output, String[][] table,
+            int column) throws IOException {
+        long[] offsets = new long[table.length + 1];
+        for (int i = 0; i < table.length; i++) {
+            offsets[i + 1] = offsets[i] + (column < table[i].length
+                    ? getLength(table[i][column]) : 0);
+        }
+        boolean narrow = offsets[table.length] <= Integer.MAX_VALUE;
+        output.writeByte(1);
+        output.writeLong(offsets[table.length]);
+        output.writeByte(narrow ? 4 : 8);
+        for (int i = 0; i < table.length; i++) {
+            if (column < table[i].length) {
+                output.write(table[i][column].getBytes(UTF8));
+            }
+        }
+        for (long offset : offsets) {
+            if (narrow) {
+                output.writeInt((int) offset);
+            } else {
+                output.writeLong(offset);
+            }
+        }
+    }
+
+    /**
+     * Gets the length of a string encoded in UTF-8, without encoding it.
+     *
+     * @param value The string.
+     * @return The length, in bytes.
+     * @throws IllegalArgumentException Exception is thrown if the string
+     * holds an unpaired surrogate, which the encoder would replace.
+     */
+    private int getLength(String value) {
+        int length = 0;
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c < 0x80) {
+                length++;
+            } else if (c < 0x800) {
+                length = length + 2;
+            } else if (Character.isHighSurrogate(c)
+                    && (i + 1 < value.length())
+                    && Character.isLowSurrogate(value.charAt(i + 1))) {
+                length = length + 4;
+                i++;
+            } else if (Character.isSurrogate(c)) {
+                throw new IllegalArgumentException("Unpaired surrogate.");
+            } else {
+                length = length + 3;
+            }
+        }
+        return length;
+    }
+
+    /**
+     * Gets the fields of a row.
+     *
+     * @param row The row.
+     * @return The fields.
+     */
+    private String[] toFields(Object row) {
+        if (row instanceof String[]) {
+            return (String[]) row;
+        }
+        if (row instanceof List) {
+            List<?> list = (List<?>) row;
+            String[] fields = new String[list.size()];
+            for (int i = 0; i < fields.length; i++) {
+                fields[i] = String.valueOf(list.get(i));
+            }
+            return fields;
+        }
+        throw new IllegalArgumentException();
+    }
+
+    /**
+     * Gets the snapshot file of a datasource, which depends on the file
+     * path and the parse options only, so a newer snapshot replaces the
+     * older one.
+     *
+     * @param rm The mapping.
+     * @param file The datasource file.
+     * @return The snapshot file.
+     */
+    private File getSnapshot(ReaderMapping rm, File file) {
+        return new File(directory, toHex(digest(DatasourceCache.getPath(
+                file).concat("|").concat(DatasourceCache.getOptions(rm))
+                .getBytes(UTF8))).concat(".snapshot"));
+    }
+
+    /**
+     * Gets the key a snapshot is checked against: the file path, size,
+     * modification time, parse options and the hash of sampled blocks.
+     *
+     * @param rm The mapping.
+     * @param file The datasource file.
+     * @return The key.
+     * @throws IOException Exception is thrown if the file cannot be read.
+     */
+    public String getKey(ReaderMapping rm, File file) throws IOException {
+        StringBuilder key = new StringBuilder(DatasourceCache.getPath(file));
+        key.append('|').append(file.length());
+        key.append('|').append(file.lastModified());
+        key.append('|').append(DatasourceCache.getOptions(rm));
+        key.append('|').append(toHex(sample(file)));
+        return key.toString();
+    }
+
+    /**
+     * Hashes evenly spaced blocks of the file, including the first and
+     * the last one. Small files are hashed as a whole.
+     *
+     * @param file The file.
+     * @return The hash.
+     * @throws IOException Exception is thrown if the file cannot be read.
+     */
+    private byte[] sample(File file) throws IOException {
+        MessageDigest digest = getDigest();
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            long length = raf.length();
+            byte[] block = new byte[BLOCK];
+            long step = length <= (long) BLOCK * SAMPLES ? BLOCK
+                    : (length - BLOCK) / (SAMPLES - 1);
+            for (long position = 0; position < length; position += step) {
+                if (length - position < BLOCK) {
+                    position = Math.max(0, length - BLOCK);
+                }
+                raf.seek(position);
+                int read = (int) Math.min(BLOCK, length - position);
+                raf.readFully(block, 0, read);
+                digest.update(block, 0, read);
+                if (position + read >= length) {
+                    break;
+                }
+            }
+        } finally {
+            raf.close();
+        }
+        return digest.digest();
+    }
+
+    /**
+     * Hashes a byte array.
+     *
+     * @param bytes The bytes.
+     * @return The hash.
+     */
+    private byte[] digest(byte[] bytes) {
+        return getDigest().digest(bytes);
+    }
+
+    /**
+     * Gets a new SHA-256 digest.
+     *
+     * @return The digest.
+     */
+    static MessageDigest getDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException nothandled) {
+            // every Java platform provides SHA-256
+            throw new IllegalStateException(nothandled);
+        }
+    }
+
+    /**
+     * Hashes the content of a file.
+     *
+     * @param file The file.
+     * @return The hash, in hexadecimal.
+     * @throws IOException Exception is thrown if the file cannot be read.
+     */
+    static String hash(File file) throws IOException {
+        MessageDigest digest = getDigest();
+        FileChannel channel = new FileInputStream(file).getChannel();
+        try {
+            ByteBuffer buffer = ByteBuffer.allocate(1 << 20);
+            while (channel.read(buffer) != -1) {
+                buffer.flip();
+                digest.update(buffer);
+                buffer.clear();
+            }
+        } finally {
+            channel.close();
+        }
+        return toHex(digest.digest());
+    }
+
+    /**
+     * Converts bytes to hexadecimal.
+     *
+     * @param bytes The bytes.
+     * @return The hexadecimal string.
+     */
+    static String toHex(byte[] bytes) {
+        StringBuilder hex = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            hex.append(Character.forDigit((b >> 4) & 0xf, 16));
+            hex.append(Character.forDigit(b & 0xf, 16));
+        }
+        return hex.toString();
+    }
+
+    /**
+     * Writes big-endian values through a buffer, keeping track of the
+     * position.
+     */
+    private static class Output {
+
+        private final FileChannel channel;
+        private final ByteBuffer buffer;
+        private long flushed;
+
+        /**
+         * Constructor.
+         *
+         * @param channel The file channel.
+         */
+        Output(FileChannel channel) {
+            this.channel = channel;
+            buffer = ByteBuffer.allocate(1 << 18);
+            flushed = 0;
+        }
+
+        /**
+         * Gets the position.
+         *
+         * @return The number of bytes written so far.
+         */
+        long position() {
+            return flushed + buffer.position();
+        }
+
+        /**
+         * Writes a byte.
+         *
+         * @param value The byte.
+         * @throws IOException Exception is thrown in case of an IO error.
+         */
+        void writeByte(int value) throws IOException {
+            ensure(1);
+            buffer.put((byte) value);
+        }
+
+        /**
+         * Writes a short.
+         *
+         * @param value The short.
+         * @throws IOException Exception is thrown in case of an IO error.
+         */
+        void writeShort(int value) throws IOException {
+            ensure(2);
+            buffer.putShort((short) value);
+        }
+
+        /**
+         * Writes an integer.
+         *
+         * @param value The integer.
+         * @throws IOException Exception is thrown in case of an IO error.
+         */
+        void writeInt(int value) throws IOException {
+            ensure(4);
+            buffer.putInt(value);
+        }
+
+        /**
+         * Writes a long.
+         *
+         * @param value The long.
+         * @throws IOException Exception is thrown in case of an IO error.
+         */
+        void writeLong(long value) throws IOException {
+            ensure(8);
+            buffer.putLong(value);
+        }
+
+        /**
+         * Writes bytes.
+         *
+         * @param bytes The bytes.
+         * @throws IOException Exception is thrown in case of an IO error.
+         */
+        void write(byte[] bytes) throws IOException {
+            int offset = 0;
+            while (offset < bytes.length) {
+                ensure(1);
+                int length = Math.min(buffer.remaining(),
+                        bytes.length - offset);
+                buffer.put(bytes, offset, length);
+                offset = offset + length;
+            }
+        }
+
+        /**
+         * Writes the buffered bytes.
+         *
+         * @throws IOException Exception is thrown in case of an IO error.
+         */
+        void flush() throws IOException {
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                flushed = flushed + channel.write(buffer);
+            }
+            buffer.clear();
+        }
+
+        /**
+         * Makes room in the buffer.
+         *
+         * @param length The number of bytes needed.
+         * @throws IOException Exception is thrown in case of an IO error.
+         */
+        private void ensure(int length) throws IOException {
+            if (buffer.remaining() < length) {
+                flush();
+            }
+        }
+    }
+}
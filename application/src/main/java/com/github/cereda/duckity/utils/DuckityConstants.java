@@ -44,5 +44,6 @@ public class DuckityConstants {
 
     public static final String VERSION = "1.1";
     public static final String COPYRIGHTYEAR = "2012";
+    public static final int PORT = 7720;
 
 }
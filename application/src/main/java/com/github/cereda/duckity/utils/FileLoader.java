@@ -33,22 +33,32 @@
  */
 package com.github.cereda.duckity.utils;
 
+import au.com.bytecode.opencsv.CSVParser;
 import au.com.bytecode.opencsv.CSVReader;
+import java.io.Closeable;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileReader;
 import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.Charset;
 import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.LinkedHashMap;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
-import org.json.simple.parser.ContainerFactory;
-import org.json.simple.parser.JSONParser;
-import org.json.simple.parser.ParseException;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 
 /**
- * Loads the datasource file.
+ * Loads the datasource file. When the datasources the template refers to
+ * are known, only those are read up front; the others are read if and
+ * when they are looked up, so a datasource the template does not use is
+ * never read.
  *
  * @author Paulo Roberto Massa Cereda
  * @version 1.1
@@ -56,8 +66,13 @@ import org.json.simple.parser.ParseException;
  */
 public class FileLoader {
 
-    private final HashMap content;
+    private final DatasourceMap content;
     private final List<ReaderMapping> mapping;
+    private Set<String> references;
+    private int threads;
+    private DatasourceCache cache;
+    private RenderStatistics statistics;
+    private DatasourceSnapshots snapshots;
 
     /**
      * Constructor.
@@ -66,17 +81,77 @@ public class FileLoader {
      */
     public FileLoader(List<ReaderMapping> mapping) {
         this.mapping = mapping;
-        content = new HashMap();
+        content = new DatasourceMap();
+        references = null;
+        threads = Runtime.getRuntime().availableProcessors();
+        cache = null;
+        statistics = null;
+        snapshots = null;
     }
 
     /**
-     * Loads all datasources.
+     * Sets the maximum number of datasources loaded at the same time.
+     *
+     * @param threads The number of threads.
+     */
+    public void setThreads(int threads) {
+        this.threads = Math.max(1, threads);
+    }
+
+    /**
+     * Sets the cache shared with other loaders of the same run.
+     *
+     * @param cache The datasource cache.
+     */
+    public void setCache(DatasourceCache cache) {
+        this.cache = cache;
+    }
+
+    /**
+     * Sets the record where every datasource is measured.
+     *
+     * @param statistics The render statistics.
+     */
+    public void setStatistics(RenderStatistics statistics) {
+        this.statistics = statistics;
+    }
+
+    /**
+     * Sets the store where parsed datasources are kept as snapshots.
+     *
+     * @param snapshots The snapshot store.
+     */
+    public void setSnapshots(DatasourceSnapshots snapshots) {
+        this.snapshots = snapshots;
+    }
+
+    /**
+     * Sets the datasources the template refers to, which are the only
+     * ones read up front. Streamed datasources are always opened, they
+     * are not read until used anyway.
+     *
+     * @param references The datasource identifiers, or null if the
+     * template may refer to any of them.
+     */
+    public void setReferences(Set<String> references) {
+        this.references = references;
+    }
+
+    /**
+     * Loads all datasources. The files are read concurrently, but errors
+     * are reported as if they were read one after another, that is, the
+     * first failing datasource in declaration order wins. Datasources the
+     * template does not refer to are only checked for existence, and read
+     * on first use. If any of them fails, every datasource already opened,
+     * including the ones read after the failing one, is closed.
      *
      * @throws DuckityException Exception is thrown if datasource is not found
      * or if extension is invalid.
      */
     public void load() throws DuckityException {
         List<String> identifiers = new ArrayList<String>();
+        List<File> files = new ArrayList<File>();
+        DuckityException failure = null;
         for (ReaderMapping rm : mapping) {
             File file = new File(rm.getFile());
             if (file.exists()) {
@@ -84,108 +159,490 @@ public class FileLoader {
                 if (!identifiers.contains(rm.getIdentifier())) {
                     identifiers.add(rm.getIdentifier());
                 } else {
-                    throw new DuckityException("There are duplicated "
+                    failure = new DuckityException("There are duplicated "
                             + "identifiers [".concat(rm.
                                     getIdentifier()).concat("]."));
+                    break;
                 }
+                files.add(file);
+            } else {
+                failure = new DuckityException("File '".concat(file.
+                        getName()).concat("' does not exist."));
+                break;
+            }
+        }
+
+        List<ReaderMapping> eager = new ArrayList<ReaderMapping>();
+        List<File> targets = new ArrayList<File>();
+        for (int i = 0; i < files.size(); i++) {
+            final ReaderMapping rm = mapping.get(i);
+            final File file = files.get(i);
+            if ((references == null) || rm.isStream()
+                    || references.contains(rm.getIdentifier())) {
+                eager.add(rm);
+                targets.add(file);
+            } else {
+                content.defer(rm.getIdentifier(), new Callable<Object>() {
+                    public Object call() throws DuckityException {
+                        return read(rm, file);
+                    }
+                });
+            }
+        }
 
-                if (rm.isCSV()) {
-
-                    try {
-                        CSVReader reader;
-                        if (rm.getSeparator() == null) {
-                            reader = new CSVReader(new FileReader(file));
-                        } else {
-                            if (rm.getQuotechar() == null) {
-                                reader = new CSVReader(new FileReader(file),
-                                        rm.getSeparator().charAt(0));
-                            } else {
-                                if (rm.getEscape() == null) {
-
-                                    reader = new CSVReader(new FileReader(file),
-                                            rm.getSeparator().charAt(0),
-                                            rm.getQuotechar().charAt(0));
-                                } else {
-
-                                    if (!rm.isFl()) {
-                                        reader = new CSVReader(
-                                                new FileReader(file),
-                                                rm.getSeparator().charAt(0),
-                                                rm.getQuotechar().charAt(0),
-                                                rm.getEscape().charAt(0));
-                                    } else {
-                                        if (!rm.isFsq()) {
-                                            reader = new CSVReader(
-                                                    new FileReader(file),
-                                                    rm.getSeparator().charAt(0),
-                                                    rm.getQuotechar().charAt(0),
-                                                    rm.getEscape().charAt(0),
-                                                    rm.getLine());
-                                        } else {
-                                            if (!rm.isIlws()) {
-                                                reader = new CSVReader(
-                                                        new FileReader(file),
-                                                        rm.getSeparator().charAt(0),
-                                                        rm.getQuotechar().charAt(0),
-                                                        rm.getEscape().charAt(0),
-                                                        rm.getLine(),
-                                                        rm.isStrictquote());
-                                            } else {
-                                                reader = new CSVReader(
-                                                        new FileReader(file),
-                                                        rm.getSeparator().charAt(0),
-                                                        rm.getQuotechar().charAt(0),
-                                                        rm.getEscape().charAt(0),
-                                                        rm.getLine(),
-                                                        rm.isStrictquote(),
-                                                        rm.isIgnoreleadingwhitespace());
-                                            }
-                                        }
-                                    }
-                                }
-                            }
+        int size = eager.size();
+        List<Future<Object>> results = new ArrayList<Future<Object>>();
+        ExecutorService executor = null;
+        int loaded = 0;
+        boolean done = false;
+        try {
+            if ((size < 2) || (threads < 2)) {
+                for (; loaded < size; loaded++) {
+                    content.put(eager.get(loaded).getIdentifier(),
+                            read(eager.get(loaded), targets.get(loaded)));
+                }
+            } else {
+                executor = Executors.newFixedThreadPool(
+                        Math.min(threads, size), new ThreadFactory() {
+                    public Thread newThread(Runnable runnable) {
+                        Thread thread = new Thread(runnable,
+                                "duckity-loader");
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+                for (int i = 0; i < size; i++) {
+                    final ReaderMapping rm = eager.get(i);
+                    final File file = targets.get(i);
+                    results.add(executor.submit(new Callable<Object>() {
+                        public Object call() throws DuckityException {
+                            return read(rm, file);
                         }
+                    }));
+                }
+                for (; loaded < size; loaded++) {
+                    content.put(eager.get(loaded).getIdentifier(),
+                            await(results.get(loaded)));
+                }
+            }
+            done = true;
+        } finally {
+            if (!done) {
+                release();
+                discard(results, loaded);
+            }
+            if (executor != null) {
+                executor.shutdownNow();
+            }
+        }
+
+        if (failure != null) {
+            release();
+            throw failure;
+        }
+    }
+
+    /**
+     * Waits for a datasource to be loaded.
+     *
+     * @param result The pending result.
+     * @return The datasource content.
+     * @throws DuckityException Exception is thrown if the datasource could
+     * not be loaded.
+     */
+    private Object await(Future<Object> result) throws DuckityException {
+        try {
+            return result.get();
+        } catch (InterruptedException nothandled) {
+            Thread.currentThread().interrupt();
+            throw new DuckityException("The datasource loading "
+                    + "was interrupted.");
+        } catch (ExecutionException exception) {
+            if (exception.getCause() instanceof DuckityException) {
+                throw (DuckityException) exception.getCause();
+            }
+            throw new DuckityException("An error occurred while trying to "
+                    + "load a datasource.", exception.getCause());
+        }
+    }
+
+    /**
+     * Closes the datasources already loaded, in case of failure.
+     */
+    private void release() {
+        for (Object value : content.values()) {
+            close(value);
+        }
+    }
+
+    /**
+     * Waits for the reads still pending after a failure and closes what
+     * they loaded, so no stream outlives the failing datasource.
+     *
+     * @param results The pending results.
+     * @param from The first result not added to the content.
+     */
+    private void discard(List<Future<Object>> results, int from) {
+        for (int i = from; i < results.size(); i++) {
+            try {
+                close(results.get(i).get());
+            } catch (InterruptedException nothandled) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (ExecutionException nothandled) {
+                // already failing, nothing else to do
+            }
+        }
+    }
+
+    /**
+     * Closes a loaded datasource, if it holds an open file.
+     *
+     * @param value The datasource content.
+     */
+    private void close(Object value) {
+        if (value instanceof Closeable) {
+            try {
+                ((Closeable) value).close();
+            } catch (IOException nothandled) {
+                // already failing, nothing else to do
+            }
+        }
+    }
+
+    /**
+     * Reads a single datasource.
+     *
+     * @param rm The mapping.
+     * @param file The datasource file.
+     * @return The datasource content.
+     * @throws DuckityException Exception is thrown if the file cannot be
+     * read or parsed.
+     */
+    private Object read(final ReaderMapping rm, final File file)
+            throws DuckityException {
+        long[] mark = statistics == null ? null : statistics.begin();
+        Object value;
+        if ((cache == null) || rm.isStream()) {
+            value = parse(rm, file);
+        } else {
+            value = cache.get(rm, file, new Callable<Object>() {
+                public Object call() throws DuckityException {
+                    return parse(rm, file);
+                }
+            });
+        }
+        if (statistics != null) {
+            statistics.datasource(rm, mark, value);
+        }
+        return value;
+    }
 
-                        List<String[]> lines = reader.readAll();
-                        reader.close();
-                        content.put(rm.getIdentifier(), lines);
-                    } catch (IOException nothandled) {
-                        throw new DuckityException("An IO error occurred "
-                                + "while trying to read from '".concat(
-                                        file.getName()).concat("'."));
+    /**
+     * Parses a single datasource, applying the header row and the column
+     * types if there are any.
+     *
+     * @param rm The mapping.
+     * @param file The datasource file.
+     * @return The datasource content.
+     * @throws DuckityException Exception is thrown if the file cannot be
+     * read or parsed.
+     */
+    private Object parse(ReaderMapping rm, File file)
+            throws DuckityException {
+        Object content = restore(rm, file);
+        if (rm.isCSV() && (rm.getTypes() != null)) {
+            return TypedDatasource.create((List<?>) content, rm.getTypes(),
+                    file.getName());
+        }
+        if (rm.isCSV() && rm.isHeader() && !rm.isStream()) {
+            return new NamedDatasource((List<?>) content);
+        }
+        return content;
+    }
+
+    /**
+     * Parses a single datasource, through its snapshot when there is one.
+     *
+     * @param rm The mapping.
+     * @param file The datasource file.
+     * @return The datasource content.
+     * @throws DuckityException Exception is thrown if the file cannot be
+     * read or parsed.
+     */
+    private Object restore(ReaderMapping rm, File file)
+            throws DuckityException {
+        if ((snapshots == null) || !snapshots.accepts(rm)) {
+            return tokenize(rm, file);
+        }
+        String key;
+        try {
+            key = snapshots.getKey(rm, file);
+        } catch (IOException nothandled) {
+            // reported by the parser
+            return tokenize(rm, file);
+        }
+        List<Object> rows = snapshots.read(rm, file, key);
+        if (rows != null) {
+            return rows;
+        }
+        Object content = tokenize(rm, file);
+        snapshots.write(rm, file, key, (List<?>) content);
+        return content;
+    }
+
+    /**
+     * Tokenizes a single datasource from its text.
+     *
+     * @param rm The mapping.
+     * @param file The datasource file.
+     * @return The datasource content.
+     * @throws DuckityException Exception is thrown if the file cannot be
+     * read or parsed.
+     */
+    private Object tokenize(ReaderMapping rm, File file)
+            throws DuckityException {
+        if (rm.isCSV()) {
+
+            try {
+                if ("mapped".equals(rm.getEngine()) && !rm.isStream()
+                        && (file.length() > ChunkedCSVParser.THRESHOLD)) {
+                    return new ChunkedCSVParser(new MappedFile(file), rm,
+                            getCharset(rm)).parse();
+                }
+                RowReader reader = createRowReader(rm, file);
+                if (rm.isStream()) {
+                    if (rm.isHeader()) {
+                        reader = createNamedReader(reader);
                     }
+                    return new StreamingDatasource(reader, file.getName());
                 } else {
-                    JSONParser parser = new JSONParser();
-                    ContainerFactory factory = new ContainerFactory() {
-                        public List creatArrayContainer() {
-                            return new LinkedList();
-                        }
+                    List<Object> lines = new ArrayList<Object>();
+                    Object line;
+                    while ((line = reader.readNext()) != null) {
+                        lines.add(line);
+                    }
+                    reader.close();
+                    return lines;
+                }
+            } catch (IOException nothandled) {
+                throw new DuckityException("An IO error occurred "
+                        + "while trying to read from '".concat(
+                                file.getName()).concat("'."));
+            }
+        } else {
+            Charset charset = getCharset(rm);
+            try {
+                Reader freader = new InputStreamReader(
+                        new FileInputStream(file), charset);
+                if (rm.isStream()) {
+                    return new StreamingDatasource(createJsonReader(
+                            freader, file), file.getName());
+                }
+                try {
+                    Object document = new JsonReader(freader).readDocument();
+                    if ((document instanceof Map)
+                            || (document instanceof List)) {
+                        return document;
+                    }
+                } catch (DuckityException nothandled) {
+                    // reported below
+                } finally {
+                    freader.close();
+                }
+                throw new DuckityException("An error occurred while "
+                        + "trying to parse '".concat(
+                                file.getName()).concat("'."));
+            } catch (IOException nothandled) {
+                throw new DuckityException("An IO error occurred while "
+                        + "trying to read from '".concat(
+                                file.getName()).concat("'."));
+            }
+        }
+    }
 
-                        public Map createObjectContainer() {
-                            return new LinkedHashMap();
+    /**
+     * Creates the row reader which pulls the elements of a top-level JSON
+     * array one at a time. Null elements are skipped.
+     *
+     * @param freader The file reader.
+     * @param file The datasource file.
+     * @return A new row reader.
+     * @throws IOException Exception is thrown if the file cannot be read.
+     * @throws DuckityException Exception is thrown if the file does not
+     * hold an array.
+     */
+    private RowReader createJsonReader(final Reader freader, File file)
+            throws IOException, DuckityException {
+        final JsonReader jreader = new JsonReader(freader);
+        try {
+            jreader.beginArray();
+        } catch (DuckityException nothandled) {
+            freader.close();
+            throw new DuckityException("Only JSON files holding an array "
+                    + "can be streamed, check '".concat(file.getName()).
+                    concat("'."));
+        }
+        return new RowReader() {
+            public Object readNext() throws IOException {
+                try {
+                    while (jreader.hasNext()) {
+                        Object value = jreader.readValue();
+                        if (value != null) {
+                            return value;
                         }
-                    };
-
-                    try {
-                        FileReader freader = new FileReader(rm.getFile());
-                        Map jheader = (Map) parser.parse(freader, factory);
-                        content.put(rm.getIdentifier(), jheader);
-                        freader.close();
-                    } catch (IOException nothandled) {
-                        throw new DuckityException("An IO error occurred while "
-                                + "trying to read from '".concat(
-                                        file.getName()).concat("'."));
-                    } catch (ParseException nothandled) {
-                        throw new DuckityException("An error occurred while "
-                                + "trying to parse '".concat(
-                                        file.getName()).concat("'."));
                     }
+                    jreader.end();
+                    return null;
+                } catch (DuckityException exception) {
+                    throw new IOException(exception.getMessage(), exception);
                 }
-            } else {
-                throw new DuckityException("File '".concat(file.getName()).
-                        concat("' does not exist."));
             }
+
+            public void close() throws IOException {
+                freader.close();
+            }
+        };
+    }
+
+    /**
+     * Creates the row reader according to the chosen engine.
+     *
+     * @param rm The mapping.
+     * @param file The datasource file.
+     * @return A new row reader.
+     * @throws IOException Exception is thrown if the file cannot be opened.
+     * @throws DuckityException Exception is thrown if the options are
+     * invalid.
+     */
+    private RowReader createRowReader(ReaderMapping rm, File file)
+            throws IOException, DuckityException {
+        if ("mapped".equals(rm.getEngine())) {
+            return new MappedCSVReader(new MappedFile(file), rm,
+                    getCharset(rm));
+        }
+        final CSVReader reader = createReader(rm, file);
+        return new RowReader() {
+            public Object readNext() throws IOException {
+                return reader.readNext();
+            }
+
+            public void close() throws IOException {
+                reader.close();
+            }
+        };
+    }
+
+    /**
+     * Creates the row reader which takes the first row as the header and
+     * returns every other row as a named row.
+     *
+     * @param reader The row reader.
+     * @return A new row reader.
+     */
+    private RowReader createNamedReader(final RowReader reader) {
+        return new RowReader() {
+
+            private ColumnIndex index = null;
+
+            public Object readNext() throws IOException {
+                if (index == null) {
+                    Object header = reader.readNext();
+                    if (header == null) {
+                        return null;
+                    }
+                    index = new ColumnIndex(Rows.toList(header));
+                }
+                Object row = reader.readNext();
+                return row == null ? null
+                        : new NamedRow(index, Rows.toList(row));
+            }
+
+            public void close() throws IOException {
+                reader.close();
+            }
+        };
+    }
+
+    /**
+     * Gets the charset of the datasource.
+     *
+     * @param rm The mapping.
+     * @return The charset, or the platform default if none was set.
+     * @throws DuckityException Exception is thrown if the charset is not
+     * supported.
+     */
+    private Charset getCharset(ReaderMapping rm) throws DuckityException {
+        if (rm.getCharset() == null) {
+            return Charset.defaultCharset();
+        }
+        try {
+            return Charset.forName(rm.getCharset());
+        } catch (IllegalArgumentException nothandled) {
+            throw new DuckityException("The charset '".concat(
+                    rm.getCharset()).concat("' is not supported."));
+        }
+    }
+
+    /**
+     * Opens the datasource file for reading.
+     *
+     * @param rm The mapping.
+     * @param file The datasource file.
+     * @return A new reader.
+     * @throws IOException Exception is thrown if the file cannot be opened.
+     * @throws DuckityException Exception is thrown if the charset is not
+     * supported.
+     */
+    private Reader openReader(ReaderMapping rm, File file)
+            throws IOException, DuckityException {
+        if (rm.getCharset() == null) {
+            return new FileReader(file);
+        }
+        return new InputStreamReader(new FileInputStream(file),
+                getCharset(rm));
+    }
+
+    /**
+     * Creates the CSV reader according to the mapping options. Every
+     * option which is not set takes the opencsv default on its own, as the
+     * 'mapped' engine does, so both engines read a file the same way.
+     *
+     * @param rm The mapping.
+     * @param file The datasource file.
+     * @return A new CSV reader.
+     * @throws IOException Exception is thrown if the file cannot be opened.
+     * @throws DuckityException Exception is thrown if the charset is not
+     * supported or if the characters clash.
+     */
+    private CSVReader createReader(ReaderMapping rm, File file)
+            throws IOException, DuckityException {
+        char separator = rm.getSeparator() == null
+                ? CSVParser.DEFAULT_SEPARATOR : rm.getSeparator().charAt(0);
+        char quotechar = rm.getQuotechar() == null
+                ? CSVParser.DEFAULT_QUOTE_CHARACTER
+                : rm.getQuotechar().charAt(0);
+        char escape = rm.getEscape() == null
+                ? CSVParser.DEFAULT_ESCAPE_CHARACTER
+                : rm.getEscape().charAt(0);
+        if (separator == CSVParser.NULL_CHARACTER) {
+            throw new DuckityException("The separator character "
+                    + "must be defined.");
+        }
+        if (((quotechar != CSVParser.NULL_CHARACTER)
+                && ((quotechar == separator) || (quotechar == escape)))
+                || ((escape != CSVParser.NULL_CHARACTER)
+                && (escape == separator))) {
+            throw new DuckityException("The separator, quote, and escape "
+                    + "characters must be different.");
         }
+        return new CSVReader(openReader(rm, file), separator, quotechar,
+                escape, rm.isFl() ? rm.getLine()
+                : CSVReader.DEFAULT_SKIP_LINES,
+                rm.isFsq() ? rm.isStrictquote()
+                : CSVParser.DEFAULT_STRICT_QUOTES,
+                rm.isIlws() ? rm.isIgnoreleadingwhitespace()
+                : CSVParser.DEFAULT_IGNORE_LEADING_WHITESPACE);
     }
 
     /**
@@ -193,7 +650,7 @@ public class FileLoader {
      *
      * @return The datasources content.
      */
-    public HashMap getContent() {
+    public DatasourceMap getContent() {
         return content;
     }
 }
@@ -33,13 +33,17 @@
  */
 package com.github.cereda.duckity.utils;
 
-import java.io.BufferedReader;
+import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.FileReader;
 import java.io.IOException;
 
 /**
- * Parses the file into header and template.
+ * Parses the file into header and template. The file is decoded in a
+ * single pass, through a fixed read buffer, into a builder sized after
+ * the file, normalizing line breaks and dropping the '[TEMPLATE]' lines on
+ * the way; the header and the template are then copied out of the
+ * builder, once each.
  *
  * @author Paulo Roberto Massa Cereda
  * @version 1.1
@@ -47,16 +51,19 @@ import java.io.IOException;
  */
 public class FileParser {
 
-    private final StringBuilder header;
-    private final StringBuilder template;
+    private static final String MARKER = "[TEMPLATE]";
+    private static final int BUFFER = 1 << 16;
+
+    private String header;
+    private String template;
     private boolean raw;
 
     /**
      * Constructor.
      */
     public FileParser() {
-        header = new StringBuilder();
-        template = new StringBuilder();
+        header = "";
+        template = "";
         raw = true;
     }
 
@@ -69,43 +76,106 @@ public class FileParser {
      */
     public void load(String filename) throws DuckityException {
         try {
-            FileReader reader = new FileReader(filename);
-            BufferedReader buffer = new BufferedReader(reader);
-            String line;
-            boolean onheader = true;
+            File file = new File(filename);
+            FileReader reader = new FileReader(file);
+            StringBuilder text = new StringBuilder((int) Math.min(
+                    Integer.MAX_VALUE - 16, file.length() + 16));
+            int split = -1;
             try {
-                while ((line = buffer.readLine()) != null) {
-                    if (line.equalsIgnoreCase("[TEMPLATE]")) {
-                        raw = false;
-                        onheader = false;
-                    } else {
-                        if (onheader) {
-                            header.append(line).append("\n");
+                char[] buffer = new char[BUFFER];
+                int start = 0;
+                boolean cr = false;
+                int read;
+                while ((read = reader.read(buffer)) != -1) {
+                    int from = 0;
+                    for (int i = 0; i < read; i++) {
+                        char c = buffer[i];
+                        if ((c != '\n') && (c != '\r')) {
+                            continue;
+                        }
+                        if (i > from) {
+                            text.append(buffer, from, i - from);
+                            cr = false;
+                        }
+                        from = i + 1;
+                        if ((c == '\n') && cr) {
+                            // the second half of a CR LF pair
+                            cr = false;
+                            continue;
+                        }
+                        cr = c == '\r';
+                        if (isMarker(text, start)) {
+                            text.setLength(start);
+                            if (split == -1) {
+                                split = start;
+                            }
                         } else {
-                            template.append(line).append("\n");
+                            text.append('\n');
                         }
+                        start = text.length();
+                    }
+                    if (read > from) {
+                        text.append(buffer, from, read - from);
+                        cr = false;
+                    }
+                }
+                if (text.length() > start) {
+                    if (isMarker(text, start)) {
+                        text.setLength(start);
+                        if (split == -1) {
+                            split = start;
+                        }
+                    } else {
+                        text.append('\n');
                     }
                 }
-                buffer.close();
                 reader.close();
             } catch (IOException nothandled) {
                 throw new DuckityException("An IO error occurred while "
                         + "trying to read from '".concat(
                                 filename).concat("'."));
             }
+            if (split == -1) {
+                header = text.toString();
+                template = "";
+            } else {
+                raw = false;
+                header = text.substring(0, split);
+                template = text.substring(split);
+            }
         } catch (FileNotFoundException nothandled) {
             throw new DuckityException("File '".concat(
                     filename).concat("' does not exist."));
         }
     }
 
+    /**
+     * Checks if the last line is the '[TEMPLATE]' marker, in any case.
+     *
+     * @param text The text read so far.
+     * @param start The start of the last line.
+     * @return A boolean value indicating if the line is the marker.
+     */
+    private boolean isMarker(StringBuilder text, int start) {
+        if (text.length() - start != MARKER.length()) {
+            return false;
+        }
+        for (int i = 0; i < MARKER.length(); i++) {
+            if (Character.toUpperCase(text.charAt(start + i))
+                    != MARKER.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
     /**
      * Gets the header.
      *
      * @return The header.
      */
     public String getHeader() {
-        return header.toString();
+        return header;
     }
 
     /**
@@ -114,10 +184,10 @@ public class FileParser {
      * @return The template.
      */
     public String getTemplate() {
-        if ((!header.toString().isEmpty()) && (template.toString().isEmpty())) {
-            return header.toString();
+        if ((!header.isEmpty()) && (template.isEmpty())) {
+            return header;
         } else {
-            return template.toString();
+            return template;
         }
     }
 
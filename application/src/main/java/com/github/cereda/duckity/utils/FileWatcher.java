@@ -0,0 +1,154 @@
+/**
+ * Duckity -- The template helper
+ * Copyright (c) 2012, Paulo Roberto Massa Cereda
+ * All rights reserved.
+ *
+ * Redistribution and  use in source  and binary forms, with  or without
+ * modification, are  permitted provided  that the  following conditions
+ * are met:
+ *
+ * 1. Redistributions  of source  code must  retain the  above copyright
+ * notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form  must reproduce the above copyright
+ * notice, this list  of conditions and the following  disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * 3. Neither  the name  of the  project's author nor  the names  of its
+ * contributors may be used to  endorse or promote products derived from
+ * this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS  PROVIDED BY THE COPYRIGHT  HOLDERS AND CONTRIBUTORS
+ * "AS IS"  AND ANY  EXPRESS OR IMPLIED  WARRANTIES, INCLUDING,  BUT NOT
+ * LIMITED  TO, THE  IMPLIED WARRANTIES  OF MERCHANTABILITY  AND FITNESS
+ * FOR  A PARTICULAR  PURPOSE  ARE  DISCLAIMED. IN  NO  EVENT SHALL  THE
+ * COPYRIGHT HOLDER OR CONTRIBUTORS BE  LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY,  OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT  NOT LIMITED  TO, PROCUREMENT  OF SUBSTITUTE  GOODS OR  SERVICES;
+ * LOSS  OF USE,  DATA, OR  PROFITS; OR  BUSINESS INTERRUPTION)  HOWEVER
+ * CAUSED AND  ON ANY THEORY  OF LIABILITY, WHETHER IN  CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY
+ * WAY  OUT  OF  THE USE  OF  THIS  SOFTWARE,  EVEN  IF ADVISED  OF  THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.github.cereda.duckity.utils;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Watches files for changes. The directories holding the files are
+ * watched, so files saved by replacing them are still noticed. Bursts of
+ * events, such as an editor writing a file in several steps, are gathered
+ * until the directories are quiet for a short while.
+ *
+ * @author Paulo Roberto Massa Cereda
+ * @version 1.1
+ * @since 1.1
+ */
+public class FileWatcher {
+
+    private static final long QUIET = 200;
+
+    private final WatchService service;
+    private final Map<WatchKey, String> directories;
+    private final Set<String> files;
+
+    /**
+     * Constructor.
+     *
+     * @throws DuckityException Exception is thrown if the file system
+     * cannot be watched.
+     */
+    public FileWatcher() throws DuckityException {
+        try {
+            service = FileSystems.getDefault().newWatchService();
+        } catch (IOException nothandled) {
+            throw new DuckityException("The file system cannot be watched "
+                    + "for changes.");
+        }
+        directories = new HashMap<WatchKey, String>();
+        files = new HashSet<String>();
+    }
+
+    /**
+     * Starts watching a file. Watching the same file twice is harmless.
+     *
+     * @param name The file name.
+     * @return The canonical path of the file, as reported on changes.
+     * @throws DuckityException Exception is thrown if the directory of the
+     * file cannot be watched.
+     */
+    public String watch(String name) throws DuckityException {
+        String path = DatasourceCache.getPath(new File(name));
+        if (files.add(path)) {
+            File directory = new File(path).getParentFile();
+            try {
+                WatchKey key = directory.toPath().register(service,
+                        StandardWatchEventKinds.ENTRY_CREATE,
+                        StandardWatchEventKinds.ENTRY_MODIFY);
+                directories.put(key, directory.getPath());
+            } catch (IOException nothandled) {
+                files.remove(path);
+                throw new DuckityException("The directory '".concat(
+                        directory.getPath()).concat("' cannot be watched "
+                        + "for changes."));
+            }
+        }
+        return path;
+    }
+
+    /**
+     * Waits for changes.
+     *
+     * @return The canonical paths of the watched files which changed.
+     * @throws InterruptedException Exception is thrown if the wait is
+     * interrupted.
+     */
+    public Set<String> await() throws InterruptedException {
+        Set<String> changed = new LinkedHashSet<String>();
+        while (changed.isEmpty()) {
+            WatchKey key = service.take();
+            while (key != null) {
+                collect(key, changed);
+                key = service.poll(QUIET, TimeUnit.MILLISECONDS);
+            }
+        }
+        return changed;
+    }
+
+    /**
+     * Collects the watched files changed in the events of a key.
+     *
+     * @param key The key.
+     * @param changed The changed files.
+     */
+    private void collect(WatchKey key, Set<String> changed) {
+        String directory = directories.get(key);
+        for (WatchEvent<?> event : key.pollEvents()) {
+            if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                // events were lost, so anything may have changed
+                changed.addAll(files);
+            } else if (directory != null) {
+                String path = new File(directory,
+                        ((Path) event.context()).toString()).getPath();
+                if (files.contains(path)) {
+                    changed.add(path);
+                }
+            }
+        }
+        key.reset();
+    }
+}
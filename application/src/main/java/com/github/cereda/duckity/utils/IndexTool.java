@@ -0,0 +1,102 @@
+/**
+ * Duckity -- The template helper
+ * Copyright (c) 2012, Paulo Roberto Massa Cereda
+ * All rights reserved.
+ *
+ * Redistribution and  use in source  and binary forms, with  or without
+ * modification, are  permitted provided  that the  following conditions
+ * are met:
+ *
+ * 1. Redistributions  of source  code must  retain the  above copyright
+ * notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form  must reproduce the above copyright
+ * notice, this list  of conditions and the following  disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * 3. Neither  the name  of the  project's author nor  the names  of its
+ * contributors may be used to  endorse or promote products derived from
+ * this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS  PROVIDED BY THE COPYRIGHT  HOLDERS AND CONTRIBUTORS
+ * "AS IS"  AND ANY  EXPRESS OR IMPLIED  WARRANTIES, INCLUDING,  BUT NOT
+ * LIMITED  TO, THE  IMPLIED WARRANTIES  OF MERCHANTABILITY  AND FITNESS
+ * FOR  A PARTICULAR  PURPOSE  ARE  DISCLAIMED. IN  NO  EVENT SHALL  THE
+ * COPYRIGHT HOLDER OR CONTRIBUTORS BE  LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY,  OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT  NOT LIMITED  TO, PROCUREMENT  OF SUBSTITUTE  GOODS OR  SERVICES;
+ * LOSS  OF USE,  DATA, OR  PROFITS; OR  BUSINESS INTERRUPTION)  HOWEVER
+ * CAUSED AND  ON ANY THEORY  OF LIABILITY, WHETHER IN  CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY
+ * WAY  OUT  OF  THE USE  OF  THIS  SOFTWARE,  EVEN  IF ADVISED  OF  THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.github.cereda.duckity.utils;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Builds hash indexes over the loaded datasources, so templates can join
+ * them in linear time, as in
+ * <code>$index.of("customers", 0).get($order[3])</code>. Each index is
+ * built on first use and kept for the rest of the render; the partitions
+ * of a render share the tool, so each index is built only once for all
+ * of them.
+ *
+ * @author Paulo Roberto Massa Cereda
+ * @version 1.1
+ * @since 1.1
+ */
+public class IndexTool {
+
+    private final Map<?, ?> content;
+    private final Map<String, DatasourceIndex> indexes;
+
+    /**
+     * Constructor.
+     *
+     * @param content The loaded datasources.
+     */
+    public IndexTool(Map<?, ?> content) {
+        this.content = content;
+        indexes = new ConcurrentHashMap<String, DatasourceIndex>();
+    }
+
+    /**
+     * Gets the index of a datasource on a column.
+     *
+     * @param identifier The datasource identifier.
+     * @param column The key column, by position or by name.
+     * @return The index.
+     */
+    public DatasourceIndex of(String identifier, Object column) {
+        String key = identifier.concat("|").concat(column instanceof Number
+                ? "#".concat(String.valueOf(((Number) column).intValue()))
+                : String.valueOf(column));
+        DatasourceIndex index = indexes.get(key);
+        if (index != null) {
+            return index;
+        }
+        synchronized (indexes) {
+            index = indexes.get(key);
+            if (index != null) {
+                return index;
+            }
+            Object datasource = content.get(identifier);
+            if (datasource == null) {
+                throw new IllegalArgumentException("There is no "
+                        + "datasource '".concat(identifier).concat("'."));
+            }
+            if (!(datasource instanceof List)) {
+                throw new IllegalArgumentException("The datasource '".concat(
+                        identifier).concat("' is not a list of rows, so "
+                        + "it cannot be indexed."));
+            }
+            index = new DatasourceIndex((List<?>) datasource, column);
+            indexes.put(key, index);
+        }
+        return index;
+    }
+}
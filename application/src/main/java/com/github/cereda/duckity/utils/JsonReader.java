@@ -0,0 +1,487 @@
+/**
+ * Duckity -- The template helper
+ * Copyright (c) 2012, Paulo Roberto Massa Cereda
+ * All rights reserved.
+ *
+ * Redistribution and  use in source  and binary forms, with  or without
+ * modification, are  permitted provided  that the  following conditions
+ * are met:
+ *
+ * 1. Redistributions  of source  code must  retain the  above copyright
+ * notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form  must reproduce the above copyright
+ * notice, this list  of conditions and the following  disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * 3. Neither  the name  of the  project's author nor  the names  of its
+ * contributors may be used to  endorse or promote products derived from
+ * this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS  PROVIDED BY THE COPYRIGHT  HOLDERS AND CONTRIBUTORS
+ * "AS IS"  AND ANY  EXPRESS OR IMPLIED  WARRANTIES, INCLUDING,  BUT NOT
+ * LIMITED  TO, THE  IMPLIED WARRANTIES  OF MERCHANTABILITY  AND FITNESS
+ * FOR  A PARTICULAR  PURPOSE  ARE  DISCLAIMED. IN  NO  EVENT SHALL  THE
+ * COPYRIGHT HOLDER OR CONTRIBUTORS BE  LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY,  OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT  NOT LIMITED  TO, PROCUREMENT  OF SUBSTITUTE  GOODS OR  SERVICES;
+ * LOSS  OF USE,  DATA, OR  PROFITS; OR  BUSINESS INTERRUPTION)  HOWEVER
+ * CAUSED AND  ON ANY THEORY  OF LIABILITY, WHETHER IN  CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY
+ * WAY  OUT  OF  THE USE  OF  THIS  SOFTWARE,  EVEN  IF ADVISED  OF  THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.github.cereda.duckity.utils;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Pull-based JSON reader. Values are built into compact containers:
+ * arrays become array lists and objects become insertion-ordered,
+ * open-addressed maps. Integers are read as longs and the other numbers
+ * as doubles, as json-simple did. A top-level array can also be pulled one
+ * element at a time, so it never has to be held in memory as a whole.
+ *
+ * @author Paulo Roberto Massa Cereda
+ * @version 1.1
+ * @since 1.1
+ */
+public class JsonReader {
+
+    private final Reader reader;
+    private final char[] buffer;
+    private int position;
+    private int limit;
+    private long offset;
+    private boolean first;
+    private final StringBuilder builder;
+    private final Map<String, String> names;
+
+    /**
+     * Constructor.
+     *
+     * @param reader The reader.
+     */
+    public JsonReader(Reader reader) {
+        this.reader = reader;
+        buffer = new char[8192];
+        position = 0;
+        limit = 0;
+        offset = 0;
+        first = false;
+        builder = new StringBuilder();
+        names = new HashMap<String, String>();
+    }
+
+    /**
+     * Reads a whole document.
+     *
+     * @return The value.
+     * @throws IOException Exception is thrown if the reader fails.
+     * @throws DuckityException Exception is thrown if the document is not
+     * valid JSON.
+     */
+    public Object readDocument() throws IOException, DuckityException {
+        Object value = readValue();
+        end();
+        return value;
+    }
+
+    /**
+     * Consumes the opening bracket of an array.
+     *
+     * @throws IOException Exception is thrown if the reader fails.
+     * @throws DuckityException Exception is thrown if there is no array.
+     */
+    public void beginArray() throws IOException, DuckityException {
+        expect('[');
+        first = true;
+    }
+
+    /**
+     * Checks if the current array has another element, consuming the
+     * separating comma or the closing bracket.
+     *
+     * @return A boolean value indicating if there is another element.
+     * @throws IOException Exception is thrown if the reader fails.
+     * @throws DuckityException Exception is thrown if the array is
+     * malformed.
+     */
+    public boolean hasNext() throws IOException, DuckityException {
+        if (first) {
+            first = false;
+            if (peek() == ']') {
+                next();
+                return false;
+            }
+            return true;
+        }
+        int c = next();
+        if (c == ']') {
+            return false;
+        }
+        if (c == ',') {
+            return true;
+        }
+        throw error(c);
+    }
+
+    /**
+     * Reads the next value.
+     *
+     * @return The value.
+     * @throws IOException Exception is thrown if the reader fails.
+     * @throws DuckityException Exception is thrown if the value is not
+     * valid JSON.
+     */
+    public Object readValue() throws IOException, DuckityException {
+        int c = next();
+        switch (c) {
+            case '{':
+                return readObject();
+            case '[':
+                return readArray();
+            case '"':
+                return readString();
+            case 't':
+                literal("rue");
+                return Boolean.TRUE;
+            case 'f':
+                literal("alse");
+                return Boolean.FALSE;
+            case 'n':
+                literal("ull");
+                return null;
+            default:
+                if ((c == '-') || ((c >= '0') && (c <= '9'))) {
+                    return readNumber(c);
+                }
+                throw error(c);
+        }
+    }
+
+    /**
+     * Checks if the document is over.
+     *
+     * @throws IOException Exception is thrown if the reader fails.
+     * @throws DuckityException Exception is thrown if there is content
+     * left.
+     */
+    public void end() throws IOException, DuckityException {
+        int c = next();
+        if (c != -1) {
+            throw error(c);
+        }
+    }
+
+    /**
+     * Reads an object, after its opening brace.
+     *
+     * @return The object.
+     * @throws IOException Exception is thrown if the reader fails.
+     * @throws DuckityException Exception is thrown if the object is
+     * malformed.
+     */
+    private Map<String, Object> readObject() throws IOException,
+            DuckityException {
+        CompactMap map = new CompactMap();
+        int c = next();
+        if (c == '}') {
+            return map;
+        }
+        while (true) {
+            if (c != '"') {
+                throw error(c);
+            }
+            String name = readString();
+            String known = names.get(name);
+            if (known == null) {
+                if (names.size() < 4096) {
+                    names.put(name, name);
+                }
+            } else {
+                name = known;
+            }
+            expect(':');
+            map.put(name, readValue());
+            c = next();
+            if (c == '}') {
+                map.trim();
+                return map;
+            }
+            if (c != ',') {
+                throw error(c);
+            }
+            c = next();
+        }
+    }
+
+    /**
+     * Reads an array, after its opening bracket.
+     *
+     * @return The array.
+     * @throws IOException Exception is thrown if the reader fails.
+     * @throws DuckityException Exception is thrown if the array is
+     * malformed.
+     */
+    private List<Object> readArray() throws IOException, DuckityException {
+        ArrayList<Object> list = new ArrayList<Object>();
+        if (peek() == ']') {
+            next();
+            return list;
+        }
+        while (true) {
+            list.add(readValue());
+            int c = next();
+            if (c == ']') {
+                list.trimToSize();
+                return list;
+            }
+            if (c != ',') {
+                throw error(c);
+            }
+        }
+    }
+
+    /**
+     * Reads a string, after its opening quote.
+     *
+     * @return The string.
+     * @throws IOException Exception is thrown if the reader fails.
+     * @throws DuckityException Exception is thrown if the string is
+     * malformed.
+     */
+    private String readString() throws IOException, DuckityException {
+        builder.setLength(0);
+        while (true) {
+            if ((position == limit) && !fill()) {
+                throw error(-1);
+            }
+            int start = position;
+            while (position < limit) {
+                char c = buffer[position];
+                if ((c == '"') || (c == '\\')) {
+                    break;
+                }
+                position++;
+            }
+            builder.append(buffer, start, position - start);
+            offset += position - start;
+            if (position == limit) {
+                continue;
+            }
+            char c = read();
+            if (c == '"') {
+                return builder.toString();
+            }
+            c = read();
+            switch (c) {
+                case '"':
+                case '\\':
+                case '/':
+                    builder.append(c);
+                    break;
+                case 'b':
+                    builder.append('\b');
+                    break;
+                case 'f':
+                    builder.append('\f');
+                    break;
+                case 'n':
+                    builder.append('\n');
+                    break;
+                case 'r':
+                    builder.append('\r');
+                    break;
+                case 't':
+                    builder.append('\t');
+                    break;
+                case 'u':
+                    int value = 0;
+                    for (int i = 0; i < 4; i++) {
+                        int digit = Character.digit(read(), 16);
+                        if (digit == -1) {
+                            throw error(buffer[position - 1]);
+                        }
+                        value = (value << 4) | digit;
+                    }
+                    builder.append((char) value);
+                    break;
+                default:
+                    throw error(c);
+            }
+        }
+    }
+
+    /**
+     * Reads a number.
+     *
+     * @param first The first character, already consumed.
+     * @return The number, either a long or a double.
+     * @throws IOException Exception is thrown if the reader fails.
+     * @throws DuckityException Exception is thrown if the number is
+     * malformed.
+     */
+    private Number readNumber(int first) throws IOException,
+            DuckityException {
+        builder.setLength(0);
+        builder.append((char) first);
+        boolean decimal = false;
+        while (true) {
+            int c = peek();
+            if (((c >= '0') && (c <= '9')) || (c == '-') || (c == '+')) {
+                builder.append(read());
+            } else if ((c == '.') || (c == 'e') || (c == 'E')) {
+                decimal = true;
+                builder.append(read());
+            } else {
+                break;
+            }
+        }
+        String text = builder.toString();
+        try {
+            if (decimal) {
+                return Double.valueOf(text);
+            }
+            if (text.length() < 19) {
+                return Long.valueOf(text);
+            }
+            BigInteger value = new BigInteger(text);
+            if (value.bitLength() < 64) {
+                return value.longValue();
+            }
+            return value;
+        } catch (NumberFormatException nothandled) {
+            throw new DuckityException("Invalid number '".concat(text).
+                    concat("' at position ").concat(String.valueOf(offset)).
+                    concat("."));
+        }
+    }
+
+    /**
+     * Consumes the rest of a literal.
+     *
+     * @param rest The expected characters.
+     * @throws IOException Exception is thrown if the reader fails.
+     * @throws DuckityException Exception is thrown if the literal does not
+     * match.
+     */
+    private void literal(String rest) throws IOException, DuckityException {
+        for (int i = 0; i < rest.length(); i++) {
+            if ((position == limit) && !fill()) {
+                throw error(-1);
+            }
+            char c = read();
+            if (c != rest.charAt(i)) {
+                throw error(c);
+            }
+        }
+    }
+
+    /**
+     * Consumes the expected character, skipping whitespaces.
+     *
+     * @param expected The expected character.
+     * @throws IOException Exception is thrown if the reader fails.
+     * @throws DuckityException Exception is thrown if another character is
+     * found.
+     */
+    private void expect(char expected) throws IOException, DuckityException {
+        int c = next();
+        if (c != expected) {
+            throw error(c);
+        }
+    }
+
+    /**
+     * Consumes the next character which is not a whitespace.
+     *
+     * @return The character, or -1 at the end of the input.
+     * @throws IOException Exception is thrown if the reader fails.
+     */
+    private int next() throws IOException {
+        int c = peek();
+        if (c != -1) {
+            position++;
+            offset++;
+        }
+        return c;
+    }
+
+    /**
+     * Skips whitespaces and gets the next character, without consuming it.
+     *
+     * @return The character, or -1 at the end of the input.
+     * @throws IOException Exception is thrown if the reader fails.
+     */
+    private int peek() throws IOException {
+        while (true) {
+            if ((position == limit) && !fill()) {
+                return -1;
+            }
+            char c = buffer[position];
+            if ((c == ' ') || (c == '\t') || (c == '\n') || (c == '\r')) {
+                position++;
+                offset++;
+            } else {
+                return c;
+            }
+        }
+    }
+
+    /**
+     * Consumes the next character.
+     *
+     * @return The character.
+     * @throws IOException Exception is thrown if the reader fails.
+     * @throws DuckityException Exception is thrown at the end of the
+     * input.
+     */
+    private char read() throws IOException, DuckityException {
+        if ((position == limit) && !fill()) {
+            throw error(-1);
+        }
+        offset++;
+        return buffer[position++];
+    }
+
+    /**
+     * Fills the buffer.
+     *
+     * @return A boolean value indicating if there is more input.
+     * @throws IOException Exception is thrown if the reader fails.
+     */
+    private boolean fill() throws IOException {
+        int count = reader.read(buffer, 0, buffer.length);
+        if (count <= 0) {
+            position = 0;
+            limit = 0;
+            return false;
+        }
+        position = 0;
+        limit = count;
+        return true;
+    }
+
+    /**
+     * Creates the syntax error.
+     *
+     * @param c The unexpected character, or -1 at the end of the input.
+     * @return The exception.
+     */
+    private DuckityException error(int c) {
+        if (c == -1) {
+            return new DuckityException("Unexpected end of input at "
+                    + "position ".concat(String.valueOf(offset)).concat("."));
+        }
+        return new DuckityException("Unexpected character '".concat(
+                String.valueOf((char) c)).concat("' at position ").concat(
+                String.valueOf(offset)).concat("."));
+    }
+}
@@ -0,0 +1,594 @@
+/**
+ * Duckity -- The template helper
+ * Copyright (c) 2012, Paulo Roberto Massa Cereda
+ * All rights reserved.
+ *
+ * Redistribution and  use in source  and binary forms, with  or without
+ * modification, are  permitted provided  that the  following conditions
+ * are met:
+ *
+ * 1. Redistributions  of source  code must  retain the  above copyright
+ * notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form  must reproduce the above copyright
+ * notice, this list  of conditions and the following  disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * 3. Neither  the name  of the  project's author nor  the names  of its
+ * contributors may be used to  endorse or promote products derived from
+ * this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS  PROVIDED BY THE COPYRIGHT  HOLDERS AND CONTRIBUTORS
+ * "AS IS"  AND ANY  EXPRESS OR IMPLIED  WARRANTIES, INCLUDING,  BUT NOT
+ * LIMITED  TO, THE  IMPLIED WARRANTIES  OF MERCHANTABILITY  AND FITNESS
+ * FOR  A PARTICULAR  PURPOSE  ARE  DISCLAIMED. IN  NO  EVENT SHALL  THE
+ * COPYRIGHT HOLDER OR CONTRIBUTORS BE  LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY,  OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT  NOT LIMITED  TO, PROCUREMENT  OF SUBSTITUTE  GOODS OR  SERVICES;
+ * LOSS  OF USE,  DATA, OR  PROFITS; OR  BUSINESS INTERRUPTION)  HOWEVER
+ * CAUSED AND  ON ANY THEORY  OF LIABILITY, WHETHER IN  CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY
+ * WAY  OUT  OF  THE USE  OF  THIS  SOFTWARE,  EVEN  IF ADVISED  OF  THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.github.cereda.duckity.utils;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+
+/**
+ * Tokenizes a memory-mapped CSV file. Separators and quotes are scanned
+ * directly over the mapped bytes and each record only keeps the offsets
+ * of its fields; strings are created when a template reads them. The
+ * parsing rules mirror the ones from opencsv, so both engines yield the
+ * same values. The charset has to encode the special characters as single
+ * bytes, which holds for UTF-8 and the ISO-8859 family.
+ *
+ * @author Paulo Roberto Massa Cereda
+ * @version 1.1
+ * @since 1.1
+ */
+public class MappedCSVReader implements RowReader {
+
+    private static final int NONE = -1;
+    private static final int COMPLEX = 1;
+    private static final int INFIELD = 2;
+    private static final int INQUOTES = 1;
+    private static final int SKIP = 4;
+    private static final int END = 8;
+
+    /**
+     * Number of scanner states: in quotes, in field and skipping the next
+     * byte.
+     */
+    static final int STATES = 8;
+
+    private final MappedFile file;
+    private final Charset charset;
+    private final boolean utf8;
+    private final int separator;
+    private final int quotechar;
+    private final int escape;
+    private final boolean strictquote;
+    private final boolean ignoreleadingwhitespace;
+    private int skip;
+    private long position;
+    private long end;
+    private boolean infield;
+    private int[] bounds;
+
+    /**
+     * Constructor.
+     *
+     * @param file The mapped file.
+     * @param rm The mapping holding the parsing options.
+     * @param charset The file charset.
+     * @throws DuckityException Exception is thrown if the options cannot be
+     * handled by this engine.
+     */
+    public MappedCSVReader(MappedFile file, ReaderMapping rm,
+            Charset charset) throws DuckityException {
+        this.file = file;
+        this.charset = charset;
+        utf8 = "UTF-8".equals(charset.name());
+        separator = character(rm.getSeparator(), ',', charset);
+        quotechar = character(rm.getQuotechar(), '"', charset);
+        escape = character(rm.getEscape(), '\\', charset);
+        if (separator == NONE) {
+            throw new DuckityException("The separator character "
+                    + "must be defined.");
+        }
+        if (((quotechar != NONE) && ((quotechar == separator)
+                || (quotechar == escape)))
+                || ((escape != NONE) && (escape == separator))) {
+            throw new DuckityException("The separator, quote, and escape "
+                    + "characters must be different.");
+        }
+        strictquote = rm.isFsq() && rm.isStrictquote();
+        ignoreleadingwhitespace = !rm.isIlws()
+                || rm.isIgnoreleadingwhitespace();
+        skip = rm.isFl() ? rm.getLine() : 0;
+        position = 0;
+        end = file.size();
+        infield = false;
+        bounds = new int[48];
+    }
+
+    /**
+     * Skips the header lines set in the mapping.
+     *
+     * @return The position of the first record.
+     */
+    long skipLines() {
+        while (skip > 0) {
+            skip--;
+            while ((position < end) && !isNewline(file.get(position))) {
+                position++;
+            }
+            position = skipNewline(position);
+        }
+        return position;
+    }
+
+    /**
+     * Restricts the reader to a range of the file. The range must start at
+     * a record boundary.
+     *
+     * @param from The range start.
+     * @param to The range end.
+     * @param inside The scanner field state at the range start.
+     */
+    void setRange(long from, long to, boolean inside) {
+        skip = 0;
+        position = from;
+        end = to;
+        infield = inside;
+    }
+
+    /**
+     * Scans a range of the file starting from every possible scanner
+     * state, since the actual state is only known once the previous range
+     * has been scanned. For each starting state, the result holds the
+     * first record boundary, the field state at that boundary and the
+     * state at the end of the range.
+     *
+     * @param from The range start.
+     * @param to The range end.
+     * @return A matrix indexed by the starting state, with the boundary
+     * position (or -1 if there is none), the field state at the boundary
+     * (1 or 0) and the final state.
+     */
+    long[][] probe(long from, long to) {
+        long[][] result = new long[STATES][3];
+        // starting states which end up equal are merged, so usually only
+        // two of them (inside and outside quotes) are actually scanned
+        int[] live = new int[STATES];
+        int[] owner = new int[STATES];
+        int count = STATES;
+        int pending = STATES;
+        for (int i = 0; i < STATES; i++) {
+            live[i] = i;
+            owner[i] = i;
+            result[i][0] = -1;
+        }
+        for (long p = from; p < to; p++) {
+            if (!isSpecial(file.get(p))) {
+                // runs of plain bytes are applied at once
+                long q = p + 1;
+                while ((q < to) && !isSpecial(file.get(q))) {
+                    q++;
+                }
+                for (int j = 0; j < count; j++) {
+                    live[j] = plain(live[j]);
+                    if (q - p > 1) {
+                        live[j] = plain(live[j]);
+                    }
+                }
+                p = q - 1;
+                continue;
+            }
+            for (int j = 0; j < count; j++) {
+                int next = step(live[j], p);
+                if ((next & END) != 0) {
+                    next &= ~END;
+                    if (pending > 0) {
+                        for (int i = 0; i < STATES; i++) {
+                            if ((owner[i] == j) && (result[i][0] == -1)) {
+                                result[i][0] = p + ((next & SKIP) != 0
+                                        ? 2 : 1);
+                                result[i][1] = (next & INFIELD) != 0 ? 1 : 0;
+                                pending--;
+                            }
+                        }
+                    }
+                }
+                live[j] = next;
+            }
+            for (int j = count - 1; j > 0; j--) {
+                for (int k = 0; k < j; k++) {
+                    if (live[k] == live[j]) {
+                        int last = count - 1;
+                        for (int i = 0; i < STATES; i++) {
+                            if (owner[i] == j) {
+                                owner[i] = k;
+                            } else if (owner[i] == last) {
+                                owner[i] = j;
+                            }
+                        }
+                        live[j] = live[last];
+                        count--;
+                        break;
+                    }
+                }
+            }
+        }
+        for (int i = 0; i < STATES; i++) {
+            result[i][2] = live[owner[i]];
+        }
+        return result;
+    }
+
+    /**
+     * Advances the scanner state over a byte with no special meaning.
+     *
+     * @param state The current state.
+     * @return The next state.
+     */
+    private int plain(int state) {
+        if ((state & SKIP) != 0) {
+            return state & ~SKIP;
+        }
+        if (!strictquote || ((state & INQUOTES) != 0)) {
+            return state | INFIELD;
+        }
+        return state;
+    }
+
+    /**
+     * Checks if the byte has a special meaning to the tokenizer.
+     *
+     * @param b The byte.
+     * @return A boolean value indicating if the byte is special.
+     */
+    private boolean isSpecial(byte b) {
+        int c = b & 0xff;
+        return (c == separator) || (c == quotechar) || (c == escape)
+                || (c == '\n') || (c == '\r');
+    }
+
+    /**
+     * Advances the scanner state over a single byte, following the same
+     * rules as the tokenizer.
+     *
+     * @param state The current state.
+     * @param p The position.
+     * @return The next state, flagged with END when a record ends there.
+     */
+    private int step(int state, long p) {
+        if ((state & SKIP) != 0) {
+            return state & ~SKIP;
+        }
+        int c = file.get(p) & 0xff;
+        boolean inquotes = (state & INQUOTES) != 0;
+        boolean inside = (state & INFIELD) != 0;
+        if (isNewline((byte) c)) {
+            if (inquotes) {
+                return state;
+            }
+            if ((c == '\r') && (p + 1 < file.size())
+                    && (file.get(p + 1) == '\n')) {
+                state |= SKIP;
+            }
+            return state | END;
+        }
+        if (c == escape) {
+            if ((inquotes || inside) && isEscapable(p + 1)) {
+                return state | SKIP;
+            }
+            return state;
+        }
+        if (c == quotechar) {
+            if ((inquotes || inside) && is(p + 1, quotechar)) {
+                state |= SKIP;
+            } else {
+                state ^= INQUOTES;
+            }
+            return state ^ INFIELD;
+        }
+        if ((c == separator) && !inquotes) {
+            return state & ~INFIELD;
+        }
+        if (!strictquote || inquotes) {
+            return state | INFIELD;
+        }
+        return state;
+    }
+
+    /**
+     * Reads the next record.
+     *
+     * @return The next record, or null if there are no more records.
+     * @throws IOException Never thrown, since the file is already mapped.
+     */
+    public Object readNext() throws IOException {
+        skipLines();
+        if (position >= end) {
+            return null;
+        }
+
+        long base = position;
+        int count = 0;
+        long start = position;
+        int flags = (strictquote ? COMPLEX : 0) | (infield ? INFIELD : 0);
+        boolean inquotes = false;
+
+        while (true) {
+            if (position >= end) {
+                if (inquotes) {
+                    // unterminated quoted field, discarded as opencsv does
+                    return count == 0 ? null
+                            : new CSVRecord(this, base, copy(count));
+                }
+                count = add(count, base, start, position, flags);
+                break;
+            }
+            int c = file.get(position) & 0xff;
+            if (isNewline((byte) c)) {
+                if (inquotes) {
+                    flags |= COMPLEX;
+                    position = skipNewline(position);
+                    continue;
+                }
+                count = add(count, base, start, position, flags);
+                position = skipNewline(position);
+                break;
+            }
+            if (c == escape) {
+                flags |= COMPLEX;
+                if ((inquotes || infield) && isEscapable(position + 1)) {
+                    position++;
+                }
+            } else if (c == quotechar) {
+                flags |= COMPLEX;
+                if ((inquotes || infield) && is(position + 1, quotechar)) {
+                    position++;
+                } else {
+                    inquotes = !inquotes;
+                }
+                infield = !infield;
+            } else if ((c == separator) && !inquotes) {
+                count = add(count, base, start, position, flags);
+                infield = false;
+                start = position + 1;
+                flags = strictquote ? COMPLEX : 0;
+            } else {
+                if (!strictquote || inquotes) {
+                    infield = true;
+                }
+            }
+            position++;
+        }
+        return new CSVRecord(this, base, copy(count));
+    }
+
+    /**
+     * Nothing to release, the mapping is freed once no record refers to
+     * it anymore.
+     *
+     * @throws IOException Never thrown.
+     */
+    public void close() throws IOException {
+    }
+
+    /**
+     * Decodes a field.
+     *
+     * @param base The record position.
+     * @param bounds The record field bounds.
+     * @param index The field index.
+     * @return The field value.
+     */
+    String decode(long base, int[] bounds, int index) {
+        long from = base + bounds[3 * index];
+        long to = base + bounds[3 * index + 1];
+        int flags = bounds[3 * index + 2];
+        byte[] buffer = new byte[(int) (to - from) + 1];
+        if ((flags & COMPLEX) == 0) {
+            file.get(from, buffer, 0, (int) (to - from));
+            return new String(buffer, 0, (int) (to - from), charset);
+        }
+
+        int length = 0;
+        boolean white = true;
+        boolean inquotes = false;
+        boolean inside = (flags & INFIELD) != 0;
+        long p = from;
+        while (p < to) {
+            int c = file.get(p) & 0xff;
+            if (isNewline((byte) c)) {
+                buffer[length++] = '\n';
+                p = skipNewline(p);
+                continue;
+            }
+            if (c == escape) {
+                if ((inquotes || inside) && isEscapable(p + 1)) {
+                    c = file.get(p + 1) & 0xff;
+                    white = white && isWhitespace(c);
+                    buffer[length++] = (byte) c;
+                    p++;
+                }
+            } else if (c == quotechar) {
+                if ((inquotes || inside) && is(p + 1, quotechar)) {
+                    white = white && isWhitespace(c);
+                    buffer[length++] = (byte) c;
+                    p++;
+                } else {
+                    // the tricky case of an embedded quote: a,bc"d"ef,g
+                    if (!strictquote && isInner(p)) {
+                        if (ignoreleadingwhitespace && (length > 0)
+                                && white) {
+                            length = 0;
+                        } else {
+                            white = white && isWhitespace(c);
+                            buffer[length++] = (byte) c;
+                        }
+                    }
+                    inquotes = !inquotes;
+                }
+                inside = !inside;
+            } else {
+                if (!strictquote || inquotes) {
+                    white = white && isWhitespace(c);
+                    buffer[length++] = (byte) c;
+                    inside = true;
+                }
+            }
+            p++;
+        }
+        return new String(buffer, 0, length, charset);
+    }
+
+    /**
+     * Checks if a quote lies in the middle of a line, away from separators
+     * and from the line boundaries. Positions are counted in characters, so
+     * UTF-8 continuation bytes are skipped.
+     *
+     * @param p The quote position.
+     * @return A boolean value indicating if the quote is embedded.
+     */
+    private boolean isInner(long p) {
+        long q = p;
+        for (int i = 0; i < 3; i++) {
+            do {
+                q--;
+                if ((q < 0) || isNewline(file.get(q))) {
+                    return false;
+                }
+            } while (utf8 && ((file.get(q) & 0xc0) == 0x80));
+        }
+        if ((p + 1 >= file.size()) || isNewline(file.get(p + 1))) {
+            return false;
+        }
+        return ((file.get(p - 1) & 0xff) != separator)
+                && ((file.get(p + 1) & 0xff) != separator);
+    }
+
+    /**
+     * Checks if the byte at the provided position can be escaped.
+     *
+     * @param p The position.
+     * @return A boolean value indicating if the byte can be escaped.
+     */
+    private boolean isEscapable(long p) {
+        return is(p, quotechar) || is(p, escape);
+    }
+
+    /**
+     * Checks if the byte at the provided position is the character.
+     *
+     * @param p The position.
+     * @param c The character.
+     * @return A boolean value indicating if the byte matches.
+     */
+    private boolean is(long p, int c) {
+        return (c != NONE) && (p < file.size())
+                && ((file.get(p) & 0xff) == c);
+    }
+
+    /**
+     * Skips the line terminator at the provided position.
+     *
+     * @param p The position.
+     * @return The position right after the line terminator.
+     */
+    private long skipNewline(long p) {
+        if ((p < file.size()) && (file.get(p) == '\r')) {
+            p++;
+            if ((p < file.size()) && (file.get(p) == '\n')) {
+                p++;
+            }
+            return p;
+        }
+        return p + 1;
+    }
+
+    /**
+     * Adds a field to the current record.
+     *
+     * @param count The number of fields so far.
+     * @param base The record position.
+     * @param from The field start.
+     * @param to The field end.
+     * @param flags The field flags.
+     * @return The new number of fields.
+     */
+    private int add(int count, long base, long from, long to, int flags) {
+        if (3 * count + 3 > bounds.length) {
+            int[] grown = new int[bounds.length * 2];
+            System.arraycopy(bounds, 0, grown, 0, bounds.length);
+            bounds = grown;
+        }
+        bounds[3 * count] = (int) (from - base);
+        bounds[3 * count + 1] = (int) (to - base);
+        bounds[3 * count + 2] = flags;
+        return count + 1;
+    }
+
+    /**
+     * Copies the bounds of the current record.
+     *
+     * @param count The number of fields.
+     * @return The bounds.
+     */
+    private int[] copy(int count) {
+        int[] result = new int[3 * count];
+        System.arraycopy(bounds, 0, result, 0, result.length);
+        return result;
+    }
+
+    /**
+     * Checks if the byte is a line terminator.
+     *
+     * @param b The byte.
+     * @return A boolean value indicating if the byte ends a line.
+     */
+    private static boolean isNewline(byte b) {
+        return (b == '\n') || (b == '\r');
+    }
+
+    /**
+     * Checks if the character is a whitespace.
+     *
+     * @param c The character.
+     * @return A boolean value indicating if the character is a whitespace.
+     */
+    private static boolean isWhitespace(int c) {
+        return (c < 0x80) && Character.isWhitespace((char) c);
+    }
+
+    /**
+     * Gets the byte value of a special character.
+     *
+     * @param value The value from the mapping, if any.
+     * @param fallback The default character.
+     * @param charset The file charset.
+     * @return The byte value, or NONE if the character is disabled.
+     * @throws DuckityException Exception is thrown if the character is not
+     * encoded as a single byte.
+     */
+    private static int character(String value, char fallback,
+            Charset charset) throws DuckityException {
+        char c = value == null ? fallback : value.charAt(0);
+        if (c == '\0') {
+            return NONE;
+        }
+        byte[] bytes = String.valueOf(c).getBytes(charset);
+        if ((c >= 0x80) || (c == '\n') || (c == '\r')
+                || (bytes.length != 1) || (bytes[0] != c)) {
+            throw new DuckityException("The 'mapped' engine only supports "
+                    + "ASCII separator, quote and escape characters in "
+                    + "an ASCII-compatible charset.");
+        }
+        return c;
+    }
+}
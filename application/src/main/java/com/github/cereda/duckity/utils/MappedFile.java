@@ -0,0 +1,152 @@
+/**
+ * Duckity -- The template helper
+ * Copyright (c) 2012, Paulo Roberto Massa Cereda
+ * All rights reserved.
+ *
+ * Redistribution and  use in source  and binary forms, with  or without
+ * modification, are  permitted provided  that the  following conditions
+ * are met:
+ *
+ * 1. Redistributions  of source  code must  retain the  above copyright
+ * notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form  must reproduce the above copyright
+ * notice, this list  of conditions and the following  disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * 3. Neither  the name  of the  project's author nor  the names  of its
+ * contributors may be used to  endorse or promote products derived from
+ * this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS  PROVIDED BY THE COPYRIGHT  HOLDERS AND CONTRIBUTORS
+ * "AS IS"  AND ANY  EXPRESS OR IMPLIED  WARRANTIES, INCLUDING,  BUT NOT
+ * LIMITED  TO, THE  IMPLIED WARRANTIES  OF MERCHANTABILITY  AND FITNESS
+ * FOR  A PARTICULAR  PURPOSE  ARE  DISCLAIMED. IN  NO  EVENT SHALL  THE
+ * COPYRIGHT HOLDER OR CONTRIBUTORS BE  LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY,  OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT  NOT LIMITED  TO, PROCUREMENT  OF SUBSTITUTE  GOODS OR  SERVICES;
+ * LOSS  OF USE,  DATA, OR  PROFITS; OR  BUSINESS INTERRUPTION)  HOWEVER
+ * CAUSED AND  ON ANY THEORY  OF LIABILITY, WHETHER IN  CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY
+ * WAY  OUT  OF  THE USE  OF  THIS  SOFTWARE,  EVEN  IF ADVISED  OF  THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.github.cereda.duckity.utils;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Maps a whole file into memory. Since a single mapping cannot exceed
+ * 2 GB, the file is split into fixed-size segments and addressed by a
+ * long offset.
+ *
+ * @author Paulo Roberto Massa Cereda
+ * @version 1.1
+ * @since 1.1
+ */
+public class MappedFile {
+
+    private static final int SHIFT = 30;
+    private static final int MASK = (1 << SHIFT) - 1;
+
+    private final MappedByteBuffer[] segments;
+    private final long size;
+
+    /**
+     * Constructor.
+     *
+     * @param file The file to be mapped.
+     * @throws IOException Exception is thrown if the file cannot be mapped.
+     */
+    public MappedFile(File file) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = raf.getChannel();
+            size = channel.size();
+            int count = (int) ((size + MASK) >>> SHIFT);
+            segments = new MappedByteBuffer[count];
+            for (int i = 0; i < count; i++) {
+                long offset = ((long) i) << SHIFT;
+                segments[i] = channel.map(FileChannel.MapMode.READ_ONLY,
+                        offset, Math.min(MASK + 1L, size - offset));
+            }
+        } finally {
+            // the mappings remain valid after the channel is closed
+            raf.close();
+        }
+    }
+
+    /**
+     * Gets the file size.
+     *
+     * @return The file size, in bytes.
+     */
+    public long size() {
+        return size;
+    }
+
+    /**
+     * Gets the byte at the provided position.
+     *
+     * @param position The absolute position.
+     * @return The byte.
+     */
+    public byte get(long position) {
+        return segments[(int) (position >>> SHIFT)].get(
+                (int) (position & MASK));
+    }
+
+    /**
+     * Gets the big-endian integer at the provided position.
+     *
+     * @param position The absolute position.
+     * @return The integer.
+     */
+    public int getInt(long position) {
+        MappedByteBuffer segment = segments[(int) (position >>> SHIFT)];
+        int index = (int) (position & MASK);
+        if (index + 4 <= segment.limit()) {
+            return segment.getInt(index);
+        }
+        int value = 0;
+        for (int i = 0; i < 4; i++) {
+            value = (value << 8) | (get(position + i) & 0xff);
+        }
+        return value;
+    }
+
+    /**
+     * Gets the big-endian long at the provided position.
+     *
+     * @param position The absolute position.
+     * @return The long.
+     */
+    public long getLong(long position) {
+        MappedByteBuffer segment = segments[(int) (position >>> SHIFT)];
+        int index = (int) (position & MASK);
+        if (index + 8 <= segment.limit()) {
+            return segment.getLong(index);
+        }
+        return (((long) getInt(position)) << 32)
+                | (getInt(position + 4) & 0xffffffffL);
+    }
+
+    /**
+     * Copies a range of bytes into an array.
+     *
+     * @param position The absolute position.
+     * @param destination The destination array.
+     * @param offset The offset in the destination array.
+     * @param length The number of bytes to copy.
+     */
+    public void get(long position, byte[] destination, int offset,
+            int length) {
+        for (int i = 0; i < length; i++) {
+            destination[offset + i] = get(position + i);
+        }
+    }
+}
@@ -33,10 +33,17 @@
  */
 package com.github.cereda.duckity.utils;
 
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.math.RoundingMode;
 import org.apache.velocity.tools.generic.MathTool;
 
 /**
- * Extends a few methods from MathTool.
+ * Extends a few methods from MathTool. The tool holds no state, so it is
+ * safe to use from several renders at once. Numbers are used as they are
+ * and text is parsed without going through intermediate objects. On top
+ * of the floating point methods, the 'decimal' methods compute exactly,
+ * for money and other values where rounding errors are not acceptable.
  *
  * @author Paulo Roberto Massa Cereda
  * @version 1.1
@@ -54,11 +61,19 @@ public class MyMathTool extends MathTool {
         if (number == null) {
             return null;
         }
+        if (number instanceof Number) {
+            return ((Number) number).floatValue();
+        }
+        if (number instanceof CharSequence) {
+            return NumberParser.parseFloat((CharSequence) number);
+        }
         return (Float.parseFloat(number.toString()));
     }
 
     /**
-     * Converts the object to double.
+     * Converts the object to double. Values go through float precision,
+     * numbers included, so typed columns give the same results as text.
+     * Use the 'decimal' methods when precision matters.
      *
      * @param number The object.
      * @return The double value.
@@ -68,21 +83,219 @@ public class MyMathTool extends MathTool {
         if (number == null) {
             return null;
         }
+        if (number instanceof Number) {
+            return (double) ((Number) number).floatValue();
+        }
+        if (number instanceof CharSequence) {
+            return (double) NumberParser.parseFloat((CharSequence) number);
+        }
         return (new Float(number.toString()).doubleValue());
     }
 
     /**
-     * Converts the object to integer.
+     * Converts the object to integer. Numbers with no fractional part,
+     * such as typed double or decimal cells holding 2.0, are converted as
+     * long as they fit; fractions are not truncated, they fail just like
+     * the text '2.5' does.
      *
      * @param number The object.
      * @return The integer value.
+     * @throws NumberFormatException Exception is thrown if the object is
+     * not an integer or does not fit in one.
      */
     @Override
     public Integer toInteger(Object number) {
         if (number == null) {
             return null;
         }
+        if ((number instanceof Integer) || (number instanceof Short)
+                || (number instanceof Byte)) {
+            return ((Number) number).intValue();
+        }
+        if (number instanceof Long) {
+            long value = (Long) number;
+            if ((value >= Integer.MIN_VALUE) && (value <= Integer.MAX_VALUE)) {
+                return (int) value;
+            }
+            throw notInteger(number);
+        }
+        if ((number instanceof Double) || (number instanceof Float)) {
+            double value = ((Number) number).doubleValue();
+            if (value == (int) value) {
+                return (int) value;
+            }
+            throw notInteger(number);
+        }
+        if (number instanceof Number) {
+            BigDecimal value = toDecimal(number);
+            try {
+                if (value != null) {
+                    return value.intValueExact();
+                }
+            } catch (ArithmeticException nothandled) {
+                // reported below
+            }
+            throw notInteger(number);
+        }
+        if (number instanceof CharSequence) {
+            return NumberParser.parseInt((CharSequence) number);
+        }
         return (Integer.parseInt(number.toString()));
     }
 
+    /**
+     * Creates the error for a number that is not an integer.
+     *
+     * @param number The number.
+     * @return The error.
+     */
+    private static NumberFormatException notInteger(Object number) {
+        return new NumberFormatException("The value '".concat(
+                number.toString()).concat("' is not an integer."));
+    }
+
+    /**
+     * Converts the object to long. Fractions are not truncated, they are
+     * not a long.
+     *
+     * @param number The object.
+     * @return The long value, or null if the object is not an integer.
+     */
+    public Long toLong(Object number) {
+        BigDecimal value = toDecimal(number);
+        if (value == null) {
+            return null;
+        }
+        try {
+            return value.longValueExact();
+        } catch (ArithmeticException nothandled) {
+            return null;
+        }
+    }
+
+    /**
+     * Converts the object to an exact decimal. Doubles and floats are
+     * taken as they print, so 0.1 stays 0.1.
+     *
+     * @param number The object.
+     * @return The decimal value, or null if the object is not a number.
+     */
+    public BigDecimal toDecimal(Object number) {
+        if (number == null) {
+            return null;
+        }
+        if (number instanceof BigDecimal) {
+            return (BigDecimal) number;
+        }
+        if ((number instanceof Integer) || (number instanceof Long)
+                || (number instanceof Short) || (number instanceof Byte)) {
+            return BigDecimal.valueOf(((Number) number).longValue());
+        }
+        if (number instanceof BigInteger) {
+            return new BigDecimal((BigInteger) number);
+        }
+        try {
+            if (number instanceof Double || number instanceof Float) {
+                return new BigDecimal(number.toString());
+            }
+            return new BigDecimal(number.toString().trim());
+        } catch (NumberFormatException nothandled) {
+            return null;
+        }
+    }
+
+    /**
+     * Adds two numbers exactly.
+     *
+     * @param first The first number.
+     * @param second The second number.
+     * @return The sum, or null if either is not a number.
+     */
+    public BigDecimal decimalAdd(Object first, Object second) {
+        BigDecimal a = toDecimal(first);
+        BigDecimal b = toDecimal(second);
+        return (a == null) || (b == null) ? null : a.add(b);
+    }
+
+    /**
+     * Subtracts two numbers exactly.
+     *
+     * @param first The first number.
+     * @param second The second number.
+     * @return The difference, or null if either is not a number.
+     */
+    public BigDecimal decimalSub(Object first, Object second) {
+        BigDecimal a = toDecimal(first);
+        BigDecimal b = toDecimal(second);
+        return (a == null) || (b == null) ? null : a.subtract(b);
+    }
+
+    /**
+     * Multiplies two numbers exactly.
+     *
+     * @param first The first number.
+     * @param second The second number.
+     * @return The product, or null if either is not a number.
+     */
+    public BigDecimal decimalMul(Object first, Object second) {
+        BigDecimal a = toDecimal(first);
+        BigDecimal b = toDecimal(second);
+        return (a == null) || (b == null) ? null : a.multiply(b);
+    }
+
+    /**
+     * Divides two numbers, rounding half to even at the given scale.
+     *
+     * @param first The dividend.
+     * @param second The divisor.
+     * @param scale The number of digits after the point.
+     * @return The quotient, or null if either is not a number or the
+     * divisor is zero.
+     */
+    public BigDecimal decimalDiv(Object first, Object second, Object scale) {
+        BigDecimal a = toDecimal(first);
+        BigDecimal b = toDecimal(second);
+        Long digits = toLong(scale);
+        if ((a == null) || (b == null) || (digits == null)
+                || (b.signum() == 0)) {
+            return null;
+        }
+        return a.divide(b, digits.intValue(), RoundingMode.HALF_EVEN);
+    }
+
+    /**
+     * Rounds a number exactly, half to even, to the given scale.
+     *
+     * @param number The number.
+     * @param scale The number of digits after the point.
+     * @return The rounded number, or null if either is not a number.
+     */
+    public BigDecimal decimalRound(Object number, Object scale) {
+        BigDecimal value = toDecimal(number);
+        Long digits = toLong(scale);
+        if ((value == null) || (digits == null)) {
+            return null;
+        }
+        return value.setScale(digits.intValue(), RoundingMode.HALF_EVEN);
+    }
+
+    /**
+     * Sums numbers exactly, skipping the ones which are not numbers.
+     *
+     * @param numbers The numbers.
+     * @return The sum.
+     */
+    public BigDecimal decimalSum(Iterable<?> numbers) {
+        BigDecimal sum = BigDecimal.ZERO;
+        if (numbers != null) {
+            for (Object number : numbers) {
+                BigDecimal value = toDecimal(number);
+                if (value != null) {
+                    sum = sum.add(value);
+                }
+            }
+        }
+        return sum;
+    }
+
 }
@@ -0,0 +1,109 @@
+/**
+ * Duckity -- The template helper
+ * Copyright (c) 2012, Paulo Roberto Massa Cereda
+ * All rights reserved.
+ *
+ * Redistribution and  use in source  and binary forms, with  or without
+ * modification, are  permitted provided  that the  following conditions
+ * are met:
+ *
+ * 1. Redistributions  of source  code must  retain the  above copyright
+ * notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form  must reproduce the above copyright
+ * notice, this list  of conditions and the following  disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * 3. Neither  the name  of the  project's author nor  the names  of its
+ * contributors may be used to  endorse or promote products derived from
+ * this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS  PROVIDED BY THE COPYRIGHT  HOLDERS AND CONTRIBUTORS
+ * "AS IS"  AND ANY  EXPRESS OR IMPLIED  WARRANTIES, INCLUDING,  BUT NOT
+ * LIMITED  TO, THE  IMPLIED WARRANTIES  OF MERCHANTABILITY  AND FITNESS
+ * FOR  A PARTICULAR  PURPOSE  ARE  DISCLAIMED. IN  NO  EVENT SHALL  THE
+ * COPYRIGHT HOLDER OR CONTRIBUTORS BE  LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY,  OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT  NOT LIMITED  TO, PROCUREMENT  OF SUBSTITUTE  GOODS OR  SERVICES;
+ * LOSS  OF USE,  DATA, OR  PROFITS; OR  BUSINESS INTERRUPTION)  HOWEVER
+ * CAUSED AND  ON ANY THEORY  OF LIABILITY, WHETHER IN  CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY
+ * WAY  OUT  OF  THE USE  OF  THIS  SOFTWARE,  EVEN  IF ADVISED  OF  THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.github.cereda.duckity.utils;
+
+import java.util.AbstractList;
+import java.util.Collections;
+import java.util.List;
+import java.util.RandomAccess;
+
+/**
+ * Exposes a parsed CSV datasource whose first row is a header. The header
+ * is turned into a column index once, and the other rows are wrapped in
+ * named rows as they are requested, so no extra object is kept per row.
+ *
+ * @author Paulo Roberto Massa Cereda
+ * @version 1.1
+ * @since 1.1
+ */
+public class NamedDatasource extends AbstractList<Object>
+        implements RandomAccess {
+
+    private final List<?> rows;
+    private final ColumnIndex index;
+
+    /**
+     * Constructor.
+     *
+     * @param rows The parsed rows, header included.
+     */
+    public NamedDatasource(List<?> rows) {
+        this.rows = rows;
+        index = new ColumnIndex(rows.isEmpty() ? Collections.EMPTY_LIST
+                : Rows.toList(rows.get(0)));
+    }
+
+    /**
+     * Gets a row.
+     *
+     * @param position The row position, not counting the header.
+     * @return The row.
+     */
+    @Override
+    public Object get(int position) {
+        if ((position < 0) || (position >= size())) {
+            throw new IndexOutOfBoundsException("Index: " + position
+                    + ", Size: " + size());
+        }
+        return new NamedRow(index, Rows.toList(rows.get(position + 1)));
+    }
+
+    /**
+     * Gets the number of rows, not counting the header.
+     *
+     * @return The number of rows.
+     */
+    @Override
+    public int size() {
+        return Math.max(0, rows.size() - 1);
+    }
+
+    /**
+     * Gets the parsed rows, header included.
+     *
+     * @return The parsed rows.
+     */
+    List<?> getRows() {
+        return rows;
+    }
+
+    /**
+     * Gets the column names.
+     *
+     * @return The column names.
+     */
+    public List<String> getNames() {
+        return index.getNames();
+    }
+}
@@ -0,0 +1,101 @@
+/**
+ * Duckity -- The template helper
+ * Copyright (c) 2012, Paulo Roberto Massa Cereda
+ * All rights reserved.
+ *
+ * Redistribution and  use in source  and binary forms, with  or without
+ * modification, are  permitted provided  that the  following conditions
+ * are met:
+ *
+ * 1. Redistributions  of source  code must  retain the  above copyright
+ * notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form  must reproduce the above copyright
+ * notice, this list  of conditions and the following  disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * 3. Neither  the name  of the  project's author nor  the names  of its
+ * contributors may be used to  endorse or promote products derived from
+ * this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS  PROVIDED BY THE COPYRIGHT  HOLDERS AND CONTRIBUTORS
+ * "AS IS"  AND ANY  EXPRESS OR IMPLIED  WARRANTIES, INCLUDING,  BUT NOT
+ * LIMITED  TO, THE  IMPLIED WARRANTIES  OF MERCHANTABILITY  AND FITNESS
+ * FOR  A PARTICULAR  PURPOSE  ARE  DISCLAIMED. IN  NO  EVENT SHALL  THE
+ * COPYRIGHT HOLDER OR CONTRIBUTORS BE  LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY,  OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT  NOT LIMITED  TO, PROCUREMENT  OF SUBSTITUTE  GOODS OR  SERVICES;
+ * LOSS  OF USE,  DATA, OR  PROFITS; OR  BUSINESS INTERRUPTION)  HOWEVER
+ * CAUSED AND  ON ANY THEORY  OF LIABILITY, WHETHER IN  CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY
+ * WAY  OUT  OF  THE USE  OF  THIS  SOFTWARE,  EVEN  IF ADVISED  OF  THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.github.cereda.duckity.utils;
+
+import java.util.AbstractList;
+import java.util.List;
+import java.util.RandomAccess;
+
+/**
+ * Holds a row of a datasource with a header row. Fields are reached by
+ * position, as in any other row, or by column name, which templates
+ * write as <code>$row.price</code>. The row only wraps the parsed fields
+ * and the index shared by the whole datasource.
+ *
+ * @author Paulo Roberto Massa Cereda
+ * @version 1.1
+ * @since 1.1
+ */
+public class NamedRow extends AbstractList<Object> implements RandomAccess {
+
+    private final ColumnIndex index;
+    private final List<?> fields;
+
+    /**
+     * Constructor.
+     *
+     * @param index The column index.
+     * @param fields The row fields.
+     */
+    public NamedRow(ColumnIndex index, List<?> fields) {
+        this.index = index;
+        this.fields = fields;
+    }
+
+    /**
+     * Gets the field value.
+     *
+     * @param position The field position.
+     * @return The field value.
+     */
+    @Override
+    public Object get(int position) {
+        return fields.get(position);
+    }
+
+    /**
+     * Gets the field value by column name.
+     *
+     * @param name The column name.
+     * @return The field value, or null if there is no such column or the
+     * row is too short.
+     */
+    public Object get(String name) {
+        int position = index.indexOf(name);
+        if ((position < 0) || (position >= fields.size())) {
+            return null;
+        }
+        return fields.get(position);
+    }
+
+    /**
+     * Gets the number of fields.
+     *
+     * @return The number of fields.
+     */
+    @Override
+    public int size() {
+        return fields.size();
+    }
+}
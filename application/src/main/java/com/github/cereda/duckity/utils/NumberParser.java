@@ -0,0 +1,225 @@
+/**
+ * Duckity -- The template helper
+ * Copyright (c) 2012, Paulo Roberto Massa Cereda
+ * All rights reserved.
+ *
+ * Redistribution and  use in source  and binary forms, with  or without
+ * modification, are  permitted provided  that the  following conditions
+ * are met:
+ *
+ * 1. Redistributions  of source  code must  retain the  above copyright
+ * notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form  must reproduce the above copyright
+ * notice, this list  of conditions and the following  disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * 3. Neither  the name  of the  project's author nor  the names  of its
+ * contributors may be used to  endorse or promote products derived from
+ * this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS  PROVIDED BY THE COPYRIGHT  HOLDERS AND CONTRIBUTORS
+ * "AS IS"  AND ANY  EXPRESS OR IMPLIED  WARRANTIES, INCLUDING,  BUT NOT
+ * LIMITED  TO, THE  IMPLIED WARRANTIES  OF MERCHANTABILITY  AND FITNESS
+ * FOR  A PARTICULAR  PURPOSE  ARE  DISCLAIMED. IN  NO  EVENT SHALL  THE
+ * COPYRIGHT HOLDER OR CONTRIBUTORS BE  LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY,  OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT  NOT LIMITED  TO, PROCUREMENT  OF SUBSTITUTE  GOODS OR  SERVICES;
+ * LOSS  OF USE,  DATA, OR  PROFITS; OR  BUSINESS INTERRUPTION)  HOWEVER
+ * CAUSED AND  ON ANY THEORY  OF LIABILITY, WHETHER IN  CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY
+ * WAY  OUT  OF  THE USE  OF  THIS  SOFTWARE,  EVEN  IF ADVISED  OF  THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.github.cereda.duckity.utils;
+
+/**
+ * Parses numbers from text without allocating. Plain decimals, such as
+ * the fields of a CSV file, are scanned by hand: when the digits and the
+ * power of ten are both exact in the target type, a single division gives
+ * the correctly rounded value, just like the Java parsers. Anything else
+ * (exponents, suffixes, surrounding spaces, very long mantissas or
+ * malformed text) goes to the Java parsers, so results and errors are
+ * always the same as theirs.
+ *
+ * @author Paulo Roberto Massa Cereda
+ * @version 1.1
+ * @since 1.1
+ */
+final class NumberParser {
+
+    private static final long FLOAT_MANTISSA = 1L << 24;
+    private static final long DOUBLE_MANTISSA = 1L << 53;
+    private static final float[] FLOAT_POWERS = {
+        1e0f, 1e1f, 1e2f, 1e3f, 1e4f, 1e5f, 1e6f, 1e7f, 1e8f, 1e9f, 1e10f
+    };
+    private static final double[] DOUBLE_POWERS = {
+        1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+        1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+    };
+
+    /**
+     * Constructor.
+     */
+    private NumberParser() {
+    }
+
+    /**
+     * Parses an integer, as Integer.parseInt does.
+     *
+     * @param text The text.
+     * @return The integer.
+     * @throws NumberFormatException Exception is thrown if the text is not
+     * an integer.
+     */
+    static int parseInt(CharSequence text) {
+        int length = text.length();
+        int i = 0;
+        boolean negative = false;
+        if ((length > 0) && ((text.charAt(0) == '-')
+                || (text.charAt(0) == '+'))) {
+            negative = text.charAt(0) == '-';
+            i++;
+        }
+        if ((i == length) || (length - i > 10)) {
+            return Integer.parseInt(text.toString());
+        }
+        long value = 0;
+        for (; i < length; i++) {
+            char c = text.charAt(i);
+            if ((c < '0') || (c > '9')) {
+                return Integer.parseInt(text.toString());
+            }
+            value = value * 10 + (c - '0');
+        }
+        value = negative ? -value : value;
+        if ((value < Integer.MIN_VALUE) || (value > Integer.MAX_VALUE)) {
+            return Integer.parseInt(text.toString());
+        }
+        return (int) value;
+    }
+
+    /**
+     * Parses a float, as Float.parseFloat does.
+     *
+     * @param text The text.
+     * @return The float.
+     * @throws NumberFormatException Exception is thrown if the text is not
+     * a number.
+     */
+    static float parseFloat(CharSequence text) {
+        long scan = scan(text);
+        if (scan != -1) {
+            long mantissa = mantissa(scan);
+            int scale = scale(scan);
+            if ((mantissa <= FLOAT_MANTISSA)
+                    && (scale < FLOAT_POWERS.length)) {
+                float value = (float) mantissa / FLOAT_POWERS[scale];
+                return negative(scan) ? -value : value;
+            }
+        }
+        return Float.parseFloat(text.toString());
+    }
+
+    /**
+     * Parses a double, as Double.parseDouble does.
+     *
+     * @param text The text.
+     * @return The double.
+     * @throws NumberFormatException Exception is thrown if the text is not
+     * a number.
+     */
+    static double parseDouble(CharSequence text) {
+        long scan = scan(text);
+        if (scan != -1) {
+            long mantissa = mantissa(scan);
+            int scale = scale(scan);
+            if ((mantissa <= DOUBLE_MANTISSA)
+                    && (scale < DOUBLE_POWERS.length)) {
+                double value = (double) mantissa / DOUBLE_POWERS[scale];
+                return negative(scan) ? -value : value;
+            }
+        }
+        return Double.parseDouble(text.toString());
+    }
+
+    /**
+     * Scans a plain decimal: an optional sign, digits and at most one
+     * point, with at least one digit. The result packs the sign in the
+     * top bit, the number of digits after the point in the next 8 bits
+     * and the digits, as an integer, in the lower 55 bits.
+     *
+     * @param text The text.
+     * @return The packed result, or -1 if the text is not a plain decimal
+     * or has too many digits.
+     */
+    private static long scan(CharSequence text) {
+        int length = text.length();
+        int i = 0;
+        boolean negative = false;
+        if ((length > 0) && ((text.charAt(0) == '-')
+                || (text.charAt(0) == '+'))) {
+            negative = text.charAt(0) == '-';
+            i++;
+        }
+        long mantissa = 0;
+        int scale = 0;
+        boolean point = false;
+        boolean digits = false;
+        for (; i < length; i++) {
+            char c = text.charAt(i);
+            if ((c >= '0') && (c <= '9')) {
+                digits = true;
+                if (point) {
+                    scale++;
+                    if (scale > 255) {
+                        return -1;
+                    }
+                }
+                mantissa = mantissa * 10 + (c - '0');
+                if (mantissa > DOUBLE_MANTISSA) {
+                    return -1;
+                }
+            } else if ((c == '.') && !point) {
+                point = true;
+            } else {
+                return -1;
+            }
+        }
+        if (!digits) {
+            return -1;
+        }
+        return (negative ? Long.MIN_VALUE : 0) | ((long) scale << 55)
+                | mantissa;
+    }
+
+    /**
+     * Gets the digits of a scanned decimal.
+     *
+     * @param scan The packed result.
+     * @return The digits, as an integer.
+     */
+    private static long mantissa(long scan) {
+        return scan & ((1L << 55) - 1);
+    }
+
+    /**
+     * Gets the number of digits after the point of a scanned decimal.
+     *
+     * @param scan The packed result.
+     * @return The number of digits after the point.
+     */
+    private static int scale(long scan) {
+        return (int) ((scan >>> 55) & 0xff);
+    }
+
+    /**
+     * Checks the sign of a scanned decimal.
+     *
+     * @param scan The packed result.
+     * @return A boolean value indicating if the decimal is negative.
+     */
+    private static boolean negative(long scan) {
+        return scan < 0;
+    }
+}
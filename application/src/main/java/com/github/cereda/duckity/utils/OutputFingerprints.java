@@ -0,0 +1,290 @@
+/**
+ * Duckity -- The template helper
+ * Copyright (c) 2012, Paulo Roberto Massa Cereda
+ * All rights reserved.
+ *
+ * Redistribution and  use in source  and binary forms, with  or without
+ * modification, are  permitted provided  that the  following conditions
+ * are met:
+ *
+ * 1. Redistributions  of source  code must  retain the  above copyright
+ * notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form  must reproduce the above copyright
+ * notice, this list  of conditions and the following  disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * 3. Neither  the name  of the  project's author nor  the names  of its
+ * contributors may be used to  endorse or promote products derived from
+ * this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS  PROVIDED BY THE COPYRIGHT  HOLDERS AND CONTRIBUTORS
+ * "AS IS"  AND ANY  EXPRESS OR IMPLIED  WARRANTIES, INCLUDING,  BUT NOT
+ * LIMITED  TO, THE  IMPLIED WARRANTIES  OF MERCHANTABILITY  AND FITNESS
+ * FOR  A PARTICULAR  PURPOSE  ARE  DISCLAIMED. IN  NO  EVENT SHALL  THE
+ * COPYRIGHT HOLDER OR CONTRIBUTORS BE  LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY,  OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT  NOT LIMITED  TO, PROCUREMENT  OF SUBSTITUTE  GOODS OR  SERVICES;
+ * LOSS  OF USE,  DATA, OR  PROFITS; OR  BUSINESS INTERRUPTION)  HOWEVER
+ * CAUSED AND  ON ANY THEORY  OF LIABILITY, WHETHER IN  CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY
+ * WAY  OUT  OF  THE USE  OF  THIS  SOFTWARE,  EVEN  IF ADVISED  OF  THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.github.cereda.duckity.utils;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Keeps a manifest of the fingerprints of past renders, so a render whose
+ * inputs did not change since can be skipped before loading anything. A
+ * fingerprint covers the Velocity and Duckity versions, the whole input
+ * file, the output name and charset, and, for every datasource, its
+ * options and a hash of its content. The manifest also records the size
+ * and modification time of each output, so an output changed or removed
+ * by hand is rendered again. Only templates which read nothing but their
+ * datasources are fingerprinted; the ones which may read other files, as
+ * through '#parse' or the macros of a library, are always rendered.
+ *
+ * @author Paulo Roberto Massa Cereda
+ * @version 1.1
+ * @since 1.1
+ */
+public class OutputFingerprints {
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private final File manifest;
+    private final ConcurrentMap<String, String[]> entries;
+    private final ConcurrentMap<String, String> hashes;
+    private volatile boolean changed;
+
+    /**
+     * Constructor. An existing manifest is read; a missing one starts
+     * empty.
+     *
+     * @param manifest The manifest file.
+     * @throws DuckityException Exception is thrown if the manifest exists
+     * but cannot be read.
+     */
+    public OutputFingerprints(File manifest) throws DuckityException {
+        this.manifest = manifest;
+        entries = new ConcurrentHashMap<String, String[]>();
+        hashes = new ConcurrentHashMap<String, String>();
+        changed = false;
+        try {
+            BufferedReader reader = new BufferedReader(new InputStreamReader(
+                    new FileInputStream(manifest), UTF8));
+            try {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    String[] fields = line.split("\t", -1);
+                    if (fields.length == 4) {
+                        entries.put(fields[0].concat("\t").concat(fields[1]),
+                                new String[]{fields[2], fields[3]});
+                    }
+                }
+            } finally {
+                reader.close();
+            }
+        } catch (FileNotFoundException nothandled) {
+            // nothing rendered yet
+        } catch (IOException nothandled) {
+            throw new DuckityException("An IO error occurred while trying "
+                    + "to read from '".concat(manifest.getPath()).concat(
+                    "'."));
+        }
+    }
+
+    /**
+     * Computes the fingerprint of a render.
+     *
+     * @param input The input file name.
+     * @param mapping The datasource mappings.
+     * @param output The output file name.
+     * @param charset The output charset.
+     * @return The fingerprint.
+     * @throws DuckityException Exception is thrown if a file cannot be
+     * read.
+     */
+    public String compute(String input, List<ReaderMapping> mapping,
+            String output, Charset charset) throws DuckityException {
+        MessageDigest digest = DatasourceSnapshots.getDigest();
+        update(digest, TemplateCache.getVersions());
+        update(digest, hash(new File(input)));
+        update(digest, new File(output).getName());
+        update(digest, charset.name());
+        for (ReaderMapping rm : mapping) {
+            update(digest, rm.getIdentifier());
+            update(digest, DatasourceCache.getOptions(rm));
+            update(digest, String.valueOf(rm.isStream()));
+            update(digest, String.valueOf(rm.isHeader()));
+            update(digest, String.valueOf(rm.getTypes()));
+            update(digest, hash(new File(rm.getFile())));
+        }
+        return DatasourceSnapshots.toHex(digest.digest());
+    }
+
+    /**
+     * Checks if a render can be skipped: its fingerprint is the recorded
+     * one and its output is still the one written back then.
+     *
+     * @param input The input file name.
+     * @param output The output file name.
+     * @param fingerprint The fingerprint.
+     * @return A boolean value indicating if the output is up to date.
+     */
+    public boolean isCurrent(String input, String output,
+            String fingerprint) {
+        String[] entry = entries.get(getKey(input, output));
+        return (entry != null) && entry[0].equals(fingerprint)
+                && entry[1].equals(getStamp(new File(output)));
+    }
+
+    /**
+     * Records the fingerprint of a finished render.
+     *
+     * @param input The input file name.
+     * @param output The output file name.
+     * @param fingerprint The fingerprint.
+     */
+    public void record(String input, String output, String fingerprint) {
+        String[] entry = new String[]{fingerprint,
+            getStamp(new File(output))};
+        String[] previous = entries.put(getKey(input, output), entry);
+        if ((previous == null) || !previous[0].equals(entry[0])
+                || !previous[1].equals(entry[1])) {
+            changed = true;
+        }
+    }
+
+    /**
+     * Writes the manifest, if anything was recorded since it was read.
+     *
+     * @throws DuckityException Exception is thrown if the manifest cannot
+     * be written.
+     */
+    public synchronized void write() throws DuckityException {
+        if (!changed) {
+            return;
+        }
+        File target = manifest.getAbsoluteFile();
+        try {
+            File temporary = OutputWriter.createTemporary(
+                    target.getParentFile());
+            try {
+                Writer writer = new OutputStreamWriter(
+                        new FileOutputStream(temporary), UTF8);
+                try {
+                    for (Map.Entry<String, String[]> entry
+                            : new TreeMap<String, String[]>(entries).
+                            entrySet()) {
+                        writer.write(entry.getKey());
+                        writer.write("\t");
+                        writer.write(entry.getValue()[0]);
+                        writer.write("\t");
+                        writer.write(entry.getValue()[1]);
+                        writer.write("\n");
+                    }
+                } finally {
+                    writer.close();
+                }
+                Files.move(temporary.toPath(), target.toPath(),
+                        StandardCopyOption.REPLACE_EXISTING);
+            } finally {
+                temporary.delete();
+            }
+            changed = false;
+        } catch (IOException nothandled) {
+            throw new DuckityException("An IO error occurred while trying "
+                    + "to write to '".concat(manifest.getPath()).concat(
+                    "'."));
+        }
+    }
+
+    /**
+     * Hashes the content of a file. Hashes are kept for the whole run, as
+     * long as the file size and modification time stay the same, since
+     * the same datasource usually feeds several templates.
+     *
+     * @param file The file.
+     * @return The hash.
+     * @throws DuckityException Exception is thrown if the file cannot be
+     * read.
+     */
+    private String hash(File file) throws DuckityException {
+        String key = DatasourceCache.getPath(file).concat("|").concat(
+                getStamp(file));
+        String hash = hashes.get(key);
+        if (hash != null) {
+            return hash;
+        }
+        try {
+            hash = DatasourceSnapshots.hash(file);
+        } catch (FileNotFoundException nothandled) {
+            throw new DuckityException("File '".concat(
+                    file.getPath()).concat("' does not exist."));
+        } catch (IOException nothandled) {
+            throw new DuckityException("An IO error occurred while "
+                    + "trying to read from '".concat(
+                            file.getPath()).concat("'."));
+        }
+        hashes.put(key, hash);
+        return hash;
+    }
+
+    /**
+     * Adds a value to the digest, followed by a separator so that
+     * adjacent values cannot run into each other.
+     *
+     * @param digest The digest.
+     * @param value The value.
+     */
+    private void update(MessageDigest digest, String value) {
+        digest.update(String.valueOf(value).getBytes(UTF8));
+        digest.update((byte) 0);
+    }
+
+    /**
+     * Gets the manifest key of a render.
+     *
+     * @param input The input file name.
+     * @param output The output file name.
+     * @return The key.
+     */
+    private String getKey(String input, String output) {
+        return DatasourceCache.getPath(new File(input)).concat("\t").concat(
+                DatasourceCache.getPath(new File(output)));
+    }
+
+    /**
+     * Gets the stamp of a file, which changes whenever it is written.
+     *
+     * @param file The file.
+     * @return The stamp, or '-' if the file does not exist.
+     */
+    private String getStamp(File file) {
+        if (!file.isFile()) {
+            return "-";
+        }
+        return String.valueOf(file.length()).concat("|").concat(
+                String.valueOf(file.lastModified()));
+    }
+}
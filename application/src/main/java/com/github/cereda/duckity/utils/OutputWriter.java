@@ -0,0 +1,441 @@
+/**
+ * Duckity -- The template helper
+ * Copyright (c) 2012, Paulo Roberto Massa Cereda
+ * All rights reserved.
+ *
+ * Redistribution and  use in source  and binary forms, with  or without
+ * modification, are  permitted provided  that the  following conditions
+ * are met:
+ *
+ * 1. Redistributions  of source  code must  retain the  above copyright
+ * notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form  must reproduce the above copyright
+ * notice, this list  of conditions and the following  disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * 3. Neither  the name  of the  project's author nor  the names  of its
+ * contributors may be used to  endorse or promote products derived from
+ * this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS  PROVIDED BY THE COPYRIGHT  HOLDERS AND CONTRIBUTORS
+ * "AS IS"  AND ANY  EXPRESS OR IMPLIED  WARRANTIES, INCLUDING,  BUT NOT
+ * LIMITED  TO, THE  IMPLIED WARRANTIES  OF MERCHANTABILITY  AND FITNESS
+ * FOR  A PARTICULAR  PURPOSE  ARE  DISCLAIMED. IN  NO  EVENT SHALL  THE
+ * COPYRIGHT HOLDER OR CONTRIBUTORS BE  LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY,  OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT  NOT LIMITED  TO, PROCUREMENT  OF SUBSTITUTE  GOODS OR  SERVICES;
+ * LOSS  OF USE,  DATA, OR  PROFITS; OR  BUSINESS INTERRUPTION)  HOWEVER
+ * CAUSED AND  ON ANY THEORY  OF LIABILITY, WHETHER IN  CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY
+ * WAY  OUT  OF  THE USE  OF  THIS  SOFTWARE,  EVEN  IF ADVISED  OF  THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.github.cereda.duckity.utils;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.PosixFileAttributeView;
+import java.nio.file.attribute.PosixFileAttributes;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Writes the generated output. Characters are gathered in a large buffer,
+ * encoded with an explicit charset and written through a file channel
+ * into a temporary file next to the target. Only when the writer is
+ * closed is the temporary file renamed over the target, so a failed merge
+ * never leaves a half-written output behind. A target which already holds
+ * the very same bytes is left untouched, keeping its modification time
+ * for whatever depends on it. A target which is a symbolic link is
+ * followed, so the link stays and the file it points to is replaced; the
+ * new file takes the permissions, owner and group of the old one. When it
+ * cannot, or when the old file has other hard links, the old file is
+ * overwritten in place instead, which is not atomic but keeps it as it
+ * was. Outputs ending in '.gz' are compressed on the fly.
+ *
+ * @author Paulo Roberto Massa Cereda
+ * @version 1.1
+ * @since 1.1
+ */
+public class OutputWriter extends Writer {
+
+    private static final int CHARS = 1 << 16;
+    private static final int BYTES = 1 << 18;
+    private static final int LINKS = 40;
+
+    private final File target;
+    private final File temporary;
+    private final FileChannel channel;
+    private final OutputStream compressed;
+    private final CharsetEncoder encoder;
+    private final CharBuffer chars;
+    private final ByteBuffer bytes;
+    private boolean closed;
+
+    /**
+     * Constructor.
+     *
+     * @param target The output file.
+     * @param charset The output charset.
+     * @throws IOException Exception is thrown if the temporary file cannot
+     * be created.
+     */
+    public OutputWriter(File target, Charset charset) throws IOException {
+        this.target = resolve(target.getAbsoluteFile());
+        temporary = createTemporary(this.target.getParentFile());
+        channel = new FileOutputStream(temporary).getChannel();
+        if (target.getName().toLowerCase().endsWith(".gz")) {
+            compressed = new GZIPOutputStream(
+                    Channels.newOutputStream(channel), BYTES);
+        } else {
+            compressed = null;
+        }
+        encoder = charset.newEncoder().
+                onMalformedInput(CodingErrorAction.REPLACE).
+                onUnmappableCharacter(CodingErrorAction.REPLACE);
+        chars = CharBuffer.allocate(CHARS);
+        bytes = ByteBuffer.allocate(BYTES);
+        closed = false;
+    }
+
+    /**
+     * Writes a portion of an array of characters.
+     *
+     * @param buffer The characters.
+     * @param offset The offset.
+     * @param length The number of characters.
+     * @throws IOException Exception is thrown if the output fails.
+     */
+    @Override
+    public void write(char[] buffer, int offset, int length)
+            throws IOException {
+        while (length > 0) {
+            int count = Math.min(length, chars.remaining());
+            chars.put(buffer, offset, count);
+            offset += count;
+            length -= count;
+            if (!chars.hasRemaining()) {
+                encode(false);
+            }
+        }
+    }
+
+    /**
+     * Writes a portion of a string.
+     *
+     * @param text The string.
+     * @param offset The offset.
+     * @param length The number of characters.
+     * @throws IOException Exception is thrown if the output fails.
+     */
+    @Override
+    public void write(String text, int offset, int length)
+            throws IOException {
+        while (length > 0) {
+            int count = Math.min(length, chars.remaining());
+            chars.put(text, offset, offset + count);
+            offset += count;
+            length -= count;
+            if (!chars.hasRemaining()) {
+                encode(false);
+            }
+        }
+    }
+
+    /**
+     * Writes a single character.
+     *
+     * @param c The character.
+     * @throws IOException Exception is thrown if the output fails.
+     */
+    @Override
+    public void write(int c) throws IOException {
+        chars.put((char) c);
+        if (!chars.hasRemaining()) {
+            encode(false);
+        }
+    }
+
+    /**
+     * Encodes the buffered characters and writes them out.
+     *
+     * @throws IOException Exception is thrown if the output fails.
+     */
+    @Override
+    public void flush() throws IOException {
+        encode(false);
+        drain();
+    }
+
+    /**
+     * Writes everything out and replaces the target with the new content.
+     *
+     * @throws IOException Exception is thrown if the output fails.
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        try {
+            encode(true);
+            while (encoder.flush(bytes) == CoderResult.OVERFLOW) {
+                drain();
+            }
+            drain();
+            if (compressed != null) {
+                compressed.close();
+            }
+            channel.close();
+            closed = true;
+        } finally {
+            if (!closed) {
+                abort();
+            }
+        }
+        if (same(temporary, target)) {
+            temporary.delete();
+            return;
+        }
+        try {
+            if (!target.exists() || adopt(temporary.toPath(),
+                    target.toPath())) {
+                try {
+                    Files.move(temporary.toPath(), target.toPath(),
+                            StandardCopyOption.REPLACE_EXISTING,
+                            StandardCopyOption.ATOMIC_MOVE);
+                } catch (AtomicMoveNotSupportedException nothandled) {
+                    Files.move(temporary.toPath(), target.toPath(),
+                            StandardCopyOption.REPLACE_EXISTING);
+                }
+            } else {
+                overwrite(temporary, target);
+            }
+        } finally {
+            temporary.delete();
+        }
+    }
+
+    /**
+     * Discards the output, leaving the target untouched.
+     */
+    public void abort() {
+        if (closed && !temporary.exists()) {
+            return;
+        }
+        closed = true;
+        try {
+            channel.close();
+        } catch (IOException nothandled) {
+            // the file is deleted anyway
+        }
+        temporary.delete();
+    }
+
+    /**
+     * Follows the symbolic links of a file, even dangling ones.
+     *
+     * @param file The file.
+     * @return The file the links point to, or the file itself if it is
+     * not a link.
+     * @throws IOException Exception is thrown if the links cannot be read
+     * or form a loop.
+     */
+    static File resolve(File file) throws IOException {
+        Path path = file.toPath();
+        for (int i = 0; i < LINKS; i++) {
+            if (!Files.isSymbolicLink(path)) {
+                return path.toFile();
+            }
+            path = path.resolveSibling(Files.readSymbolicLink(path));
+        }
+        throw new IOException("Too many levels of symbolic links.");
+    }
+
+    /**
+     * Gives the new file the permissions, owner and group of the old one,
+     * as far as the file system has them.
+     *
+     * @param created The new file.
+     * @param existing The old file.
+     * @return A boolean value indicating if the new file can replace the
+     * old one; it cannot if it would not look the same or if the old one
+     * has other hard links.
+     */
+    private static boolean adopt(Path created, Path existing) {
+        PosixFileAttributeView view = Files.getFileAttributeView(created,
+                PosixFileAttributeView.class);
+        if (view == null) {
+            return true;
+        }
+        try {
+            Object links = Files.getAttribute(existing, "unix:nlink");
+            if ((links instanceof Integer) && ((Integer) links > 1)) {
+                return false;
+            }
+        } catch (UnsupportedOperationException nothandled) {
+            // no link count on this file system
+        } catch (IllegalArgumentException nothandled) {
+            // no link count on this file system
+        } catch (IOException nothandled) {
+            return false;
+        }
+        try {
+            PosixFileAttributes old = Files.getFileAttributeView(existing,
+                    PosixFileAttributeView.class).readAttributes();
+            PosixFileAttributes current = view.readAttributes();
+            if (!current.owner().equals(old.owner())) {
+                view.setOwner(old.owner());
+            }
+            if (!current.group().equals(old.group())) {
+                view.setGroup(old.group());
+            }
+            // after the owner, which may clear some of them
+            view.setPermissions(old.permissions());
+            return true;
+        } catch (IOException nothandled) {
+            return false;
+        }
+    }
+
+    /**
+     * Copies the new file over the old one, in place.
+     *
+     * @param created The new file.
+     * @param existing The old file.
+     * @throws IOException Exception is thrown if the old file cannot be
+     * written.
+     */
+    private static void overwrite(File created, File existing)
+            throws IOException {
+        FileChannel source = new FileInputStream(created).getChannel();
+        try {
+            FileChannel sink = new FileOutputStream(existing).getChannel();
+            try {
+                long size = source.size();
+                long position = 0;
+                while (position < size) {
+                    position = position + source.transferTo(position,
+                            size - position, sink);
+                }
+            } finally {
+                sink.close();
+            }
+        } finally {
+            source.close();
+        }
+    }
+
+    /**
+     * Creates an empty temporary file in the directory. The name does not
+     * need to be unpredictable, only unique, so this skips the secure
+     * random generator behind File.createTempFile, which loads the whole
+     * security framework at startup.
+     *
+     * @param directory The directory, or null for the current one.
+     * @return The temporary file.
+     * @throws IOException Exception is thrown if the file cannot be
+     * created.
+     */
+    static File createTemporary(File directory) throws IOException {
+        while (true) {
+            File file = new File(directory, ".duckity-".concat(Long.toString(
+                    ThreadLocalRandom.current().nextLong() & Long.MAX_VALUE,
+                    36)).concat(".tmp"));
+            if (file.createNewFile()) {
+                return file;
+            }
+        }
+    }
+
+    /**
+     * Checks if two files hold the same bytes.
+     *
+     * @param first The first file.
+     * @param second The second file.
+     * @return A boolean value indicating if both files are equal.
+     * @throws IOException Exception is thrown if the files cannot be read.
+     */
+    private static boolean same(File first, File second) throws IOException {
+        if (!second.isFile() || (first.length() != second.length())) {
+            return false;
+        }
+        FileChannel a = new FileInputStream(first).getChannel();
+        try {
+            FileChannel b = new FileInputStream(second).getChannel();
+            try {
+                ByteBuffer x = ByteBuffer.allocate(BYTES);
+                ByteBuffer y = ByteBuffer.allocate(BYTES);
+                while (a.read(x) != -1) {
+                    y.limit(x.position());
+                    while (y.hasRemaining()) {
+                        if (b.read(y) == -1) {
+                            return false;
+                        }
+                    }
+                    x.flip();
+                    y.flip();
+                    if (!x.equals(y)) {
+                        return false;
+                    }
+                    x.clear();
+                    y.clear();
+                }
+                return true;
+            } finally {
+                b.close();
+            }
+        } finally {
+            a.close();
+        }
+    }
+
+    /**
+     * Encodes the buffered characters.
+     *
+     * @param end A flag indicating if there is no more input.
+     * @throws IOException Exception is thrown if the output fails.
+     */
+    private void encode(boolean end) throws IOException {
+        chars.flip();
+        while (encoder.encode(chars, bytes, end) == CoderResult.OVERFLOW) {
+            drain();
+        }
+        chars.compact();
+    }
+
+    /**
+     * Writes the encoded bytes out.
+     *
+     * @throws IOException Exception is thrown if the output fails.
+     */
+    private void drain() throws IOException {
+        bytes.flip();
+        if (compressed != null) {
+            compressed.write(bytes.array(), bytes.position(),
+                    bytes.remaining());
+        } else {
+            while (bytes.hasRemaining()) {
+                channel.write(bytes);
+            }
+        }
+        bytes.clear();
+    }
+}
@@ -33,6 +33,8 @@
  */
 package com.github.cereda.duckity.utils;
 
+import java.util.Map;
+
 /**
  * Mapping model for datasources.
  *
@@ -54,6 +56,11 @@ public class ReaderMapping {
     private boolean fsq = false;
     private boolean ilws = false;
     private boolean CSV;
+    private boolean stream = false;
+    private String engine;
+    private String charset;
+    private Map<String, String> types;
+    private boolean header = false;
 
     public boolean isCSV() {
         return CSV;
@@ -63,6 +70,46 @@ public class ReaderMapping {
         this.CSV = CSV;
     }
 
+    public boolean isStream() {
+        return stream;
+    }
+
+    public void setStream(boolean stream) {
+        this.stream = stream;
+    }
+
+    public String getEngine() {
+        return engine;
+    }
+
+    public void setEngine(String engine) {
+        this.engine = engine;
+    }
+
+    public String getCharset() {
+        return charset;
+    }
+
+    public void setCharset(String charset) {
+        this.charset = charset;
+    }
+
+    public boolean isHeader() {
+        return header;
+    }
+
+    public void setHeader(boolean header) {
+        this.header = header;
+    }
+
+    public Map<String, String> getTypes() {
+        return types;
+    }
+
+    public void setTypes(Map<String, String> types) {
+        this.types = types;
+    }
+
     public boolean isFl() {
         return fl;
     }
@@ -81,6 +128,9 @@ public class ReaderMapping {
         separator = null;
         quotechar = null;
         escape = null;
+        engine = null;
+        charset = null;
+        types = null;
     }
 
     public void setIdentifier(String identifier) {
@@ -104,6 +154,7 @@ public class ReaderMapping {
     }
 
     public void setLine(int line) {
+        fl = true;
         this.line = line;
     }
 
@@ -138,7 +189,6 @@ public class ReaderMapping {
     }
 
     public int getLine() {
-        fl = true;
         return line;
     }
 
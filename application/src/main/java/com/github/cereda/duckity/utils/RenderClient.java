@@ -0,0 +1,136 @@
+/**
+ * Duckity -- The template helper
+ * Copyright (c) 2012, Paulo Roberto Massa Cereda
+ * All rights reserved.
+ *
+ * Redistribution and  use in source  and binary forms, with  or without
+ * modification, are  permitted provided  that the  following conditions
+ * are met:
+ *
+ * 1. Redistributions  of source  code must  retain the  above copyright
+ * notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form  must reproduce the above copyright
+ * notice, this list  of conditions and the following  disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * 3. Neither  the name  of the  project's author nor  the names  of its
+ * contributors may be used to  endorse or promote products derived from
+ * this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS  PROVIDED BY THE COPYRIGHT  HOLDERS AND CONTRIBUTORS
+ * "AS IS"  AND ANY  EXPRESS OR IMPLIED  WARRANTIES, INCLUDING,  BUT NOT
+ * LIMITED  TO, THE  IMPLIED WARRANTIES  OF MERCHANTABILITY  AND FITNESS
+ * FOR  A PARTICULAR  PURPOSE  ARE  DISCLAIMED. IN  NO  EVENT SHALL  THE
+ * COPYRIGHT HOLDER OR CONTRIBUTORS BE  LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY,  OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT  NOT LIMITED  TO, PROCUREMENT  OF SUBSTITUTE  GOODS OR  SERVICES;
+ * LOSS  OF USE,  DATA, OR  PROFITS; OR  BUSINESS INTERRUPTION)  HOWEVER
+ * CAUSED AND  ON ANY THEORY  OF LIABILITY, WHETHER IN  CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY
+ * WAY  OUT  OF  THE USE  OF  THIS  SOFTWARE,  EVEN  IF ADVISED  OF  THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.github.cereda.duckity.utils;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.net.InetAddress;
+import java.net.Socket;
+
+/**
+ * Sends a render to a server running on the same machine, presenting the
+ * token the server wrote for its user. The arguments are forwarded as
+ * given and the server messages are printed as if the render happened
+ * here.
+ *
+ * @author Paulo Roberto Massa Cereda
+ * @version 1.1
+ * @since 1.1
+ */
+public class RenderClient {
+
+    private final int port;
+    private String reason;
+
+    /**
+     * Constructor.
+     *
+     * @param port The server port.
+     */
+    public RenderClient(int port) {
+        this.port = port;
+        reason = null;
+    }
+
+    /**
+     * Sends the render to the server.
+     *
+     * @param arguments The command line arguments.
+     * @param out The stream the server messages are printed to.
+     * @return The exit status, or null if the server is not running or
+     * refused the render.
+     */
+    public Integer forward(String[] arguments, PrintStream out) {
+        reason = null;
+        String token;
+        try {
+            token = RenderServer.readToken(port);
+        } catch (IOException nothandled) {
+            reason = "There is no server of this user on port ".concat(
+                    String.valueOf(port));
+            return null;
+        }
+        try {
+            Socket socket = new Socket(InetAddress.getByName("127.0.0.1"),
+                    port);
+            try {
+                DataOutputStream output = new DataOutputStream(
+                        socket.getOutputStream());
+                output.writeUTF(RenderServer.PROTOCOL);
+                output.writeUTF(token);
+                output.flush();
+
+                DataInputStream input = new DataInputStream(
+                        socket.getInputStream());
+                if (!input.readBoolean()) {
+                    reason = input.readUTF();
+                    return null;
+                }
+                output.writeUTF(RenderServer.getDirectory());
+                output.writeInt(arguments.length);
+                for (String argument : arguments) {
+                    output.writeUTF(argument);
+                }
+                output.flush();
+
+                if (!input.readBoolean()) {
+                    reason = input.readUTF();
+                    return null;
+                }
+                byte[] messages = new byte[input.readInt()];
+                input.readFully(messages);
+                out.write(messages);
+                out.flush();
+                return input.readInt();
+            } finally {
+                socket.close();
+            }
+        } catch (IOException nothandled) {
+            reason = "There is no server on port ".concat(
+                    String.valueOf(port));
+            return null;
+        }
+    }
+
+    /**
+     * Gets the reason the last render was not sent.
+     *
+     * @return The reason, or null if it was sent.
+     */
+    public String getReason() {
+        return reason;
+    }
+}
@@ -0,0 +1,340 @@
+/**
+ * Duckity -- The template helper
+ * Copyright (c) 2012, Paulo Roberto Massa Cereda
+ * All rights reserved.
+ *
+ * Redistribution and  use in source  and binary forms, with  or without
+ * modification, are  permitted provided  that the  following conditions
+ * are met:
+ *
+ * 1. Redistributions  of source  code must  retain the  above copyright
+ * notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form  must reproduce the above copyright
+ * notice, this list  of conditions and the following  disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * 3. Neither  the name  of the  project's author nor  the names  of its
+ * contributors may be used to  endorse or promote products derived from
+ * this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS  PROVIDED BY THE COPYRIGHT  HOLDERS AND CONTRIBUTORS
+ * "AS IS"  AND ANY  EXPRESS OR IMPLIED  WARRANTIES, INCLUDING,  BUT NOT
+ * LIMITED  TO, THE  IMPLIED WARRANTIES  OF MERCHANTABILITY  AND FITNESS
+ * FOR  A PARTICULAR  PURPOSE  ARE  DISCLAIMED. IN  NO  EVENT SHALL  THE
+ * COPYRIGHT HOLDER OR CONTRIBUTORS BE  LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY,  OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT  NOT LIMITED  TO, PROCUREMENT  OF SUBSTITUTE  GOODS OR  SERVICES;
+ * LOSS  OF USE,  DATA, OR  PROFITS; OR  BUSINESS INTERRUPTION)  HOWEVER
+ * CAUSED AND  ON ANY THEORY  OF LIABILITY, WHETHER IN  CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY
+ * WAY  OUT  OF  THE USE  OF  THIS  SOFTWARE,  EVEN  IF ADVISED  OF  THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.github.cereda.duckity.utils;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.RandomAccessFile;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.Charset;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.PosixFileAttributeView;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Keeps the application running and renders files sent by clients, so
+ * renders skip the JVM startup and reuse the warm Velocity runtime, the
+ * parsed templates and the loaded datasources. The server only listens on
+ * the loopback interface and only accepts clients which present the
+ * random token it writes at start into a file only its user can read,
+ * under '.duckity' in the user home, so other users of the machine cannot
+ * make it read or write files on their behalf. Clients must also be
+ * started from its own working directory, since relative paths are
+ * resolved against it. Requests are answered concurrently.
+ *
+ * @author Paulo Roberto Massa Cereda
+ * @version 1.1
+ * @since 1.1
+ */
+public class RenderServer {
+
+    static final String PROTOCOL = "duckity/".concat(DuckityConstants.VERSION);
+    private static final int TIMEOUT = 10000;
+    private static final int ARGUMENTS = 4096;
+    private static final Charset ASCII = Charset.forName("US-ASCII");
+
+    private final int port;
+    private final Handler handler;
+    private final String directory;
+
+    /**
+     * Renders a request.
+     */
+    public interface Handler {
+
+        /**
+         * Renders the request.
+         *
+         * @param arguments The command line arguments sent by the client.
+         * @param out The stream messages are printed to.
+         * @return The exit status.
+         */
+        int handle(String[] arguments, PrintStream out);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param port The port to listen on.
+     * @param handler The handler which renders the requests.
+     */
+    public RenderServer(int port, Handler handler) {
+        this.port = port;
+        this.handler = handler;
+        this.directory = getDirectory();
+    }
+
+    /**
+     * Serves requests until the process is stopped.
+     *
+     * @throws DuckityException Exception is thrown if the port cannot be
+     * opened.
+     */
+    public void serve() throws DuckityException {
+        ServerSocket server;
+        try {
+            server = new ServerSocket(port, 50,
+                    InetAddress.getByName("127.0.0.1"));
+        } catch (IOException nothandled) {
+            throw new DuckityException("The port '".concat(String.valueOf(
+                    port)).concat("' is already in use or cannot be "
+                    + "opened."));
+        }
+        File file = getTokenFile(port);
+        final byte[] token;
+        try {
+            token = writeToken(file);
+        } catch (IOException exception) {
+            try {
+                server.close();
+            } catch (IOException nothandled) {
+                // nothing left to do
+            }
+            throw new DuckityException("The server token could not be "
+                    + "written to '".concat(file.getPath()).concat("'."),
+                    exception);
+        }
+        System.out.println("Serving '".concat(directory).concat(
+                "' on port ").concat(String.valueOf(port)).concat("."));
+        ExecutorService executor = Executors.newCachedThreadPool();
+        try {
+            while (true) {
+                final Socket socket;
+                try {
+                    socket = server.accept();
+                } catch (IOException nothandled) {
+                    continue;
+                }
+                executor.execute(new Runnable() {
+                    public void run() {
+                        answer(socket, token);
+                    }
+                });
+            }
+        } finally {
+            file.delete();
+            executor.shutdown();
+            try {
+                server.close();
+            } catch (IOException nothandled) {
+                // nothing left to do
+            }
+        }
+    }
+
+    /**
+     * Answers a request. A request starts with the protocol version and
+     * the token, which are answered on their own, so nothing else is read
+     * from clients which do not know the token. It then holds the client
+     * working directory and the arguments; the answer tells if it was
+     * accepted and then carries the printed messages and the exit status,
+     * or the reason it was refused.
+     *
+     * @param socket The client socket.
+     * @param token The server token.
+     */
+    private void answer(Socket socket, byte[] token) {
+        try {
+            try {
+                socket.setSoTimeout(TIMEOUT);
+                DataInputStream input = new DataInputStream(
+                        socket.getInputStream());
+                DataOutputStream output = new DataOutputStream(
+                        socket.getOutputStream());
+                String protocol = input.readUTF();
+                byte[] presented = input.readUTF().getBytes(ASCII);
+                if (!PROTOCOL.equals(protocol)) {
+                    output.writeBoolean(false);
+                    output.writeUTF("The server runs another version");
+                    output.flush();
+                    return;
+                }
+                if (!MessageDigest.isEqual(token, presented)) {
+                    output.writeBoolean(false);
+                    output.writeUTF("The server refused the token");
+                    output.flush();
+                    return;
+                }
+                output.writeBoolean(true);
+                output.flush();
+
+                String location = input.readUTF();
+                int count = input.readInt();
+                if ((count < 0) || (count > ARGUMENTS)) {
+                    return;
+                }
+                String[] arguments = new String[count];
+                for (int i = 0; i < arguments.length; i++) {
+                    arguments[i] = input.readUTF();
+                }
+                socket.setSoTimeout(0);
+
+                if (!directory.equals(location)) {
+                    output.writeBoolean(false);
+                    output.writeUTF("The server runs in '".concat(
+                            directory).concat("'"));
+                } else {
+                    ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+                    PrintStream out = new PrintStream(buffer, true);
+                    int status;
+                    try {
+                        status = handler.handle(arguments, out);
+                    } catch (RuntimeException exception) {
+                        out.println(String.valueOf(exception.getMessage()));
+                        status = 1;
+                    }
+                    out.flush();
+                    output.writeBoolean(true);
+                    output.writeInt(buffer.size());
+                    buffer.writeTo(output);
+                    output.writeInt(status);
+                }
+                output.flush();
+            } finally {
+                socket.close();
+            }
+        } catch (IOException nothandled) {
+            // the client went away, nobody is left to tell
+        }
+    }
+
+    /**
+     * Gets the file holding the token of the server on a port.
+     *
+     * @param port The server port.
+     * @return The token file.
+     */
+    static File getTokenFile(int port) {
+        return new File(new File(System.getProperty("user.home"),
+                ".duckity"), "server-".concat(String.valueOf(port)));
+    }
+
+    /**
+     * Reads the token of the server on a port.
+     *
+     * @param port The server port.
+     * @return The token.
+     * @throws IOException Exception is thrown if the token file cannot be
+     * read.
+     */
+    static String readToken(int port) throws IOException {
+        RandomAccessFile file = new RandomAccessFile(getTokenFile(port), "r");
+        try {
+            byte[] bytes = new byte[(int) Math.min(file.length(), 1024)];
+            file.readFully(bytes);
+            return new String(bytes, ASCII).trim();
+        } finally {
+            file.close();
+        }
+    }
+
+    /**
+     * Writes a new random token, only readable by the user. The file is
+     * written aside with owner-only permissions and then moved in place, so
+     * the token is never readable by others, not even for a moment.
+     *
+     * @param file The token file.
+     * @return The token.
+     * @throws IOException Exception is thrown if the token cannot be
+     * written.
+     */
+    private static byte[] writeToken(File file) throws IOException {
+        byte[] random = new byte[32];
+        new SecureRandom().nextBytes(random);
+        byte[] token = DatasourceSnapshots.toHex(random).getBytes(ASCII);
+
+        Path directory = file.getParentFile().toPath();
+        boolean posix = Files.getFileAttributeView(directory.getParent(),
+                PosixFileAttributeView.class) != null;
+        Path temporary;
+        if (posix) {
+            if (!Files.isDirectory(directory)) {
+                Files.createDirectories(directory,
+                        PosixFilePermissions.asFileAttribute(
+                        PosixFilePermissions.fromString("rwx------")));
+            }
+            Files.setPosixFilePermissions(directory,
+                    PosixFilePermissions.fromString("rwx------"));
+            temporary = Files.createTempFile(directory, "server", ".tmp",
+                    PosixFilePermissions.asFileAttribute(
+                    PosixFilePermissions.fromString("rw-------")));
+        } else {
+            Files.createDirectories(directory);
+            temporary = Files.createTempFile(directory, "server", ".tmp");
+            File created = temporary.toFile();
+            created.setReadable(false, false);
+            created.setWritable(false, false);
+            created.setReadable(true, true);
+            created.setWritable(true, true);
+        }
+        try {
+            Files.write(temporary, token);
+            try {
+                Files.move(temporary, file.toPath(),
+                        StandardCopyOption.REPLACE_EXISTING,
+                        StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException nothandled) {
+                Files.move(temporary, file.toPath(),
+                        StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            Files.deleteIfExists(temporary);
+        }
+        return token;
+    }
+
+    /**
+     * Gets the working directory, as compared between clients and the
+     * server.
+     *
+     * @return The canonical working directory.
+     */
+    static String getDirectory() {
+        return DatasourceCache.getPath(new File(System.getProperty(
+                "user.dir")));
+    }
+}
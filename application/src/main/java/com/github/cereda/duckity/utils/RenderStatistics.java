@@ -0,0 +1,266 @@
+/**
+ * Duckity -- The template helper
+ * Copyright (c) 2012, Paulo Roberto Massa Cereda
+ * All rights reserved.
+ *
+ * Redistribution and  use in source  and binary forms, with  or without
+ * modification, are  permitted provided  that the  following conditions
+ * are met:
+ *
+ * 1. Redistributions  of source  code must  retain the  above copyright
+ * notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form  must reproduce the above copyright
+ * notice, this list  of conditions and the following  disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * 3. Neither  the name  of the  project's author nor  the names  of its
+ * contributors may be used to  endorse or promote products derived from
+ * this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS  PROVIDED BY THE COPYRIGHT  HOLDERS AND CONTRIBUTORS
+ * "AS IS"  AND ANY  EXPRESS OR IMPLIED  WARRANTIES, INCLUDING,  BUT NOT
+ * LIMITED  TO, THE  IMPLIED WARRANTIES  OF MERCHANTABILITY  AND FITNESS
+ * FOR  A PARTICULAR  PURPOSE  ARE  DISCLAIMED. IN  NO  EVENT SHALL  THE
+ * COPYRIGHT HOLDER OR CONTRIBUTORS BE  LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY,  OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT  NOT LIMITED  TO, PROCUREMENT  OF SUBSTITUTE  GOODS OR  SERVICES;
+ * LOSS  OF USE,  DATA, OR  PROFITS; OR  BUSINESS INTERRUPTION)  HOWEVER
+ * CAUSED AND  ON ANY THEORY  OF LIABILITY, WHETHER IN  CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY
+ * WAY  OUT  OF  THE USE  OF  THIS  SOFTWARE,  EVEN  IF ADVISED  OF  THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.github.cereda.duckity.utils;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Records the statistics of a single rendered file: wall time, bytes
+ * and allocation for every phase, and the same plus rows and fields for
+ * every datasource. Allocation is counted per thread, so datasources
+ * loaded by other threads are added to the phase which waited for them.
+ *
+ * @author Paulo Roberto Massa Cereda
+ * @version 1.1
+ * @since 1.1
+ */
+public class RenderStatistics {
+
+    private final String input;
+    private final boolean enabled;
+    private final long begin;
+    private final StringBuilder phases;
+    private final List<Object[]> datasources;
+    private String output;
+    private String error;
+    private long nanos;
+    private long allocated;
+    private long foreign;
+    private long owner;
+
+    /**
+     * Constructor.
+     *
+     * @param input The input file name.
+     * @param enabled Whether the statistics are collected.
+     */
+    RenderStatistics(String input, boolean enabled) {
+        this.input = input;
+        this.enabled = enabled;
+        begin = System.nanoTime();
+        phases = new StringBuilder();
+        datasources = new ArrayList<Object[]>();
+        output = null;
+        error = null;
+        nanos = -1;
+        allocated = 0;
+        foreign = 0;
+        owner = -1;
+    }
+
+    /**
+     * Starts measuring a phase or a datasource. Phases are measured on the
+     * thread rendering the file.
+     *
+     * @return The starting point, or null if the statistics are disabled.
+     */
+    public long[] begin() {
+        if (!enabled) {
+            return null;
+        }
+        synchronized (this) {
+            if (owner < 0) {
+                owner = Thread.currentThread().getId();
+            }
+            return new long[]{System.nanoTime(), RunStatistics.allocated(),
+                foreign};
+        }
+    }
+
+    /**
+     * Finishes measuring a phase.
+     *
+     * @param phase The phase name.
+     * @param mark The starting point.
+     * @param bytes The bytes read or written by the phase.
+     */
+    public synchronized void end(String phase, long[] mark, long bytes) {
+        if (!enabled) {
+            return;
+        }
+        long elapsed = System.nanoTime() - mark[0];
+        long memory = RunStatistics.sum(delta(mark[1]), foreign - mark[2]);
+        allocated = RunStatistics.sum(allocated, memory);
+        phases.append(phases.length() == 0 ? "\n        " : ",\n        ");
+        phases.append("{\"name\": ");
+        RunStatistics.quote(phases, phase);
+        phases.append(", \"millis\": ").append(RunStatistics.millis(elapsed));
+        phases.append(", \"bytes\": ").append(bytes);
+        phases.append(", \"allocated\": ").append(memory).append('}');
+    }
+
+    /**
+     * Finishes measuring a datasource. Rows and fields are counted here,
+     * outside the measured time; streamed datasources are counted as they
+     * are consumed and reported when the report is written.
+     *
+     * @param rm The mapping.
+     * @param mark The starting point.
+     * @param value The datasource content.
+     */
+    public void datasource(ReaderMapping rm, long[] mark, Object value) {
+        if (!enabled) {
+            return;
+        }
+        long elapsed = System.nanoTime() - mark[0];
+        long memory = delta(mark[1]);
+        long rows = 0;
+        long fields = 0;
+        if (value instanceof List) {
+            rows = ((List<?>) value).size();
+            fields = count(value);
+        } else if (value instanceof Map) {
+            rows = 1;
+            fields = ((Map) value).size();
+        }
+        synchronized (this) {
+            if (Thread.currentThread().getId() != owner) {
+                // loaded by another thread, nobody else counts it
+                foreign = RunStatistics.sum(foreign, memory);
+            }
+            datasources.add(new Object[]{rm.getIdentifier(), rm.getFile(),
+                elapsed, new File(rm.getFile()).length(), rows, fields,
+                memory, value instanceof StreamingDatasource ? value : null});
+        }
+    }
+
+    /**
+     * Counts the fields of a datasource. Snapshots and typed datasources
+     * know their widths, so their rows are never decoded or built just to
+     * be counted.
+     *
+     * @param value The datasource content, a list of rows.
+     * @return The number of fields.
+     */
+    private static long count(Object value) {
+        if (value instanceof SnapshotDatasource) {
+            return ((SnapshotDatasource) value).getFields();
+        }
+        if (value instanceof TypedDatasource) {
+            TypedDatasource typed = (TypedDatasource) value;
+            return (long) typed.size() * typed.getWidth();
+        }
+        if (value instanceof NamedDatasource) {
+            NamedDatasource named = (NamedDatasource) value;
+            return named.getRows().isEmpty() ? 0
+                    : count(named.getRows()) - named.getNames().size();
+        }
+        List<?> list = (List<?>) value;
+        long fields = 0;
+        for (int i = 0; i < list.size(); i++) {
+            fields = fields + RunStatistics.width(list.get(i));
+        }
+        return fields;
+    }
+
+    /**
+     * Finishes the record.
+     *
+     * @param output The output file name, or null if there is none.
+     * @param error The error message, or null if the render succeeded.
+     */
+    public synchronized void finish(String output, String error) {
+        this.output = output;
+        this.error = error;
+        nanos = System.nanoTime() - begin;
+    }
+
+    /**
+     * Gets the bytes allocated by every phase.
+     *
+     * @return The allocated bytes, or -1 if they are unknown.
+     */
+    synchronized long getAllocated() {
+        return allocated;
+    }
+
+    /**
+     * Appends the record to the report.
+     *
+     * @param json The report.
+     */
+    synchronized void toJson(StringBuilder json) {
+        json.append("{\n      \"input\": ");
+        RunStatistics.quote(json, input);
+        json.append(",\n      \"output\": ");
+        RunStatistics.quote(json, output);
+        json.append(",\n      \"status\": ").append(nanos < 0 ? "\"running\""
+                : (error == null ? "\"done\"" : "\"failed\""));
+        json.append(",\n      \"error\": ");
+        RunStatistics.quote(json, error);
+        json.append(",\n      \"millis\": ").append(RunStatistics.millis(
+                nanos < 0 ? System.nanoTime() - begin : nanos));
+        json.append(",\n      \"allocated\": ").append(allocated);
+        json.append(",\n      \"phases\": [").append(phases).append(
+                phases.length() == 0 ? "]" : "\n      ]");
+        json.append(",\n      \"datasources\": [");
+        for (int i = 0; i < datasources.size(); i++) {
+            Object[] item = datasources.get(i);
+            long rows = (Long) item[4];
+            long fields = (Long) item[5];
+            if (item[7] != null) {
+                rows = ((StreamingDatasource) item[7]).getRows();
+                fields = ((StreamingDatasource) item[7]).getFields();
+            }
+            json.append(i == 0 ? "\n        " : ",\n        ");
+            json.append("{\"identifier\": ");
+            RunStatistics.quote(json, (String) item[0]);
+            json.append(", \"file\": ");
+            RunStatistics.quote(json, (String) item[1]);
+            json.append(", \"stream\": ").append(item[7] != null);
+            json.append(", \"millis\": ").append(
+                    RunStatistics.millis((Long) item[2]));
+            json.append(", \"bytes\": ").append(item[3]);
+            json.append(", \"rows\": ").append(rows);
+            json.append(", \"fields\": ").append(fields);
+            json.append(", \"allocated\": ").append(item[6]).append('}');
+        }
+        json.append(datasources.isEmpty() ? "]" : "\n      ]").append(
+                "\n    }");
+    }
+
+    /**
+     * Gets the bytes allocated by the current thread since a mark.
+     *
+     * @param mark The allocated bytes at the mark.
+     * @return The allocated bytes, or -1 if they are unknown.
+     */
+    private long delta(long mark) {
+        long now = RunStatistics.allocated();
+        return ((mark < 0) || (now < 0)) ? -1 : now - mark;
+    }
+}
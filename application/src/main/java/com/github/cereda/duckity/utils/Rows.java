@@ -0,0 +1,102 @@
+/**
+ * Duckity -- The template helper
+ * Copyright (c) 2012, Paulo Roberto Massa Cereda
+ * All rights reserved.
+ *
+ * Redistribution and  use in source  and binary forms, with  or without
+ * modification, are  permitted provided  that the  following conditions
+ * are met:
+ *
+ * 1. Redistributions  of source  code must  retain the  above copyright
+ * notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form  must reproduce the above copyright
+ * notice, this list  of conditions and the following  disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * 3. Neither  the name  of the  project's author nor  the names  of its
+ * contributors may be used to  endorse or promote products derived from
+ * this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS  PROVIDED BY THE COPYRIGHT  HOLDERS AND CONTRIBUTORS
+ * "AS IS"  AND ANY  EXPRESS OR IMPLIED  WARRANTIES, INCLUDING,  BUT NOT
+ * LIMITED  TO, THE  IMPLIED WARRANTIES  OF MERCHANTABILITY  AND FITNESS
+ * FOR  A PARTICULAR  PURPOSE  ARE  DISCLAIMED. IN  NO  EVENT SHALL  THE
+ * COPYRIGHT HOLDER OR CONTRIBUTORS BE  LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY,  OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT  NOT LIMITED  TO, PROCUREMENT  OF SUBSTITUTE  GOODS OR  SERVICES;
+ * LOSS  OF USE,  DATA, OR  PROFITS; OR  BUSINESS INTERRUPTION)  HOWEVER
+ * CAUSED AND  ON ANY THEORY  OF LIABILITY, WHETHER IN  CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY
+ * WAY  OUT  OF  THE USE  OF  THIS  SOFTWARE,  EVEN  IF ADVISED  OF  THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.github.cereda.duckity.utils;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Helper methods for rows, which are either arrays of strings, as read
+ * by opencsv, or lists.
+ *
+ * @author Paulo Roberto Massa Cereda
+ * @version 1.1
+ * @since 1.1
+ */
+public final class Rows {
+
+    /**
+     * Constructor.
+     */
+    private Rows() {
+    }
+
+    /**
+     * Gets a row as a list.
+     *
+     * @param row The row.
+     * @return The row fields.
+     */
+    public static List<?> toList(Object row) {
+        if (row instanceof Object[]) {
+            return Arrays.asList((Object[]) row);
+        }
+        if (row instanceof List) {
+            return (List<?>) row;
+        }
+        throw new IllegalArgumentException("Not a row.");
+    }
+
+    /**
+     * Gets a field of a row, by position or by name. Names work with rows
+     * of datasources with a header row and with JSON objects.
+     *
+     * @param row The row.
+     * @param column The field position or the column name.
+     * @return The field value, or null if there is no such field.
+     */
+    public static Object get(Object row, Object column) {
+        if (column instanceof Number) {
+            if (!(row instanceof Object[]) && !(row instanceof List)) {
+                return null;
+            }
+            List<?> fields = toList(row);
+            int position = ((Number) column).intValue();
+            return (position >= 0) && (position < fields.size())
+                    ? fields.get(position) : null;
+        }
+        String name = String.valueOf(column);
+        if (row instanceof NamedRow) {
+            return ((NamedRow) row).get(name);
+        }
+        if (row instanceof TypedRow) {
+            return ((TypedRow) row).get(name);
+        }
+        if (row instanceof Map) {
+            return ((Map) row).get(name);
+        }
+        return null;
+    }
+}
@@ -0,0 +1,274 @@
+/**
+ * Duckity -- The template helper
+ * Copyright (c) 2012, Paulo Roberto Massa Cereda
+ * All rights reserved.
+ *
+ * Redistribution and  use in source  and binary forms, with  or without
+ * modification, are  permitted provided  that the  following conditions
+ * are met:
+ *
+ * 1. Redistributions  of source  code must  retain the  above copyright
+ * notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form  must reproduce the above copyright
+ * notice, this list  of conditions and the following  disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * 3. Neither  the name  of the  project's author nor  the names  of its
+ * contributors may be used to  endorse or promote products derived from
+ * this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS  PROVIDED BY THE COPYRIGHT  HOLDERS AND CONTRIBUTORS
+ * "AS IS"  AND ANY  EXPRESS OR IMPLIED  WARRANTIES, INCLUDING,  BUT NOT
+ * LIMITED  TO, THE  IMPLIED WARRANTIES  OF MERCHANTABILITY  AND FITNESS
+ * FOR  A PARTICULAR  PURPOSE  ARE  DISCLAIMED. IN  NO  EVENT SHALL  THE
+ * COPYRIGHT HOLDER OR CONTRIBUTORS BE  LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY,  OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT  NOT LIMITED  TO, PROCUREMENT  OF SUBSTITUTE  GOODS OR  SERVICES;
+ * LOSS  OF USE,  DATA, OR  PROFITS; OR  BUSINESS INTERRUPTION)  HOWEVER
+ * CAUSED AND  ON ANY THEORY  OF LIABILITY, WHETHER IN  CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY
+ * WAY  OUT  OF  THE USE  OF  THIS  SOFTWARE,  EVEN  IF ADVISED  OF  THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.github.cereda.duckity.utils;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Collects the statistics of a run, one record per rendered file, and
+ * writes them as a JSON report. A disabled instance hands out records
+ * which ignore every measurement, so callers do not have to check.
+ *
+ * @author Paulo Roberto Massa Cereda
+ * @version 1.1
+ * @since 1.1
+ */
+public class RunStatistics {
+
+    private final boolean enabled;
+    private final long started;
+    private final long begin;
+    private final List<RenderStatistics> renders;
+
+    /**
+     * Constructor. Enabling the statistics resets the peak heap usage, so
+     * the report covers this run only.
+     *
+     * @param enabled Whether the statistics are collected.
+     */
+    public RunStatistics(boolean enabled) {
+        this.enabled = enabled;
+        started = System.currentTimeMillis();
+        begin = System.nanoTime();
+        renders = new ArrayList<RenderStatistics>();
+        if (enabled) {
+            for (MemoryPoolMXBean pool
+                    : ManagementFactory.getMemoryPoolMXBeans()) {
+                if (pool.getType() == MemoryType.HEAP) {
+                    pool.resetPeakUsage();
+                }
+            }
+        }
+    }
+
+    /**
+     * Adds the record of a file. Records are reported in the order they
+     * were added.
+     *
+     * @param input The input file name.
+     * @return The record.
+     */
+    public synchronized RenderStatistics add(String input) {
+        RenderStatistics render = new RenderStatistics(input, enabled);
+        if (enabled) {
+            renders.add(render);
+        }
+        return render;
+    }
+
+    /**
+     * Writes the report.
+     *
+     * @param file The report file name, or '-' for the console.
+     * @param out The console stream.
+     * @throws DuckityException Exception is thrown if the report cannot be
+     * written.
+     */
+    public void write(String file, PrintStream out) throws DuckityException {
+        String report = toJson();
+        if (file.equals("-")) {
+            out.println(report);
+            return;
+        }
+        try {
+            Writer writer = new OutputStreamWriter(
+                    new FileOutputStream(file), "UTF-8");
+            try {
+                writer.write(report);
+                writer.write("\n");
+            } finally {
+                writer.close();
+            }
+        } catch (IOException nothandled) {
+            throw new DuckityException("An IO error occurred while trying "
+                    + "to write to '".concat(file).concat("'."));
+        }
+    }
+
+    /**
+     * Builds the report.
+     *
+     * @return The report as a JSON document.
+     */
+    public synchronized String toJson() {
+        long allocated = 0;
+        StringBuilder items = new StringBuilder();
+        for (RenderStatistics render : renders) {
+            allocated = sum(allocated, render.getAllocated());
+            items.append(items.length() == 0 ? "\n    " : ",\n    ");
+            render.toJson(items);
+        }
+        long peak = 0;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if ((pool.getType() == MemoryType.HEAP)
+                    && (pool.getPeakUsage() != null)) {
+                peak = peak + pool.getPeakUsage().getUsed();
+            }
+        }
+        StringBuilder json = new StringBuilder("{\n");
+        json.append("  \"version\": ");
+        quote(json, DuckityConstants.VERSION).append(",\n");
+        json.append("  \"started\": ").append(started).append(",\n");
+        json.append("  \"millis\": ").append(
+                millis(System.nanoTime() - begin)).append(",\n");
+        json.append("  \"processors\": ").append(
+                Runtime.getRuntime().availableProcessors()).append(",\n");
+        json.append("  \"peakHeap\": ").append(peak).append(",\n");
+        json.append("  \"allocated\": ").append(allocated).append(",\n");
+        json.append("  \"renders\": [").append(items);
+        json.append(items.length() == 0 ? "]\n}" : "\n  ]\n}");
+        return json.toString();
+    }
+
+    /**
+     * Gets the bytes allocated so far by the current thread.
+     *
+     * @return The allocated bytes, or -1 if the virtual machine does not
+     * track allocations.
+     */
+    static long allocated() {
+        if (Allocations.THREADS == null) {
+            return -1;
+        }
+        return ((com.sun.management.ThreadMXBean) Allocations.THREADS).
+                getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    /**
+     * Adds two allocation counts, keeping -1 for unknown.
+     *
+     * @param a The first count.
+     * @param b The second count.
+     * @return The sum.
+     */
+    static long sum(long a, long b) {
+        return ((a < 0) || (b < 0)) ? -1 : a + b;
+    }
+
+    /**
+     * Converts nanoseconds to milliseconds, keeping three decimals.
+     *
+     * @param nanos The nanoseconds.
+     * @return The milliseconds.
+     */
+    static String millis(long nanos) {
+        return String.valueOf(nanos / 1000 / 1000.0);
+    }
+
+    /**
+     * Counts the fields of a row.
+     *
+     * @param row The row.
+     * @return The number of fields.
+     */
+    static int width(Object row) {
+        if (row instanceof Object[]) {
+            return ((Object[]) row).length;
+        } else if (row instanceof List) {
+            return ((List) row).size();
+        } else if (row instanceof Map) {
+            return ((Map) row).size();
+        }
+        return 1;
+    }
+
+    /**
+     * Appends a quoted JSON string.
+     *
+     * @param json The document.
+     * @param value The string, possibly null.
+     * @return The document.
+     */
+    static StringBuilder quote(StringBuilder json, String value) {
+        if (value == null) {
+            return json.append("null");
+        }
+        json.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if ((c == '"') || (c == '\\')) {
+                json.append('\\').append(c);
+            } else if (c < 0x20) {
+                json.append(String.format("\\u%04x", (int) c));
+            } else {
+                json.append(c);
+            }
+        }
+        return json.append('"');
+    }
+
+    /**
+     * Holds the thread bean. The management classes take a while to load,
+     * so runs without statistics never touch them.
+     */
+    private static class Allocations {
+
+        private static final ThreadMXBean THREADS = create();
+
+        /**
+         * Gets the thread bean, if it can count allocated bytes.
+         *
+         * @return The thread bean, or null if allocations are not tracked.
+         */
+        private static ThreadMXBean create() {
+            try {
+                ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+                if (bean instanceof com.sun.management.ThreadMXBean) {
+                    com.sun.management.ThreadMXBean sun =
+                            (com.sun.management.ThreadMXBean) bean;
+                    if (sun.isThreadAllocatedMemorySupported()) {
+                        sun.setThreadAllocatedMemoryEnabled(true);
+                        return bean;
+                    }
+                }
+            } catch (LinkageError nothandled) {
+                // not a virtual machine from Sun or Oracle
+            } catch (UnsupportedOperationException nothandled) {
+                // allocations are not tracked
+            }
+            return null;
+        }
+    }
+}
@@ -0,0 +1,242 @@
+/**
+ * Duckity -- The template helper
+ * Copyright (c) 2012, Paulo Roberto Massa Cereda
+ * All rights reserved.
+ *
+ * Redistribution and  use in source  and binary forms, with  or without
+ * modification, are  permitted provided  that the  following conditions
+ * are met:
+ *
+ * 1. Redistributions  of source  code must  retain the  above copyright
+ * notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form  must reproduce the above copyright
+ * notice, this list  of conditions and the following  disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * 3. Neither  the name  of the  project's author nor  the names  of its
+ * contributors may be used to  endorse or promote products derived from
+ * this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS  PROVIDED BY THE COPYRIGHT  HOLDERS AND CONTRIBUTORS
+ * "AS IS"  AND ANY  EXPRESS OR IMPLIED  WARRANTIES, INCLUDING,  BUT NOT
+ * LIMITED  TO, THE  IMPLIED WARRANTIES  OF MERCHANTABILITY  AND FITNESS
+ * FOR  A PARTICULAR  PURPOSE  ARE  DISCLAIMED. IN  NO  EVENT SHALL  THE
+ * COPYRIGHT HOLDER OR CONTRIBUTORS BE  LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY,  OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT  NOT LIMITED  TO, PROCUREMENT  OF SUBSTITUTE  GOODS OR  SERVICES;
+ * LOSS  OF USE,  DATA, OR  PROFITS; OR  BUSINESS INTERRUPTION)  HOWEVER
+ * CAUSED AND  ON ANY THEORY  OF LIABILITY, WHETHER IN  CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY
+ * WAY  OUT  OF  THE USE  OF  THIS  SOFTWARE,  EVEN  IF ADVISED  OF  THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.github.cereda.duckity.utils;
+
+import java.io.IOException;
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.RandomAccess;
+
+/**
+ * Exposes a mapped datasource snapshot as a list of rows. Nothing is
+ * decoded up front: each row is rebuilt from its columns when requested,
+ * and dictionary values are decoded once and shared by every row which
+ * holds them. Rows are string arrays, or lists of strings when the engine
+ * which parsed the file built lists, so templates see the same rows with
+ * and without a snapshot.
+ *
+ * @author Paulo Roberto Massa Cereda
+ * @version 1.1
+ * @since 1.1
+ */
+public class SnapshotDatasource extends AbstractList<Object>
+        implements RandomAccess {
+
+    private final MappedFile map;
+    private final int rows;
+    private final int columns;
+    private final long widths;
+    private final boolean lists;
+    private final long[] sections;
+    private final String[][] dictionaries;
+
+    /**
+     * Constructor.
+     *
+     * @param map The mapped snapshot.
+     * @param rows The number of rows.
+     * @param columns The number of columns.
+     * @param widths The position of the row widths, or -1 if every row is
+     * as wide as the table.
+     * @param lists A boolean value indicating if rows are lists rather
+     * than arrays.
+     * @param sections The position of every column.
+     */
+    private SnapshotDatasource(MappedFile map, int rows, int columns,
+            long widths, boolean lists, long[] sections) {
+        this.map = map;
+        this.rows = rows;
+        this.columns = columns;
+        this.widths = widths;
+        this.lists = lists;
+        this.sections = sections;
+        dictionaries = new String[columns][];
+        for (int column = 0; column < columns; column++) {
+            if (map.get(sections[column]) == 0) {
+                dictionaries[column] = new String[map.getInt(
+                        sections[column] + 1)];
+            }
+        }
+    }
+
+    /**
+     * Opens a mapped snapshot.
+     *
+     * @param map The mapped snapshot.
+     * @param key The expected key.
+     * @return The datasource, or null if the snapshot belongs to another
+     * version of the file.
+     * @throws IOException Exception is thrown if the snapshot is not valid.
+     */
+    static SnapshotDatasource open(MappedFile map, String key)
+            throws IOException {
+        byte[] magic = new byte[DatasourceSnapshots.MAGIC.length];
+        map.get(0, magic, 0, magic.length);
+        for (int i = 0; i < magic.length; i++) {
+            if (magic[i] != DatasourceSnapshots.MAGIC[i]) {
+                throw new IOException("Not a snapshot.");
+            }
+        }
+        long position = magic.length;
+        byte[] bytes = new byte[map.getInt(position)];
+        map.get(position + 4, bytes, 0, bytes.length);
+        if (!key.equals(new String(bytes, DatasourceSnapshots.UTF8))) {
+            return null;
+        }
+        position = position + 4 + bytes.length;
+        int rows = map.getInt(position);
+        int columns = map.getInt(position + 4);
+        boolean uniform = map.get(position + 8) == 1;
+        boolean lists = map.get(position + 9) == 1;
+        long footer = map.getLong(map.size() - 8);
+        long[] sections = new long[columns];
+        for (int column = 0; column < columns; column++) {
+            sections[column] = map.getLong(footer + 8L * column);
+        }
+        return new SnapshotDatasource(map, rows, columns,
+                uniform ? -1 : position + 10, lists, sections);
+    }
+
+    /**
+     * Gets a row.
+     *
+     * @param index The row index.
+     * @return The row fields, as an array or a list.
+     */
+    public Object get(int index) {
+        if ((index < 0) || (index >= rows)) {
+            throw new IndexOutOfBoundsException(String.valueOf(index));
+        }
+        int width = getWidth(index);
+        String[] row = new String[width];
+        for (int column = 0; column < width; column++) {
+            row[column] = getValue(column, index);
+        }
+        return lists ? Arrays.asList(row) : row;
+    }
+
+    /**
+     * Gets the number of rows.
+     *
+     * @return The number of rows.
+     */
+    public int size() {
+        return rows;
+    }
+
+    /**
+     * Gets the number of fields of a row, without decoding it.
+     *
+     * @param index The row index.
+     * @return The number of fields.
+     */
+    int getWidth(int index) {
+        return widths < 0 ? columns : map.getInt(widths + 4L * index);
+    }
+
+    /**
+     * Gets the number of fields of every row, without decoding them.
+     *
+     * @return The number of fields.
+     */
+    long getFields() {
+        if (widths < 0) {
+            return (long) rows * columns;
+        }
+        long fields = 0;
+        for (int index = 0; index < rows; index++) {
+            fields = fields + getWidth(index);
+        }
+        return fields;
+    }
+
+    /**
+     * Gets a single value.
+     *
+     * @param column The column.
+     * @param index The row index.
+     * @return The value.
+     */
+    private String getValue(int column, int index) {
+        long section = sections[column];
+        String[] dictionary = dictionaries[column];
+        if (dictionary == null) {
+            long length = map.getLong(section + 1);
+            long offsets = section + 10 + length;
+            long start;
+            long end;
+            if (map.get(section + 9) == 4) {
+                start = map.getInt(offsets + 4L * index);
+                end = map.getInt(offsets + 4L * index + 4);
+            } else {
+                start = map.getLong(offsets + 8L * index);
+                end = map.getLong(offsets + 8L * index + 8);
+            }
+            return decode(section + 10 + start, (int) (end - start));
+        }
+        int width = map.getInt(section + 5);
+        long offsets = section + 9;
+        long data = offsets + 4L * (dictionary.length + 1);
+        long codes = data + map.getInt(offsets + 4L * dictionary.length);
+        int code;
+        if (width == 1) {
+            code = map.get(codes + index) & 0xff;
+        } else {
+            code = ((map.get(codes + 2L * index) & 0xff) << 8)
+                    | (map.get(codes + 2L * index + 1) & 0xff);
+        }
+        String value = dictionary[code];
+        if (value == null) {
+            // decoding twice on a race is harmless, strings are immutable
+            int start = map.getInt(offsets + 4L * code);
+            int end = map.getInt(offsets + 4L * code + 4);
+            value = decode(data + start, end - start);
+            dictionary[code] = value;
+        }
+        return value;
+    }
+
+    /**
+     * Decodes an UTF-8 value.
+     *
+     * @param position The value position.
+     * @param length The value length, in bytes.
+     * @return The value.
+     */
+    private String decode(long position, int length) {
+        byte[] bytes = new byte[length];
+        map.get(position, bytes, 0, length);
+        return new String(bytes, DatasourceSnapshots.UTF8);
+    }
+}
@@ -0,0 +1,170 @@
+/**
+ * Duckity -- The template helper
+ * Copyright (c) 2012, Paulo Roberto Massa Cereda
+ * All rights reserved.
+ *
+ * Redistribution and  use in source  and binary forms, with  or without
+ * modification, are  permitted provided  that the  following conditions
+ * are met:
+ *
+ * 1. Redistributions  of source  code must  retain the  above copyright
+ * notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form  must reproduce the above copyright
+ * notice, this list  of conditions and the following  disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * 3. Neither  the name  of the  project's author nor  the names  of its
+ * contributors may be used to  endorse or promote products derived from
+ * this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS  PROVIDED BY THE COPYRIGHT  HOLDERS AND CONTRIBUTORS
+ * "AS IS"  AND ANY  EXPRESS OR IMPLIED  WARRANTIES, INCLUDING,  BUT NOT
+ * LIMITED  TO, THE  IMPLIED WARRANTIES  OF MERCHANTABILITY  AND FITNESS
+ * FOR  A PARTICULAR  PURPOSE  ARE  DISCLAIMED. IN  NO  EVENT SHALL  THE
+ * COPYRIGHT HOLDER OR CONTRIBUTORS BE  LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY,  OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT  NOT LIMITED  TO, PROCUREMENT  OF SUBSTITUTE  GOODS OR  SERVICES;
+ * LOSS  OF USE,  DATA, OR  PROFITS; OR  BUSINESS INTERRUPTION)  HOWEVER
+ * CAUSED AND  ON ANY THEORY  OF LIABILITY, WHETHER IN  CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY
+ * WAY  OUT  OF  THE USE  OF  THIS  SOFTWARE,  EVEN  IF ADVISED  OF  THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.github.cereda.duckity.utils;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Exposes a datasource as a lazy, single-pass sequence of rows. Rows
+ * are pulled from the underlying reader on demand, so the file is never
+ * held in memory as a whole. A template can therefore iterate over it only
+ * once: a second '#foreach', or a read error halfway, fails the render
+ * with a message naming the file.
+ *
+ * @author Paulo Roberto Massa Cereda
+ * @version 1.1
+ * @since 1.1
+ */
+public class StreamingDatasource implements Iterable<Object>, Closeable {
+
+    private final RowReader reader;
+    private final String name;
+    private boolean consumed;
+    private boolean closed;
+    private long rows;
+    private long fields;
+
+    /**
+     * Constructor.
+     *
+     * @param reader The row reader, already opened.
+     * @param name The datasource file name, used in error messages.
+     */
+    public StreamingDatasource(RowReader reader, String name) {
+        this.reader = reader;
+        this.name = name;
+        consumed = false;
+        closed = false;
+        rows = 0;
+        fields = 0;
+    }
+
+    /**
+     * Gets the iterator over the rows. Since the rows are read directly
+     * from the file, the sequence can only be traversed once.
+     *
+     * @return The iterator over the rows.
+     */
+    public synchronized Iterator<Object> iterator() {
+        if (consumed) {
+            throw new IllegalStateException("The streaming datasource '".
+                    concat(name).concat("' can only be traversed once."));
+        }
+        consumed = true;
+        return new Iterator<Object>() {
+
+            private Object next = null;
+            private boolean fetched = false;
+
+            public boolean hasNext() {
+                if (!fetched) {
+                    next = fetch();
+                    fetched = true;
+                }
+                return next != null;
+            }
+
+            public Object next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                fetched = false;
+                return next;
+            }
+
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+
+    /**
+     * Reads the next row from the file, closing the reader at the end.
+     *
+     * @return The next row, or null if there are no more rows.
+     */
+    private Object fetch() {
+        if (closed) {
+            return null;
+        }
+        try {
+            Object row = reader.readNext();
+            if (row == null) {
+                close();
+            } else {
+                rows++;
+                fields = fields + RunStatistics.width(row);
+            }
+            return row;
+        } catch (IOException ioexception) {
+            throw new IllegalStateException("An IO error occurred while "
+                    + "trying to read from '".concat(name).concat("'."),
+                    ioexception);
+        }
+    }
+
+    /**
+     * Gets the number of rows read so far.
+     *
+     * @return The number of rows.
+     */
+    public long getRows() {
+        return rows;
+    }
+
+    /**
+     * Gets the number of fields read so far.
+     *
+     * @return The number of fields.
+     */
+    public long getFields() {
+        return fields;
+    }
+
+    /**
+     * Closes the underlying reader.
+     *
+     * @throws IOException Exception is thrown if the reader cannot be
+     * closed.
+     */
+    public synchronized void close() throws IOException {
+        if (!closed) {
+            closed = true;
+            reader.close();
+        }
+    }
+}
@@ -0,0 +1,329 @@
+/**
+ * Duckity -- The template helper
+ * Copyright (c) 2012, Paulo Roberto Massa Cereda
+ * All rights reserved.
+ *
+ * Redistribution and  use in source  and binary forms, with  or without
+ * modification, are  permitted provided  that the  following conditions
+ * are met:
+ *
+ * 1. Redistributions  of source  code must  retain the  above copyright
+ * notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form  must reproduce the above copyright
+ * notice, this list  of conditions and the following  disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * 3. Neither  the name  of the  project's author nor  the names  of its
+ * contributors may be used to  endorse or promote products derived from
+ * this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS  PROVIDED BY THE COPYRIGHT  HOLDERS AND CONTRIBUTORS
+ * "AS IS"  AND ANY  EXPRESS OR IMPLIED  WARRANTIES, INCLUDING,  BUT NOT
+ * LIMITED  TO, THE  IMPLIED WARRANTIES  OF MERCHANTABILITY  AND FITNESS
+ * FOR  A PARTICULAR  PURPOSE  ARE  DISCLAIMED. IN  NO  EVENT SHALL  THE
+ * COPYRIGHT HOLDER OR CONTRIBUTORS BE  LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY,  OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT  NOT LIMITED  TO, PROCUREMENT  OF SUBSTITUTE  GOODS OR  SERVICES;
+ * LOSS  OF USE,  DATA, OR  PROFITS; OR  BUSINESS INTERRUPTION)  HOWEVER
+ * CAUSED AND  ON ANY THEORY  OF LIABILITY, WHETHER IN  CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY
+ * WAY  OUT  OF  THE USE  OF  THIS  SOFTWARE,  EVEN  IF ADVISED  OF  THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.github.cereda.duckity.utils;
+
+import java.io.StringReader;
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import org.apache.velocity.Template;
+import org.apache.velocity.runtime.RuntimeServices;
+import org.apache.velocity.runtime.parser.ParseException;
+import org.apache.velocity.runtime.parser.node.SimpleNode;
+
+/**
+ * Caches parsed and initialized templates within the process, so the same
+ * template text is only parsed once when several renders happen in the
+ * same run. Entries are keyed by a content hash of the template together
+ * with the Velocity and Duckity versions, or by the text itself when it is
+ * small, plus the name of the template, and the least recently used ones
+ * are evicted once the cache is full. Concurrent requests for the same
+ * template wait for a single parse. Every entry keeps the macros its
+ * template defines in a namespace of its own, which is dropped along with
+ * the entry, so a macro never leaks into another template.
+ *
+ * @author Paulo Roberto Massa Cereda
+ * @version 1.1
+ * @since 1.1
+ */
+public class TemplateCache {
+
+    private static final TemplateCache INSTANCE = new TemplateCache(128);
+    private static final int SLICE = 1 << 14;
+
+    private final Map<String, CachedTemplate> templates;
+    private final AtomicInteger namespaces;
+    private final AtomicLong hits;
+    private final AtomicLong misses;
+    private final String versions;
+
+    /**
+     * Constructor.
+     *
+     * @param capacity The maximum number of templates.
+     */
+    public TemplateCache(final int capacity) {
+        templates = new LinkedHashMap<String, CachedTemplate>(16, 0.75f, true) {
+
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(
+                    Map.Entry<String, CachedTemplate> eldest) {
+                if (size() > capacity) {
+                    eldest.getValue().release();
+                    return true;
+                }
+                return false;
+            }
+        };
+        namespaces = new AtomicInteger();
+        hits = new AtomicLong();
+        misses = new AtomicLong();
+        versions = getVersions();
+    }
+
+    /**
+     * Gets the Velocity and Duckity versions, which both change how a
+     * template renders.
+     *
+     * @return The versions.
+     */
+    static String getVersions() {
+        String velocity = Template.class.getPackage() == null ? null
+                : Template.class.getPackage().getImplementationVersion();
+        return (velocity == null ? "unknown" : velocity).concat("/").
+                concat(DuckityConstants.VERSION);
+    }
+
+    /**
+     * Gets the cache shared by the whole process.
+     *
+     * @return The shared cache.
+     */
+    public static TemplateCache getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Gets the parsed template which comes from no file, parsing it on a
+     * miss.
+     *
+     * @param services The runtime services.
+     * @param text The template text.
+     * @return The parsed and initialized template.
+     * @throws DuckityException Exception is thrown if the template cannot
+     * be parsed.
+     */
+    public Template get(RuntimeServices services, String text)
+            throws DuckityException {
+        return get(services, "Duckity", text);
+    }
+
+    /**
+     * Gets the parsed template, parsing it on a miss.
+     *
+     * @param services The runtime services.
+     * @param name The template name, usually its file path.
+     * @param text The template text.
+     * @return The parsed and initialized template.
+     * @throws DuckityException Exception is thrown if the template cannot
+     * be parsed.
+     */
+    public Template get(final RuntimeServices services, String name,
+            final String text) throws DuckityException {
+        String key = name.concat("\n").concat(getKey(text));
+        CachedTemplate task;
+        boolean owner = false;
+        synchronized (templates) {
+            task = templates.get(key);
+            if (task == null) {
+                // the same file may come back with an older text, whose
+                // entry still has to see its own macros
+                final String namespace = name.concat("#").concat(
+                        String.valueOf(namespaces.incrementAndGet()));
+                task = new CachedTemplate(services, namespace,
+                        new Callable<Template>() {
+                    public Template call() throws DuckityException {
+                        return parse(services, namespace, text);
+                    }
+                });
+                templates.put(key, task);
+                owner = true;
+            }
+        }
+        if (owner) {
+            misses.incrementAndGet();
+            task.run();
+        } else {
+            hits.incrementAndGet();
+        }
+        try {
+            return task.get();
+        } catch (InterruptedException nothandled) {
+            Thread.currentThread().interrupt();
+            throw new DuckityException("The template parsing "
+                    + "was interrupted.");
+        } catch (ExecutionException exception) {
+            synchronized (templates) {
+                if (templates.get(key) == task) {
+                    templates.remove(key);
+                    task.release();
+                }
+            }
+            if (exception.getCause() instanceof DuckityException) {
+                throw (DuckityException) exception.getCause();
+            }
+            throw new DuckityException("An error occurred while trying to "
+                    + "parse the template.", exception.getCause());
+        }
+    }
+
+    /**
+     * Parses and initializes the template.
+     *
+     * @param services The runtime services.
+     * @param namespace The template name, under which its macros are
+     * kept.
+     * @param text The template text.
+     * @return The parsed and initialized template.
+     * @throws DuckityException Exception is thrown if the template cannot
+     * be parsed.
+     */
+    private Template parse(RuntimeServices services, String namespace,
+            String text) throws DuckityException {
+        SimpleNode node;
+        try {
+            node = services.parse(new StringReader(text), namespace);
+        } catch (ParseException pe) {
+            throw new DuckityException("An error occurred while trying to "
+                    + "parse the template: " + pe.getMessage());
+        }
+        Template template = new Template();
+        template.setName(namespace);
+        template.setRuntimeServices(services);
+        template.setData(node);
+        template.initDocument();
+        return template;
+    }
+
+    /**
+     * Gets the number of hits.
+     *
+     * @return The number of hits.
+     */
+    public long getHits() {
+        return hits.get();
+    }
+
+    /**
+     * Gets the number of misses.
+     *
+     * @return The number of misses.
+     */
+    public long getMisses() {
+        return misses.get();
+    }
+
+    /**
+     * Gets the statistics, ready to be printed.
+     *
+     * @return The statistics.
+     */
+    public String getStatistics() {
+        return "Template cache: ".concat(String.valueOf(getHits())).
+                concat(" hit(s), ").concat(String.valueOf(getMisses())).
+                concat(" miss(es).");
+    }
+
+    /**
+     * Gets the cache key of the template text. Small templates are their
+     * own key, the security providers behind the hash take longer to load
+     * than such a template takes to compare.
+     *
+     * @param text The template text.
+     * @return The key.
+     */
+    private String getKey(String text) {
+        if (text.length() <= SLICE) {
+            // hashed keys never start with this character
+            return "=".concat(text);
+        }
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            // hashes the text in slices, large templates are not copied
+            // whole into bytes only to be hashed
+            for (int start = 0; start < text.length(); ) {
+                int end = Math.min(text.length(), start + SLICE);
+                if ((end < text.length())
+                        && Character.isHighSurrogate(text.charAt(end - 1))) {
+                    end--;
+                }
+                digest.update(text.substring(start, end).getBytes("UTF-8"));
+                start = end;
+            }
+            byte[] hash = digest.digest();
+            StringBuilder key = new StringBuilder(hash.length * 2 + 16);
+            for (byte b : hash) {
+                key.append(Character.forDigit((b >> 4) & 0xf, 16));
+                key.append(Character.forDigit(b & 0xf, 16));
+            }
+            return key.append('/').append(versions).toString();
+        } catch (NoSuchAlgorithmException nothandled) {
+            // every Java platform provides SHA-256
+            throw new IllegalStateException(nothandled);
+        } catch (UnsupportedEncodingException nothandled) {
+            // every Java platform provides UTF-8
+            throw new IllegalStateException(nothandled);
+        }
+    }
+
+    /**
+     * Holds a pending or parsed template, along with the namespace of its
+     * macros.
+     */
+    private static class CachedTemplate extends FutureTask<Template> {
+
+        private final RuntimeServices services;
+        private final String namespace;
+
+        /**
+         * Constructor.
+         *
+         * @param services The runtime services.
+         * @param namespace The macro namespace.
+         * @param parser The parse.
+         */
+        CachedTemplate(RuntimeServices services, String namespace,
+                Callable<Template> parser) {
+            super(parser);
+            this.services = services;
+            this.namespace = namespace;
+        }
+
+        /**
+         * Drops the macros of the template, which is no longer cached.
+         */
+        void release() {
+            services.dumpVMNamespace(namespace);
+        }
+    }
+}
@@ -33,17 +33,31 @@
  */
 package com.github.cereda.duckity.utils;
 
+import java.io.Closeable;
 import java.io.File;
-import java.io.FileWriter;
 import java.io.IOException;
-import java.io.StringReader;
+import java.lang.reflect.InvocationTargetException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 import org.apache.velocity.Template;
 import org.apache.velocity.VelocityContext;
+import org.apache.velocity.exception.MethodInvocationException;
+import org.apache.velocity.exception.VelocityException;
+import org.apache.velocity.runtime.RuntimeConstants;
+import org.apache.velocity.runtime.RuntimeInstance;
 import org.apache.velocity.runtime.RuntimeServices;
-import org.apache.velocity.runtime.RuntimeSingleton;
-import org.apache.velocity.runtime.parser.ParseException;
-import org.apache.velocity.runtime.parser.node.SimpleNode;
+import org.apache.velocity.runtime.log.NullLogChute;
+import org.apache.velocity.runtime.parser.node.Node;
 
 /**
  * Holds the template manager.
@@ -58,6 +72,10 @@ public class TemplateManager {
     private String output;
     private final HashMap content;
     private final String template;
+    private Charset charset;
+    private PartitionMapping partition;
+    private final List<String> outputs;
+    private Template parsed;
 
     /**
      * Constructor.
@@ -70,9 +88,24 @@ public class TemplateManager {
         this.input = input;
         this.content = content;
         this.template = template;
-        this.output = getBasename(input).concat(".new").
-                concat(getFiletype(input).isEmpty() ? "" : ".".
-                        concat(getFiletype(input)));
+        this.charset = Charset.defaultCharset();
+        this.partition = null;
+        this.outputs = Collections.synchronizedList(new ArrayList<String>());
+        this.parsed = null;
+        this.output = getDefaultOutput(input);
+    }
+
+    /**
+     * Gets the output file name used when none is set: the input base
+     * name plus '.new' and the input extension, in the working directory.
+     *
+     * @param input The input file name.
+     * @return The output file name.
+     */
+    public static String getDefaultOutput(String input) {
+        return getBasename(input).concat(".new").concat(
+                getFiletype(input).isEmpty() ? "" : ".".concat(
+                getFiletype(input)));
     }
 
     /**
@@ -84,38 +117,362 @@ public class TemplateManager {
         this.output = output;
     }
 
+    /**
+     * Gets the output file name.
+     *
+     * @return The output file name.
+     */
+    public String getOutput() {
+        return output;
+    }
+
+    /**
+     * Renders the template once per partition. The output, unless set
+     * afterwards, comes from the partition or defaults to the input base
+     * name followed by the key.
+     *
+     * @param partition The partition.
+     */
+    public void setPartition(PartitionMapping partition) {
+        this.partition = partition;
+        if (partition.getOutput() != null) {
+            output = partition.getOutput();
+        } else {
+            output = getBasename(input).concat(".").concat(
+                    PartitionMapping.PLACEHOLDER).concat(".new").concat(
+                    getFiletype(input).isEmpty() ? "" : ".".concat(
+                    getFiletype(input)));
+        }
+    }
+
+    /**
+     * Gets the files written by the last generation.
+     *
+     * @return The output file names.
+     */
+    public List<String> getOutputs() {
+        return outputs;
+    }
+
+    /**
+     * Sets the output charset.
+     *
+     * @param charset The output charset.
+     */
+    public void setCharset(Charset charset) {
+        this.charset = charset;
+    }
+
+    /**
+     * Initializes the template engine. Renders may run on several threads
+     * at once, so the engine has to be ready before they start.
+     */
+    public static void initialize() {
+        getServices();
+    }
+
+    /**
+     * Starts initializing the template engine in the background, so it is
+     * ready by the time the template and datasources are read. With a
+     * single processor there is nothing to overlap, so the engine is left
+     * to be initialized on first use.
+     */
+    public static void warmUp() {
+        if (Runtime.getRuntime().availableProcessors() > 1) {
+            Thread thread = new Thread(new Runnable() {
+                public void run() {
+                    getServices();
+                }
+            }, "duckity-warmup");
+            thread.setDaemon(true);
+            thread.start();
+        }
+    }
+
+    /**
+     * Gets the template engine shared by every render of the process.
+     *
+     * @return The template engine.
+     */
+    public static RuntimeServices getServices() {
+        return Engine.INSTANCE;
+    }
+
+    /**
+     * Finds the datasources the template refers to, so the others do not
+     * have to be read. The template is parsed here and kept for the
+     * generation.
+     *
+     * @param identifiers The datasource identifiers.
+     * @return The identifiers the template refers to, or null if it may
+     * refer to any of them.
+     * @throws DuckityException Exception is thrown if the template cannot
+     * be parsed.
+     */
+    public Set<String> getReferences(Collection<String> identifiers)
+            throws DuckityException {
+        parsed = TemplateCache.getInstance().get(getServices(), getName(),
+                template);
+        return TemplateReferences.find((Node) parsed.getData(), identifiers);
+    }
+
     /**
      * Generates the template.
      *
      * @throws DuckityException Exception is thrown in case of an error.
      */
     public void generate() throws DuckityException {
-        RuntimeServices services = RuntimeSingleton.getRuntimeServices();
-        StringReader reader = new StringReader(template);
-        SimpleNode node = null;
+        RuntimeServices services = getServices();
+        outputs.clear();
         try {
-            node = services.parse(reader, "Duckity");
-        } catch (ParseException pe) {
+            Template vtemplate = parsed != null ? parsed
+                    : TemplateCache.getInstance().get(services, getName(),
+                    template);
+            if (partition == null) {
+                merge(vtemplate, output, getTools(), null);
+            } else {
+                partition(vtemplate);
+            }
+        } finally {
+            release();
+        }
+    }
+
+    /**
+     * Renders the template once per distinct key of the partitioned
+     * datasource, on the shared pool. Each render sees every datasource,
+     * plus the rows of its partition as '$partition' and the key as
+     * '$key', so no datasource may be named after them. Partitions come
+     * in the order their keys first appear. The tools are built once and
+     * shared, so an index is built once for all the partitions instead of
+     * once per partition.
+     *
+     * @param vtemplate The parsed template.
+     * @throws DuckityException Exception is thrown if the datasource
+     * cannot be partitioned or if a render fails.
+     */
+    private void partition(final Template vtemplate)
+            throws DuckityException {
+        String identifier = partition.getIdentifier();
+        Object datasource = content.get(identifier);
+        if (!(datasource instanceof List)) {
+            throw new DuckityException("There is no datasource '".concat(
+                    identifier).concat("' to partition, or it is "
+                    + "streamed."));
+        }
+        for (String name : new String[]{"partition", "key"}) {
+            if (content.containsKey(name)) {
+                throw new DuckityException("The identifier '".concat(name).
+                        concat("' is reserved in partitioned templates, "
+                        + "please rename that datasource."));
+            }
+        }
+        for (Object value : content.values()) {
+            if (value instanceof StreamingDatasource) {
+                throw new DuckityException("Streamed datasources are read "
+                        + "only once, so they do not work with partitions.");
+            }
+        }
+        if (!output.contains(PartitionMapping.PLACEHOLDER)) {
+            throw new DuckityException("The partition output '".concat(
+                    output).concat("' has to contain '").concat(
+                    PartitionMapping.PLACEHOLDER).concat("'."));
+        }
+
+        Map<String, List<Object>> groups =
+                new LinkedHashMap<String, List<Object>>();
+        Map<String, Object> keys = new HashMap<String, Object>();
+        for (Object row : (List) datasource) {
+            Object key = Rows.get(row, partition.getKey());
+            if (key == null) {
+                throw new DuckityException("A row of '".concat(identifier).
+                        concat("' has no value for the partition key."));
+            }
+            String name = key.toString();
+            List<Object> rows = groups.get(name);
+            if (rows == null) {
+                if ((name.length() == 0) || name.equals(".")
+                        || name.equals("..") || (name.indexOf('/') != -1)
+                        || (name.indexOf('\\') != -1)
+                        || (name.indexOf('\0') != -1)) {
+                    throw new DuckityException("The partition key '".concat(
+                            name).concat("' cannot be used in a file name."));
+                }
+                rows = new ArrayList<Object>();
+                groups.put(name, rows);
+                keys.put(name, key);
+            }
+            rows.add(row);
+        }
+
+        final Map<String, Object> tools = getTools();
+        List<Callable<Object>> tasks = new ArrayList<Callable<Object>>();
+        for (Map.Entry<String, List<Object>> group : groups.entrySet()) {
+            final String file = output.replace(PartitionMapping.PLACEHOLDER,
+                    group.getKey());
+            final Map<String, Object> extras = new HashMap<String, Object>();
+            extras.put("partition", Collections.unmodifiableList(
+                    group.getValue()));
+            extras.put("key", keys.get(group.getKey()));
+            tasks.add(new Callable<Object>() {
+                public Object call() throws DuckityException {
+                    File parent = new File(file).getAbsoluteFile().
+                            getParentFile();
+                    if ((parent != null) && !parent.isDirectory()) {
+                        parent.mkdirs();
+                    }
+                    merge(vtemplate, file, tools, extras);
+                    return file;
+                }
+            });
+        }
+
+        try {
+            for (Future<Object> future : SharedPool.get().invokeAll(tasks)) {
+                future.get();
+            }
+        } catch (InterruptedException nothandled) {
+            Thread.currentThread().interrupt();
+            throw new DuckityException("The partitioned render "
+                    + "was interrupted.");
+        } catch (ExecutionException exception) {
+            if (exception.getCause() instanceof DuckityException) {
+                throw (DuckityException) exception.getCause();
+            }
             throw new DuckityException("An error occurred while trying to "
-                    + "parse the template: " + pe.getMessage());
+                    + "render a partition.", exception.getCause());
+        }
+    }
+
+    /**
+     * Builds the tools working on the datasources. Datasources named after
+     * a tool win, as before it existed.
+     *
+     * @return The tools, by name.
+     */
+    private Map<String, Object> getTools() {
+        Map<String, Object> tools = new HashMap<String, Object>();
+        if (!content.containsKey("index")) {
+            tools.put("index", new IndexTool(content));
         }
-        Template vtemplate = new Template();
-        vtemplate.setRuntimeServices(services);
-        vtemplate.setData(node);
-        vtemplate.initDocument();
-        VelocityContext context = new VelocityContext();
-        for (Object key : content.keySet()) {
-            context.put((String) key, content.get(key));
+        if (!content.containsKey("aggregate")) {
+            tools.put("aggregate", new AggregateTool(content));
         }
-        context.put("math", new MyMathTool());
+        return tools;
+    }
 
+    /**
+     * Merges the template into an output file.
+     *
+     * @param vtemplate The parsed template.
+     * @param file The output file name.
+     * @param tools The tools working on the datasources.
+     * @param extras The references added on top of the datasources, or
+     * null if there are none.
+     * @throws DuckityException Exception is thrown in case of an error.
+     */
+    private void merge(Template vtemplate, String file,
+            Map<String, Object> tools, Map<String, Object> extras)
+            throws DuckityException {
+        OutputWriter writer = null;
         try {
-            FileWriter writer = new FileWriter(output);
+            // datasources are looked up in place, so the ones which are
+            // deferred are only read if the template gets to them
+            VelocityContext context = new VelocityContext(
+                    new HashMap<String, Object>(),
+                    new VelocityContext(content));
+            for (Map.Entry<String, Object> tool : tools.entrySet()) {
+                context.put(tool.getKey(), tool.getValue());
+            }
+            if (extras != null) {
+                for (Map.Entry<String, Object> extra : extras.entrySet()) {
+                    context.put(extra.getKey(), extra.getValue());
+                }
+            }
+            context.put("math", new MyMathTool());
+
+            writer = new OutputWriter(new File(file), charset);
             vtemplate.merge(context, writer);
             writer.close();
+            outputs.add(file);
         } catch (IOException nothandled) {
             throw new DuckityException("An IO error occurred while trying "
-                    + "to read from '".concat(output).concat("'."));
+                    + "to write to '".concat(file).concat("'."));
+        } catch (DatasourceMap.LoadingException exception) {
+            throw exception.getFailure();
+        } catch (MethodInvocationException exception) {
+            Throwable cause = exception.getWrappedThrowable();
+            if (cause instanceof DatasourceMap.LoadingException) {
+                throw ((DatasourceMap.LoadingException) cause).getFailure();
+            }
+            throw new DuckityException("An error occurred at line ".concat(
+                    String.valueOf(exception.getLineNumber())).concat(
+                    " of the template in '").concat(input).concat("': ").
+                    concat(String.valueOf(cause == null
+                    ? exception.getMessage() : cause.getMessage())));
+        } catch (RuntimeException exception) {
+            // such as a streamed datasource traversed twice or failing
+            // to read, which the engine may have wrapped
+            Throwable cause = getCause(exception);
+            if (cause instanceof DatasourceMap.LoadingException) {
+                throw ((DatasourceMap.LoadingException) cause).getFailure();
+            }
+            throw new DuckityException("An error occurred while rendering "
+                    + "the template in '".concat(input).concat("': ").concat(
+                    cause.getMessage() == null ? cause.getClass().getName()
+                    : cause.getMessage()));
+        } finally {
+            if (writer != null) {
+                writer.abort();
+            }
+        }
+    }
+
+    /**
+     * Gets the error behind the ones the template engine and reflection
+     * wrap it in.
+     *
+     * @param exception The error.
+     * @return The error behind it, or the error itself.
+     */
+    private static Throwable getCause(Throwable exception) {
+        Throwable cause = exception;
+        while (((cause instanceof VelocityException)
+                || (cause instanceof InvocationTargetException))
+                && (cause.getCause() != null)) {
+            cause = cause.getCause();
+        }
+        return cause;
+    }
+
+    /**
+     * Closes every datasource still holding an open file, such as the
+     * streaming ones.
+     */
+    private void release() {
+        for (Object value : content.values()) {
+            if (value instanceof Closeable) {
+                try {
+                    ((Closeable) value).close();
+                } catch (IOException nothandled) {
+                    // the merge is already done, nothing else to do
+                }
+            }
+        }
+    }
+
+    /**
+     * Gets the template name, under which the macros it defines are kept
+     * apart from the ones of other templates.
+     *
+     * @return The canonical path of the input file.
+     */
+    private String getName() {
+        File file = new File(input);
+        try {
+            return file.getCanonicalPath();
+        } catch (IOException nothandled) {
+            return file.getAbsolutePath();
         }
     }
 
@@ -125,7 +482,7 @@ public class TemplateManager {
      * @param ref The file name.
      * @return The file base name.
      */
-    private String getBasename(String ref) {
+    private static String getBasename(String ref) {
         try {
             ref = (new File(ref)).getName();
             int index = ref.lastIndexOf(".") != -1 ?
@@ -142,7 +499,7 @@ public class TemplateManager {
      * @param ref The file name.
      * @return The file type.
      */
-    private String getFiletype(String ref) {
+    private static String getFiletype(String ref) {
         try {
             ref = (new File(ref)).getName();
             if (ref.lastIndexOf(".") != -1) {
@@ -153,5 +510,36 @@ public class TemplateManager {
             return "";
         }
     }
-    
+
+    /**
+     * Holds the template engine, created on first use. Templates are
+     * parsed from the input files, so nothing is looked up by name but
+     * '#parse' and '#include', which keep the default file loader. The
+     * engine does not log: errors surface as exceptions anyway, and
+     * logging every undefined reference costs a message per miss.
+     */
+    private static class Engine {
+
+        private static final RuntimeInstance INSTANCE = create();
+
+        /**
+         * Creates the template engine.
+         *
+         * @return The template engine.
+         */
+        private static RuntimeInstance create() {
+            RuntimeInstance runtime = new RuntimeInstance();
+            runtime.setProperty(RuntimeConstants.RUNTIME_LOG_LOGSYSTEM_CLASS,
+                    NullLogChute.class.getName());
+            runtime.setProperty(
+                    RuntimeConstants.RUNTIME_LOG_REFERENCE_LOG_INVALID,
+                    "false");
+            // the engine is shared by every template of the process, so
+            // inline macros are kept per template
+            runtime.setProperty(RuntimeConstants.VM_PERM_INLINE_LOCAL,
+                    "true");
+            runtime.init();
+            return runtime;
+        }
+    }
 }
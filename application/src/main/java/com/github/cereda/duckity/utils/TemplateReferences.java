@@ -0,0 +1,165 @@
+/**
+ * Duckity -- The template helper
+ * Copyright (c) 2012, Paulo Roberto Massa Cereda
+ * All rights reserved.
+ *
+ * Redistribution and  use in source  and binary forms, with  or without
+ * modification, are  permitted provided  that the  following conditions
+ * are met:
+ *
+ * 1. Redistributions  of source  code must  retain the  above copyright
+ * notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form  must reproduce the above copyright
+ * notice, this list  of conditions and the following  disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * 3. Neither  the name  of the  project's author nor  the names  of its
+ * contributors may be used to  endorse or promote products derived from
+ * this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS  PROVIDED BY THE COPYRIGHT  HOLDERS AND CONTRIBUTORS
+ * "AS IS"  AND ANY  EXPRESS OR IMPLIED  WARRANTIES, INCLUDING,  BUT NOT
+ * LIMITED  TO, THE  IMPLIED WARRANTIES  OF MERCHANTABILITY  AND FITNESS
+ * FOR  A PARTICULAR  PURPOSE  ARE  DISCLAIMED. IN  NO  EVENT SHALL  THE
+ * COPYRIGHT HOLDER OR CONTRIBUTORS BE  LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY,  OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT  NOT LIMITED  TO, PROCUREMENT  OF SUBSTITUTE  GOODS OR  SERVICES;
+ * LOSS  OF USE,  DATA, OR  PROFITS; OR  BUSINESS INTERRUPTION)  HOWEVER
+ * CAUSED AND  ON ANY THEORY  OF LIABILITY, WHETHER IN  CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY
+ * WAY  OUT  OF  THE USE  OF  THIS  SOFTWARE,  EVEN  IF ADVISED  OF  THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.github.cereda.duckity.utils;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import org.apache.velocity.runtime.parser.node.ASTDirective;
+import org.apache.velocity.runtime.parser.node.ASTMethod;
+import org.apache.velocity.runtime.parser.node.ASTReference;
+import org.apache.velocity.runtime.parser.node.ASTStringLiteral;
+import org.apache.velocity.runtime.parser.node.Node;
+
+/**
+ * Finds the datasources a parsed template refers to, either directly, as
+ * in '$customers', or by name, as in '$index.of("customers", ...)'. Any
+ * string literal holding an identifier counts as a reference, which may
+ * find a few too many but never too few. When the template can reach
+ * datasources in ways the scan cannot follow, such as tool calls with a
+ * computed name, included templates or macros defined elsewhere, there
+ * is no answer.
+ *
+ * @author Paulo Roberto Massa Cereda
+ * @version 1.1
+ * @since 1.1
+ */
+class TemplateReferences {
+
+    private static final List<String> TOOLS = Arrays.asList("index",
+            "aggregate");
+    private static final List<String> DYNAMIC = Arrays.asList("parse",
+            "include", "evaluate");
+    private static final List<String> DIRECTIVES = Arrays.asList("foreach",
+            "if", "elseif", "else", "set", "literal", "break", "define",
+            "stop", "macro");
+
+    private final Collection<String> identifiers;
+    private final Set<String> found;
+    private final Set<String> macros;
+    private final Set<String> calls;
+    private boolean certain;
+
+    /**
+     * Constructor.
+     *
+     * @param identifiers The datasource identifiers.
+     */
+    private TemplateReferences(Collection<String> identifiers) {
+        this.identifiers = identifiers;
+        found = new HashSet<String>();
+        macros = new HashSet<String>();
+        calls = new HashSet<String>();
+        certain = true;
+    }
+
+    /**
+     * Finds the datasources a parsed template refers to.
+     *
+     * @param root The root node of the template.
+     * @param identifiers The datasource identifiers.
+     * @return The identifiers referred to, or null if the template may
+     * refer to any of them.
+     */
+    static Set<String> find(Node root, Collection<String> identifiers) {
+        TemplateReferences references = new TemplateReferences(identifiers);
+        references.visit(root);
+        if (!references.certain
+                || !references.macros.containsAll(references.calls)) {
+            return null;
+        }
+        return references.found;
+    }
+
+    /**
+     * Visits a node and its children.
+     *
+     * @param node The node.
+     */
+    private void visit(Node node) {
+        if (!certain) {
+            return;
+        }
+        if (node instanceof ASTReference) {
+            reference((ASTReference) node);
+        } else if (node instanceof ASTStringLiteral) {
+            String text = node.literal();
+            for (String identifier : identifiers) {
+                if (text.contains(identifier)) {
+                    found.add(identifier);
+                }
+            }
+        } else if (node instanceof ASTDirective) {
+            String name = ((ASTDirective) node).getDirectiveName();
+            if (DYNAMIC.contains(name)) {
+                certain = false;
+                return;
+            }
+            if (name.equals("macro") && (node.jjtGetNumChildren() > 0)) {
+                macros.add(node.jjtGetChild(0).literal());
+            } else if (!DIRECTIVES.contains(name)) {
+                calls.add(name);
+            }
+        }
+        for (int i = 0; i < node.jjtGetNumChildren(); i++) {
+            visit(node.jjtGetChild(i));
+        }
+    }
+
+    /**
+     * Checks a reference, which is either a datasource itself or a tool
+     * call naming one.
+     *
+     * @param node The reference node.
+     */
+    private void reference(ASTReference node) {
+        String root = node.getRootString();
+        if (identifiers.contains(root)) {
+            found.add(root);
+        } else if (TOOLS.contains(root)) {
+            // the name has to be spelled out, or it could be any of them
+            if ((node.jjtGetNumChildren() == 0)
+                    || !(node.jjtGetChild(0) instanceof ASTMethod)
+                    || (node.jjtGetChild(0).jjtGetNumChildren() < 2)
+                    || !(node.jjtGetChild(0).jjtGetChild(1)
+                    instanceof ASTStringLiteral)
+                    || (node.jjtGetChild(0).jjtGetChild(1).literal().
+                    indexOf('$') != -1)) {
+                certain = false;
+            }
+        }
+    }
+}
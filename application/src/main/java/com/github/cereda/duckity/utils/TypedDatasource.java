@@ -0,0 +1,326 @@
+/**
+ * Duckity -- The template helper
+ * Copyright (c) 2012, Paulo Roberto Massa Cereda
+ * All rights reserved.
+ *
+ * Redistribution and  use in source  and binary forms, with  or without
+ * modification, are  permitted provided  that the  following conditions
+ * are met:
+ *
+ * 1. Redistributions  of source  code must  retain the  above copyright
+ * notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form  must reproduce the above copyright
+ * notice, this list  of conditions and the following  disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * 3. Neither  the name  of the  project's author nor  the names  of its
+ * contributors may be used to  endorse or promote products derived from
+ * this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS  PROVIDED BY THE COPYRIGHT  HOLDERS AND CONTRIBUTORS
+ * "AS IS"  AND ANY  EXPRESS OR IMPLIED  WARRANTIES, INCLUDING,  BUT NOT
+ * LIMITED  TO, THE  IMPLIED WARRANTIES  OF MERCHANTABILITY  AND FITNESS
+ * FOR  A PARTICULAR  PURPOSE  ARE  DISCLAIMED. IN  NO  EVENT SHALL  THE
+ * COPYRIGHT HOLDER OR CONTRIBUTORS BE  LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY,  OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT  NOT LIMITED  TO, PROCUREMENT  OF SUBSTITUTE  GOODS OR  SERVICES;
+ * LOSS  OF USE,  DATA, OR  PROFITS; OR  BUSINESS INTERRUPTION)  HOWEVER
+ * CAUSED AND  ON ANY THEORY  OF LIABILITY, WHETHER IN  CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY
+ * WAY  OUT  OF  THE USE  OF  THIS  SOFTWARE,  EVEN  IF ADVISED  OF  THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.github.cereda.duckity.utils;
+
+import java.math.BigDecimal;
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Map;
+import java.util.RandomAccess;
+
+/**
+ * Holds a CSV datasource whose columns have declared types. The first row
+ * names the columns, which rows also answer to by name; every other row
+ * is parsed once and stored column by column, numbers in primitive
+ * arrays, so templates get ready-made values instead of strings. Empty
+ * numeric fields, and fields missing from short rows, are null, so
+ * templates print them with the quiet form, as in
+ * <code>$!r.age</code>; empty string fields stay empty.
+ *
+ * @author Paulo Roberto Massa Cereda
+ * @version 1.1
+ * @since 1.1
+ */
+public class TypedDatasource extends AbstractList<Object>
+        implements RandomAccess {
+
+    /**
+     * The supported types.
+     */
+    public static final List<String> TYPES = Arrays.asList("string", "int",
+            "long", "double", "decimal");
+
+    private static final int STRING = 0;
+    private static final int INT = 1;
+    private static final int LONG = 2;
+    private static final int DOUBLE = 3;
+    private static final int DECIMAL = 4;
+
+    private final String name;
+    private final String[] names;
+    private final ColumnIndex index;
+    private final int[] kinds;
+    private final Object[] columns;
+    private final BitSet[] nulls;
+    private int size;
+    private int capacity;
+
+    /**
+     * Constructor.
+     *
+     * @param name The datasource file name, used in error messages.
+     * @param index The column index.
+     * @param types The column types, by name.
+     * @throws DuckityException Exception is thrown if a typed column does
+     * not exist.
+     */
+    private TypedDatasource(String name, ColumnIndex index,
+            Map<String, String> types) throws DuckityException {
+        this.name = name;
+        this.index = index;
+        names = index.getNames().toArray(new String[index.size()]);
+        kinds = new int[names.length];
+        for (String column : types.keySet()) {
+            int position = index.indexOf(column);
+            if (position < 0) {
+                throw new DuckityException("The column '".concat(column).
+                        concat("' does not exist in '").concat(name).
+                        concat("'."));
+            }
+            kinds[position] = TYPES.indexOf(types.get(column));
+        }
+        columns = new Object[names.length];
+        nulls = new BitSet[names.length];
+        for (int i = 0; i < names.length; i++) {
+            columns[i] = allocate(kinds[i], 16);
+            nulls[i] = new BitSet();
+        }
+        size = 0;
+        capacity = 16;
+    }
+
+    /**
+     * Creates a typed datasource from parsed rows, the first of which
+     * holds the column names.
+     *
+     * @param rows The parsed rows.
+     * @param types The column types, by name.
+     * @param name The datasource file name, used in error messages.
+     * @return The typed datasource.
+     * @throws DuckityException Exception is thrown if a value does not
+     * match the type of its column.
+     */
+    public static TypedDatasource create(List<?> rows,
+            Map<String, String> types, String name) throws DuckityException {
+        if (rows.isEmpty()) {
+            throw new DuckityException("The file '".concat(name).concat(
+                    "' has no header row naming its columns."));
+        }
+        TypedDatasource datasource = new TypedDatasource(name,
+                new ColumnIndex(Rows.toList(rows.get(0))), types);
+        for (int i = 1; i < rows.size(); i++) {
+            datasource.add(Rows.toList(rows.get(i)));
+        }
+        datasource.trim();
+        return datasource;
+    }
+
+    /**
+     * Gets a row.
+     *
+     * @param index The row index.
+     * @return The row.
+     */
+    @Override
+    public Object get(int index) {
+        if ((index < 0) || (index >= size)) {
+            throw new IndexOutOfBoundsException("Index: " + index
+                    + ", Size: " + size);
+        }
+        return new TypedRow(this, index);
+    }
+
+    /**
+     * Gets the number of rows, not counting the header.
+     *
+     * @return The number of rows.
+     */
+    @Override
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Gets the column names.
+     *
+     * @return The column names.
+     */
+    public List<String> getNames() {
+        return index.getNames();
+    }
+
+    /**
+     * Gets the column index.
+     *
+     * @return The column index.
+     */
+    ColumnIndex getIndex() {
+        return index;
+    }
+
+    /**
+     * Gets the number of columns.
+     *
+     * @return The number of columns.
+     */
+    int getWidth() {
+        return names.length;
+    }
+
+    /**
+     * Gets a single value.
+     *
+     * @param row The row index.
+     * @param column The column index.
+     * @return The value, or null if the field is empty.
+     */
+    Object getValue(int row, int column) {
+        if (nulls[column].get(row)) {
+            return null;
+        }
+        switch (kinds[column]) {
+            case INT:
+                return ((int[]) columns[column])[row];
+            case LONG:
+                return ((long[]) columns[column])[row];
+            case DOUBLE:
+                return ((double[]) columns[column])[row];
+            default:
+                return ((Object[]) columns[column])[row];
+        }
+    }
+
+    /**
+     * Adds a row.
+     *
+     * @param fields The row fields.
+     * @throws DuckityException Exception is thrown if a value does not
+     * match the type of its column.
+     */
+    private void add(List<?> fields) throws DuckityException {
+        if (fields.size() > names.length) {
+            throw new DuckityException("Row ".concat(String.valueOf(
+                    size + 2)).concat(" of '").concat(name).concat(
+                    "' has more fields than the header."));
+        }
+        if (size == capacity) {
+            capacity = capacity * 2;
+            for (int i = 0; i < columns.length; i++) {
+                columns[i] = grow(columns[i], capacity);
+            }
+        }
+        for (int i = 0; i < names.length; i++) {
+            String value = i < fields.size()
+                    ? String.valueOf(fields.get(i)) : null;
+            if ((value == null) || ((kinds[i] != STRING)
+                    && (value.trim().length() == 0))) {
+                nulls[i].set(size);
+                continue;
+            }
+            try {
+                switch (kinds[i]) {
+                    case INT:
+                        ((int[]) columns[i])[size] = Integer.parseInt(
+                                value.trim());
+                        break;
+                    case LONG:
+                        ((long[]) columns[i])[size] = Long.parseLong(
+                                value.trim());
+                        break;
+                    case DOUBLE:
+                        ((double[]) columns[i])[size] = Double.parseDouble(
+                                value.trim());
+                        break;
+                    case DECIMAL:
+                        ((Object[]) columns[i])[size] = new BigDecimal(
+                                value.trim());
+                        break;
+                    default:
+                        ((Object[]) columns[i])[size] = value;
+                        break;
+                }
+            } catch (NumberFormatException nothandled) {
+                throw new DuckityException("The value '".concat(value).
+                        concat("' in row ").concat(String.valueOf(size + 2)).
+                        concat(" of '").concat(name).concat(
+                        "' is not a valid ").concat(TYPES.get(kinds[i])).
+                        concat(" for column '").concat(names[i]).
+                        concat("'."));
+            }
+        }
+        size++;
+    }
+
+    /**
+     * Shrinks the columns to the number of rows.
+     */
+    private void trim() {
+        for (int i = 0; i < columns.length; i++) {
+            columns[i] = grow(columns[i], size);
+        }
+        capacity = size;
+    }
+
+    /**
+     * Allocates a column.
+     *
+     * @param kind The column type.
+     * @param capacity The capacity.
+     * @return The column.
+     */
+    private static Object allocate(int kind, int capacity) {
+        switch (kind) {
+            case INT:
+                return new int[capacity];
+            case LONG:
+                return new long[capacity];
+            case DOUBLE:
+                return new double[capacity];
+            case DECIMAL:
+                return new BigDecimal[capacity];
+            default:
+                return new String[capacity];
+        }
+    }
+
+    /**
+     * Copies a column into one of another capacity.
+     *
+     * @param column The column.
+     * @param capacity The new capacity.
+     * @return The new column.
+     */
+    private static Object grow(Object column, int capacity) {
+        if (column instanceof int[]) {
+            return Arrays.copyOf((int[]) column, capacity);
+        } else if (column instanceof long[]) {
+            return Arrays.copyOf((long[]) column, capacity);
+        } else if (column instanceof double[]) {
+            return Arrays.copyOf((double[]) column, capacity);
+        }
+        return Arrays.copyOf((Object[]) column, capacity);
+    }
+}
@@ -1,5 +1,13 @@
 package com.github.cereda.duckity;
 
+import com.github.cereda.duckity.utils.CommandLineAnalyzer;
+import com.github.cereda.duckity.utils.DatasourceCache;
+import com.github.cereda.duckity.utils.DuckityException;
+import com.github.cereda.duckity.utils.RunStatistics;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
 import junit.framework.Test;
 import junit.framework.TestCase;
 import junit.framework.TestSuite;
@@ -32,4 +40,117 @@ public class DuckityTest
     public void testApp() {
         assertTrue(true);
     }
+
+    /**
+     * Writes a file.
+     *
+     * @param file The file.
+     * @param text The file text.
+     * @throws IOException Exception is thrown if the file cannot be
+     * written.
+     */
+    private static void write(File file, String text) throws IOException {
+        OutputStream stream = new FileOutputStream(file);
+        try {
+            stream.write(text.getBytes("UTF-8"));
+        } finally {
+            stream.close();
+        }
+    }
+
+    /**
+     * Renders a template twice with a fingerprint manifest.
+     *
+     * @param template The template.
+     * @return A boolean value indicating if the second render happened.
+     * @throws Exception Exception is thrown if a render fails.
+     */
+    private static boolean renderAgain(String template) throws Exception {
+        File directory = File.createTempFile("duckity-test", "");
+        directory.delete();
+        directory.mkdir();
+        File input = new File(directory, "input.txt");
+        File output = new File(directory, "output.txt");
+        File manifest = new File(directory, "fingerprints");
+        try {
+            write(input, "{\"datasources\":[]}\n[TEMPLATE]\n".concat(
+                    template));
+            boolean rendered = false;
+            for (int i = 0; i < 2; i++) {
+                CommandLineAnalyzer analyzer = new CommandLineAnalyzer(
+                        new String[]{input.getPath(), "--fingerprints",
+                            manifest.getPath()});
+                analyzer.parse();
+                rendered = Duckity.render(input.getPath(), output.getPath(),
+                        analyzer, null, new RunStatistics(false).add(
+                        input.getPath()));
+                analyzer.getFingerprints().write();
+            }
+            return rendered;
+        } finally {
+            input.delete();
+            output.delete();
+            manifest.delete();
+            directory.delete();
+        }
+    }
+
+    /**
+     * Checks templates which may read files the fingerprint does not
+     * cover are always rendered, and the others are skipped once current.
+     *
+     * @throws Exception Exception is thrown if a render fails.
+     */
+    public void testFingerprintsSkipOnlyKnownInputs() throws Exception {
+        assertFalse(renderAgain("plain"));
+        assertFalse(renderAgain("#macro(m)x#end#m()"));
+        // never run, the files do not exist
+        assertTrue(renderAgain("#if(false)#parse(\"other.vm\")#end"));
+        assertTrue(renderAgain("#if(false)#include(\"other.txt\")#end"));
+        assertTrue(renderAgain("#evaluate(\"x\")"));
+        assertTrue(renderAgain("#fromlibrary()"));
+    }
+
+    /**
+     * Checks a batch whose inputs would share an output is refused before
+     * anything is rendered.
+     *
+     * @throws Exception Exception is thrown if the files cannot be
+     * written.
+     */
+    public void testBatchRefusesSharedOutputs() throws Exception {
+        File directory = File.createTempFile("duckity-test", "");
+        directory.delete();
+        File a = new File(directory, "a");
+        File b = new File(directory, "b");
+        a.mkdirs();
+        b.mkdirs();
+        File first = new File(a, "shared.txt");
+        File second = new File(b, "shared.txt");
+        try {
+            write(first, "first");
+            write(second, "second");
+            CommandLineAnalyzer analyzer = new CommandLineAnalyzer(
+                    new String[]{"--batch", first.getPath(),
+                        second.getPath(), "--jobs", "2"});
+            analyzer.parse();
+            try {
+                Duckity.batch(analyzer, new DatasourceCache(),
+                        new RunStatistics(false), System.out);
+                fail("The batch was rendered.");
+            } catch (DuckityException exception) {
+                assertEquals("Both '".concat(first.getPath()).concat(
+                        "' and '").concat(second.getPath()).concat(
+                        "' would be rendered to 'shared.new.txt'."),
+                        exception.getMessage());
+            }
+            assertFalse(new File("shared.new.txt").exists());
+        } finally {
+            first.delete();
+            second.delete();
+            a.delete();
+            b.delete();
+            directory.delete();
+        }
+    }
 }
@@ -0,0 +1,224 @@
+/**
+ * Duckity -- The template helper
+ * Copyright (c) 2012, Paulo Roberto Massa Cereda
+ * All rights reserved.
+ *
+ * Redistribution and  use in source  and binary forms, with  or without
+ * modification, are  permitted provided  that the  following conditions
+ * are met:
+ *
+ * 1. Redistributions  of source  code must  retain the  above copyright
+ * notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form  must reproduce the above copyright
+ * notice, this list  of conditions and the following  disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * 3. Neither  the name  of the  project's author nor  the names  of its
+ * contributors may be used to  endorse or promote products derived from
+ * this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS  PROVIDED BY THE COPYRIGHT  HOLDERS AND CONTRIBUTORS
+ * "AS IS"  AND ANY  EXPRESS OR IMPLIED  WARRANTIES, INCLUDING,  BUT NOT
+ * LIMITED  TO, THE  IMPLIED WARRANTIES  OF MERCHANTABILITY  AND FITNESS
+ * FOR  A PARTICULAR  PURPOSE  ARE  DISCLAIMED. IN  NO  EVENT SHALL  THE
+ * COPYRIGHT HOLDER OR CONTRIBUTORS BE  LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY,  OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT  NOT LIMITED  TO, PROCUREMENT  OF SUBSTITUTE  GOODS OR  SERVICES;
+ * LOSS  OF USE,  DATA, OR  PROFITS; OR  BUSINESS INTERRUPTION)  HOWEVER
+ * CAUSED AND  ON ANY THEORY  OF LIABILITY, WHETHER IN  CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY
+ * WAY  OUT  OF  THE USE  OF  THIS  SOFTWARE,  EVEN  IF ADVISED  OF  THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.github.cereda.duckity.utils;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import junit.framework.TestCase;
+
+/**
+ * Tests the aggregation tool.
+ *
+ * @author Paulo Roberto Massa Cereda
+ * @version 1.1
+ * @since 1.1
+ */
+public class AggregateToolTest extends TestCase {
+
+    private static final String[] REGIONS = {"north", "south", "east",
+        "west"};
+
+    /**
+     * Creates rows large enough to be split and aggregated in parallel.
+     * The 'late' key only appears in the second half, every tenth amount
+     * is empty and the ratios are fractional.
+     *
+     * @return The rows.
+     */
+    private List<Object> rows() {
+        List<Object> rows = new ArrayList<Object>();
+        for (int i = 0; i < 100000; i++) {
+            String region = (i >= 90000) && (i % 2 == 0) ? "late"
+                    : REGIONS[(i * 3) % 4];
+            String amount = i % 10 == 0 ? "" : String.valueOf(i % 100);
+            rows.add(new String[]{region, amount,
+                String.valueOf((i % 8) * 0.25)});
+        }
+        return rows;
+    }
+
+    /**
+     * Creates a streamed datasource over the rows.
+     *
+     * @param rows The rows.
+     * @return The streamed datasource.
+     */
+    private StreamingDatasource stream(List<Object> rows) {
+        final Iterator<Object> iterator = rows.iterator();
+        return new StreamingDatasource(new RowReader() {
+            public Object readNext() throws IOException {
+                return iterator.hasNext() ? iterator.next() : null;
+            }
+
+            public void close() throws IOException {
+            }
+        }, "rows.csv");
+    }
+
+    /**
+     * Describes the groups, in order.
+     *
+     * @param groups The groups.
+     * @return The description.
+     */
+    private String describe(List<AggregateGroup> groups) {
+        StringBuilder builder = new StringBuilder();
+        for (AggregateGroup group : groups) {
+            builder.append(describe(group)).append(";");
+        }
+        return builder.toString();
+    }
+
+    /**
+     * Describes a group.
+     *
+     * @param group The group.
+     * @return The description.
+     */
+    private String describe(AggregateGroup group) {
+        return group.getKey() + ":" + group.getCount() + ":"
+                + group.getValues() + ":" + group.getSum() + ":"
+                + group.getMin() + ":" + group.getMax() + ":"
+                + group.getAverage();
+    }
+
+    /**
+     * Aggregates a datasource.
+     *
+     * @param datasource The datasource.
+     * @param key The key column.
+     * @param value The aggregated column.
+     * @return The groups.
+     */
+    private List<AggregateGroup> group(Object datasource, Object key,
+            Object value) {
+        Map<String, Object> content = new HashMap<String, Object>();
+        content.put("d", datasource);
+        return new AggregateTool(content).group("d", key, value);
+    }
+
+    /**
+     * Checks the parallel aggregation of a large datasource yields the
+     * same groups as the sequential and the streamed ones.
+     */
+    public void testParallelMatchesSequential() {
+        List<Object> rows = rows();
+        for (int column = 1; column < 3; column++) {
+            String parallel = describe(group(rows, 0, column));
+            assertEquals(parallel, describe(group(
+                    new LinkedList<Object>(rows), 0, column)));
+            assertEquals(parallel, describe(group(stream(rows), 0,
+                    column)));
+        }
+    }
+
+    /**
+     * Checks the groups come out in the order their keys first appear,
+     * even when a key only shows up in the right half of the split.
+     */
+    public void testKeyOrder() {
+        List<AggregateGroup> groups = group(rows(), 0, null);
+        List<Object> keys = new ArrayList<Object>();
+        long count = 0;
+        for (AggregateGroup group : groups) {
+            keys.add(group.getKey());
+            count = count + group.getCount();
+        }
+        assertEquals(Arrays.<Object>asList("north", "west", "east", "south",
+                "late"), keys);
+        assertEquals(100000, count);
+    }
+
+    /**
+     * Checks integral values are summed as longs and anything else as
+     * doubles.
+     */
+    public void testResultTypes() {
+        List<Object> rows = new ArrayList<Object>();
+        rows.add(new Object[]{"a", "1", 2, 1.5});
+        rows.add(new Object[]{"a", "-3", 4L, 2.0});
+        AggregateGroup group = group(rows, 0, 1).get(0);
+        assertEquals(Long.valueOf(-2), group.getSum());
+        assertEquals(Long.valueOf(-3), group.getMin());
+        assertEquals(Long.valueOf(1), group.getMax());
+        assertEquals(Double.valueOf(-1), group.getAverage());
+        assertEquals(Long.valueOf(6), group(rows, 0, 2).get(0).getSum());
+        assertEquals(Double.valueOf(3.5), group(rows, 0, 3).get(0).getSum());
+        rows.add(new Object[]{"a", "0.5"});
+        assertEquals(Double.valueOf(-1.5), group(rows, 0, 1).get(0).getSum());
+    }
+
+    /**
+     * Checks empty values are counted as rows but not aggregated.
+     */
+    public void testEmptyValues() {
+        List<Object> rows = new ArrayList<Object>();
+        rows.add(new String[]{"a", ""});
+        rows.add(new String[]{"a", "  "});
+        rows.add(new String[]{"a"});
+        rows.add(new String[]{"b", "", "x"});
+        rows.add(new String[]{"b", "5"});
+        assertEquals("a:3:0:null:null:null:null;b:2:1:5:5:5:5.0;",
+                describe(group(rows, 0, 1)));
+        Map<String, Object> content = new HashMap<String, Object>();
+        content.put("d", new ArrayList<Object>());
+        assertEquals("null:0:0:null:null:null:null", describe(
+                new AggregateTool(content).total("d", 1)));
+    }
+
+    /**
+     * Checks a streamed datasource is aggregated in a single pass, which
+     * consumes it.
+     */
+    public void testStreamedSinglePass() {
+        Map<String, Object> content = new HashMap<String, Object>();
+        content.put("d", stream(Arrays.<Object>asList(
+                new String[]{"a", "1"}, new String[]{"b", "2"},
+                new String[]{"a", "3"})));
+        AggregateTool tool = new AggregateTool(content);
+        assertEquals("null:3:3:6:1:3:2.0", describe(tool.total("d", 1)));
+        try {
+            tool.total("d", 1);
+            fail("The streamed datasource was traversed twice.");
+        } catch (IllegalStateException expected) {
+            // streamed datasources can only be traversed once
+        }
+    }
+}
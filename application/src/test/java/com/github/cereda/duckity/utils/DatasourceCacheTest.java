@@ -0,0 +1,224 @@
+/**
+ * Duckity -- The template helper
+ * Copyright (c) 2012, Paulo Roberto Massa Cereda
+ * All rights reserved.
+ *
+ * Redistribution and  use in source  and binary forms, with  or without
+ * modification, are  permitted provided  that the  following conditions
+ * are met:
+ *
+ * 1. Redistributions  of source  code must  retain the  above copyright
+ * notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form  must reproduce the above copyright
+ * notice, this list  of conditions and the following  disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * 3. Neither  the name  of the  project's author nor  the names  of its
+ * contributors may be used to  endorse or promote products derived from
+ * this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS  PROVIDED BY THE COPYRIGHT  HOLDERS AND CONTRIBUTORS
+ * "AS IS"  AND ANY  EXPRESS OR IMPLIED  WARRANTIES, INCLUDING,  BUT NOT
+ * LIMITED  TO, THE  IMPLIED WARRANTIES  OF MERCHANTABILITY  AND FITNESS
+ * FOR  A PARTICULAR  PURPOSE  ARE  DISCLAIMED. IN  NO  EVENT SHALL  THE
+ * COPYRIGHT HOLDER OR CONTRIBUTORS BE  LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY,  OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT  NOT LIMITED  TO, PROCUREMENT  OF SUBSTITUTE  GOODS OR  SERVICES;
+ * LOSS  OF USE,  DATA, OR  PROFITS; OR  BUSINESS INTERRUPTION)  HOWEVER
+ * CAUSED AND  ON ANY THEORY  OF LIABILITY, WHETHER IN  CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY
+ * WAY  OUT  OF  THE USE  OF  THIS  SOFTWARE,  EVEN  IF ADVISED  OF  THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.github.cereda.duckity.utils;
+
+import java.io.File;
+import java.util.List;
+import junit.framework.TestCase;
+
+/**
+ * Tests the datasource cache.
+ *
+ * @author Paulo Roberto Massa Cereda
+ * @version 1.1
+ * @since 1.1
+ */
+public class DatasourceCacheTest extends TestCase {
+
+    private TestFiles files;
+
+    @Override
+    protected void setUp() throws Exception {
+        files = new TestFiles();
+        files.write("people.csv", "name,age\nAda,36\nAlan,41\n");
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        files.delete();
+    }
+
+    /**
+     * Loads the datasources of a header, where '@' stands for the scratch
+     * directory.
+     *
+     * @param header The template header.
+     * @param cache The datasource cache, or null for a single render.
+     * @return The datasources.
+     * @throws Exception Exception is thrown if the datasources cannot be
+     * loaded.
+     */
+    private DatasourceMap load(String header, DatasourceCache cache)
+            throws Exception {
+        DatasourceExtractor extractor = new DatasourceExtractor();
+        extractor.parse(header.replace("@", files.get("").getPath().concat(
+                File.separator).replace("\\", "\\\\")));
+        FileLoader loader = new FileLoader(extractor.getMapping());
+        loader.setCache(cache);
+        loader.load();
+        return loader.getContent();
+    }
+
+    /**
+     * Renders a template against the datasources of a header.
+     *
+     * @param header The template header.
+     * @param template The template.
+     * @param cache The datasource cache, or null for a single render.
+     * @return The output.
+     * @throws Exception Exception is thrown if the render fails.
+     */
+    private String render(String header, String template,
+            DatasourceCache cache) throws Exception {
+        File input = files.write("input.txt", template);
+        TemplateManager manager = new TemplateManager(input.getPath(),
+                load(header, cache), template);
+        manager.setOutput(files.get("output.txt").getPath());
+        manager.generate();
+        return files.read("output.txt");
+    }
+
+    /**
+     * Renders a template alone and then twice through a cache, as batch,
+     * serve and watch do, checking all of them give the same output.
+     *
+     * @param header The template header.
+     * @param template The template.
+     * @param expected The expected output.
+     * @throws Exception Exception is thrown if a render fails.
+     */
+    private void assertSameRender(String header, String template,
+            String expected) throws Exception {
+        assertEquals(expected, render(header, template, null));
+        DatasourceCache cache = new DatasourceCache();
+        assertEquals(expected, render(header, template, cache));
+        assertEquals(expected, render(header, template, cache));
+        assertEquals(1, cache.getHits());
+    }
+
+    /**
+     * Checks the column names of a CSV datasource with a header are seen
+     * through the cache.
+     *
+     * @throws Exception Exception is thrown if a render fails.
+     */
+    public void testNamedDatasourceThroughCache() throws Exception {
+        assertSameRender("{\"datasources\":[{\"identifier\":\"h\","
+                + "\"file\":\"@people.csv\",\"header\":true}]}",
+                "$h.names #foreach($p in $h)$p.name#end",
+                "[name, age] AdaAlan");
+    }
+
+    /**
+     * Checks the column names and types of a typed CSV datasource are seen
+     * through the cache.
+     *
+     * @throws Exception Exception is thrown if a render fails.
+     */
+    public void testTypedDatasourceThroughCache() throws Exception {
+        assertSameRender("{\"datasources\":[{\"identifier\":\"t\","
+                + "\"file\":\"@people.csv\",\"header\":true,"
+                + "\"types\":{\"age\":\"int\"}}]}",
+                "$t.names #foreach($p in $t)#set($n = $p.age + 1)$n#end",
+                "[name, age] 3742");
+    }
+
+    /**
+     * Checks cached datasources cannot be changed by a render.
+     *
+     * @throws Exception Exception is thrown if the datasource cannot be
+     * loaded.
+     */
+    public void testCachedContentIsReadOnly() throws Exception {
+        String[] headers = {
+            "{\"datasources\":[{\"identifier\":\"h\","
+            + "\"file\":\"@people.csv\",\"header\":true}]}",
+            "{\"datasources\":[{\"identifier\":\"h\","
+            + "\"file\":\"@people.csv\"}]}",
+            "{\"datasources\":[{\"identifier\":\"h\","
+            + "\"file\":\"@people.csv\",\"header\":true,"
+            + "\"types\":{\"age\":\"int\"}}]}"
+        };
+        for (String header : headers) {
+            List<?> rows = (List<?>) load(header, new DatasourceCache()).
+                    get("h");
+            try {
+                rows.remove(0);
+                fail("The cached rows were changed.");
+            } catch (UnsupportedOperationException nothandled) {
+                // expected
+            }
+        }
+    }
+
+    /**
+     * Checks a file rewritten with the same size and modification time is
+     * loaded again, while an untouched one is still a hit.
+     *
+     * @throws Exception Exception is thrown if the datasource cannot be
+     * loaded.
+     */
+    public void testRewriteWithSameStampIsLoadedAgain() throws Exception {
+        String header = "{\"datasources\":[{\"identifier\":\"h\","
+                + "\"file\":\"@people.csv\",\"header\":true}]}";
+        File file = files.get("people.csv");
+        long modified = file.lastModified();
+        DatasourceCache cache = new DatasourceCache();
+        assertEquals(2, ((List<?>) load(header, cache).get("h")).size());
+        assertEquals(2, ((List<?>) load(header, cache).get("h")).size());
+        assertEquals(1, cache.getHits());
+        files.write("people.csv", "name,age\nAda,36\n\"Al\",41\n");
+        assertTrue(file.setLastModified(modified));
+        List<?> rows = (List<?>) load(header, cache).get("h");
+        assertEquals(2, cache.getMisses());
+        assertEquals("[Al, 41]", rows.get(1).toString());
+    }
+
+    /**
+     * Checks the least recently used entries are dropped once the files
+     * held are larger than the capacity.
+     *
+     * @throws Exception Exception is thrown if the datasource cannot be
+     * loaded.
+     */
+    public void testLeastRecentlyUsedAreDropped() throws Exception {
+        files.write("other.csv", "name,age\nGrace,85\n");
+        String people = "{\"datasources\":[{\"identifier\":\"h\","
+                + "\"file\":\"@people.csv\"}]}";
+        String other = "{\"datasources\":[{\"identifier\":\"h\","
+                + "\"file\":\"@other.csv\"}]}";
+        DatasourceCache cache = new DatasourceCache(
+                files.get("people.csv").length()
+                + files.get("other.csv").length() - 1);
+        load(people, cache);
+        load(people, cache);
+        load(other, cache);
+        load(other, cache);
+        assertEquals(2, cache.getHits());
+        load(people, cache);
+        assertEquals(3, cache.getMisses());
+        load(people, cache);
+        assertEquals(3, cache.getHits());
+    }
+}
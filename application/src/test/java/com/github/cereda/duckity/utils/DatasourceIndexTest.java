@@ -0,0 +1,165 @@
+/**
+ * Duckity -- The template helper
+ * Copyright (c) 2012, Paulo Roberto Massa Cereda
+ * All rights reserved.
+ *
+ * Redistribution and  use in source  and binary forms, with  or without
+ * modification, are  permitted provided  that the  following conditions
+ * are met:
+ *
+ * 1. Redistributions  of source  code must  retain the  above copyright
+ * notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form  must reproduce the above copyright
+ * notice, this list  of conditions and the following  disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * 3. Neither  the name  of the  project's author nor  the names  of its
+ * contributors may be used to  endorse or promote products derived from
+ * this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS  PROVIDED BY THE COPYRIGHT  HOLDERS AND CONTRIBUTORS
+ * "AS IS"  AND ANY  EXPRESS OR IMPLIED  WARRANTIES, INCLUDING,  BUT NOT
+ * LIMITED  TO, THE  IMPLIED WARRANTIES  OF MERCHANTABILITY  AND FITNESS
+ * FOR  A PARTICULAR  PURPOSE  ARE  DISCLAIMED. IN  NO  EVENT SHALL  THE
+ * COPYRIGHT HOLDER OR CONTRIBUTORS BE  LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY,  OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT  NOT LIMITED  TO, PROCUREMENT  OF SUBSTITUTE  GOODS OR  SERVICES;
+ * LOSS  OF USE,  DATA, OR  PROFITS; OR  BUSINESS INTERRUPTION)  HOWEVER
+ * CAUSED AND  ON ANY THEORY  OF LIABILITY, WHETHER IN  CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY
+ * WAY  OUT  OF  THE USE  OF  THIS  SOFTWARE,  EVEN  IF ADVISED  OF  THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.github.cereda.duckity.utils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import junit.framework.TestCase;
+
+/**
+ * Tests the datasource index and the index tool.
+ *
+ * @author Paulo Roberto Massa Cereda
+ * @version 1.1
+ * @since 1.1
+ */
+public class DatasourceIndexTest extends TestCase {
+
+    /**
+     * Creates parsed CSV rows, header included.
+     *
+     * @return The rows.
+     */
+    private List<Object> rows() {
+        List<Object> rows = new ArrayList<Object>();
+        rows.add(new String[]{"id", "name"});
+        rows.add(new String[]{"7", "Ada"});
+        rows.add(new String[]{"3", "Alan"});
+        rows.add(new String[]{"7", "Grace"});
+        rows.add(new String[]{"", "Nobody"});
+        rows.add(new String[]{});
+        rows.add(new String[]{"7", "Edsger"});
+        return rows;
+    }
+
+    /**
+     * Gets the names of the rows.
+     *
+     * @param rows The rows.
+     * @return The names.
+     */
+    private List<Object> names(List<Object> rows) {
+        List<Object> names = new ArrayList<Object>();
+        for (Object row : rows) {
+            names.add(Rows.get(row, 1));
+        }
+        return names;
+    }
+
+    /**
+     * Checks rows sharing a key are chained in file order, and rows with
+     * an empty or missing key are left out.
+     */
+    public void testChaining() {
+        DatasourceIndex index = new DatasourceIndex(rows(), 0);
+        assertEquals(Arrays.asList("id", "7", "3"), index.getKeys());
+        assertEquals(3, index.size());
+        assertEquals("Ada", Rows.get(index.get("7"), 1));
+        assertEquals(Arrays.<Object>asList("Ada", "Grace", "Edsger"),
+                names(index.getAll("7")));
+        assertEquals(Arrays.<Object>asList("Alan"),
+                names(index.getAll("3")));
+        assertTrue(index.contains("3"));
+        assertFalse(index.contains(""));
+        assertFalse(index.contains(null));
+        assertNull(index.get("4"));
+        assertEquals(Collections.emptyList(), index.getAll("4"));
+    }
+
+    /**
+     * Checks a datasource with a header can be indexed by column name.
+     */
+    public void testNamedColumns() {
+        DatasourceIndex index = new DatasourceIndex(
+                new NamedDatasource(rows()), "id");
+        assertEquals(Arrays.asList("7", "3"), index.getKeys());
+        assertEquals(Arrays.<Object>asList("Ada", "Grace", "Edsger"),
+                names(index.getAll("7")));
+        assertEquals("Alan", Rows.get(new DatasourceIndex(
+                new NamedDatasource(rows()), "name").get("Alan"), "name"));
+        assertEquals(0, new DatasourceIndex(new NamedDatasource(rows()),
+                "missing").size());
+    }
+
+    /**
+     * Checks text keys match typed keys both ways.
+     *
+     * @throws Exception Exception is thrown if the rows cannot be typed.
+     */
+    public void testTypedKeys() throws Exception {
+        Map<String, String> types = new HashMap<String, String>();
+        types.put("id", "int");
+        DatasourceIndex typed = new DatasourceIndex(
+                TypedDatasource.create(rows(), types, "rows.csv"), "id");
+        assertEquals(Arrays.asList("7", "3"), typed.getKeys());
+        assertEquals(Arrays.<Object>asList("Ada", "Grace", "Edsger"),
+                names(typed.getAll("7")));
+        assertEquals("Alan", Rows.get(typed.get(3), "name"));
+        DatasourceIndex text = new DatasourceIndex(rows(), 0);
+        assertEquals(names(typed.getAll(7)), names(text.getAll(
+                Rows.get(typed.get("7"), "id"))));
+        assertEquals(names(text.getAll(3)), names(typed.getAll("3")));
+    }
+
+    /**
+     * Checks the tool builds each index once and refuses datasources that
+     * are not lists of rows.
+     */
+    public void testTool() {
+        Map<String, Object> content = new HashMap<String, Object>();
+        content.put("people", rows());
+        content.put("settings", new HashMap<String, Object>());
+        IndexTool tool = new IndexTool(content);
+        assertSame(tool.of("people", 0), tool.of("people", 0L));
+        assertNotSame(tool.of("people", 0), tool.of("people", 1));
+        assertEquals("Grace", Rows.get(tool.of("people", 1).get("Grace"),
+                1));
+        try {
+            tool.of("missing", 0);
+            fail("A missing datasource was indexed.");
+        } catch (IllegalArgumentException expected) {
+            // there is no such datasource
+        }
+        try {
+            tool.of("settings", 0);
+            fail("A map was indexed.");
+        } catch (IllegalArgumentException expected) {
+            // only lists of rows can be indexed
+        }
+    }
+}
@@ -0,0 +1,251 @@
+/**
+ * Duckity -- The template helper
+ * Copyright (c) 2012, Paulo Roberto Massa Cereda
+ * All rights reserved.
+ *
+ * Redistribution and  use in source  and binary forms, with  or without
+ * modification, are  permitted provided  that the  following conditions
+ * are met:
+ *
+ * 1. Redistributions  of source  code must  retain the  above copyright
+ * notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form  must reproduce the above copyright
+ * notice, this list  of conditions and the following  disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * 3. Neither  the name  of the  project's author nor  the names  of its
+ * contributors may be used to  endorse or promote products derived from
+ * this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS  PROVIDED BY THE COPYRIGHT  HOLDERS AND CONTRIBUTORS
+ * "AS IS"  AND ANY  EXPRESS OR IMPLIED  WARRANTIES, INCLUDING,  BUT NOT
+ * LIMITED  TO, THE  IMPLIED WARRANTIES  OF MERCHANTABILITY  AND FITNESS
+ * FOR  A PARTICULAR  PURPOSE  ARE  DISCLAIMED. IN  NO  EVENT SHALL  THE
+ * COPYRIGHT HOLDER OR CONTRIBUTORS BE  LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY,  OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT  NOT LIMITED  TO, PROCUREMENT  OF SUBSTITUTE  GOODS OR  SERVICES;
+ * LOSS  OF USE,  DATA, OR  PROFITS; OR  BUSINESS INTERRUPTION)  HOWEVER
+ * CAUSED AND  ON ANY THEORY  OF LIABILITY, WHETHER IN  CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY
+ * WAY  OUT  OF  THE USE  OF  THIS  SOFTWARE,  EVEN  IF ADVISED  OF  THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.github.cereda.duckity.utils;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import junit.framework.TestCase;
+
+/**
+ * Writes datasource snapshots and reads them back.
+ *
+ * @author Paulo Roberto Massa Cereda
+ * @version 1.1
+ * @since 1.1
+ */
+public class DatasourceSnapshotsTest extends TestCase {
+
+    private TestFiles files;
+    private DatasourceSnapshots snapshots;
+    private ReaderMapping rm;
+    private File file;
+
+    @Override
+    protected void setUp() throws Exception {
+        files = new TestFiles();
+        snapshots = new DatasourceSnapshots(files.get("snapshots"));
+        file = files.write("data.csv", "a,b\n");
+        rm = new ReaderMapping();
+        rm.setCSV(true);
+        rm.setFile(file.getPath());
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        files.delete();
+    }
+
+    /**
+     * Writes the snapshot of some rows and reads it back.
+     *
+     * @param rows The rows.
+     * @return The rows read back, or null if there is no snapshot.
+     * @throws Exception Exception is thrown if the file cannot be read.
+     */
+    private List<Object> roundTrip(List<String[]> rows) throws Exception {
+        String key = snapshots.getKey(rm, file);
+        snapshots.write(rm, file, key, rows);
+        return snapshots.read(rm, file, key);
+    }
+
+    /**
+     * Checks rows read back from a snapshot are the rows written, and
+     * their widths are known without decoding them.
+     *
+     * @param rows The rows.
+     * @throws Exception Exception is thrown if the file cannot be read.
+     */
+    private void assertRoundTrip(List<String[]> rows) throws Exception {
+        List<Object> read = roundTrip(rows);
+        assertNotNull(read);
+        assertEquals(rows.size(), read.size());
+        long fields = 0;
+        for (int i = 0; i < rows.size(); i++) {
+            assertEquals("row ".concat(String.valueOf(i)),
+                    Arrays.asList(rows.get(i)),
+                    Arrays.asList((String[]) read.get(i)));
+            assertTrue(read.get(i) instanceof String[]);
+            assertEquals(rows.get(i).length,
+                    ((SnapshotDatasource) read).getWidth(i));
+            fields = fields + rows.get(i).length;
+        }
+        assertEquals(fields, ((SnapshotDatasource) read).getFields());
+    }
+
+    /**
+     * Checks plain columns of distinct values, including multibyte
+     * characters and surrogate pairs.
+     *
+     * @throws Exception Exception is thrown if the file cannot be read.
+     */
+    public void testPlainColumns() throws Exception {
+        String[] samples = {"", "a", "café", "中文", "🦆", "a,\"b\"\n"};
+        List<String[]> rows = new ArrayList<String[]>();
+        for (int i = 0; i < 100; i++) {
+            rows.add(new String[]{String.valueOf(i),
+                samples[i % samples.length].concat(String.valueOf(i))});
+        }
+        assertRoundTrip(rows);
+    }
+
+    /**
+     * Checks ragged rows, wider and narrower than the first one, keep
+     * their widths.
+     *
+     * @throws Exception Exception is thrown if the file cannot be read.
+     */
+    public void testRaggedRows() throws Exception {
+        List<String[]> rows = new ArrayList<String[]>();
+        rows.add(new String[]{"a", "b"});
+        rows.add(new String[]{});
+        rows.add(new String[]{"c", "d", "e", "f"});
+        rows.add(new String[]{""});
+        rows.add(new String[]{"g", "", "h"});
+        assertRoundTrip(rows);
+    }
+
+    /**
+     * Checks dictionary columns, with one and two byte codes, next to a
+     * plain one.
+     *
+     * @throws Exception Exception is thrown if the file cannot be read.
+     */
+    public void testDictionaryColumns() throws Exception {
+        Random random = new Random(20121012L);
+        String[] small = {"yes", "no", "maybe", "é"};
+        List<String[]> rows = new ArrayList<String[]>();
+        for (int i = 0; i < 1000; i++) {
+            rows.add(new String[]{small[random.nextInt(small.length)],
+                "v".concat(String.valueOf(random.nextInt(400))),
+                String.valueOf(random.nextLong())});
+        }
+        assertRoundTrip(rows);
+    }
+
+    /**
+     * Checks empty datasources round trip.
+     *
+     * @throws Exception Exception is thrown if the file cannot be read.
+     */
+    public void testEmpty() throws Exception {
+        assertRoundTrip(new ArrayList<String[]>());
+    }
+
+    /**
+     * Checks values holding unpaired surrogates, which UTF-8 cannot carry,
+     * get no snapshot rather than a damaged one, in plain and dictionary
+     * columns alike.
+     *
+     * @throws Exception Exception is thrown if the file cannot be read.
+     */
+    public void testUnpairedSurrogates() throws Exception {
+        String[] values = {"\ud83e", "a\udd86", "\udd86\ud83e"};
+        for (String value : values) {
+            List<String[]> plain = new ArrayList<String[]>();
+            List<String[]> dictionary = new ArrayList<String[]>();
+            for (int i = 0; i < 40; i++) {
+                plain.add(new String[]{String.valueOf(i)});
+                dictionary.add(new String[]{"x"});
+            }
+            plain.set(7, new String[]{value});
+            dictionary.set(7, new String[]{value});
+            assertNull(roundTrip(plain));
+            assertNull(roundTrip(dictionary));
+        }
+    }
+
+    /**
+     * Checks a snapshot is not read against the key of another version
+     * of the file.
+     *
+     * @throws Exception Exception is thrown if the file cannot be read.
+     */
+    public void testOtherKey() throws Exception {
+        List<String[]> rows = new ArrayList<String[]>();
+        rows.add(new String[]{"a", "b"});
+        String key = snapshots.getKey(rm, file);
+        snapshots.write(rm, file, key, rows);
+        assertNull(snapshots.read(rm, file, key.concat("x")));
+    }
+
+    /**
+     * Renders a template against a datasource read by an engine, through
+     * the snapshots.
+     *
+     * @param engine The engine, or null for the default one.
+     * @param template The template.
+     * @return The row class and the output.
+     * @throws Exception Exception is thrown if the render fails.
+     */
+    private String render(String engine, String template) throws Exception {
+        String header = "{\"datasources\":[{\"identifier\":\"d\","
+                + "\"file\":\"@rows.csv\"".concat(engine == null ? ""
+                : ",\"engine\":\"".concat(engine).concat("\"")).concat(
+                "}]}");
+        DatasourceExtractor extractor = new DatasourceExtractor();
+        extractor.parse(header.replace("@", files.get("").getPath().concat(
+                File.separator).replace("\\", "\\\\")));
+        FileLoader loader = new FileLoader(extractor.getMapping());
+        loader.setSnapshots(snapshots);
+        loader.load();
+        Object row = ((List<?>) loader.getContent().get("d")).get(0);
+        File input = files.write("input.txt", template);
+        TemplateManager manager = new TemplateManager(input.getPath(),
+                loader.getContent(), template);
+        manager.setOutput(files.get("output.txt").getPath());
+        manager.generate();
+        return (row instanceof List ? "list:" : "array:").concat(
+                files.read("output.txt"));
+    }
+
+    /**
+     * Checks rows read back from a snapshot are of the kind the engine
+     * built, so templates render the same with and without a snapshot.
+     *
+     * @throws Exception Exception is thrown if a render fails.
+     */
+    public void testRowKindSurvivesSnapshot() throws Exception {
+        files.write("rows.csv", "a,b\nc,d,e\n");
+        String template = "#foreach($r in $d)$r.size():$r.get(0);#end";
+        assertEquals("array:2:a;3:c;", render(null, template));
+        assertEquals("array:2:a;3:c;", render(null, template));
+        template = "#foreach($r in $d)$r;#end";
+        assertEquals("list:[a, b];[c, d, e];", render("mapped", template));
+        assertEquals("list:[a, b];[c, d, e];", render("mapped", template));
+        assertEquals(2, files.get("snapshots").list().length);
+    }
+}
@@ -0,0 +1,147 @@
+/**
+ * Duckity -- The template helper
+ * Copyright (c) 2012, Paulo Roberto Massa Cereda
+ * All rights reserved.
+ *
+ * Redistribution and  use in source  and binary forms, with  or without
+ * modification, are  permitted provided  that the  following conditions
+ * are met:
+ *
+ * 1. Redistributions  of source  code must  retain the  above copyright
+ * notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form  must reproduce the above copyright
+ * notice, this list  of conditions and the following  disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * 3. Neither  the name  of the  project's author nor  the names  of its
+ * contributors may be used to  endorse or promote products derived from
+ * this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS  PROVIDED BY THE COPYRIGHT  HOLDERS AND CONTRIBUTORS
+ * "AS IS"  AND ANY  EXPRESS OR IMPLIED  WARRANTIES, INCLUDING,  BUT NOT
+ * LIMITED  TO, THE  IMPLIED WARRANTIES  OF MERCHANTABILITY  AND FITNESS
+ * FOR  A PARTICULAR  PURPOSE  ARE  DISCLAIMED. IN  NO  EVENT SHALL  THE
+ * COPYRIGHT HOLDER OR CONTRIBUTORS BE  LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY,  OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT  NOT LIMITED  TO, PROCUREMENT  OF SUBSTITUTE  GOODS OR  SERVICES;
+ * LOSS  OF USE,  DATA, OR  PROFITS; OR  BUSINESS INTERRUPTION)  HOWEVER
+ * CAUSED AND  ON ANY THEORY  OF LIABILITY, WHETHER IN  CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY
+ * WAY  OUT  OF  THE USE  OF  THIS  SOFTWARE,  EVEN  IF ADVISED  OF  THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.github.cereda.duckity.utils;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import junit.framework.TestCase;
+
+/**
+ * Tests the datasource loader.
+ *
+ * @author Paulo Roberto Massa Cereda
+ * @version 1.1
+ * @since 1.1
+ */
+public class FileLoaderTest extends TestCase {
+
+    private TestFiles files;
+
+    @Override
+    protected void setUp() throws Exception {
+        files = new TestFiles();
+        files.write("rows.csv", "a,b\nc,d\n");
+        files.write("broken.json", "{\"a\": ");
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        files.delete();
+    }
+
+    /**
+     * Loads the datasources of a header, where '@' stands for the scratch
+     * directory, expecting the load to fail.
+     *
+     * @param header The template header.
+     * @param threads The number of loading threads.
+     * @return The streamed datasources opened during the load.
+     * @throws Exception Exception is thrown if the header is invalid.
+     */
+    private List<StreamingDatasource> fail(String header, int threads)
+            throws Exception {
+        DatasourceExtractor extractor = new DatasourceExtractor();
+        extractor.parse(header.replace("@", files.get("").getPath().concat(
+                File.separator).replace("\\", "\\\\")));
+        final List<StreamingDatasource> opened =
+                new ArrayList<StreamingDatasource>();
+        FileLoader loader = new FileLoader(extractor.getMapping());
+        loader.setThreads(threads);
+        loader.setStatistics(new RenderStatistics("input", false) {
+            @Override
+            public void datasource(ReaderMapping rm, long[] mark,
+                    Object value) {
+                if (value instanceof StreamingDatasource) {
+                    synchronized (opened) {
+                        opened.add((StreamingDatasource) value);
+                    }
+                }
+            }
+        });
+        try {
+            loader.load();
+            fail("The broken datasource was loaded.");
+        } catch (DuckityException expected) {
+            // the broken datasource fails the load
+        }
+        return opened;
+    }
+
+    /**
+     * Checks every streamed datasource was closed, that is, yields no
+     * rows even though its file has some.
+     *
+     * @param opened The streamed datasources.
+     * @param expected The number of streamed datasources.
+     */
+    private void assertClosed(List<StreamingDatasource> opened,
+            int expected) {
+        assertEquals(expected, opened.size());
+        for (StreamingDatasource stream : opened) {
+            assertFalse(stream.iterator().hasNext());
+        }
+    }
+
+    /**
+     * Checks a failing datasource closes the streams opened before it when
+     * the datasources are read one after another.
+     *
+     * @throws Exception Exception is thrown if the test fails.
+     */
+    public void testSequentialFailureClosesStreams() throws Exception {
+        assertClosed(fail("{\"datasources\":["
+                + "{\"identifier\":\"s\",\"file\":\"@rows.csv\","
+                + "\"stream\":true},"
+                + "{\"identifier\":\"b\",\"file\":\"@broken.json\"}]}",
+                1), 1);
+    }
+
+    /**
+     * Checks a failing datasource closes the streams read concurrently,
+     * including the ones finishing after it.
+     *
+     * @throws Exception Exception is thrown if the test fails.
+     */
+    public void testParallelFailureClosesStreams() throws Exception {
+        assertClosed(fail("{\"datasources\":["
+                + "{\"identifier\":\"b\",\"file\":\"@broken.json\"},"
+                + "{\"identifier\":\"s\",\"file\":\"@rows.csv\","
+                + "\"stream\":true},"
+                + "{\"identifier\":\"t\",\"file\":\"@rows.csv\","
+                + "\"stream\":true},"
+                + "{\"identifier\":\"u\",\"file\":\"@rows.csv\","
+                + "\"stream\":true}]}", 4), 3);
+    }
+}
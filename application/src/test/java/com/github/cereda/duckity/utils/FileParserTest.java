@@ -0,0 +1,179 @@
+/**
+ * Duckity -- The template helper
+ * Copyright (c) 2012, Paulo Roberto Massa Cereda
+ * All rights reserved.
+ *
+ * Redistribution and  use in source  and binary forms, with  or without
+ * modification, are  permitted provided  that the  following conditions
+ * are met:
+ *
+ * 1. Redistributions  of source  code must  retain the  above copyright
+ * notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form  must reproduce the above copyright
+ * notice, this list  of conditions and the following  disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * 3. Neither  the name  of the  project's author nor  the names  of its
+ * contributors may be used to  endorse or promote products derived from
+ * this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS  PROVIDED BY THE COPYRIGHT  HOLDERS AND CONTRIBUTORS
+ * "AS IS"  AND ANY  EXPRESS OR IMPLIED  WARRANTIES, INCLUDING,  BUT NOT
+ * LIMITED  TO, THE  IMPLIED WARRANTIES  OF MERCHANTABILITY  AND FITNESS
+ * FOR  A PARTICULAR  PURPOSE  ARE  DISCLAIMED. IN  NO  EVENT SHALL  THE
+ * COPYRIGHT HOLDER OR CONTRIBUTORS BE  LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY,  OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT  NOT LIMITED  TO, PROCUREMENT  OF SUBSTITUTE  GOODS OR  SERVICES;
+ * LOSS  OF USE,  DATA, OR  PROFITS; OR  BUSINESS INTERRUPTION)  HOWEVER
+ * CAUSED AND  ON ANY THEORY  OF LIABILITY, WHETHER IN  CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY
+ * WAY  OUT  OF  THE USE  OF  THIS  SOFTWARE,  EVEN  IF ADVISED  OF  THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.github.cereda.duckity.utils;
+
+import java.io.BufferedReader;
+import java.io.StringReader;
+import java.util.Arrays;
+import junit.framework.TestCase;
+
+/**
+ * Compares the file parser with a line by line reading, as done by a
+ * buffered reader, on line breaks of every kind, also where they cross
+ * the boundaries of the read buffer.
+ *
+ * @author Paulo Roberto Massa Cereda
+ * @version 1.1
+ * @since 1.1
+ */
+public class FileParserTest extends TestCase {
+
+    private static final int BUFFER = 1 << 16;
+
+    private TestFiles files;
+
+    @Override
+    protected void setUp() throws Exception {
+        files = new TestFiles();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        files.delete();
+    }
+
+    /**
+     * Parses the text line by line, dropping the marker lines, like the
+     * parser did before it worked on a buffer.
+     *
+     * @param text The text.
+     * @return The header, the template and whether there is no marker.
+     * @throws Exception Exception is thrown if the text cannot be read.
+     */
+    private static String[] expected(String text) throws Exception {
+        BufferedReader reader = new BufferedReader(new StringReader(text));
+        StringBuilder header = new StringBuilder();
+        StringBuilder template = new StringBuilder();
+        boolean raw = true;
+        String line;
+        while ((line = reader.readLine()) != null) {
+            if (line.equalsIgnoreCase("[TEMPLATE]")) {
+                raw = false;
+            } else {
+                (raw ? header : template).append(line).append("\n");
+            }
+        }
+        if ((header.length() > 0) && (template.length() == 0)) {
+            template.append(header);
+        }
+        return new String[]{header.toString(), template.toString(),
+            String.valueOf(raw)};
+    }
+
+    /**
+     * Checks the parser splits the text like a line by line reading.
+     *
+     * @param text The file contents, in ASCII.
+     * @throws Exception Exception is thrown if the file cannot be parsed.
+     */
+    private void assertParsed(String text) throws Exception {
+        FileParser parser = new FileParser();
+        parser.load(files.write("input.txt", text).getPath());
+        String[] expected = expected(text);
+        assertEquals(Arrays.asList(expected), Arrays.asList(
+                parser.getHeader(), parser.getTemplate(),
+                String.valueOf(parser.isRaw())));
+    }
+
+    /**
+     * Creates a line of filler text.
+     *
+     * @param length The length.
+     * @return The text.
+     */
+    private static String fill(int length) {
+        char[] text = new char[length];
+        Arrays.fill(text, 'x');
+        return new String(text);
+    }
+
+    /**
+     * Checks every kind of line break, with and without a final one.
+     *
+     * @throws Exception Exception is thrown if a file cannot be parsed.
+     */
+    public void testLineBreaks() throws Exception {
+        for (String eol : new String[]{"\n", "\r", "\r\n"}) {
+            assertParsed("{}" + eol + "[TEMPLATE]" + eol + "a" + eol + "b");
+            assertParsed("{}" + eol + "[TEMPLATE]" + eol + "a" + eol + "b"
+                    + eol);
+            assertParsed(eol + eol + "[TEMPLATE]" + eol + eol + "a" + eol
+                    + eol);
+        }
+        assertParsed("{}\r\n[TEMPLATE]\ra\n\rb\r\r\nc\n\n");
+        assertParsed("a\r\r\rb\n\n\nc");
+    }
+
+    /**
+     * Checks the marker is found in any case, only on a line of its own,
+     * and only the first one splits the file.
+     *
+     * @throws Exception Exception is thrown if a file cannot be parsed.
+     */
+    public void testMarkers() throws Exception {
+        assertParsed("{}\n[template]\na\n");
+        assertParsed("{}\n[Template]\r\na\n");
+        assertParsed("{}\n[TEMPLATE] \na\n");
+        assertParsed("{}\nx[TEMPLATE]\na\n");
+        assertParsed("{}\n[TEMPLATE]\na\n[TEMPLATE]\nb\n");
+        assertParsed("[TEMPLATE]\na\n");
+        assertParsed("{}\n[TEMPLATE]");
+        assertParsed("{}\n[TEMPLATE]\n");
+        assertParsed("only text\nno marker\n");
+        assertParsed("");
+    }
+
+    /**
+     * Checks line breaks and markers split by the end of a read, where the
+     * reader may stop at the buffer size or before.
+     *
+     * @throws Exception Exception is thrown if a file cannot be parsed.
+     */
+    public void testBufferBoundaries() throws Exception {
+        for (int end : new int[]{8192, BUFFER, 2 * BUFFER}) {
+            for (int shift = -3; shift <= 3; shift++) {
+                String head = fill(end + shift);
+                assertParsed(head + "\r\n[TEMPLATE]\r\na\r\n");
+                assertParsed(head + "\r[TEMPLATE]\ra\r");
+                assertParsed(head + "\n[TEMPLATE]\na\n");
+                assertParsed("{}\n" + head + "\r\n\r\nb");
+                assertParsed("{}\n[TEMPLATE]\n" + head + "\r\n");
+                assertParsed("{}\n" + fill(end + shift - 3)
+                        + "\n[TEMPLATE]\r\nb");
+            }
+        }
+        assertParsed(fill(BUFFER - 1) + "\r");
+        assertParsed(fill(BUFFER) + "\r\n");
+    }
+}
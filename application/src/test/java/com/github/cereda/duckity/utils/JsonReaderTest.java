@@ -0,0 +1,206 @@
+/**
+ * Duckity -- The template helper
+ * Copyright (c) 2012, Paulo Roberto Massa Cereda
+ * All rights reserved.
+ *
+ * Redistribution and  use in source  and binary forms, with  or without
+ * modification, are  permitted provided  that the  following conditions
+ * are met:
+ *
+ * 1. Redistributions  of source  code must  retain the  above copyright
+ * notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form  must reproduce the above copyright
+ * notice, this list  of conditions and the following  disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * 3. Neither  the name  of the  project's author nor  the names  of its
+ * contributors may be used to  endorse or promote products derived from
+ * this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS  PROVIDED BY THE COPYRIGHT  HOLDERS AND CONTRIBUTORS
+ * "AS IS"  AND ANY  EXPRESS OR IMPLIED  WARRANTIES, INCLUDING,  BUT NOT
+ * LIMITED  TO, THE  IMPLIED WARRANTIES  OF MERCHANTABILITY  AND FITNESS
+ * FOR  A PARTICULAR  PURPOSE  ARE  DISCLAIMED. IN  NO  EVENT SHALL  THE
+ * COPYRIGHT HOLDER OR CONTRIBUTORS BE  LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY,  OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT  NOT LIMITED  TO, PROCUREMENT  OF SUBSTITUTE  GOODS OR  SERVICES;
+ * LOSS  OF USE,  DATA, OR  PROFITS; OR  BUSINESS INTERRUPTION)  HOWEVER
+ * CAUSED AND  ON ANY THEORY  OF LIABILITY, WHETHER IN  CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY
+ * WAY  OUT  OF  THE USE  OF  THIS  SOFTWARE,  EVEN  IF ADVISED  OF  THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.github.cereda.duckity.utils;
+
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import junit.framework.TestCase;
+import org.json.simple.parser.JSONParser;
+import org.json.simple.parser.ParseException;
+
+/**
+ * Compares the JSON reader with json-simple, which it replaced, on random
+ * documents.
+ *
+ * @author Paulo Roberto Massa Cereda
+ * @version 1.1
+ * @since 1.1
+ */
+public class JsonReaderTest extends TestCase {
+
+    private static final String[] SPACES = {"", "", " ", "\n", "\t", "\r\n  "};
+    private static final String[] STRINGS = {"", "a", "name", "\\\"",
+        "\\\\", "\\/", "\\b\\f\\n\\r\\t", "\\u00e9t\\u00C9", "\\ud83e\\udd86",
+        "café", "中文", "a b", "{[,:]}"};
+    private static final String[] NUMBERS = {"0", "-0", "7", "-42",
+        "9223372036854775807", "-9223372036854775808", "0.5", "-1.25",
+        "3.141592653589793", "1e3", "1E-3", "-2.5e+10", "6.02e23",
+        "0.1", "123456789.123456789", "4.9e-324", "1.7976931348623157e308"};
+
+    /**
+     * Reads a document with the JSON reader.
+     *
+     * @param text The document.
+     * @return The value.
+     * @throws Exception Exception is thrown if the document is not valid.
+     */
+    private static Object read(String text) throws Exception {
+        return new JsonReader(new StringReader(text)).readDocument();
+    }
+
+    /**
+     * Generates a random value.
+     *
+     * @param random The random source.
+     * @param depth The nesting left.
+     * @param json The document.
+     */
+    private static void value(Random random, int depth, StringBuilder json) {
+        int kind = random.nextInt(depth > 0 ? 7 : 5);
+        if (kind == 0) {
+            json.append('"').append(STRINGS[random.nextInt(
+                    STRINGS.length)]).append('"');
+        } else if (kind == 1) {
+            json.append(NUMBERS[random.nextInt(NUMBERS.length)]);
+        } else if (kind == 2) {
+            json.append(random.nextBoolean() ? "true" : "false");
+        } else if (kind == 3) {
+            json.append("null");
+        } else if (kind == 4) {
+            json.append(random.nextLong());
+        } else {
+            boolean object = kind == 5;
+            json.append(object ? '{' : '[');
+            int size = random.nextInt(5);
+            for (int i = 0; i < size; i++) {
+                if (i > 0) {
+                    json.append(SPACES[random.nextInt(SPACES.length)]);
+                    json.append(',');
+                }
+                json.append(SPACES[random.nextInt(SPACES.length)]);
+                if (object) {
+                    json.append("\"k").append(random.nextInt(6)).append(
+                            STRINGS[random.nextInt(STRINGS.length)]).append(
+                            '"').append(SPACES[random.nextInt(
+                            SPACES.length)]).append(':').append(
+                            SPACES[random.nextInt(SPACES.length)]);
+                }
+                value(random, depth - 1, json);
+            }
+            json.append(SPACES[random.nextInt(SPACES.length)]);
+            json.append(object ? '}' : ']');
+        }
+    }
+
+    /**
+     * Checks random documents read into the same values as json-simple.
+     *
+     * @throws Exception Exception is thrown if a document cannot be read.
+     */
+    public void testSameValuesAsJsonSimple() throws Exception {
+        Random random = new Random(20121012L);
+        for (int i = 0; i < 2000; i++) {
+            StringBuilder json = new StringBuilder();
+            json.append(SPACES[random.nextInt(SPACES.length)]);
+            value(random, 4, json);
+            json.append(SPACES[random.nextInt(SPACES.length)]);
+            String text = json.toString();
+            Object expected = new JSONParser().parse(text);
+            Object actual = read(text);
+            assertEquals(text, expected, actual);
+            assertEquals(text, actual, expected);
+        }
+    }
+
+    /**
+     * Checks numbers keep the types json-simple gave them.
+     *
+     * @throws Exception Exception is thrown if a number cannot be read.
+     */
+    public void testNumberTypes() throws Exception {
+        for (String number : NUMBERS) {
+            Object expected = new JSONParser().parse(number);
+            Object actual = read(number);
+            assertEquals(number, expected.getClass(), actual.getClass());
+            assertEquals(number, expected, actual);
+        }
+    }
+
+    /**
+     * Checks a top-level array pulled one element at a time gives the same
+     * elements as the whole document.
+     *
+     * @throws Exception Exception is thrown if a document cannot be read.
+     */
+    public void testPulledArray() throws Exception {
+        Random random = new Random(20121013L);
+        for (int i = 0; i < 200; i++) {
+            StringBuilder json = new StringBuilder("[");
+            int size = random.nextInt(6);
+            for (int j = 0; j < size; j++) {
+                if (j > 0) {
+                    json.append(',');
+                }
+                json.append(SPACES[random.nextInt(SPACES.length)]);
+                value(random, 3, json);
+            }
+            json.append(']');
+            String text = json.toString();
+            JsonReader reader = new JsonReader(new StringReader(text));
+            List<Object> pulled = new ArrayList<Object>();
+            reader.beginArray();
+            while (reader.hasNext()) {
+                pulled.add(reader.readValue());
+            }
+            reader.end();
+            assertEquals(text, new JSONParser().parse(text), pulled);
+        }
+    }
+
+    /**
+     * Checks documents json-simple rejects are rejected too.
+     *
+     * @throws Exception Exception is thrown if json-simple fails otherwise.
+     */
+    public void testInvalidDocuments() throws Exception {
+        String[] documents = {"", "{", "[1,", "{\"a\"}", "{\"a\":}",
+            "[1 2]", "{\"a\":1,}", "\"open", "tru", "[1]]", "{a:1}"};
+        for (String document : documents) {
+            try {
+                new JSONParser().parse(document);
+                continue;
+            } catch (ParseException nothandled) {
+                // rejected by json-simple
+            }
+            try {
+                read(document);
+                fail("'".concat(document).concat("' was accepted."));
+            } catch (DuckityException nothandled) {
+                // expected
+            }
+        }
+    }
+}
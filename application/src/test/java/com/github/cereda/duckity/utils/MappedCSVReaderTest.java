@@ -0,0 +1,217 @@
+/**
+ * Duckity -- The template helper
+ * Copyright (c) 2012, Paulo Roberto Massa Cereda
+ * All rights reserved.
+ *
+ * Redistribution and  use in source  and binary forms, with  or without
+ * modification, are  permitted provided  that the  following conditions
+ * are met:
+ *
+ * 1. Redistributions  of source  code must  retain the  above copyright
+ * notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form  must reproduce the above copyright
+ * notice, this list  of conditions and the following  disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * 3. Neither  the name  of the  project's author nor  the names  of its
+ * contributors may be used to  endorse or promote products derived from
+ * this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS  PROVIDED BY THE COPYRIGHT  HOLDERS AND CONTRIBUTORS
+ * "AS IS"  AND ANY  EXPRESS OR IMPLIED  WARRANTIES, INCLUDING,  BUT NOT
+ * LIMITED  TO, THE  IMPLIED WARRANTIES  OF MERCHANTABILITY  AND FITNESS
+ * FOR  A PARTICULAR  PURPOSE  ARE  DISCLAIMED. IN  NO  EVENT SHALL  THE
+ * COPYRIGHT HOLDER OR CONTRIBUTORS BE  LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY,  OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT  NOT LIMITED  TO, PROCUREMENT  OF SUBSTITUTE  GOODS OR  SERVICES;
+ * LOSS  OF USE,  DATA, OR  PROFITS; OR  BUSINESS INTERRUPTION)  HOWEVER
+ * CAUSED AND  ON ANY THEORY  OF LIABILITY, WHETHER IN  CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY
+ * WAY  OUT  OF  THE USE  OF  THIS  SOFTWARE,  EVEN  IF ADVISED  OF  THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.github.cereda.duckity.utils;
+
+import java.io.File;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import junit.framework.TestCase;
+
+/**
+ * Compares the 'mapped' engine, read whole or in chunks, with opencsv on
+ * random inputs and option combinations.
+ *
+ * @author Paulo Roberto Massa Cereda
+ * @version 1.1
+ * @since 1.1
+ */
+public class MappedCSVReaderTest extends TestCase {
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    private static final String[] SEPARATORS = {null, ",", ";", "\t", "|"};
+    private static final String[] QUOTES = {null, "\"", "'", "\0"};
+    private static final String[] ESCAPES = {null, "\\", "~", "\0"};
+
+    private TestFiles files;
+
+    @Override
+    protected void setUp() throws Exception {
+        files = new TestFiles();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        files.delete();
+    }
+
+    /**
+     * Creates a mapping with random options, each of them set or not.
+     *
+     * @param random The random generator.
+     * @param file The datasource file.
+     * @return The mapping.
+     */
+    private ReaderMapping createMapping(Random random, File file) {
+        ReaderMapping rm = new ReaderMapping();
+        rm.setIdentifier("data");
+        rm.setFile(file.getPath());
+        rm.setCSV(true);
+        rm.setCharset("UTF-8");
+        rm.setSeparator(SEPARATORS[random.nextInt(SEPARATORS.length)]);
+        rm.setQuotechar(QUOTES[random.nextInt(QUOTES.length)]);
+        rm.setEscape(ESCAPES[random.nextInt(ESCAPES.length)]);
+        if (random.nextBoolean()) {
+            rm.setLine(random.nextInt(3));
+        }
+        if (random.nextBoolean()) {
+            rm.setStrictquote(random.nextBoolean());
+        }
+        if (random.nextBoolean()) {
+            rm.setIgnoreleadingwhitespace(random.nextBoolean());
+        }
+        return rm;
+    }
+
+    /**
+     * Creates a random input made of the characters which matter to the
+     * parsers.
+     *
+     * @param random The random generator.
+     * @return The input.
+     */
+    private String createInput(Random random) {
+        String alphabet = "ab1 ,;\t|\"'\\~";
+        String[] breaks = {"\n", "\r\n"};
+        StringBuilder text = new StringBuilder();
+        int lines = 1 + random.nextInt(6);
+        for (int line = 0; line < lines; line++) {
+            int length = random.nextInt(12);
+            for (int i = 0; i < length; i++) {
+                text.append(alphabet.charAt(random.nextInt(
+                        alphabet.length())));
+            }
+            text.append(breaks[random.nextInt(breaks.length)]);
+        }
+        return text.toString();
+    }
+
+    /**
+     * Reads a file through the loader, with the given engine.
+     *
+     * @param rm The mapping.
+     * @param engine The engine, or null for opencsv.
+     * @return The rows as lists, or the error message.
+     */
+    private Object read(ReaderMapping rm, String engine) {
+        rm.setEngine(engine);
+        FileLoader loader = new FileLoader(Collections.singletonList(rm));
+        try {
+            loader.load();
+            return toLists((List<?>) loader.getContent().get("data"));
+        } catch (DuckityException exception) {
+            return exception.getMessage();
+        }
+    }
+
+    /**
+     * Reads a file with the chunked parser, in chunks of a few bytes so
+     * records straddle them.
+     *
+     * @param rm The mapping.
+     * @param file The datasource file.
+     * @param size The chunk size.
+     * @return The rows as lists, or the error message.
+     * @throws Exception Exception is thrown if the file cannot be mapped.
+     */
+    private Object parse(ReaderMapping rm, File file, int size)
+            throws Exception {
+        try {
+            return toLists(new ChunkedCSVParser(new MappedFile(file), rm,
+                    UTF8, size).parse());
+        } catch (DuckityException exception) {
+            return exception.getMessage();
+        }
+    }
+
+    /**
+     * Turns rows into lists of strings, which compare by value.
+     *
+     * @param rows The rows.
+     * @return The rows as lists.
+     */
+    private List<List<String>> toLists(List<?> rows) {
+        List<List<String>> lists = new ArrayList<List<String>>();
+        for (Object row : rows) {
+            List<String> fields = new ArrayList<String>();
+            for (Object field : Rows.toList(row)) {
+                fields.add(String.valueOf(field));
+            }
+            lists.add(fields);
+        }
+        return lists;
+    }
+
+    /**
+     * Describes a comparison case, for failure messages.
+     *
+     * @param rm The mapping.
+     * @param input The input.
+     * @return The description.
+     */
+    private String describe(ReaderMapping rm, String input) {
+        return "separator=" + rm.getSeparator() + " quotechar="
+                + rm.getQuotechar() + " escape=" + rm.getEscape()
+                + " line=" + (rm.isFl() ? rm.getLine() : "-")
+                + " strictquote=" + (rm.isFsq() ? rm.isStrictquote() : "-")
+                + " ignoreleadingwhitespace=" + (rm.isIlws()
+                ? rm.isIgnoreleadingwhitespace() : "-")
+                + " input=[" + input.replace("\r", "\\r").replace("\n",
+                "\\n").replace("\t", "\\t") + "]";
+    }
+
+    /**
+     * Checks both engines, and the chunked parser, give the same rows or
+     * the same error for random inputs and options.
+     *
+     * @throws Exception Exception is thrown if a file cannot be written.
+     */
+    public void testEnginesAgree() throws Exception {
+        Random random = new Random(20121012L);
+        for (int i = 0; i < 2000; i++) {
+            String input = createInput(random);
+            File file = files.write("data".concat(String.valueOf(i)).
+                    concat(".csv"), input);
+            ReaderMapping rm = createMapping(random, file);
+            Object expected = read(rm, null);
+            assertEquals(describe(rm, input), expected, read(rm, "mapped"));
+            if (!(expected instanceof String)) {
+                assertEquals(describe(rm, input), expected,
+                        parse(rm, file, 1 + random.nextInt(8)));
+            }
+        }
+    }
+}
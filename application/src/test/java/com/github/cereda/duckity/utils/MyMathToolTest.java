@@ -0,0 +1,103 @@
+/**
+ * Duckity -- The template helper
+ * Copyright (c) 2012, Paulo Roberto Massa Cereda
+ * All rights reserved.
+ *
+ * Redistribution and  use in source  and binary forms, with  or without
+ * modification, are  permitted provided  that the  following conditions
+ * are met:
+ *
+ * 1. Redistributions  of source  code must  retain the  above copyright
+ * notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form  must reproduce the above copyright
+ * notice, this list  of conditions and the following  disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * 3. Neither  the name  of the  project's author nor  the names  of its
+ * contributors may be used to  endorse or promote products derived from
+ * this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS  PROVIDED BY THE COPYRIGHT  HOLDERS AND CONTRIBUTORS
+ * "AS IS"  AND ANY  EXPRESS OR IMPLIED  WARRANTIES, INCLUDING,  BUT NOT
+ * LIMITED  TO, THE  IMPLIED WARRANTIES  OF MERCHANTABILITY  AND FITNESS
+ * FOR  A PARTICULAR  PURPOSE  ARE  DISCLAIMED. IN  NO  EVENT SHALL  THE
+ * COPYRIGHT HOLDER OR CONTRIBUTORS BE  LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY,  OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT  NOT LIMITED  TO, PROCUREMENT  OF SUBSTITUTE  GOODS OR  SERVICES;
+ * LOSS  OF USE,  DATA, OR  PROFITS; OR  BUSINESS INTERRUPTION)  HOWEVER
+ * CAUSED AND  ON ANY THEORY  OF LIABILITY, WHETHER IN  CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY
+ * WAY  OUT  OF  THE USE  OF  THIS  SOFTWARE,  EVEN  IF ADVISED  OF  THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.github.cereda.duckity.utils;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import junit.framework.TestCase;
+
+/**
+ * Tests the math tool.
+ *
+ * @author Paulo Roberto Massa Cereda
+ * @version 1.1
+ * @since 1.1
+ */
+public class MyMathToolTest extends TestCase {
+
+    private final MyMathTool tool = new MyMathTool();
+
+    /**
+     * Checks a value is not converted to integer.
+     *
+     * @param number The value.
+     */
+    private void assertNotInteger(Object number) {
+        try {
+            tool.toInteger(number);
+            fail("The value '" + number + "' was converted to integer.");
+        } catch (NumberFormatException expected) {
+            // not an integer
+        }
+    }
+
+    /**
+     * Checks integral numbers of every kind are converted to integer.
+     */
+    public void testIntegralNumbers() {
+        assertNull(tool.toInteger(null));
+        assertEquals(Integer.valueOf(7), tool.toInteger(7));
+        assertEquals(Integer.valueOf(7), tool.toInteger((short) 7));
+        assertEquals(Integer.valueOf(7), tool.toInteger((byte) 7));
+        assertEquals(Integer.valueOf(-7), tool.toInteger(-7L));
+        assertEquals(Integer.valueOf(2), tool.toInteger(2.0));
+        assertEquals(Integer.valueOf(-2), tool.toInteger(-2.0f));
+        assertEquals(Integer.valueOf(2), tool.toInteger(
+                new BigDecimal("2.00")));
+        assertEquals(Integer.valueOf(2), tool.toInteger(
+                BigInteger.valueOf(2)));
+        assertEquals(Integer.valueOf(Integer.MAX_VALUE), tool.toInteger(
+                (double) Integer.MAX_VALUE));
+        assertEquals(Integer.valueOf(Integer.MIN_VALUE), tool.toInteger(
+                (long) Integer.MIN_VALUE));
+        assertEquals(Integer.valueOf(42), tool.toInteger("42"));
+    }
+
+    /**
+     * Checks fractions and values out of range fail, numbers and text
+     * alike.
+     */
+    public void testNotIntegers() {
+        assertNotInteger(2.5);
+        assertNotInteger(-0.5f);
+        assertNotInteger(new BigDecimal("2.01"));
+        assertNotInteger("2.5");
+        assertNotInteger(Double.NaN);
+        assertNotInteger(Double.POSITIVE_INFINITY);
+        assertNotInteger(Integer.MAX_VALUE + 1L);
+        assertNotInteger(Integer.MAX_VALUE + 1.0);
+        assertNotInteger(BigInteger.ONE.shiftLeft(40));
+        assertNotInteger("2147483648");
+    }
+}
@@ -0,0 +1,224 @@
+/**
+ * Duckity -- The template helper
+ * Copyright (c) 2012, Paulo Roberto Massa Cereda
+ * All rights reserved.
+ *
+ * Redistribution and  use in source  and binary forms, with  or without
+ * modification, are  permitted provided  that the  following conditions
+ * are met:
+ *
+ * 1. Redistributions  of source  code must  retain the  above copyright
+ * notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form  must reproduce the above copyright
+ * notice, this list  of conditions and the following  disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * 3. Neither  the name  of the  project's author nor  the names  of its
+ * contributors may be used to  endorse or promote products derived from
+ * this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS  PROVIDED BY THE COPYRIGHT  HOLDERS AND CONTRIBUTORS
+ * "AS IS"  AND ANY  EXPRESS OR IMPLIED  WARRANTIES, INCLUDING,  BUT NOT
+ * LIMITED  TO, THE  IMPLIED WARRANTIES  OF MERCHANTABILITY  AND FITNESS
+ * FOR  A PARTICULAR  PURPOSE  ARE  DISCLAIMED. IN  NO  EVENT SHALL  THE
+ * COPYRIGHT HOLDER OR CONTRIBUTORS BE  LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY,  OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT  NOT LIMITED  TO, PROCUREMENT  OF SUBSTITUTE  GOODS OR  SERVICES;
+ * LOSS  OF USE,  DATA, OR  PROFITS; OR  BUSINESS INTERRUPTION)  HOWEVER
+ * CAUSED AND  ON ANY THEORY  OF LIABILITY, WHETHER IN  CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY
+ * WAY  OUT  OF  THE USE  OF  THIS  SOFTWARE,  EVEN  IF ADVISED  OF  THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.github.cereda.duckity.utils;
+
+import java.math.BigDecimal;
+import java.util.Random;
+import junit.framework.TestCase;
+
+/**
+ * Compares the number parser with the Java parsers on edge cases and
+ * random text.
+ *
+ * @author Paulo Roberto Massa Cereda
+ * @version 1.1
+ * @since 1.1
+ */
+public class NumberParserTest extends TestCase {
+
+    private static final String[] EDGES = {"", " ", "-", "+", ".", "-.",
+        "+.5", "5.", ".5", "0", "-0", "+0", "00", "-0.0", "007",
+        "2147483647", "2147483648", "-2147483648", "-2147483649",
+        "9007199254740992", "9007199254740993", "16777216", "16777217",
+        "0.1", "0.2", "0.3", "1.7976931348623157", "123456789012345678",
+        "1234567890.1234567890", "1e10", "1E-5", "1e", "NaN", "-Infinity",
+        "Infinity", "0x1p3", "1d", "1f", "1L", " 1", "1 ", "1,5", "1..2",
+        "--1", "+-1", "١٢٣", "1_000", "4.35", "0.000000000000000000001"};
+
+    /**
+     * Parses an integer with the Java parser.
+     *
+     * @param text The text.
+     * @return The integer, or null if the text is not one.
+     */
+    private static Integer javaInt(String text) {
+        try {
+            return Integer.parseInt(text);
+        } catch (NumberFormatException nothandled) {
+            return null;
+        }
+    }
+
+    /**
+     * Parses an integer with the number parser.
+     *
+     * @param text The text.
+     * @return The integer, or null if the text is not one.
+     */
+    private static Integer ownInt(String text) {
+        try {
+            return NumberParser.parseInt(text);
+        } catch (NumberFormatException nothandled) {
+            return null;
+        }
+    }
+
+    /**
+     * Parses a float with the Java parser.
+     *
+     * @param text The text.
+     * @return The bits of the float, or null if the text is not one.
+     */
+    private static Integer javaFloat(String text) {
+        try {
+            return Float.floatToIntBits(Float.parseFloat(text));
+        } catch (NumberFormatException nothandled) {
+            return null;
+        }
+    }
+
+    /**
+     * Parses a float with the number parser.
+     *
+     * @param text The text.
+     * @return The bits of the float, or null if the text is not one.
+     */
+    private static Integer ownFloat(String text) {
+        try {
+            return Float.floatToIntBits(NumberParser.parseFloat(text));
+        } catch (NumberFormatException nothandled) {
+            return null;
+        }
+    }
+
+    /**
+     * Parses a double with the Java parser.
+     *
+     * @param text The text.
+     * @return The bits of the double, or null if the text is not one.
+     */
+    private static Long javaDouble(String text) {
+        try {
+            return Double.doubleToLongBits(Double.parseDouble(text));
+        } catch (NumberFormatException nothandled) {
+            return null;
+        }
+    }
+
+    /**
+     * Parses a double with the number parser.
+     *
+     * @param text The text.
+     * @return The bits of the double, or null if the text is not one.
+     */
+    private static Long ownDouble(String text) {
+        try {
+            return Double.doubleToLongBits(NumberParser.parseDouble(text));
+        } catch (NumberFormatException nothandled) {
+            return null;
+        }
+    }
+
+    /**
+     * Checks a text parses the same, or fails the same, with both parsers.
+     *
+     * @param text The text.
+     */
+    private static void assertSame(String text) {
+        String message = "'".concat(text).concat("'");
+        assertEquals(message, javaInt(text), ownInt(text));
+        assertEquals(message, javaFloat(text), ownFloat(text));
+        assertEquals(message, javaDouble(text), ownDouble(text));
+    }
+
+    /**
+     * Generates a random number, mostly plain decimals.
+     *
+     * @param random The random source.
+     * @return The text.
+     */
+    private static String number(Random random) {
+        StringBuilder text = new StringBuilder();
+        int sign = random.nextInt(6);
+        if (sign == 0) {
+            text.append('-');
+        } else if (sign == 1) {
+            text.append('+');
+        }
+        int digits = random.nextInt(22);
+        int point = random.nextInt(4) == 0 ? -1 : random.nextInt(digits + 1);
+        for (int i = 0; i < digits; i++) {
+            if (i == point) {
+                text.append('.');
+            }
+            text.append((char) ('0' + random.nextInt(10)));
+        }
+        if (point == digits) {
+            text.append('.');
+        }
+        int extra = random.nextInt(20);
+        if (extra == 0) {
+            text.append('e').append(random.nextInt(40) - 20);
+        } else if (extra == 1) {
+            text.append(' ');
+        } else if (extra == 2) {
+            text.append('x');
+        }
+        return text.toString();
+    }
+
+    /**
+     * Checks edge cases parse as with the Java parsers.
+     */
+    public void testEdges() {
+        for (String text : EDGES) {
+            assertSame(text);
+        }
+    }
+
+    /**
+     * Checks random numbers parse as with the Java parsers.
+     */
+    public void testRandom() {
+        Random random = new Random(20121012L);
+        for (int i = 0; i < 200000; i++) {
+            assertSame(number(random));
+        }
+    }
+
+    /**
+     * Checks plain decimals within the exact range give the correctly
+     * rounded value of their exact decimal expansion.
+     */
+    public void testExactDecimals() {
+        Random random = new Random(20121013L);
+        for (int i = 0; i < 100000; i++) {
+            long mantissa = random.nextLong() % 9007199254740992L;
+            int scale = random.nextInt(23);
+            String text = BigDecimal.valueOf(mantissa, scale).toPlainString();
+            assertEquals(text, new BigDecimal(text).doubleValue(),
+                    NumberParser.parseDouble(text), 0.0);
+        }
+    }
+}
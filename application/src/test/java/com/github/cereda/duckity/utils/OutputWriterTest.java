@@ -0,0 +1,167 @@
+/**
+ * Duckity -- The template helper
+ * Copyright (c) 2012, Paulo Roberto Massa Cereda
+ * All rights reserved.
+ *
+ * Redistribution and  use in source  and binary forms, with  or without
+ * modification, are  permitted provided  that the  following conditions
+ * are met:
+ *
+ * 1. Redistributions  of source  code must  retain the  above copyright
+ * notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form  must reproduce the above copyright
+ * notice, this list  of conditions and the following  disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * 3. Neither  the name  of the  project's author nor  the names  of its
+ * contributors may be used to  endorse or promote products derived from
+ * this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS  PROVIDED BY THE COPYRIGHT  HOLDERS AND CONTRIBUTORS
+ * "AS IS"  AND ANY  EXPRESS OR IMPLIED  WARRANTIES, INCLUDING,  BUT NOT
+ * LIMITED  TO, THE  IMPLIED WARRANTIES  OF MERCHANTABILITY  AND FITNESS
+ * FOR  A PARTICULAR  PURPOSE  ARE  DISCLAIMED. IN  NO  EVENT SHALL  THE
+ * COPYRIGHT HOLDER OR CONTRIBUTORS BE  LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY,  OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT  NOT LIMITED  TO, PROCUREMENT  OF SUBSTITUTE  GOODS OR  SERVICES;
+ * LOSS  OF USE,  DATA, OR  PROFITS; OR  BUSINESS INTERRUPTION)  HOWEVER
+ * CAUSED AND  ON ANY THEORY  OF LIABILITY, WHETHER IN  CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY
+ * WAY  OUT  OF  THE USE  OF  THIS  SOFTWARE,  EVEN  IF ADVISED  OF  THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.github.cereda.duckity.utils;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFileAttributeView;
+import java.nio.file.attribute.PosixFilePermissions;
+import junit.framework.TestCase;
+
+/**
+ * Tests the output writer.
+ *
+ * @author Paulo Roberto Massa Cereda
+ * @version 1.1
+ * @since 1.1
+ */
+public class OutputWriterTest extends TestCase {
+
+    private TestFiles files;
+
+    @Override
+    protected void setUp() throws Exception {
+        files = new TestFiles();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        files.delete();
+    }
+
+    /**
+     * Writes a text through the output writer.
+     *
+     * @param file The output file.
+     * @param text The text.
+     * @throws Exception Exception is thrown if the output fails.
+     */
+    private void write(File file, String text) throws Exception {
+        OutputWriter writer = new OutputWriter(file, TestFiles.UTF8);
+        writer.write(text);
+        writer.close();
+    }
+
+    /**
+     * Checks if the file system has POSIX permissions.
+     *
+     * @return A boolean value indicating if it has them.
+     */
+    private boolean isPosix() {
+        return Files.getFileAttributeView(files.get("").toPath(),
+                PosixFileAttributeView.class) != null;
+    }
+
+    /**
+     * Checks an output with the very same bytes leaves the target
+     * untouched, while different bytes replace it, and no temporary file
+     * is left behind either way.
+     *
+     * @throws Exception Exception is thrown if the output fails.
+     */
+    public void testIdenticalBytesAreSkipped() throws Exception {
+        File file = files.write("out.txt", "café\n");
+        assertTrue(file.setLastModified(1000000000000L));
+        write(file, "café\n");
+        assertEquals(1000000000000L, file.lastModified());
+        write(file, "cafe\n");
+        assertEquals("cafe\n", files.read("out.txt"));
+        assertTrue(file.lastModified() != 1000000000000L);
+        write(file, "cafe\n\n");
+        assertEquals("cafe\n\n", files.read("out.txt"));
+        assertEquals(1, files.get("").list().length);
+    }
+
+    /**
+     * Checks a new output gets the permissions of the one it replaces.
+     *
+     * @throws Exception Exception is thrown if the output fails.
+     */
+    public void testPermissionsAreKept() throws Exception {
+        if (!isPosix()) {
+            return;
+        }
+        File file = files.write("out.txt", "old");
+        Files.setPosixFilePermissions(file.toPath(),
+                PosixFilePermissions.fromString("rwxr-x---"));
+        write(file, "new");
+        assertEquals("new", files.read("out.txt"));
+        assertEquals("rwxr-x---", PosixFilePermissions.toString(
+                Files.getPosixFilePermissions(file.toPath())));
+    }
+
+    /**
+     * Checks an output written through a symbolic link replaces the file
+     * it points to and keeps the link.
+     *
+     * @throws Exception Exception is thrown if the output fails.
+     */
+    public void testSymbolicLinksAreFollowed() throws Exception {
+        if (!isPosix()) {
+            return;
+        }
+        files.write("real.txt", "old");
+        Path link = files.get("link.txt").toPath();
+        Files.createSymbolicLink(link, files.get("real.txt").toPath().
+                getFileName());
+        write(link.toFile(), "new");
+        assertTrue(Files.isSymbolicLink(link));
+        assertEquals("new", files.read("real.txt"));
+
+        Path dangling = files.get("dangling.txt").toPath();
+        Files.createSymbolicLink(dangling, files.get("missing.txt").
+                toPath());
+        write(dangling.toFile(), "created");
+        assertTrue(Files.isSymbolicLink(dangling));
+        assertEquals("created", files.read("missing.txt"));
+    }
+
+    /**
+     * Checks an output with other hard links is overwritten in place, so
+     * every link sees it.
+     *
+     * @throws Exception Exception is thrown if the output fails.
+     */
+    public void testHardLinksAreKept() throws Exception {
+        if (!isPosix()) {
+            return;
+        }
+        File file = files.write("out.txt", "old");
+        Files.createLink(files.get("other.txt").toPath(), file.toPath());
+        write(file, "new");
+        assertEquals("new", files.read("out.txt"));
+        assertEquals("new", files.read("other.txt"));
+    }
+}
@@ -0,0 +1,296 @@
+/**
+ * Duckity -- The template helper
+ * Copyright (c) 2012, Paulo Roberto Massa Cereda
+ * All rights reserved.
+ *
+ * Redistribution and  use in source  and binary forms, with  or without
+ * modification, are  permitted provided  that the  following conditions
+ * are met:
+ *
+ * 1. Redistributions  of source  code must  retain the  above copyright
+ * notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form  must reproduce the above copyright
+ * notice, this list  of conditions and the following  disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * 3. Neither  the name  of the  project's author nor  the names  of its
+ * contributors may be used to  endorse or promote products derived from
+ * this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS  PROVIDED BY THE COPYRIGHT  HOLDERS AND CONTRIBUTORS
+ * "AS IS"  AND ANY  EXPRESS OR IMPLIED  WARRANTIES, INCLUDING,  BUT NOT
+ * LIMITED  TO, THE  IMPLIED WARRANTIES  OF MERCHANTABILITY  AND FITNESS
+ * FOR  A PARTICULAR  PURPOSE  ARE  DISCLAIMED. IN  NO  EVENT SHALL  THE
+ * COPYRIGHT HOLDER OR CONTRIBUTORS BE  LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY,  OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT  NOT LIMITED  TO, PROCUREMENT  OF SUBSTITUTE  GOODS OR  SERVICES;
+ * LOSS  OF USE,  DATA, OR  PROFITS; OR  BUSINESS INTERRUPTION)  HOWEVER
+ * CAUSED AND  ON ANY THEORY  OF LIABILITY, WHETHER IN  CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY
+ * WAY  OUT  OF  THE USE  OF  THIS  SOFTWARE,  EVEN  IF ADVISED  OF  THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.github.cereda.duckity.utils;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import junit.framework.TestCase;
+
+/**
+ * Tests the template manager.
+ *
+ * @author Paulo Roberto Massa Cereda
+ * @version 1.1
+ * @since 1.1
+ */
+public class TemplateManagerTest extends TestCase {
+
+    private TestFiles files;
+
+    @Override
+    protected void setUp() throws Exception {
+        files = new TestFiles();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        files.delete();
+    }
+
+    /**
+     * Renders a template the way a batch does, through the engine and
+     * template cache shared by the process.
+     *
+     * @param input The input file name.
+     * @param template The template.
+     * @param content The datasources.
+     * @return The output.
+     * @throws Exception Exception is thrown if the render fails.
+     */
+    private String render(String input, String template,
+            HashMap<String, Object> content) throws Exception {
+        File file = files.write(input, template);
+        TemplateManager manager = new TemplateManager(file.getPath(),
+                content, template);
+        manager.setOutput(files.get(input.concat(".out")).getPath());
+        manager.generate();
+        return files.read(input.concat(".out"));
+    }
+
+    /**
+     * Checks templates of a batch defining a macro of the same name each
+     * render with their own macro, whatever the order.
+     *
+     * @throws Exception Exception is thrown if a render fails.
+     */
+    public void testBatchKeepsMacrosApart() throws Exception {
+        String a = "#macro(say $x)A:$x#end#say(\"a\")";
+        String b = "#macro(say $x)B:$x#end#say(\"b\")";
+        HashMap<String, Object> content = new HashMap<String, Object>();
+        assertEquals("A:a", render("a.txt", a, content));
+        assertEquals("B:b", render("b.txt", b, content));
+        assertEquals("B:b", render("b.txt", b, content));
+        assertEquals("A:a", render("a.txt", a, content));
+    }
+
+    /**
+     * Checks a template edited and then restored, as seen by the watch
+     * mode, renders with the macros of each text.
+     *
+     * @throws Exception Exception is thrown if a render fails.
+     */
+    public void testEditedTemplateKeepsItsMacros() throws Exception {
+        String first = "#macro(say)first#end#say()";
+        String second = "#macro(say)second#end#say()";
+        HashMap<String, Object> content = new HashMap<String, Object>();
+        assertEquals("first", render("edit.txt", first, content));
+        assertEquals("second", render("edit.txt", second, content));
+        assertEquals("first", render("edit.txt", first, content));
+    }
+
+    /**
+     * Creates a streamed datasource over the rows, failing with an IO
+     * error once they run out if so told.
+     *
+     * @param failing A boolean value indicating if the reader fails at
+     * the end.
+     * @param rows The rows.
+     * @return The streamed datasource.
+     */
+    private StreamingDatasource stream(final boolean failing,
+            Object... rows) {
+        final Iterator<Object> iterator = Arrays.asList(rows).iterator();
+        return new StreamingDatasource(new RowReader() {
+            public Object readNext() throws IOException {
+                if (iterator.hasNext()) {
+                    return iterator.next();
+                }
+                if (failing) {
+                    throw new IOException("disk error");
+                }
+                return null;
+            }
+
+            public void close() throws IOException {
+            }
+        }, "rows.csv");
+    }
+
+    /**
+     * Checks a streamed datasource traversed twice fails with a message
+     * naming it, rather than an engine error.
+     *
+     * @throws Exception Exception is thrown if the render fails in some
+     * other way.
+     */
+    public void testStreamTraversedTwice() throws Exception {
+        HashMap<String, Object> content = new HashMap<String, Object>();
+        content.put("s", stream(false, "a", "b"));
+        try {
+            render("twice.txt", "#foreach($r in $s)$r#end"
+                    + "#foreach($r in $s)$r#end", content);
+            fail("The stream was traversed twice.");
+        } catch (DuckityException exception) {
+            assertTrue(exception.getMessage(), exception.getMessage().
+                    endsWith("The streaming datasource 'rows.csv' can only "
+                    + "be traversed once."));
+        }
+    }
+
+    /**
+     * Checks a streamed datasource failing to read fails the render with a
+     * message naming it.
+     *
+     * @throws Exception Exception is thrown if the render fails in some
+     * other way.
+     */
+    public void testStreamFailingToRead() throws Exception {
+        HashMap<String, Object> content = new HashMap<String, Object>();
+        content.put("s", stream(true, "a", "b"));
+        try {
+            render("failing.txt", "#foreach($r in $s)$r#end", content);
+            fail("The stream error was not reported.");
+        } catch (DuckityException exception) {
+            assertTrue(exception.getMessage(), exception.getMessage().
+                    endsWith("An IO error occurred while trying to read "
+                    + "from 'rows.csv'."));
+        }
+    }
+
+    /**
+     * Renders a template once per value of the first column of the rows.
+     *
+     * @param content The datasources, the partitioned one named 'rows'.
+     * @param template The template.
+     * @param output The output pattern, relative to the scratch directory.
+     * @throws Exception Exception is thrown if the render fails.
+     */
+    private void split(HashMap<String, Object> content, String template,
+            String output) throws Exception {
+        File file = files.write("split.txt", template);
+        TemplateManager manager = new TemplateManager(file.getPath(),
+                content, template);
+        PartitionMapping partition = new PartitionMapping();
+        partition.setIdentifier("rows");
+        partition.setKey(0L);
+        partition.setOutput(files.get(output).getPath());
+        manager.setPartition(partition);
+        manager.generate();
+    }
+
+    /**
+     * Checks a partitioned render fails with the expected message.
+     *
+     * @param content The datasources, the partitioned one named 'rows'.
+     * @param output The output pattern, relative to the scratch directory.
+     * @param message The expected message.
+     * @throws Exception Exception is thrown if the render fails otherwise.
+     */
+    private void assertSplitFails(HashMap<String, Object> content,
+            String output, String message) throws Exception {
+        try {
+            split(content, "$key", output);
+            fail("The partitioned render did not fail.");
+        } catch (DuckityException expected) {
+            assertEquals(message, expected.getMessage());
+        }
+    }
+
+    /**
+     * Checks the partitions of a render share the index tool, so an index
+     * is built once for all of them.
+     *
+     * @throws Exception Exception is thrown if a render fails.
+     */
+    public void testPartitionsShareIndexes() throws Exception {
+        HashMap<String, Object> content = new HashMap<String, Object>();
+        content.put("rows", Arrays.asList(new String[]{"a", "1"},
+                new String[]{"b", "2"}, new String[]{"a", "3"}));
+        split(content, "$index.of(\"rows\", 0).hashCode()",
+                "split-".concat(PartitionMapping.PLACEHOLDER));
+        assertEquals(files.read("split-a"), files.read("split-b"));
+    }
+
+    /**
+     * Checks keys that cannot be used in a file name are refused before
+     * anything is written.
+     *
+     * @throws Exception Exception is thrown if a render fails otherwise.
+     */
+    public void testPartitionKeyValidation() throws Exception {
+        for (String key : new String[]{"", ".", "..", "a/b", "a\\b"}) {
+            HashMap<String, Object> content = new HashMap<String, Object>();
+            content.put("rows", Arrays.asList(new String[]{"fine", "1"},
+                    new String[]{key, "2"}));
+            assertSplitFails(content, "split-".concat(
+                    PartitionMapping.PLACEHOLDER), "The partition key '".
+                    concat(key).concat("' cannot be used in a file name."));
+            assertFalse(files.get("split-fine").exists());
+        }
+        HashMap<String, Object> content = new HashMap<String, Object>();
+        content.put("rows", Arrays.asList(new String[]{"fine", "1"},
+                new String[]{}));
+        assertSplitFails(content, "split-".concat(
+                PartitionMapping.PLACEHOLDER), "A row of 'rows' has no "
+                + "value for the partition key.");
+    }
+
+    /**
+     * Checks an output pattern without the key is refused, since every
+     * partition would overwrite the same file.
+     *
+     * @throws Exception Exception is thrown if a render fails otherwise.
+     */
+    public void testPartitionOutputWithoutKey() throws Exception {
+        HashMap<String, Object> content = new HashMap<String, Object>();
+        content.put("rows", Arrays.asList(new String[]{"a", "1"},
+                new String[]{"b", "2"}));
+        String output = files.get("split.out").getPath();
+        assertSplitFails(content, "split.out", "The partition output '".
+                concat(output).concat("' has to contain '").concat(
+                PartitionMapping.PLACEHOLDER).concat("'."));
+        assertFalse(files.get("split.out").exists());
+    }
+
+    /**
+     * Checks datasources named after the partition variables are refused
+     * rather than silently hidden by them.
+     *
+     * @throws Exception Exception is thrown if a render fails otherwise.
+     */
+    public void testPartitionReservedIdentifiers() throws Exception {
+        for (String name : new String[]{"partition", "key"}) {
+            HashMap<String, Object> content = new HashMap<String, Object>();
+            content.put("rows", Arrays.asList(new String[]{"a", "1"}));
+            content.put(name, Arrays.asList(new String[]{"x"}));
+            assertSplitFails(content, "split-".concat(
+                    PartitionMapping.PLACEHOLDER), "The identifier '".concat(
+                    name).concat("' is reserved in partitioned templates, "
+                    + "please rename that datasource."));
+        }
+    }
+}
@@ -0,0 +1,114 @@
+/**
+ * Duckity -- The template helper
+ * Copyright (c) 2012, Paulo Roberto Massa Cereda
+ * All rights reserved.
+ *
+ * Redistribution and  use in source  and binary forms, with  or without
+ * modification, are  permitted provided  that the  following conditions
+ * are met:
+ *
+ * 1. Redistributions  of source  code must  retain the  above copyright
+ * notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form  must reproduce the above copyright
+ * notice, this list  of conditions and the following  disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * 3. Neither  the name  of the  project's author nor  the names  of its
+ * contributors may be used to  endorse or promote products derived from
+ * this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS  PROVIDED BY THE COPYRIGHT  HOLDERS AND CONTRIBUTORS
+ * "AS IS"  AND ANY  EXPRESS OR IMPLIED  WARRANTIES, INCLUDING,  BUT NOT
+ * LIMITED  TO, THE  IMPLIED WARRANTIES  OF MERCHANTABILITY  AND FITNESS
+ * FOR  A PARTICULAR  PURPOSE  ARE  DISCLAIMED. IN  NO  EVENT SHALL  THE
+ * COPYRIGHT HOLDER OR CONTRIBUTORS BE  LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY,  OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT  NOT LIMITED  TO, PROCUREMENT  OF SUBSTITUTE  GOODS OR  SERVICES;
+ * LOSS  OF USE,  DATA, OR  PROFITS; OR  BUSINESS INTERRUPTION)  HOWEVER
+ * CAUSED AND  ON ANY THEORY  OF LIABILITY, WHETHER IN  CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY
+ * WAY  OUT  OF  THE USE  OF  THIS  SOFTWARE,  EVEN  IF ADVISED  OF  THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.github.cereda.duckity.utils;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import junit.framework.TestCase;
+import org.apache.velocity.runtime.parser.node.Node;
+
+/**
+ * Tests the search for the datasources a template refers to.
+ *
+ * @author Paulo Roberto Massa Cereda
+ * @version 1.1
+ * @since 1.1
+ */
+public class TemplateReferencesTest extends TestCase {
+
+    private static final List<String> IDENTIFIERS = Arrays.asList("a", "b",
+            "c");
+
+    /**
+     * Finds the datasources a template refers to, parsed as for a
+     * render.
+     *
+     * @param template The template.
+     * @return The identifiers, or null if there is no answer.
+     * @throws Exception Exception is thrown if the template cannot be
+     * parsed.
+     */
+    private static Set<String> find(String template) throws Exception {
+        return TemplateReferences.find((Node) TemplateCache.getInstance().
+                get(TemplateManager.getServices(), template).getData(),
+                IDENTIFIERS);
+    }
+
+    /**
+     * Builds a set of identifiers.
+     *
+     * @param identifiers The identifiers.
+     * @return The set.
+     */
+    private static Set<String> set(String... identifiers) {
+        return new HashSet<String>(Arrays.asList(identifiers));
+    }
+
+    /**
+     * Checks references written out in the template are found.
+     *
+     * @throws Exception Exception is thrown if a template cannot be parsed.
+     */
+    public void testFound() throws Exception {
+        assertEquals(Collections.<String>emptySet(), find("plain text"));
+        assertEquals(set("a", "b"), find("$a and ${b.size()}"));
+        assertEquals(set("a"), find("#foreach($r in $a)$r.x#end"));
+        assertEquals(set("b"), find("$index.of(\"b\", 0).get(1)"));
+        assertEquals(set("c"), find("$aggregate.group(\"c\", 0, 1)"));
+        assertEquals(set("c"), find("$aggregate.total(\"c\", 1).sum"));
+        assertEquals(set("c"), find("#set($name = \"c\")"));
+        assertEquals(set("a"), find("#macro(m $x)$a$x#end#m(1)"));
+    }
+
+    /**
+     * Checks templates which may reach datasources the scan cannot follow
+     * give no answer, even when that code is never run.
+     *
+     * @throws Exception Exception is thrown if a template cannot be parsed.
+     */
+    public void testNothingFound() throws Exception {
+        assertNull(find("#parse(\"other.vm\")"));
+        assertNull(find("#if(false)#parse(\"other.vm\")#end $a"));
+        assertNull(find("#include(\"other.txt\")"));
+        assertNull(find("#evaluate(\"$a\")"));
+        assertNull(find("#fromlibrary()"));
+        assertNull(find("#macro(m)x#end#m()#other($a)"));
+        assertNull(find("$index.of($name, 0)"));
+        assertNull(find("$index.of(\"$name\", 0)"));
+        assertNull(find("$aggregate"));
+    }
+}
@@ -0,0 +1,155 @@
+/**
+ * Duckity -- The template helper
+ * Copyright (c) 2012, Paulo Roberto Massa Cereda
+ * All rights reserved.
+ *
+ * Redistribution and  use in source  and binary forms, with  or without
+ * modification, are  permitted provided  that the  following conditions
+ * are met:
+ *
+ * 1. Redistributions  of source  code must  retain the  above copyright
+ * notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form  must reproduce the above copyright
+ * notice, this list  of conditions and the following  disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * 3. Neither  the name  of the  project's author nor  the names  of its
+ * contributors may be used to  endorse or promote products derived from
+ * this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS  PROVIDED BY THE COPYRIGHT  HOLDERS AND CONTRIBUTORS
+ * "AS IS"  AND ANY  EXPRESS OR IMPLIED  WARRANTIES, INCLUDING,  BUT NOT
+ * LIMITED  TO, THE  IMPLIED WARRANTIES  OF MERCHANTABILITY  AND FITNESS
+ * FOR  A PARTICULAR  PURPOSE  ARE  DISCLAIMED. IN  NO  EVENT SHALL  THE
+ * COPYRIGHT HOLDER OR CONTRIBUTORS BE  LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY,  OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT  NOT LIMITED  TO, PROCUREMENT  OF SUBSTITUTE  GOODS OR  SERVICES;
+ * LOSS  OF USE,  DATA, OR  PROFITS; OR  BUSINESS INTERRUPTION)  HOWEVER
+ * CAUSED AND  ON ANY THEORY  OF LIABILITY, WHETHER IN  CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY
+ * WAY  OUT  OF  THE USE  OF  THIS  SOFTWARE,  EVEN  IF ADVISED  OF  THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.github.cereda.duckity.utils;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+
+/**
+ * Holds the scratch directory of a test and the files written into it.
+ *
+ * @author Paulo Roberto Massa Cereda
+ * @version 1.1
+ * @since 1.1
+ */
+class TestFiles {
+
+    static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private final File directory;
+
+    /**
+     * Constructor, creating an empty scratch directory.
+     *
+     * @throws IOException Exception is thrown if the directory cannot be
+     * created.
+     */
+    TestFiles() throws IOException {
+        directory = File.createTempFile("duckity-test", "");
+        if (!directory.delete() || !directory.mkdir()) {
+            throw new IOException("Cannot create the scratch directory.");
+        }
+    }
+
+    /**
+     * Gets a file of the scratch directory.
+     *
+     * @param name The file name.
+     * @return The file.
+     */
+    File get(String name) {
+        return new File(directory, name);
+    }
+
+    /**
+     * Writes a text file.
+     *
+     * @param name The file name.
+     * @param text The file text.
+     * @return The file.
+     * @throws IOException Exception is thrown if the file cannot be
+     * written.
+     */
+    File write(String name, String text) throws IOException {
+        return write(name, text.getBytes(UTF8));
+    }
+
+    /**
+     * Writes a file.
+     *
+     * @param name The file name.
+     * @param bytes The file bytes.
+     * @return The file.
+     * @throws IOException Exception is thrown if the file cannot be
+     * written.
+     */
+    File write(String name, byte[] bytes) throws IOException {
+        File file = get(name);
+        OutputStream stream = new FileOutputStream(file);
+        try {
+            stream.write(bytes);
+        } finally {
+            stream.close();
+        }
+        return file;
+    }
+
+    /**
+     * Reads a text file.
+     *
+     * @param name The file name.
+     * @return The file text.
+     * @throws IOException Exception is thrown if the file cannot be read.
+     */
+    String read(String name) throws IOException {
+        return new String(readBytes(name), UTF8);
+    }
+
+    /**
+     * Reads a file.
+     *
+     * @param name The file name.
+     * @return The file bytes.
+     * @throws IOException Exception is thrown if the file cannot be read.
+     */
+    byte[] readBytes(String name) throws IOException {
+        return Files.readAllBytes(get(name).toPath());
+    }
+
+    /**
+     * Deletes the scratch directory and everything in it.
+     */
+    void delete() {
+        delete(directory);
+    }
+
+    /**
+     * Deletes a file or a directory tree.
+     *
+     * @param file The file.
+     */
+    private static void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+}
@@ -0,0 +1,148 @@
+/**
+ * Duckity -- The template helper
+ * Copyright (c) 2012, Paulo Roberto Massa Cereda
+ * All rights reserved.
+ *
+ * Redistribution and  use in source  and binary forms, with  or without
+ * modification, are  permitted provided  that the  following conditions
+ * are met:
+ *
+ * 1. Redistributions  of source  code must  retain the  above copyright
+ * notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form  must reproduce the above copyright
+ * notice, this list  of conditions and the following  disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * 3. Neither  the name  of the  project's author nor  the names  of its
+ * contributors may be used to  endorse or promote products derived from
+ * this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS  PROVIDED BY THE COPYRIGHT  HOLDERS AND CONTRIBUTORS
+ * "AS IS"  AND ANY  EXPRESS OR IMPLIED  WARRANTIES, INCLUDING,  BUT NOT
+ * LIMITED  TO, THE  IMPLIED WARRANTIES  OF MERCHANTABILITY  AND FITNESS
+ * FOR  A PARTICULAR  PURPOSE  ARE  DISCLAIMED. IN  NO  EVENT SHALL  THE
+ * COPYRIGHT HOLDER OR CONTRIBUTORS BE  LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY,  OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT  NOT LIMITED  TO, PROCUREMENT  OF SUBSTITUTE  GOODS OR  SERVICES;
+ * LOSS  OF USE,  DATA, OR  PROFITS; OR  BUSINESS INTERRUPTION)  HOWEVER
+ * CAUSED AND  ON ANY THEORY  OF LIABILITY, WHETHER IN  CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY
+ * WAY  OUT  OF  THE USE  OF  THIS  SOFTWARE,  EVEN  IF ADVISED  OF  THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.github.cereda.duckity.benchmarks;
+
+import com.github.cereda.duckity.utils.DuckityException;
+import com.github.cereda.duckity.utils.FileLoader;
+import com.github.cereda.duckity.utils.ReaderMapping;
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures loading a CSV datasource through the file loader, for several
+ * sizes, engines and reader options.
+ *
+ * @author Paulo Roberto Massa Cereda
+ * @version 1.1
+ * @since 1.1
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class CsvIngestBenchmark {
+
+    // the number of rows
+    @Param({"10000", "100000", "1000000"})
+    public int rows;
+
+    // the reader engine
+    @Param({"opencsv", "mapped"})
+    public String engine;
+
+    // the reader options: the defaults, a custom separator skipping the
+    // first line, or strict quotes without leading whitespace
+    @Param({"default", "separator", "strict"})
+    public String options;
+
+    // whether every field is quoted
+    @Param({"false", "true"})
+    public boolean quoted;
+
+    // whether the datasource is streamed
+    @Param({"false", "true"})
+    public boolean stream;
+
+    // the scratch directory
+    private File directory;
+
+    // the datasource
+    private ReaderMapping mapping;
+
+    /**
+     * Generates the datasource.
+     *
+     * @throws IOException Exception is thrown in case of an IO error.
+     */
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        directory = SyntheticData.directory();
+        File file = new File(directory, "data.csv");
+        char separator = options.equals("separator") ? ';' : ',';
+        SyntheticData.csv(file, rows, separator, quoted);
+
+        mapping = new ReaderMapping();
+        mapping.setIdentifier("data");
+        mapping.setFile(file.getPath());
+        mapping.setCSV(true);
+        mapping.setEngine(engine);
+        mapping.setStream(stream);
+        if (options.equals("separator")) {
+            mapping.setSeparator(";");
+            mapping.setLine(1);
+        } else if (options.equals("strict")) {
+            mapping.setStrictquote(true);
+            mapping.setIgnoreleadingwhitespace(false);
+        }
+    }
+
+    /**
+     * Removes the datasource.
+     */
+    @TearDown(Level.Trial)
+    public void teardown() {
+        SyntheticData.delete(directory);
+    }
+
+    /**
+     * Loads the datasource and walks every row.
+     *
+     * @return The number of rows.
+     * @throws DuckityException Exception is thrown in case of an error.
+     */
+    @Benchmark
+    public int load() throws DuckityException {
+        FileLoader loader = new FileLoader(
+                Collections.singletonList(mapping));
+        loader.load();
+        return Datasets.walk(loader.getContent().get("data"));
+    }
+}
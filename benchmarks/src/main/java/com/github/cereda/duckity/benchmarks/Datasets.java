@@ -0,0 +1,91 @@
+/**
+ * Duckity -- The template helper
+ * Copyright (c) 2012, Paulo Roberto Massa Cereda
+ * All rights reserved.
+ *
+ * Redistribution and  use in source  and binary forms, with  or without
+ * modification, are  permitted provided  that the  following conditions
+ * are met:
+ *
+ * 1. Redistributions  of source  code must  retain the  above copyright
+ * notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form  must reproduce the above copyright
+ * notice, this list  of conditions and the following  disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * 3. Neither  the name  of the  project's author nor  the names  of its
+ * contributors may be used to  endorse or promote products derived from
+ * this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS  PROVIDED BY THE COPYRIGHT  HOLDERS AND CONTRIBUTORS
+ * "AS IS"  AND ANY  EXPRESS OR IMPLIED  WARRANTIES, INCLUDING,  BUT NOT
+ * LIMITED  TO, THE  IMPLIED WARRANTIES  OF MERCHANTABILITY  AND FITNESS
+ * FOR  A PARTICULAR  PURPOSE  ARE  DISCLAIMED. IN  NO  EVENT SHALL  THE
+ * COPYRIGHT HOLDER OR CONTRIBUTORS BE  LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY,  OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT  NOT LIMITED  TO, PROCUREMENT  OF SUBSTITUTE  GOODS OR  SERVICES;
+ * LOSS  OF USE,  DATA, OR  PROFITS; OR  BUSINESS INTERRUPTION)  HOWEVER
+ * CAUSED AND  ON ANY THEORY  OF LIABILITY, WHETHER IN  CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY
+ * WAY  OUT  OF  THE USE  OF  THIS  SOFTWARE,  EVEN  IF ADVISED  OF  THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.github.cereda.duckity.benchmarks;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Helper methods shared by the benchmarks.
+ *
+ * @author Paulo Roberto Massa Cereda
+ * @version 1.1
+ * @since 1.1
+ */
+final class Datasets {
+
+    /**
+     * Constructor.
+     */
+    private Datasets() {
+    }
+
+    /**
+     * Walks a loaded datasource, touching every row, so lazy and streamed
+     * datasources do the same work as eager ones. Streamed datasources
+     * are closed afterwards.
+     *
+     * @param datasource The datasource.
+     * @return The number of rows.
+     */
+    static int walk(Object datasource) {
+        int count = 0;
+        if (datasource instanceof Map) {
+            count = ((Map) datasource).size();
+        } else if (datasource instanceof List) {
+            List list = (List) datasource;
+            for (int i = 0; i < list.size(); i++) {
+                if (list.get(i) != null) {
+                    count++;
+                }
+            }
+        } else if (datasource instanceof Iterable) {
+            for (Object row : (Iterable) datasource) {
+                if (row != null) {
+                    count++;
+                }
+            }
+        }
+        if (datasource instanceof Closeable) {
+            try {
+                ((Closeable) datasource).close();
+            } catch (IOException nothandled) {
+                // nothing left to read
+            }
+        }
+        return count;
+    }
+}
@@ -0,0 +1,148 @@
+/**
+ * Duckity -- The template helper
+ * Copyright (c) 2012, Paulo Roberto Massa Cereda
+ * All rights reserved.
+ *
+ * Redistribution and  use in source  and binary forms, with  or without
+ * modification, are  permitted provided  that the  following conditions
+ * are met:
+ *
+ * 1. Redistributions  of source  code must  retain the  above copyright
+ * notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form  must reproduce the above copyright
+ * notice, this list  of conditions and the following  disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * 3. Neither  the name  of the  project's author nor  the names  of its
+ * contributors may be used to  endorse or promote products derived from
+ * this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS  PROVIDED BY THE COPYRIGHT  HOLDERS AND CONTRIBUTORS
+ * "AS IS"  AND ANY  EXPRESS OR IMPLIED  WARRANTIES, INCLUDING,  BUT NOT
+ * LIMITED  TO, THE  IMPLIED WARRANTIES  OF MERCHANTABILITY  AND FITNESS
+ * FOR  A PARTICULAR  PURPOSE  ARE  DISCLAIMED. IN  NO  EVENT SHALL  THE
+ * COPYRIGHT HOLDER OR CONTRIBUTORS BE  LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY,  OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT  NOT LIMITED  TO, PROCUREMENT  OF SUBSTITUTE  GOODS OR  SERVICES;
+ * LOSS  OF USE,  DATA, OR  PROFITS; OR  BUSINESS INTERRUPTION)  HOWEVER
+ * CAUSED AND  ON ANY THEORY  OF LIABILITY, WHETHER IN  CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY
+ * WAY  OUT  OF  THE USE  OF  THIS  SOFTWARE,  EVEN  IF ADVISED  OF  THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.github.cereda.duckity.benchmarks;
+
+import com.github.cereda.duckity.utils.DuckityException;
+import com.github.cereda.duckity.utils.FileLoader;
+import com.github.cereda.duckity.utils.ReaderMapping;
+import com.github.cereda.duckity.utils.TemplateManager;
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures merging a template that loops over a large, already loaded
+ * datasource and writing the result.
+ *
+ * @author Paulo Roberto Massa Cereda
+ * @version 1.1
+ * @since 1.1
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class MergeBenchmark {
+
+    // the loop body, from a single reference to every column and a tool
+    @Param({"simple", "full"})
+    public String body;
+
+    // the number of rows
+    @Param({"10000", "100000", "1000000"})
+    public int rows;
+
+    // the scratch directory
+    private File directory;
+
+    // the loaded datasources
+    private HashMap content;
+
+    // the template
+    private String template;
+
+    // the output file
+    private String output;
+
+    /**
+     * Generates and loads the datasource.
+     *
+     * @throws IOException Exception is thrown in case of an IO error.
+     * @throws DuckityException Exception is thrown in case of an error.
+     */
+    @Setup(Level.Trial)
+    public void setup() throws IOException, DuckityException {
+        directory = SyntheticData.directory();
+        File file = new File(directory, "data.csv");
+        SyntheticData.csv(file, rows, ',', false);
+
+        ReaderMapping mapping = new ReaderMapping();
+        mapping.setIdentifier("data");
+        mapping.setFile(file.getPath());
+        mapping.setCSV(true);
+        FileLoader loader = new FileLoader(
+                Collections.singletonList(mapping));
+        loader.load();
+        content = loader.getContent();
+
+        if (body.equals("simple")) {
+            template = "#foreach($row in $data)$row.get(0)\n#end\n";
+        } else {
+            template = "#foreach($row in $data)$velocityCount: "
+                    + "$row.get(1) x $row.get(2) at $row.get(3) on "
+                    + "$row.get(4) = $math.mul($row.get(2), $row.get(3))"
+                    + "#if($row.get(5).length() > 20) (long)#end\n#end\n";
+        }
+        output = new File(directory, "output.txt").getPath();
+        TemplateManager.initialize();
+    }
+
+    /**
+     * Removes the datasource and the output.
+     */
+    @TearDown(Level.Trial)
+    public void teardown() {
+        SyntheticData.delete(directory);
+    }
+
+    /**
+     * Merges the template.
+     *
+     * @throws DuckityException Exception is thrown in case of an error.
+     */
+    @Benchmark
+    public void merge() throws DuckityException {
+        TemplateManager manager = new TemplateManager(output, content,
+                template);
+        manager.setOutput(output);
+        manager.generate();
+    }
+}
@@ -0,0 +1,141 @@
+/**
+ * Duckity -- The template helper
+ * Copyright (c) 2012, Paulo Roberto Massa Cereda
+ * All rights reserved.
+ *
+ * Redistribution and  use in source  and binary forms, with  or without
+ * modification, are  permitted provided  that the  following conditions
+ * are met:
+ *
+ * 1. Redistributions  of source  code must  retain the  above copyright
+ * notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form  must reproduce the above copyright
+ * notice, this list  of conditions and the following  disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * 3. Neither  the name  of the  project's author nor  the names  of its
+ * contributors may be used to  endorse or promote products derived from
+ * this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS  PROVIDED BY THE COPYRIGHT  HOLDERS AND CONTRIBUTORS
+ * "AS IS"  AND ANY  EXPRESS OR IMPLIED  WARRANTIES, INCLUDING,  BUT NOT
+ * LIMITED  TO, THE  IMPLIED WARRANTIES  OF MERCHANTABILITY  AND FITNESS
+ * FOR  A PARTICULAR  PURPOSE  ARE  DISCLAIMED. IN  NO  EVENT SHALL  THE
+ * COPYRIGHT HOLDER OR CONTRIBUTORS BE  LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY,  OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT  NOT LIMITED  TO, PROCUREMENT  OF SUBSTITUTE  GOODS OR  SERVICES;
+ * LOSS  OF USE,  DATA, OR  PROFITS; OR  BUSINESS INTERRUPTION)  HOWEVER
+ * CAUSED AND  ON ANY THEORY  OF LIABILITY, WHETHER IN  CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY
+ * WAY  OUT  OF  THE USE  OF  THIS  SOFTWARE,  EVEN  IF ADVISED  OF  THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.github.cereda.duckity.benchmarks;
+
+import com.github.cereda.duckity.utils.DatasourceExtractor;
+import com.github.cereda.duckity.utils.DuckityException;
+import com.github.cereda.duckity.utils.FileLoader;
+import com.github.cereda.duckity.utils.FileParser;
+import com.github.cereda.duckity.utils.TemplateManager;
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures a whole render, the way the command line runs it: reading the
+ * input file, extracting the header, loading a CSV and a JSON datasource
+ * and merging the template.
+ *
+ * @author Paulo Roberto Massa Cereda
+ * @version 1.1
+ * @since 1.1
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class PipelineBenchmark {
+
+    // the number of rows in each datasource
+    @Param({"10000", "100000"})
+    public int rows;
+
+    // the scratch directory
+    private File directory;
+
+    // the input file
+    private String input;
+
+    // the output file
+    private String output;
+
+    /**
+     * Generates the input file and its datasources.
+     *
+     * @throws IOException Exception is thrown in case of an IO error.
+     */
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        directory = SyntheticData.directory();
+        File csv = new File(directory, "data.csv");
+        File json = new File(directory, "data.json");
+        SyntheticData.csv(csv, rows, ',', true);
+        SyntheticData.json(json, rows);
+
+        String header = "{\"datasources\": [{\"identifier\": \"sales\", "
+                + "\"file\": \"" + SyntheticData.escape(csv.getPath())
+                + "\"}, {\"identifier\": \"items\", \"file\": \""
+                + SyntheticData.escape(json.getPath()) + "\"}]}\n";
+        String template = "#foreach($row in $sales)$row.get(0);$row.get(1);"
+                + "$row.get(2)\n#end\n#foreach($item in $items)$item.id;"
+                + "$item.category;$item.price\n#end\n";
+        File file = new File(directory, "input.txt");
+        SyntheticData.input(file, header, template);
+        input = file.getPath();
+        output = new File(directory, "output.txt").getPath();
+        TemplateManager.initialize();
+    }
+
+    /**
+     * Removes the generated files.
+     */
+    @TearDown(Level.Trial)
+    public void teardown() {
+        SyntheticData.delete(directory);
+    }
+
+    /**
+     * Renders the input file.
+     *
+     * @throws DuckityException Exception is thrown in case of an error.
+     */
+    @Benchmark
+    public void render() throws DuckityException {
+        FileParser parser = new FileParser();
+        parser.load(input);
+        DatasourceExtractor extractor = new DatasourceExtractor();
+        extractor.parse(parser.getHeader());
+        FileLoader loader = new FileLoader(extractor.getMapping());
+        loader.load();
+        TemplateManager manager = new TemplateManager(input,
+                loader.getContent(), parser.getTemplate());
+        manager.setOutput(output);
+        manager.generate();
+    }
+}
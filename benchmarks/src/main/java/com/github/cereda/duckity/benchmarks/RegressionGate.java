@@ -0,0 +1,161 @@
+/**
+ * Duckity -- The template helper
+ * Copyright (c) 2012, Paulo Roberto Massa Cereda
+ * All rights reserved.
+ *
+ * Redistribution and  use in source  and binary forms, with  or without
+ * modification, are  permitted provided  that the  following conditions
+ * are met:
+ *
+ * 1. Redistributions  of source  code must  retain the  above copyright
+ * notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form  must reproduce the above copyright
+ * notice, this list  of conditions and the following  disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * 3. Neither  the name  of the  project's author nor  the names  of its
+ * contributors may be used to  endorse or promote products derived from
+ * this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS  PROVIDED BY THE COPYRIGHT  HOLDERS AND CONTRIBUTORS
+ * "AS IS"  AND ANY  EXPRESS OR IMPLIED  WARRANTIES, INCLUDING,  BUT NOT
+ * LIMITED  TO, THE  IMPLIED WARRANTIES  OF MERCHANTABILITY  AND FITNESS
+ * FOR  A PARTICULAR  PURPOSE  ARE  DISCLAIMED. IN  NO  EVENT SHALL  THE
+ * COPYRIGHT HOLDER OR CONTRIBUTORS BE  LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY,  OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT  NOT LIMITED  TO, PROCUREMENT  OF SUBSTITUTE  GOODS OR  SERVICES;
+ * LOSS  OF USE,  DATA, OR  PROFITS; OR  BUSINESS INTERRUPTION)  HOWEVER
+ * CAUSED AND  ON ANY THEORY  OF LIABILITY, WHETHER IN  CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY
+ * WAY  OUT  OF  THE USE  OF  THIS  SOFTWARE,  EVEN  IF ADVISED  OF  THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.github.cereda.duckity.benchmarks;
+
+import com.github.cereda.duckity.utils.DuckityException;
+import com.github.cereda.duckity.utils.JsonReader;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Compares two JMH result files, written with <code>-rf json</code>, and
+ * fails when a benchmark got slower than the tolerance allows. Benchmarks
+ * are matched by name, mode and parameters; the ones missing from either
+ * file are reported and ignored.
+ *
+ * @author Paulo Roberto Massa Cereda
+ * @version 1.1
+ * @since 1.1
+ */
+public class RegressionGate {
+
+    // the default tolerance, in percent
+    private static final double TOLERANCE = 10.0;
+
+    /**
+     * Main method.
+     *
+     * @param args The baseline file, the current file and, optionally, the
+     * tolerance in percent.
+     */
+    public static void main(String[] args) {
+        if (args.length < 2 || args.length > 3) {
+            System.err.println("Usage: RegressionGate baseline.json "
+                    + "current.json [tolerance]");
+            System.exit(2);
+        }
+        try {
+            double tolerance = args.length == 3
+                    ? Double.parseDouble(args[2]) : TOLERANCE;
+            Map<String, double[]> baseline = read(args[0]);
+            Map<String, double[]> current = read(args[1]);
+            int regressions = 0;
+            for (Map.Entry<String, double[]> entry : current.entrySet()) {
+                double[] before = baseline.get(entry.getKey());
+                if (before == null) {
+                    System.out.println("NEW   ".concat(entry.getKey()));
+                    continue;
+                }
+                double[] after = entry.getValue();
+                // positive means slower, whatever the mode
+                double change = (after[0] - before[0]) / before[0] * 100.0
+                        * (after[1] > 0 ? -1.0 : 1.0);
+                boolean failed = change > tolerance;
+                if (failed) {
+                    regressions++;
+                }
+                System.out.println(String.format("%s  %+7.2f%%  %s",
+                        failed ? "FAIL" : "OK  ", change, entry.getKey()));
+            }
+            for (String key : baseline.keySet()) {
+                if (!current.containsKey(key)) {
+                    System.out.println("GONE  ".concat(key));
+                }
+            }
+            System.out.println(String.format("%d regression(s) above %.1f%%.",
+                    regressions, tolerance));
+            System.exit(regressions == 0 ? 0 : 1);
+        } catch (NumberFormatException nothandled) {
+            System.err.println("The tolerance has to be a number.");
+            System.exit(2);
+        } catch (IOException exception) {
+            System.err.println(exception.getMessage());
+            System.exit(2);
+        } catch (DuckityException exception) {
+            System.err.println(exception.getMessage());
+            System.exit(2);
+        }
+    }
+
+    /**
+     * Reads a JMH result file.
+     *
+     * @param file The file.
+     * @return The scores and whether higher is better, keyed by benchmark.
+     * @throws IOException Exception is thrown in case of an IO error.
+     * @throws DuckityException Exception is thrown if the file is not a
+     * JMH result file.
+     */
+    private static Map<String, double[]> read(String file)
+            throws IOException, DuckityException {
+        Object document;
+        Reader reader = new InputStreamReader(new FileInputStream(file),
+                "UTF-8");
+        try {
+            document = new JsonReader(reader).readDocument();
+        } finally {
+            reader.close();
+        }
+        if (!(document instanceof List)) {
+            throw new DuckityException("File '".concat(file).concat(
+                    "' is not a JMH result file."));
+        }
+        Map<String, double[]> results = new LinkedHashMap<String, double[]>();
+        for (Object value : (List) document) {
+            Map result = (Map) value;
+            String mode = String.valueOf(result.get("mode"));
+            StringBuilder key = new StringBuilder(
+                    String.valueOf(result.get("benchmark")));
+            key.append(" [").append(mode).append(']');
+            if (result.get("params") instanceof Map) {
+                Map params = new TreeMap((Map) result.get("params"));
+                key.append(' ').append(params);
+            }
+            Object score = ((Map) result.get("primaryMetric")).get("score");
+            if (score instanceof Number) {
+                results.put(key.toString(), new double[]{
+                    ((Number) score).doubleValue(),
+                    mode.equals("thrpt") ? 1.0 : 0.0
+                });
+            }
+        }
+        return results;
+    }
+}
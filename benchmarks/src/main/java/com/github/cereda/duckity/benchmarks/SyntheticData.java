@@ -0,0 +1,357 @@
+/**
+ * Duckity -- The template helper
+ * Copyright (c) 2012, Paulo Roberto Massa Cereda
+ * All rights reserved.
+ *
+ * Redistribution and  use in source  and binary forms, with  or without
+ * modification, are  permitted provided  that the  following conditions
+ * are met:
+ *
+ * 1. Redistributions  of source  code must  retain the  above copyright
+ * notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form  must reproduce the above copyright
+ * notice, this list  of conditions and the following  disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * 3. Neither  the name  of the  project's author nor  the names  of its
+ * contributors may be used to  endorse or promote products derived from
+ * this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS  PROVIDED BY THE COPYRIGHT  HOLDERS AND CONTRIBUTORS
+ * "AS IS"  AND ANY  EXPRESS OR IMPLIED  WARRANTIES, INCLUDING,  BUT NOT
+ * LIMITED  TO, THE  IMPLIED WARRANTIES  OF MERCHANTABILITY  AND FITNESS
+ * FOR  A PARTICULAR  PURPOSE  ARE  DISCLAIMED. IN  NO  EVENT SHALL  THE
+ * COPYRIGHT HOLDER OR CONTRIBUTORS BE  LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY,  OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT  NOT LIMITED  TO, PROCUREMENT  OF SUBSTITUTE  GOODS OR  SERVICES;
+ * LOSS  OF USE,  DATA, OR  PROFITS; OR  BUSINESS INTERRUPTION)  HOWEVER
+ * CAUSED AND  ON ANY THEORY  OF LIABILITY, WHETHER IN  CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY
+ * WAY  OUT  OF  THE USE  OF  THIS  SOFTWARE,  EVEN  IF ADVISED  OF  THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.github.cereda.duckity.benchmarks;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.Random;
+
+/**
+ * Generates the datasets, headers and templates used by the benchmarks.
+ * Every generator is seeded, so the same parameters always produce the
+ * same bytes and results remain comparable between runs and machines.
+ *
+ * @author Paulo Roberto Massa Cereda
+ * @version 1.1
+ * @since 1.1
+ */
+public final class SyntheticData {
+
+    // the seed shared by every generator
+    public static final long SEED = 0x6475636bL;
+
+    // the words used to build text fields
+    private static final String[] WORDS = {
+        "duck", "goose", "swan", "teal", "mallard", "pintail", "wigeon",
+        "eider", "scoter", "merganser", "shoveler", "gadwall", "canvasback",
+        "redhead", "bufflehead", "goldeneye"
+    };
+
+    // the number of columns in the generated CSV files
+    public static final int COLUMNS = 6;
+
+    /**
+     * Constructor.
+     */
+    private SyntheticData() {
+    }
+
+    /**
+     * Creates a scratch directory, removed when the virtual machine exits.
+     *
+     * @return The directory.
+     * @throws IOException Exception is thrown if the directory cannot be
+     * created.
+     */
+    public static File directory() throws IOException {
+        File dir = File.createTempFile("duckity-bench", "");
+        if (!dir.delete() || !dir.mkdir()) {
+            throw new IOException("Cannot create '".concat(
+                    dir.getPath()).concat("'."));
+        }
+        dir.deleteOnExit();
+        return dir;
+    }
+
+    /**
+     * Deletes a scratch directory and its files.
+     *
+     * @param dir The directory.
+     */
+    public static void delete(File dir) {
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        dir.delete();
+    }
+
+    /**
+     * Writes a CSV file. The first column is a sequential id, followed by
+     * a category, an integer, a decimal, a date and a free text column.
+     * Quoted files quote every field and put separators, doubled quotes
+     * and line breaks inside the text column.
+     *
+     * @param file The file.
+     * @param rows The number of rows.
+     * @param separator The separator.
+     * @param quoted Whether fields are quoted.
+     * @throws IOException Exception is thrown in case of an IO error.
+     */
+    public static void csv(File file, int rows, char separator,
+            boolean quoted) throws IOException {
+        Random random = new Random(SEED);
+        Writer writer = open(file);
+        try {
+            StringBuilder row = new StringBuilder(128);
+            for (int i = 0; i < rows; i++) {
+                row.setLength(0);
+                field(row, String.valueOf(i), quoted).append(separator);
+                field(row, word(random), quoted).append(separator);
+                field(row, String.valueOf(random.nextInt(100000)),
+                        quoted).append(separator);
+                field(row, decimal(random), quoted).append(separator);
+                field(row, date(random), quoted).append(separator);
+                String text = sentence(random, 1 + random.nextInt(6));
+                if (quoted && random.nextInt(8) == 0) {
+                    text = text.concat(String.valueOf(separator)).concat(
+                            " \"quacks\"\n").concat(word(random));
+                }
+                field(row, text, quoted).append('\n');
+                writer.write(row.toString());
+            }
+        } finally {
+            writer.close();
+        }
+    }
+
+    /**
+     * Writes a JSON file holding an array of flat objects with the same
+     * columns as the CSV files.
+     *
+     * @param file The file.
+     * @param items The number of items.
+     * @throws IOException Exception is thrown in case of an IO error.
+     */
+    public static void json(File file, int items) throws IOException {
+        Random random = new Random(SEED);
+        Writer writer = open(file);
+        try {
+            StringBuilder item = new StringBuilder(160);
+            writer.write("[\n");
+            for (int i = 0; i < items; i++) {
+                item.setLength(0);
+                item.append(i == 0 ? "  " : ", ");
+                item.append("{\"id\": ").append(i);
+                item.append(", \"category\": \"").append(word(random));
+                item.append("\", \"amount\": ").append(random.nextInt(100000));
+                item.append(", \"price\": ").append(decimal(random));
+                item.append(", \"date\": \"").append(date(random));
+                item.append("\", \"active\": ").append(random.nextBoolean());
+                item.append(", \"note\": \"").append(
+                        sentence(random, 1 + random.nextInt(6)));
+                item.append("\"}\n");
+                writer.write(item.toString());
+            }
+            writer.write("]\n");
+        } finally {
+            writer.close();
+        }
+    }
+
+    /**
+     * Builds a header declaring the given number of datasources, cycling
+     * through the CSV options and the JSON format.
+     *
+     * @param datasources The number of datasources.
+     * @param csv The CSV file the CSV datasources point to.
+     * @param json The JSON file the JSON datasources point to.
+     * @return The header.
+     */
+    public static String header(int datasources, String csv, String json) {
+        StringBuilder header = new StringBuilder("{\"datasources\": [\n");
+        for (int i = 0; i < datasources; i++) {
+            header.append(i == 0 ? "  " : ", ");
+            header.append("{\"identifier\": \"d").append(i);
+            header.append("\", \"file\": \"").append(
+                    escape(i % 4 == 3 ? json : csv)).append('"');
+            switch (i % 4) {
+                case 1:
+                    header.append(", \"separator\": \";\", \"line\": 1");
+                    break;
+                case 2:
+                    header.append(", \"quotechar\": \"'\", ")
+                            .append("\"strictquote\": true, ")
+                            .append("\"ignoreleadingwhitespace\": false");
+                    break;
+                case 3:
+                    header.append(", \"stream\": true");
+                    break;
+                default:
+                    break;
+            }
+            header.append("}\n");
+        }
+        return header.append("]}\n").toString();
+    }
+
+    /**
+     * Builds a template with the given number of directives, mixing
+     * references, conditionals, loops and tool calls.
+     *
+     * @param directives The number of directives.
+     * @return The template.
+     */
+    public static String template(int directives) {
+        StringBuilder template = new StringBuilder();
+        for (int i = 0; i < directives; i++) {
+            switch (i % 4) {
+                case 0:
+                    template.append("Line ").append(i)
+                            .append(": $data.get(0).get(1)\n");
+                    break;
+                case 1:
+                    template.append("#if($data.size() > ").append(i)
+                            .append(")big#{else}small#end\n");
+                    break;
+                case 2:
+                    template.append("#foreach($row in $data)")
+                            .append("$row.get(0)#end\n");
+                    break;
+                default:
+                    template.append("$math.add($math.toInteger(\"")
+                            .append(i).append("\"), 1)\n");
+                    break;
+            }
+        }
+        return template.toString();
+    }
+
+    /**
+     * Builds an input file, a header followed by a template.
+     *
+     * @param file The file.
+     * @param header The header.
+     * @param template The template.
+     * @throws IOException Exception is thrown in case of an IO error.
+     */
+    public static void input(File file, String header, String template)
+            throws IOException {
+        Writer writer = open(file);
+        try {
+            writer.write(header);
+            writer.write("[TEMPLATE]\n");
+            writer.write(template);
+        } finally {
+            writer.close();
+        }
+    }
+
+    /**
+     * Opens a buffered UTF-8 writer.
+     *
+     * @param file The file.
+     * @return The writer.
+     * @throws IOException Exception is thrown in case of an IO error.
+     */
+    private static Writer open(File file) throws IOException {
+        return new BufferedWriter(new OutputStreamWriter(
+                new FileOutputStream(file), "UTF-8"), 1 << 16);
+    }
+
+    /**
+     * Appends a field.
+     *
+     * @param row The row.
+     * @param value The value.
+     * @param quoted Whether the field is quoted.
+     * @return The row.
+     */
+    private static StringBuilder field(StringBuilder row, String value,
+            boolean quoted) {
+        if (!quoted) {
+            return row.append(value);
+        }
+        return row.append('"').append(value.replace("\"", "\"\""))
+                .append('"');
+    }
+
+    /**
+     * Picks a word.
+     *
+     * @param random The generator.
+     * @return The word.
+     */
+    private static String word(Random random) {
+        return WORDS[random.nextInt(WORDS.length)];
+    }
+
+    /**
+     * Builds a sentence.
+     *
+     * @param random The generator.
+     * @param words The number of words.
+     * @return The sentence.
+     */
+    private static String sentence(Random random, int words) {
+        StringBuilder sentence = new StringBuilder(word(random));
+        for (int i = 1; i < words; i++) {
+            sentence.append(' ').append(word(random));
+        }
+        return sentence.toString();
+    }
+
+    /**
+     * Builds a decimal with two fraction digits.
+     *
+     * @param random The generator.
+     * @return The decimal.
+     */
+    private static String decimal(Random random) {
+        int cents = random.nextInt(1000000);
+        int fraction = cents % 100;
+        return String.valueOf(cents / 100).concat(fraction < 10 ? ".0" : ".")
+                .concat(String.valueOf(fraction));
+    }
+
+    /**
+     * Builds an ISO date.
+     *
+     * @param random The generator.
+     * @return The date.
+     */
+    private static String date(Random random) {
+        int month = 1 + random.nextInt(12);
+        int day = 1 + random.nextInt(28);
+        return String.valueOf(2000 + random.nextInt(13)).concat(
+                month < 10 ? "-0" : "-").concat(String.valueOf(month)).concat(
+                day < 10 ? "-0" : "-").concat(String.valueOf(day));
+    }
+
+    /**
+     * Escapes a string for a JSON literal.
+     *
+     * @param value The string.
+     * @return The escaped string.
+     */
+    static String escape(String value) {
+        return value.replace("\\", "\\\\").replace("\"", "\\\"");
+    }
+}